@@ -0,0 +1,207 @@
+package com.mobilefieldtest;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import androidx.core.app.ActivityCompat;
+import java.util.List;
+
+/**
+ * TelephonyProvider over this device's TelephonyManager and SubscriptionManager
+ * Change callbacks are bound to a dedicated handler thread.
+ */
+public final class AndroidTelephonyProvider implements TelephonyProvider {
+    
+    // Broadcast sent by the telephony stack when a SIM slot changes state
+    private static final String ACTION_SIM_STATE_CHANGED = "android.intent.action.SIM_STATE_CHANGED";
+    
+    private static final String TAG = "AndroidTelephonyProvider";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private final Context context;
+    private final TelephonyManager telephonyManager;
+    
+    // Callback thread and the system callbacks bound to it
+    private HandlerThread callbackThread;
+    private Handler callbackHandler;
+    private SubscriptionManager.OnSubscriptionsChangedListener subscriptionsChangedListener;
+    private BroadcastReceiver simStateReceiver;
+    
+    public AndroidTelephonyProvider(Context context) {
+        this.context = context.getApplicationContext();
+        this.telephonyManager = (TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE);
+    }
+    
+    /**
+     * Query telephony services for the current SIM and subscription state
+     * @return New snapshot
+     */
+    @Override
+    public SimSnapshot readSnapshot() {
+        long now = System.currentTimeMillis();
+        if (!hasPhoneStatePermission()) {
+            return SimSnapshot.permissionDenied(now);
+        }
+        
+        int simState = SimSnapshot.SIM_STATE_UNKNOWN;
+        int[] subscriptionIds = new int[0];
+        int[] slotIndexes = new int[0];
+        int[] mccs = new int[0];
+        int[] mncs = new int[0];
+        String[] carrierNames = new String[0];
+        
+        try {
+            simState = telephonyManager.getSimState();
+            
+            // For dual SIM devices, read every active subscription
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
+                List<SubscriptionInfo> subscriptionInfoList = getSubscriptionManager().getActiveSubscriptionInfoList();
+                int count = subscriptionInfoList != null ? subscriptionInfoList.size() : 0;
+                
+                subscriptionIds = new int[count];
+                slotIndexes = new int[count];
+                mccs = new int[count];
+                mncs = new int[count];
+                carrierNames = new String[count];
+                
+                for (int i = 0; i < count; i++) {
+                    SubscriptionInfo info = subscriptionInfoList.get(i);
+                    subscriptionIds[i] = info.getSubscriptionId();
+                    slotIndexes[i] = info.getSimSlotIndex();
+                    mccs[i] = info.getMcc();
+                    mncs[i] = info.getMnc();
+                    CharSequence carrierName = info.getCarrierName();
+                    carrierNames[i] = carrierName != null ? carrierName.toString() : "";
+                }
+            }
+        } catch (Exception e) {
+            LOG.error(TAG, "Could not read SIM state", e);
+        }
+        
+        boolean simAvailable;
+        if (simState == TelephonyManager.SIM_STATE_READY || subscriptionIds.length > 0) {
+            simAvailable = true;
+        } else if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
+            simAvailable = false;
+        } else {
+            simAvailable = simState != TelephonyManager.SIM_STATE_ABSENT &&
+                           simState != TelephonyManager.SIM_STATE_UNKNOWN;
+        }
+        
+        return SimSnapshot.of(simState, simAvailable, subscriptionIds, slotIndexes,
+                mccs, mncs, carrierNames, now);
+    }
+    
+    /**
+     * Requires ACCESS_FINE_LOCATION; without it the source reports no cells
+     */
+    @Override
+    public RadioSource createRadioSource() {
+        return new TelephonyRadioSource(context, telephonyManager);
+    }
+    
+    @Override
+    public boolean hasPhoneStatePermission() {
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE)
+               == PackageManager.PERMISSION_GRANTED;
+    }
+    
+    @Override
+    public String getNetworkOperatorName() {
+        try {
+            String name = telephonyManager.getNetworkOperatorName();
+            return name != null && !name.isEmpty() ? name : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Register for subscription and SIM state change events
+     */
+    @Override
+    public synchronized void registerChangeListener(final ChangeListener listener) {
+        unregisterChangeListener();
+        callbackThread = new HandlerThread("TelephonyCallbacks");
+        callbackThread.start();
+        final Handler handler = new Handler(callbackThread.getLooper());
+        callbackHandler = handler;
+        
+        // Register on the callback thread so pre-R listeners bind to its looper
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                registerCallbacks(handler, listener);
+            }
+        });
+    }
+    
+    /**
+     * Undo registerChangeListener
+     */
+    @Override
+    public synchronized void unregisterChangeListener() {
+        if (callbackThread == null) {
+            return;
+        }
+        // Queued behind the registration, so it never runs after this
+        callbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                unregisterCallbacks();
+            }
+        });
+        callbackThread.quitSafely();
+        callbackThread = null;
+        callbackHandler = null;
+    }
+    
+    private void registerCallbacks(Handler handler, final ChangeListener listener) {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
+            try {
+                subscriptionsChangedListener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+                    @Override
+                    public void onSubscriptionsChanged() {
+                        listener.onTelephonyChanged();
+                    }
+                };
+                getSubscriptionManager().addOnSubscriptionsChangedListener(subscriptionsChangedListener);
+            } catch (Exception e) {
+                LOG.error(TAG, "Could not register subscription listener", e);
+            }
+        }
+        
+        // Covers single SIM devices and SIM state changes within a subscription
+        simStateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                listener.onTelephonyChanged();
+            }
+        };
+        context.registerReceiver(simStateReceiver, new IntentFilter(ACTION_SIM_STATE_CHANGED), null, handler);
+    }
+    
+    private void unregisterCallbacks() {
+        if (subscriptionsChangedListener != null
+                && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
+            getSubscriptionManager().removeOnSubscriptionsChangedListener(subscriptionsChangedListener);
+            subscriptionsChangedListener = null;
+        }
+        if (simStateReceiver != null) {
+            context.unregisterReceiver(simStateReceiver);
+            simStateReceiver = null;
+        }
+    }
+    
+    private SubscriptionManager getSubscriptionManager() {
+        return (SubscriptionManager) context.getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,291 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Autocomplete suggestions for the form's free-text fields
+ *
+ * Employee IDs, models and test areas each get a PrefixIndex in its own
+ * file, filled from the form data of past sessions and from an optional
+ * roster. A roster is a text file with one entry per line:
+ *
+ *     # comment
+ *     employee_id,EMP12345
+ *     model,SM-A546E
+ *     test_area,Dhaka North
+ *
+ * Values used in sessions rank by how often they were used; roster values
+ * are suggested after them. Updates read only the headers of sessions
+ * newer than the index and re-import the roster only when it changed, and
+ * values the form would reject are never indexed. Lookups are served from
+ * the mapped files and never block on an update.
+ */
+public final class AutocompleteStore {
+    
+    private static final String TAG = "AutocompleteStore";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    // File and roster names by ValidationRules field; null for fields without suggestions
+    private static final String[] FIELD_NAMES = new String[ValidationRules.FIELD_COUNT];
+    static {
+        FIELD_NAMES[ValidationRules.FIELD_EMPLOYEE_ID] = "employee_id";
+        FIELD_NAMES[ValidationRules.FIELD_MODEL] = "model";
+        FIELD_NAMES[ValidationRules.FIELD_TEST_AREA] = "test_area";
+    }
+    
+    private static final String INDEX_FILE_EXTENSION = ".idx";
+    
+    private final File dir;
+    private volatile PrefixIndex[] indexes;
+    
+    /**
+     * @param dir Directory holding the index files
+     */
+    public AutocompleteStore(File dir) {
+        this.dir = dir;
+        PrefixIndex[] empty = new PrefixIndex[ValidationRules.FIELD_COUNT];
+        Arrays.fill(empty, PrefixIndex.EMPTY);
+        this.indexes = empty;
+    }
+    
+    /**
+     * Map the index files saved by earlier updates
+     * Missing or unreadable files leave their field empty until the next update.
+     */
+    public void open() {
+        PrefixIndex[] opened = indexes.clone();
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (FIELD_NAMES[field] != null) {
+                opened[field] = openIndex(getIndexFile(field));
+            }
+        }
+        indexes = opened;
+    }
+    
+    /**
+     * @param field One of the ValidationRules.FIELD_* constants
+     * @return Current suggestions for the field; empty if it has none
+     */
+    public PrefixIndex get(int field) {
+        return indexes[field];
+    }
+    
+    /**
+     * Add sessions newer than the indexes and re-import a changed roster
+     * Blocks on file I/O; call from a background thread.
+     * @param sessionDir Directory holding the session logs
+     * @param rosterFile Roster to import; need not exist
+     * @return Number of sessions added
+     * @throws IOException if an index cannot be saved
+     */
+    public int update(File sessionDir, File rosterFile) throws IOException {
+        final PrefixIndex[] current = indexes;
+        long oldest = Long.MAX_VALUE;
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (FIELD_NAMES[field] != null) {
+                oldest = Math.min(oldest, current[field].getSourceTime());
+            }
+        }
+        final long after = oldest;
+        File[] sessions = sessionDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return getStartTime(file) > after;
+            }
+        });
+        if (sessions == null) {
+            sessions = new File[0];
+        }
+        Arrays.sort(sessions);
+        long newest = 0;
+        for (File session : sessions) {
+            newest = Math.max(newest, getStartTime(session));
+        }
+        long rosterTime = rosterFile.isFile() ? rosterFile.lastModified() : 0;
+        
+        // Only fields with something new are rebuilt
+        ValidationRules rules = new ValidationRules();
+        PrefixIndex.Builder[] builders = new PrefixIndex.Builder[FIELD_NAMES.length];
+        long[] sourceTimes = new long[FIELD_NAMES.length];
+        boolean rosterNeeded = false;
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (FIELD_NAMES[field] == null) {
+                continue;
+            }
+            sourceTimes[field] = current[field].getSourceTime();
+            boolean rosterChanged = rosterTime != current[field].getRosterTime();
+            if (rosterChanged || newest > sourceTimes[field]) {
+                builders[field] = new PrefixIndex.Builder();
+                // Roster entries (weight 0) are dropped when the roster is re-imported
+                addUsed(builders[field], current[field], rosterChanged);
+                rosterNeeded |= rosterChanged && rosterTime != 0;
+            }
+        }
+        
+        int added = 0;
+        for (File session : sessions) {
+            long start = getStartTime(session);
+            FormData formData;
+            try {
+                formData = SessionLogReader.readFormData(session);
+            } catch (IOException e) {
+                LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Unreadable session skipped")
+                        .put("file", session.getName())
+                        .put("error", e)
+                        .commit();
+                continue;
+            }
+            for (int field = 0; field < FIELD_NAMES.length; field++) {
+                if (builders[field] != null && start > sourceTimes[field]) {
+                    addValid(rules, builders[field], field, getValue(formData, field), 1);
+                }
+            }
+            added++;
+        }
+        if (rosterNeeded) {
+            importRoster(rules, builders, current, rosterFile, rosterTime);
+        }
+        
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        PrefixIndex[] updated = current.clone();
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (builders[field] == null) {
+                continue;
+            }
+            File file = getIndexFile(field);
+            builders[field].writeTo(file, Math.max(sourceTimes[field], newest), rosterTime);
+            updated[field] = PrefixIndex.open(file);
+        }
+        indexes = updated;
+        return added;
+    }
+    
+    /**
+     * Add the entries of an index to a builder
+     * @param withoutRoster Skip entries only the roster had (weight 0)
+     */
+    private static void addUsed(PrefixIndex.Builder builder, PrefixIndex index, boolean withoutRoster) {
+        for (int i = 0; i < index.size(); i++) {
+            int weight = index.getWeight(i);
+            if (weight > 0 || !withoutRoster) {
+                builder.add(index.getText(i), weight);
+            }
+        }
+    }
+    
+    /**
+     * Add roster entries to the fields being rebuilt for a changed roster
+     */
+    private static void importRoster(ValidationRules rules, PrefixIndex.Builder[] builders, PrefixIndex[] current,
+                                     File rosterFile, long rosterTime) throws IOException {
+        BufferedReader lines = new BufferedReader(new InputStreamReader(new FileInputStream(rosterFile), "UTF-8"));
+        int imported = 0;
+        int rejected = 0;
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                int field = comma < 0 ? -1 : indexOfField(line.substring(0, comma).trim());
+                if (field < 0) {
+                    rejected++;
+                    continue;
+                }
+                if (builders[field] == null || rosterTime == current[field].getRosterTime()) {
+                    continue;
+                }
+                if (addValid(rules, builders[field], field, line.substring(comma + 1), 0)) {
+                    imported++;
+                } else {
+                    rejected++;
+                }
+            }
+        } finally {
+            lines.close();
+        }
+        LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Roster imported")
+                .put("entries", imported)
+                .put("rejected", rejected)
+                .commit();
+    }
+    
+    private static boolean addValid(ValidationRules rules, PrefixIndex.Builder builder, int field,
+                                    String value, int weight) {
+        if (value == null) {
+            return false;
+        }
+        value = value.trim();
+        if (!rules.isValid(field, value)) {
+            return false;
+        }
+        builder.add(value, weight);
+        return true;
+    }
+    
+    private static String getValue(FormData formData, int field) {
+        switch (field) {
+            case ValidationRules.FIELD_EMPLOYEE_ID:
+                return formData.getEmployeeId();
+            case ValidationRules.FIELD_MODEL:
+                return formData.getModel();
+            case ValidationRules.FIELD_TEST_AREA:
+                return formData.getTestArea();
+            default:
+                return null;
+        }
+    }
+    
+    private static int indexOfField(String name) {
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            if (name.equals(FIELD_NAMES[field])) {
+                return field;
+            }
+        }
+        return -1;
+    }
+    
+    private File getIndexFile(int field) {
+        return new File(dir, FIELD_NAMES[field] + INDEX_FILE_EXTENSION);
+    }
+    
+    private static PrefixIndex openIndex(File file) {
+        if (!file.isFile()) {
+            return PrefixIndex.EMPTY;
+        }
+        try {
+            return PrefixIndex.open(file);
+        } catch (IOException e) {
+            LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Unreadable index rebuilt")
+                    .put("file", file.getName())
+                    .put("error", e)
+                    .commit();
+            return PrefixIndex.EMPTY;
+        }
+    }
+    
+    /**
+     * @return Start time from a session log's file name, or -1 for other files
+     */
+    private static long getStartTime(File file) {
+        String name = file.getName();
+        if (!file.isFile() || !name.endsWith(Constants.SESSION_FILE_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - Constants.SESSION_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
\ No newline at end of file
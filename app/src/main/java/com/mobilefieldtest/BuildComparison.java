@@ -0,0 +1,648 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Compares two build versions' signal, throughput and latency per operator and test area
+ *
+ * Sessions are split into ranges on a fork/join pool. Each task reduces its
+ * sessions to one sketch per metric, operator, test area and build: a
+ * histogram with fixed bins (whole dB for signal, the LatencyHistogram
+ * buckets for rates and round-trip times), so tasks combine by adding
+ * counts and never hold raw samples. Signal comes from the serving cell
+ * rows of the session logs, throughput and latency from the reports saved
+ * next to them.
+ *
+ * Samples of one session are strongly correlated (same drive, same hour),
+ * so sessions are the independent observations: each session also adds its
+ * median to a second sketch with the same bins, and the two builds' session
+ * medians are compared with a two-sample Kolmogorov-Smirnov test. The
+ * p-values of all pairs are then adjusted for the number of comparisons
+ * (Benjamini-Hochberg), and a delta is significant if its adjusted p-value
+ * is within the false discovery rate.
+ */
+public final class BuildComparison {
+    
+    // Metrics
+    public static final int METRIC_RSRP = 0; // dBm, serving cell
+    public static final int METRIC_RSRQ = 1; // dB
+    public static final int METRIC_SINR = 2; // dB
+    public static final int METRIC_DOWNLOAD = 3; // kbit/s per interval
+    public static final int METRIC_UPLOAD = 4;
+    public static final int METRIC_UDP_RTT = 5; // microseconds
+    public static final int METRIC_TCP_RTT = 6;
+    public static final int METRIC_COUNT = 7;
+    
+    public static final String[] METRIC_NAMES = {
+        "rsrp", "rsrq", "sinr", "download_kbps", "upload_kbps", "udp_rtt_us", "tcp_rtt_us"
+    };
+    
+    public static final double DEFAULT_FALSE_DISCOVERY_RATE = 0.05;
+    
+    // Sessions a task reads itself instead of splitting
+    static final int SESSIONS_PER_TASK = 4;
+    
+    // Signal bins: one per dB from SIGNAL_MIN
+    private static final int SIGNAL_MIN = -200;
+    private static final int SIGNAL_BINS = 256;
+    
+    private static final int BASELINE = 0;
+    private static final int CANDIDATE = 1;
+    
+    private static final String TAG = "BuildComparison";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private final ForkJoinPool pool;
+    private final OperatorRegistry registry;
+    
+    /**
+     * @param pool Pool the sessions are read on
+     * @param registry Operators, to name the networks recorded in session logs
+     */
+    public BuildComparison(ForkJoinPool pool, OperatorRegistry registry) {
+        this.pool = pool;
+        this.registry = registry;
+    }
+    
+    /**
+     * Find the stored sessions of two builds through the session catalog
+     * @param index Session catalog
+     * @param sessionDir Directory of the session logs
+     * @param baselineBuild Build version compared against
+     * @param candidateBuild Build version under test
+     * @return Session log files, in start order
+     */
+    public static List<File> selectSessions(SessionIndex index, File sessionDir, String baselineBuild,
+                                            String candidateBuild) {
+        SessionIndex.Selection selection = index.query(new SessionQuery()
+                .where(SessionIndex.FIELD_BUILD_VERSION, baselineBuild)
+                .where(SessionIndex.FIELD_BUILD_VERSION, candidateBuild));
+        int[] rows = selection.getRows();
+        List<File> files = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            files.add(new File(sessionDir, index.getStartTime(row) + Constants.SESSION_FILE_EXTENSION));
+        }
+        return files;
+    }
+    
+    /**
+     * Find the build tested before a build
+     * @param index Session catalog
+     * @param build Build version
+     * @return Build version of the last session before the build's first one,
+     *         or null if there is none
+     */
+    public static String findPreviousBuild(SessionIndex index, String build) {
+        int[] rows = index.query(new SessionQuery().where(SessionIndex.FIELD_BUILD_VERSION, build)).getRows();
+        int first = rows.length > 0 ? rows[0] : index.size();
+        for (int row = first - 1; row >= 0; row--) {
+            String version = index.getValue(SessionIndex.FIELD_BUILD_VERSION, row);
+            if (!version.equals(build)) {
+                return version;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Compare two builds over the given sessions; sessions of other builds are skipped
+     * @param sessionFiles Session logs
+     * @param baselineBuild Build version compared against
+     * @param candidateBuild Build version under test
+     * @param falseDiscoveryRate Expected share of false positives among the significant deltas
+     * @return One delta per metric, operator and area measured on both builds,
+     *         ordered by metric, operator and area
+     */
+    public List<Delta> compare(List<File> sessionFiles, String baselineBuild, String candidateBuild,
+                               double falseDiscoveryRate) {
+        File[] files = sessionFiles.toArray(new File[0]);
+        Map<String, Group> groups = pool.invoke(new SessionTask(registry, files, 0, files.length,
+                baselineBuild, candidateBuild));
+        
+        List<Delta> deltas = new ArrayList<>();
+        for (Group group : groups.values()) {
+            if (group.medians[BASELINE].total > 0 && group.medians[CANDIDATE].total > 0) {
+                deltas.add(new Delta(group));
+            }
+        }
+        adjustPValues(deltas, falseDiscoveryRate);
+        Collections.sort(deltas, new Comparator<Delta>() {
+            @Override
+            public int compare(Delta a, Delta b) {
+                if (a.metric != b.metric) {
+                    return a.metric < b.metric ? -1 : 1;
+                }
+                int order = a.operator.compareTo(b.operator);
+                return order != 0 ? order : a.area.compareTo(b.area);
+            }
+        });
+        return deltas;
+    }
+    
+    /**
+     * Write deltas as CSV (to a temporary file, then rename)
+     * @param deltas Deltas from compare()
+     * @param file Report file
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeReport(List<Delta> deltas, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+        try {
+            out.write("metric,operator,area,baseline_sessions,candidate_sessions,baseline_samples,"
+                    + "candidate_samples,baseline_median,candidate_median,ks_statistic,p_value,adjusted_p_value,"
+                    + "significant,regression\n");
+            for (Delta delta : deltas) {
+                out.write(METRIC_NAMES[delta.metric] + ',' + csv(delta.operator) + ',' + csv(delta.area) + ','
+                        + delta.baselineSessions + ',' + delta.candidateSessions + ','
+                        + delta.baselineSamples + ',' + delta.candidateSamples + ','
+                        + delta.baselineMedian + ',' + delta.candidateMedian + ','
+                        + delta.ksStatistic + ',' + delta.pValue + ',' + delta.adjustedPValue + ','
+                        + delta.significant + ',' + delta.isRegression() + '\n');
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save comparison report: " + file);
+        }
+    }
+    
+    /**
+     * Benjamini-Hochberg: the i-th smallest of m p-values is scaled by m / i,
+     * then made monotonic from the largest down
+     */
+    static void adjustPValues(List<Delta> deltas, double falseDiscoveryRate) {
+        Delta[] sorted = deltas.toArray(new Delta[0]);
+        Arrays.sort(sorted, new Comparator<Delta>() {
+            @Override
+            public int compare(Delta a, Delta b) {
+                return Double.compare(a.pValue, b.pValue);
+            }
+        });
+        double adjusted = 1;
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            adjusted = Math.min(adjusted, sorted[i].pValue * sorted.length / (i + 1));
+            sorted[i].adjustedPValue = adjusted;
+            sorted[i].significant = adjusted <= falseDiscoveryRate;
+        }
+    }
+    
+    /**
+     * Two-sample Kolmogorov-Smirnov statistic of two histograms with the same bins
+     * @return Largest distance between the two empirical distribution functions
+     */
+    static double ksStatistic(long[] a, long totalA, long[] b, long totalB) {
+        long seenA = 0;
+        long seenB = 0;
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            seenA += a[i];
+            seenB += b[i];
+            max = Math.max(max, Math.abs((double) seenA / totalA - (double) seenB / totalB));
+        }
+        return max;
+    }
+    
+    /**
+     * Asymptotic p-value of a Kolmogorov-Smirnov statistic, with the
+     * small-sample correction of Stephens (1970)
+     * @param d Statistic
+     * @param n1 Observations of the first sample
+     * @param n2 Observations of the second sample
+     */
+    static double ksPValue(double d, double n1, double n2) {
+        double root = Math.sqrt(n1 * n2 / (n1 + n2));
+        double lambda = (root + 0.12 + 0.11 / root) * d;
+        if (lambda < 0.2) {
+            // The series converges too slowly here and the answer is 1 to many digits
+            return 1;
+        }
+        // Q(lambda) = 2 * sum over j >= 1 of (-1)^(j-1) * exp(-2 j^2 lambda^2)
+        double exponent = -2 * lambda * lambda;
+        double sum = 0;
+        double sign = 2;
+        for (int j = 1; j <= 100; j++) {
+            double term = sign * Math.exp(exponent * j * j);
+            sum += term;
+            if (Math.abs(term) <= 1e-10 * Math.abs(sum)) {
+                break;
+            }
+            sign = -sign;
+        }
+        return Math.min(1, Math.max(0, sum));
+    }
+    
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    private static boolean isSignal(int metric) {
+        return metric <= METRIC_SINR;
+    }
+    
+    /**
+     * Reads a range of sessions, splitting it while it is large
+     */
+    private static final class SessionTask extends RecursiveTask<Map<String, Group>> {
+        private static final long serialVersionUID = 1L;
+        
+        private final OperatorRegistry registry;
+        private final File[] files;
+        private final int from;
+        private final int to;
+        private final String baselineBuild;
+        private final String candidateBuild;
+        
+        SessionTask(OperatorRegistry registry, File[] files, int from, int to, String baselineBuild,
+                    String candidateBuild) {
+            this.registry = registry;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.baselineBuild = baselineBuild;
+            this.candidateBuild = candidateBuild;
+        }
+        
+        @Override
+        protected Map<String, Group> compute() {
+            if (to - from > SESSIONS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                SessionTask left = new SessionTask(registry, files, from, middle, baselineBuild, candidateBuild);
+                left.fork();
+                Map<String, Group> right = new SessionTask(registry, files, middle, to, baselineBuild,
+                        candidateBuild).compute();
+                return merge(left.join(), right);
+            }
+            
+            Map<String, Group> groups = new HashMap<>();
+            SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+            for (int i = from; i < to; i++) {
+                Map<String, Group> session = new HashMap<>();
+                try {
+                    readSession(files[i], block, session);
+                } catch (IOException | RuntimeException e) {
+                    LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Session skipped")
+                            .put("file", files[i].getName())
+                            .put("error", e)
+                            .commit();
+                    continue;
+                }
+                for (Group group : session.values()) {
+                    group.addSessionMedians();
+                }
+                groups = merge(groups, session);
+            }
+            return groups;
+        }
+        
+        /**
+         * Sketch one session's metrics, one group per metric, operator and area
+         */
+        private void readSession(File file, SampleBlock block, Map<String, Group> session) throws IOException {
+            SessionLogReader reader = new SessionLogReader(file);
+            int side;
+            String area;
+            long startTime;
+            try {
+                FormData formData = reader.getFormData();
+                if (baselineBuild.equals(formData.getBuildVersion())) {
+                    side = BASELINE;
+                } else if (candidateBuild.equals(formData.getBuildVersion())) {
+                    side = CANDIDATE;
+                } else {
+                    return;
+                }
+                area = formData.getTestArea();
+                startTime = reader.getStartTimeMillis();
+                
+                // Serving cells only; operators by the network each subscription was on
+                for (int b = 0; b < reader.getBlockCount(); b++) {
+                    reader.readBlock(b, block);
+                    for (int row = 0; row < block.getRowCount(); row++) {
+                        if ((block.getInt(SampleRingBuffer.INT_FLAGS, row) & SampleRingBuffer.FLAG_SERVING) == 0) {
+                            continue;
+                        }
+                        int plmn = reader.getSubscriptionPlmn(block.getInt(SampleRingBuffer.INT_SUBSCRIPTION_ID, row));
+                        if (plmn == 0) {
+                            continue;
+                        }
+                        int operator = registry.indexOfPlmn(plmn);
+                        String name = operator >= 0 ? registry.getName(operator) : String.valueOf(plmn);
+                        recordSignal(session, METRIC_RSRP, name, area, side,
+                                block.getInt(SampleRingBuffer.INT_RSRP, row));
+                        recordSignal(session, METRIC_RSRQ, name, area, side,
+                                block.getInt(SampleRingBuffer.INT_RSRQ, row));
+                        recordSignal(session, METRIC_SINR, name, area, side,
+                                block.getInt(SampleRingBuffer.INT_SINR, row));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            
+            File latencyFile = new File(file.getParentFile(), startTime + Constants.LATENCY_REPORT_EXTENSION);
+            if (latencyFile.exists()) {
+                LatencyReport report = LatencyReport.load(latencyFile);
+                for (int i = 0; i < report.getEntryCount(); i++) {
+                    int metric = report.getMode(i) == LatencyProbe.MODE_UDP_ECHO ? METRIC_UDP_RTT : METRIC_TCP_RTT;
+                    group(session, metric, report.getOperator(i), report.getArea(i))
+                            .sketches[side].add(report.getStats(i).getRttHistogram());
+                }
+            }
+            File throughputFile = new File(file.getParentFile(), startTime + Constants.THROUGHPUT_REPORT_EXTENSION);
+            if (throughputFile.exists()) {
+                ThroughputReport report = ThroughputReport.load(throughputFile);
+                for (int i = 0; i < report.getEntryCount(); i++) {
+                    int metric = report.getDirection(i) == ThroughputTest.DIRECTION_DOWNLOAD
+                            ? METRIC_DOWNLOAD : METRIC_UPLOAD;
+                    group(session, metric, report.getOperator(i), report.getArea(i))
+                            .sketches[side].add(report.getRates(i));
+                }
+            }
+        }
+        
+        private void recordSignal(Map<String, Group> session, int metric, String operator, String area, int side,
+                                  int value) {
+            if (value != SampleRingBuffer.UNAVAILABLE) {
+                group(session, metric, operator, area).sketches[side].record(value);
+            }
+        }
+        
+        private Group group(Map<String, Group> groups, int metric, String operator, String area) {
+            String key = metric + "\u0000" + operator + '\u0000' + area;
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(metric, operator, area);
+                groups.put(key, group);
+            }
+            return group;
+        }
+    }
+    
+    /**
+     * Merge the smaller map into the larger
+     */
+    private static Map<String, Group> merge(Map<String, Group> a, Map<String, Group> b) {
+        if (a.size() < b.size()) {
+            Map<String, Group> swap = a;
+            a = b;
+            b = swap;
+        }
+        for (Map.Entry<String, Group> entry : b.entrySet()) {
+            Group group = a.get(entry.getKey());
+            if (group == null) {
+                a.put(entry.getKey(), entry.getValue());
+            } else {
+                group.merge(entry.getValue());
+            }
+        }
+        return a;
+    }
+    
+    /**
+     * Sketches of one metric, operator and area for both builds
+     */
+    private static final class Group {
+        final int metric;
+        final String operator;
+        final String area;
+        final Sketch[] sketches = new Sketch[2];
+        // One value per session: its median
+        final Sketch[] medians = new Sketch[2];
+        
+        Group(int metric, String operator, String area) {
+            this.metric = metric;
+            this.operator = operator;
+            this.area = area;
+            sketches[BASELINE] = new Sketch(metric);
+            sketches[CANDIDATE] = new Sketch(metric);
+            medians[BASELINE] = new Sketch(metric);
+            medians[CANDIDATE] = new Sketch(metric);
+        }
+        
+        /**
+         * Add the medians of a group holding a single session
+         */
+        void addSessionMedians() {
+            for (int side = 0; side < 2; side++) {
+                int bin = sketches[side].getMedianBin();
+                if (bin >= 0) {
+                    medians[side].counts[bin]++;
+                    medians[side].total++;
+                }
+            }
+        }
+        
+        void merge(Group other) {
+            for (int side = 0; side < 2; side++) {
+                sketches[side].merge(other.sketches[side]);
+                medians[side].merge(other.medians[side]);
+            }
+        }
+    }
+    
+    /**
+     * Histogram over fixed bins; mergeable by adding counts
+     */
+    static final class Sketch {
+        private final int metric;
+        final long[] counts;
+        long total;
+        
+        Sketch(int metric) {
+            this.metric = metric;
+            this.counts = new long[isSignal(metric) ? SIGNAL_BINS : LatencyHistogram.BUCKET_COUNT];
+        }
+        
+        /**
+         * Record a signal value in dB, clamped to the bins
+         */
+        void record(int value) {
+            counts[Math.min(SIGNAL_BINS - 1, Math.max(0, value - SIGNAL_MIN))]++;
+            total++;
+        }
+        
+        /**
+         * Add a histogram of a rate or latency metric
+         */
+        void add(LatencyHistogram histogram) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += histogram.getBucketCount(i);
+            }
+            total += histogram.getTotalCount();
+        }
+        
+        void merge(Sketch other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+        
+        /**
+         * @return Value of the bin holding the median, or 0 if empty
+         */
+        long getMedian() {
+            int bin = getMedianBin();
+            if (bin < 0) {
+                return 0;
+            }
+            return isSignal(metric) ? bin + SIGNAL_MIN : LatencyHistogram.bucketMidpoint(bin);
+        }
+        
+        /**
+         * @return Bin holding the median, or -1 if empty
+         */
+        int getMedianBin() {
+            long rank = (total + 1) / 2;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * Change of one metric for one operator and area, from baseline to candidate build
+     */
+    public static final class Delta {
+        private final int metric;
+        private final String operator;
+        private final String area;
+        private final int baselineSessions;
+        private final int candidateSessions;
+        private final long baselineSamples;
+        private final long candidateSamples;
+        private final long baselineMedian;
+        private final long candidateMedian;
+        private final double ksStatistic;
+        private final double pValue;
+        private double adjustedPValue;
+        private boolean significant;
+        
+        Delta(Group group) {
+            Sketch baseline = group.sketches[BASELINE];
+            Sketch candidate = group.sketches[CANDIDATE];
+            metric = group.metric;
+            operator = group.operator;
+            area = group.area;
+            baselineSessions = (int) group.medians[BASELINE].total;
+            candidateSessions = (int) group.medians[CANDIDATE].total;
+            baselineSamples = baseline.total;
+            candidateSamples = candidate.total;
+            baselineMedian = baseline.getMedian();
+            candidateMedian = candidate.getMedian();
+            Sketch baselineMedians = group.medians[BASELINE];
+            Sketch candidateMedians = group.medians[CANDIDATE];
+            ksStatistic = ksStatistic(baselineMedians.counts, baselineMedians.total, candidateMedians.counts,
+                    candidateMedians.total);
+            pValue = ksPValue(ksStatistic, baselineSessions, candidateSessions);
+        }
+        
+        /**
+         * @return One of the METRIC_* constants
+         */
+        public int getMetric() {
+            return metric;
+        }
+        
+        public String getOperator() {
+            return operator;
+        }
+        
+        public String getArea() {
+            return area;
+        }
+        
+        public int getBaselineSessions() {
+            return baselineSessions;
+        }
+        
+        public int getCandidateSessions() {
+            return candidateSessions;
+        }
+        
+        public long getBaselineSamples() {
+            return baselineSamples;
+        }
+        
+        public long getCandidateSamples() {
+            return candidateSamples;
+        }
+        
+        /**
+         * @return Median on the baseline build, in the metric's unit (bin resolution)
+         */
+        public long getBaselineMedian() {
+            return baselineMedian;
+        }
+        
+        public long getCandidateMedian() {
+            return candidateMedian;
+        }
+        
+        /**
+         * @return Largest distance between the distribution functions of the two
+         *         builds' session medians, 0 to 1
+         */
+        public double getKsStatistic() {
+            return ksStatistic;
+        }
+        
+        public double getPValue() {
+            return pValue;
+        }
+        
+        /**
+         * @return P-value adjusted for the number of comparisons
+         */
+        public double getAdjustedPValue() {
+            return adjustedPValue;
+        }
+        
+        public boolean isSignificant() {
+            return significant;
+        }
+        
+        /**
+         * @return True if the distributions differ significantly and the candidate's
+         *         median is worse: lower signal or throughput, higher latency
+         */
+        public boolean isRegression() {
+            if (!significant) {
+                return false;
+            }
+            boolean lowerIsBetter = metric == METRIC_UDP_RTT || metric == METRIC_TCP_RTT;
+            return lowerIsBetter ? candidateMedian > baselineMedian : candidateMedian < baselineMedian;
+        }
+        
+        @Override
+        public String toString() {
+            return METRIC_NAMES[metric] + " " + operator + " @ " + area + ": " + baselineMedian + " -> "
+                    + candidateMedian + " (D=" + ksStatistic + ", p=" + adjustedPValue
+                    + (significant ? ", significant" : "") + ")";
+        }
+    }
+}
\ No newline at end of file
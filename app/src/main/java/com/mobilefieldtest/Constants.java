@@ -12,21 +12,68 @@ public class Constants {
     public static final String BUILD_TYPE_DEMO = "Demo";
     
     // Operators
-    public static final String OPERATOR_ROBI = "Robi";
-    public static final String OPERATOR_AIRTEL = "Airtel";
-    public static final String OPERATOR_GRAMEENPHONE = "GrameenPhone";
-    public static final String OPERATOR_BANGLALINK = "Banglalink";
-    public static final String OPERATOR_TELETALK = "Teletalk";
+    public static final String OPERATOR_REGISTRY_ASSET = "operators.csv"; // see OperatorRegistry for the format
     
     // Request Codes
     public static final int PERMISSION_REQUEST_READ_PHONE_STATE = 1001;
-    public static final int SPLASH_DISPLAY_LENGTH = 3000; // 3 seconds
     
     // Validation Patterns
     public static final String EMPLOYEE_ID_PATTERN = "^[A-Za-z0-9]{3,20}$";
     public static final String MODEL_PATTERN = "^[A-Za-z0-9\\s\\-_]{2,30}$";
     public static final String BUILD_VERSION_PATTERN = "^[0-9.]+$";
     
+    // Validation Lengths
+    public static final int EMPLOYEE_ID_MIN_LENGTH = 3;
+    public static final int EMPLOYEE_ID_MAX_LENGTH = 20;
+    public static final int MODEL_MIN_LENGTH = 2;
+    public static final int MODEL_MAX_LENGTH = 30;
+    public static final int TEST_AREA_MIN_LENGTH = 2;
+    public static final int TEST_AREA_MAX_LENGTH = 50;
+    
+    // Measurement
+    public static final int SAMPLE_BUFFER_CAPACITY = 16384; // rows, about 100 s of dual-SIM sampling at 10 Hz
+    public static final long JOURNAL_COMMIT_INTERVAL_MS = 1000; // most data lost if the process is killed
+    public static final long SIGNAL_SURVEY_DURATION_MS = 60_000; // per operator, while the sampler records
+    public static final String THROUGHPUT_SERVER_HOST = ""; // set per deployment; throughput steps are skipped while empty
+    public static final int THROUGHPUT_SERVER_PORT = 8765;
+    public static final long NETWORK_REQUEST_TIMEOUT_MS = 15_000; // for a subscription's data network to come up
+    public static final int THROUGHPUT_BUFFER_SIZE = 64 * 1024; // per TCP stream
+    public static final String LATENCY_SERVER_HOST = ""; // set per deployment; latency steps are skipped while empty
+    public static final int LATENCY_ECHO_PORT = 7; // UDP echo
+    public static final int LATENCY_TCP_PORT = 443; // TCP connect probes
+    
+    // Upload
+    public static final String INGEST_URL = ""; // set per deployment; uploads are off while empty
+    public static final int UPLOAD_CHUNK_SIZE = 256 * 1024; // bytes before compression
+    public static final int UPLOAD_CONCURRENCY = 3;
+    
+    // Planned sessions
+    public static final int PLANNED_SESSION_MIN_BATTERY_PERCENT = 30; // unless charging
+    
+    // Diagnostic log
+    public static final String LOG_DIR = "logs";
+    public static final String LOG_FILE_NAME = "diagnostic";
+    public static final String LOG_FILE_EXTENSION = ".mftl";
+    public static final long LOG_MAX_FILE_BYTES = 256 * 1024;
+    public static final int LOG_MAX_FILES = 4; // including the current file; at most 1 MB in total
+    
+    // Files
+    public static final String SESSION_DIR = "sessions";
+    public static final String SESSION_FILE_EXTENSION = ".mfts";
+    public static final String LATENCY_REPORT_EXTENSION = ".latency";
+    public static final String THROUGHPUT_REPORT_EXTENSION = ".throughput";
+    public static final String SESSION_SUMMARY_EXTENSION = ".summary";
+    public static final String COVERAGE_DIR = "coverage"; // per-area grids, inside SESSION_DIR
+    public static final String COVERAGE_FILE_EXTENSION = ".grid";
+    public static final String SESSION_JOURNAL_FILE = "session.journal";
+    public static final String STARTUP_TRACE_FILE = "startup_trace.json";
+    public static final String METRICS_FILE = "metrics.json"; // last session's metrics snapshot
+    public static final String AUTOCOMPLETE_DIR = "autocomplete";
+    public static final String SESSION_QUEUE_FILE = "session.queue";
+    public static final String SESSION_INDEX_FILE = "sessions.index";
+    public static final String ROSTER_FILE = "roster.csv"; // in the external files dir, see AutocompleteStore
+    public static final String EXPORT_DIR = "exports"; // in the external files dir, see SessionExporter
+    
     // SharedPreferences Keys
     public static final String PREF_NAME = "MobileFieldTestPrefs";
     public static final String KEY_EMPLOYEE_ID = "employee_id";
@@ -0,0 +1,375 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Serving RSRP aggregated into geohash cells per operator
+ *
+ * A cell is keyed by the operator's PLMN and the geohash of the sample's
+ * location and keeps a count, minimum, maximum and sum plus a histogram of
+ * 2 dB buckets for quantiles. Cells live in a LongIndexMap with their
+ * values in parallel primitive arrays, so adding a sample or merging another
+ * grid touches only the cells involved.
+ *
+ * A grid also records which sessions were merged into it, so merging the
+ * same session twice has no effect. Not thread-safe.
+ */
+public final class CoverageGrid {
+    
+    // About 150 m x 150 m (7 geohash characters)
+    public static final int DEFAULT_PRECISION_BITS = 35;
+    // About 20 m x 20 m; leaves room for the PLMN in a key
+    public static final int MAX_PRECISION_BITS = 40;
+    
+    public static final int MIN_RSRP = -140;
+    public static final int BUCKET_DB = 2;
+    public static final int BUCKET_COUNT = 50; // up to -40 dBm
+    
+    // Largest gap between a sample and the location fix it is placed at
+    public static final long MAX_FIX_AGE_MS = 5_000;
+    
+    private static final int MAGIC = 0x4D465443; // "MFTC"
+    private static final int FORMAT_VERSION = 1;
+    
+    // The geohash takes the low bits of a key, the PLMN the bits above
+    private static final int PLMN_SHIFT = MAX_PRECISION_BITS;
+    
+    private final int precisionBits;
+    private final LongIndexMap cells;
+    private int[] counts;
+    private int[] minimums;
+    private int[] maximums;
+    private long[] sums;
+    private int[] histograms;
+    
+    private long[] sessions = new long[0];
+    private int sessionCount;
+    
+    public CoverageGrid() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+    
+    /**
+     * @param precisionBits Geohash length of a cell, at most MAX_PRECISION_BITS
+     */
+    public CoverageGrid(int precisionBits) {
+        if (precisionBits <= 0 || precisionBits > MAX_PRECISION_BITS) {
+            throw new IllegalArgumentException("Invalid precision: " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+        this.cells = new LongIndexMap(256);
+        this.counts = new int[256];
+        this.minimums = new int[256];
+        this.maximums = new int[256];
+        this.sums = new long[256];
+        this.histograms = new int[256 * BUCKET_COUNT];
+    }
+    
+    /**
+     * Add one serving RSRP sample
+     * @param plmn MCC * 1000 + MNC of the operator, or 0 if unknown
+     * @param latitudeE7 Latitude in 1e-7 degrees
+     * @param longitudeE7 Longitude in 1e-7 degrees
+     * @param rsrp Serving RSRP in dBm
+     */
+    public void add(int plmn, int latitudeE7, int longitudeE7, int rsrp) {
+        long key = ((long) plmn << PLMN_SHIFT) | Geohash.encode(latitudeE7, longitudeE7, precisionBits);
+        int cell = cellFor(key);
+        if (counts[cell] == 0 || rsrp < minimums[cell]) {
+            minimums[cell] = rsrp;
+        }
+        if (counts[cell] == 0 || rsrp > maximums[cell]) {
+            maximums[cell] = rsrp;
+        }
+        counts[cell]++;
+        sums[cell] += rsrp;
+        histograms[cell * BUCKET_COUNT + bucketOf(rsrp)]++;
+    }
+    
+    /**
+     * Add every serving sample of a session log that has a location fix
+     * Samples are placed at the last fix at most MAX_FIX_AGE_MS before them.
+     * @param reader Open session log
+     */
+    public void addSession(SessionLogReader reader) {
+        LocationTrack track = reader.readLocations();
+        if (track.size() == 0) {
+            return;
+        }
+        SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        int fix = -1;
+        for (int b = 0; b < reader.getBlockCount(); b++) {
+            reader.readBlock(b, block);
+            for (int row = 0; row < block.getRowCount(); row++) {
+                if ((block.getInt(SampleRingBuffer.INT_FLAGS, row) & SampleRingBuffer.FLAG_SERVING) == 0) {
+                    continue;
+                }
+                int rsrp = block.getInt(SampleRingBuffer.INT_RSRP, row);
+                if (rsrp == SampleRingBuffer.UNAVAILABLE) {
+                    continue;
+                }
+                long timestamp = block.getTimestamp(row);
+                // Rows are in time order, so the fix only moves forward, unless the clock was set back
+                if (fix >= 0 && track.getTimestamp(fix) > timestamp) {
+                    fix = track.floorIndex(timestamp);
+                }
+                while (fix + 1 < track.size() && track.getTimestamp(fix + 1) <= timestamp) {
+                    fix++;
+                }
+                if (fix < 0 || timestamp - track.getTimestamp(fix) > MAX_FIX_AGE_MS) {
+                    continue;
+                }
+                int plmn = reader.getSubscriptionPlmn(block.getInt(SampleRingBuffer.INT_SUBSCRIPTION_ID, row));
+                add(plmn, track.getLatitudeE7(fix), track.getLongitudeE7(fix), rsrp);
+            }
+        }
+    }
+    
+    /**
+     * Add another grid's cells to this one, touching only the cells it has
+     * @param other Grid with the same precision; unchanged
+     */
+    public void merge(CoverageGrid other) {
+        if (other.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("Precision " + other.precisionBits + " does not match " + precisionBits);
+        }
+        for (int i = 0; i < other.getCellCount(); i++) {
+            int cell = cellFor(other.cells.getKey(i));
+            if (counts[cell] == 0 || other.minimums[i] < minimums[cell]) {
+                minimums[cell] = other.minimums[i];
+            }
+            if (counts[cell] == 0 || other.maximums[i] > maximums[cell]) {
+                maximums[cell] = other.maximums[i];
+            }
+            counts[cell] += other.counts[i];
+            sums[cell] += other.sums[i];
+            int target = cell * BUCKET_COUNT;
+            int source = i * BUCKET_COUNT;
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                histograms[target + b] += other.histograms[source + b];
+            }
+        }
+    }
+    
+    /**
+     * Merge one session's grid unless it was merged before
+     * @param sessionStartMillis Start time identifying the session
+     * @param session Grid built from the session
+     * @return false if the session was already merged
+     */
+    public boolean mergeSession(long sessionStartMillis, CoverageGrid session) {
+        if (containsSession(sessionStartMillis)) {
+            return false;
+        }
+        merge(session);
+        addSessionId(sessionStartMillis);
+        return true;
+    }
+    
+    private void addSessionId(long sessionStartMillis) {
+        if (sessionCount == sessions.length) {
+            sessions = Arrays.copyOf(sessions, Math.max(8, sessionCount * 2));
+        }
+        sessions[sessionCount++] = sessionStartMillis;
+    }
+    
+    public boolean containsSession(long sessionStartMillis) {
+        for (int i = 0; i < sessionCount; i++) {
+            if (sessions[i] == sessionStartMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public int getSessionCount() {
+        return sessionCount;
+    }
+    
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+    
+    public int getCellCount() {
+        return cells.size();
+    }
+    
+    /**
+     * @param cell Cell index, below getCellCount()
+     * @return Operator PLMN of the cell
+     */
+    public int getPlmn(int cell) {
+        return (int) (cells.getKey(cell) >>> PLMN_SHIFT);
+    }
+    
+    /**
+     * @param cell Cell index, below getCellCount()
+     * @return Geohash of the cell, getPrecisionBits() long
+     */
+    public long getGeohash(int cell) {
+        return cells.getKey(cell) & ((1L << PLMN_SHIFT) - 1);
+    }
+    
+    /**
+     * @return Index of an operator's cell at a location, or -1 if it has no samples
+     */
+    public int findCell(int plmn, int latitudeE7, int longitudeE7) {
+        return cells.get(((long) plmn << PLMN_SHIFT) | Geohash.encode(latitudeE7, longitudeE7, precisionBits));
+    }
+    
+    public int getCount(int cell) {
+        return counts[cell];
+    }
+    
+    public int getMin(int cell) {
+        return minimums[cell];
+    }
+    
+    public int getMax(int cell) {
+        return maximums[cell];
+    }
+    
+    public double getMean(int cell) {
+        return (double) sums[cell] / counts[cell];
+    }
+    
+    /**
+     * Estimate an RSRP quantile of a cell from its histogram
+     * @param cell Cell index
+     * @param quantile Quantile in [0, 1]
+     * @return RSRP in dBm, interpolated within a 2 dB bucket and clamped to the cell's range
+     */
+    public double getQuantile(int cell, double quantile) {
+        double rank = Math.min(Math.max(quantile, 0), 1) * counts[cell];
+        int offset = cell * BUCKET_COUNT;
+        long seen = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            int count = histograms[offset + b];
+            if (count > 0 && seen + count >= rank) {
+                double value = MIN_RSRP + BUCKET_DB * (b + (rank - seen) / count);
+                return Math.min(Math.max(value, minimums[cell]), maximums[cell]);
+            }
+            seen += count;
+        }
+        return maximums[cell];
+    }
+    
+    /**
+     * Save the grid (write to a temporary file, then rename)
+     * @param file Grid file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(precisionBits);
+            out.writeInt(sessionCount);
+            for (int i = 0; i < sessionCount; i++) {
+                out.writeLong(sessions[i]);
+            }
+            int cellCount = getCellCount();
+            out.writeInt(cellCount);
+            for (int i = 0; i < cellCount; i++) {
+                out.writeLong(cells.getKey(i));
+                out.writeInt(counts[i]);
+                out.writeShort(minimums[i]);
+                out.writeShort(maximums[i]);
+                out.writeLong(sums[i]);
+                // Histograms are sparse: non-empty bucket count, then bucket and count pairs
+                int offset = i * BUCKET_COUNT;
+                int used = 0;
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    if (histograms[offset + b] != 0) {
+                        used++;
+                    }
+                }
+                out.writeByte(used);
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    if (histograms[offset + b] != 0) {
+                        out.writeByte(b);
+                        out.writeInt(histograms[offset + b]);
+                    }
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save coverage grid: " + file);
+        }
+    }
+    
+    /**
+     * Load a grid written by save
+     * @param file Grid file
+     * @return The decoded grid
+     * @throws IOException if the file cannot be read or holds an unknown format
+     */
+    public static CoverageGrid load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a coverage grid: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported coverage grid version: " + version);
+            }
+            CoverageGrid grid = new CoverageGrid(in.readUnsignedByte());
+            int sessionCount = in.readInt();
+            for (int i = 0; i < sessionCount; i++) {
+                grid.addSessionId(in.readLong());
+            }
+            int cellCount = in.readInt();
+            for (int i = 0; i < cellCount; i++) {
+                int cell = grid.cellFor(in.readLong());
+                grid.counts[cell] = in.readInt();
+                grid.minimums[cell] = in.readShort();
+                grid.maximums[cell] = in.readShort();
+                grid.sums[cell] = in.readLong();
+                int used = in.readUnsignedByte();
+                for (int b = 0; b < used; b++) {
+                    int bucket = in.readUnsignedByte();
+                    if (bucket >= BUCKET_COUNT) {
+                        throw new IOException("Invalid coverage bucket: " + bucket);
+                    }
+                    grid.histograms[cell * BUCKET_COUNT + bucket] = in.readInt();
+                }
+            }
+            return grid;
+        } finally {
+            in.close();
+        }
+    }
+    
+    private int cellFor(long key) {
+        int cell = cells.getOrAdd(key);
+        if (cell == counts.length) {
+            int capacity = cell * 2;
+            counts = Arrays.copyOf(counts, capacity);
+            minimums = Arrays.copyOf(minimums, capacity);
+            maximums = Arrays.copyOf(maximums, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            histograms = Arrays.copyOf(histograms, capacity * BUCKET_COUNT);
+        }
+        return cell;
+    }
+    
+    private static int bucketOf(int rsrp) {
+        return Math.max(0, Math.min(BUCKET_COUNT - 1, (rsrp - MIN_RSRP) / BUCKET_DB));
+    }
+}
\ No newline at end of file
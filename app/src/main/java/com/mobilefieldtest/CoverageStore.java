@@ -0,0 +1,149 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Coverage grids kept next to the session logs
+ *
+ * Each finished session gets its own grid (<start>.grid beside
+ * <start>.mfts), built once from its samples and location fixes. That grid
+ * is then merged into the aggregate of the session's test area
+ * (coverage/<area>.grid), so opening an area's coverage reads one file and
+ * a new session costs only the cells it covers. The aggregate is saved
+ * before the session grid, and aggregates skip sessions they already hold,
+ * so an update interrupted anywhere is finished by the next one.
+ */
+public final class CoverageStore {
+    
+    private static final String TAG = "CoverageStore";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private final File sessionDir;
+    private final int precisionBits;
+    
+    /**
+     * @param sessionDir Directory holding the session logs
+     * @param precisionBits Geohash length of a cell
+     */
+    public CoverageStore(File sessionDir, int precisionBits) {
+        this.sessionDir = sessionDir;
+        this.precisionBits = precisionBits;
+    }
+    
+    /**
+     * Build and merge the grids of all sessions that do not have one yet
+     * @param startedBefore Only sessions started before this time are taken,
+     *                      so a session still being recorded is left alone
+     * @return Number of sessions added
+     * @throws IOException if a grid cannot be saved; unreadable session logs are skipped
+     */
+    public int updatePending(final long startedBefore) throws IOException {
+        File[] files = sessionDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                long start = getStartTime(file);
+                return start >= 0 && start < startedBefore && !getGridFile(file).exists();
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        int added = 0;
+        for (File file : files) {
+            if (addSession(file)) {
+                added++;
+            }
+        }
+        return added;
+    }
+    
+    /**
+     * Build a session's grid and merge it into its area
+     * @param sessionFile Finished session log
+     * @return false if the log could not be read
+     * @throws IOException if a grid cannot be saved
+     */
+    public boolean addSession(File sessionFile) throws IOException {
+        CoverageGrid session = new CoverageGrid(precisionBits);
+        String area;
+        long start;
+        try {
+            SessionLogReader reader = new SessionLogReader(sessionFile);
+            try {
+                session.addSession(reader);
+                area = reader.getFormData().getTestArea();
+                start = reader.getStartTimeMillis();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Unreadable session skipped")
+                    .put("file", sessionFile.getName())
+                    .put("error", e)
+                    .commit();
+            return false;
+        }
+        
+        File areaFile = getAreaFile(area);
+        CoverageGrid aggregate = loadArea(areaFile);
+        if (aggregate.mergeSession(start, session)) {
+            File areaDir = areaFile.getParentFile();
+            if (!areaDir.isDirectory() && !areaDir.mkdirs()) {
+                throw new IOException("Could not create " + areaDir);
+            }
+            aggregate.save(areaFile);
+        }
+        session.save(getGridFile(sessionFile));
+        return true;
+    }
+    
+    /**
+     * @param area Test area as entered in the form
+     * @return Coverage of all merged sessions in the area; empty if there are none
+     * @throws IOException if the area's grid cannot be read
+     */
+    public CoverageGrid loadArea(String area) throws IOException {
+        return loadArea(getAreaFile(area));
+    }
+    
+    private CoverageGrid loadArea(File areaFile) throws IOException {
+        if (!areaFile.exists()) {
+            return new CoverageGrid(precisionBits);
+        }
+        CoverageGrid grid = CoverageGrid.load(areaFile);
+        if (grid.getPrecisionBits() != precisionBits) {
+            throw new IOException("Coverage grid " + areaFile + " has precision " + grid.getPrecisionBits());
+        }
+        return grid;
+    }
+    
+    private File getAreaFile(String area) {
+        return new File(new File(sessionDir, Constants.COVERAGE_DIR),
+                FormData.toSafeName(area) + Constants.COVERAGE_FILE_EXTENSION);
+    }
+    
+    private static File getGridFile(File sessionFile) {
+        String name = sessionFile.getName();
+        String base = name.substring(0, name.length() - Constants.SESSION_FILE_EXTENSION.length());
+        return new File(sessionFile.getParentFile(), base + Constants.COVERAGE_FILE_EXTENSION);
+    }
+    
+    /**
+     * @return Start time from a session log's file name, or -1 for other files
+     */
+    private static long getStartTime(File file) {
+        String name = file.getName();
+        if (!file.isFile() || !name.endsWith(Constants.SESSION_FILE_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - Constants.SESSION_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
\ No newline at end of file
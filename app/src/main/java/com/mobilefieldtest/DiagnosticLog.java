@@ -0,0 +1,384 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured diagnostic log
+ * A record is a level, tag and message plus typed key/value fields:
+ *
+ *     LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Coverage updated").put("sessions", added).commit();
+ *
+ * The calling thread encodes the record into a reusable per-thread buffer
+ * and hands it to a bounded lock-free queue; a background thread drains the
+ * queue into a RotatingLogFile. Logging never blocks or does I/O on the
+ * calling thread, and does not allocate unless a field value has to be
+ * formatted (exceptions). Below the current level, begin() returns a shared
+ * record that ignores its fields, so a disabled statement costs one volatile
+ * read. When the queue is full, or before start(), records are dropped and
+ * counted in the "log.dropped" metric.
+ *
+ * A thread must commit one record before beginning the next.
+ */
+public final class DiagnosticLog {
+    
+    public static final int LEVEL_DEBUG = 0;
+    public static final int LEVEL_INFO = 1;
+    public static final int LEVEL_WARN = 2;
+    public static final int LEVEL_ERROR = 3;
+    public static final int LEVEL_OFF = 4;
+    
+    public static final int DEFAULT_LEVEL = LEVEL_INFO;
+    
+    // Encoded record size limit; longer values are cut and the record flagged
+    static final int RECORD_SIZE = 1024;
+    static final int QUEUE_CAPACITY = 256;
+    
+    static final int LEVEL_MASK = 0x07;
+    static final int FLAG_TRUNCATED = 0x80;
+    static final byte FIELD_LONG = 1;
+    static final byte FIELD_STRING = 2;
+    
+    // Bytes kept for the thread name and tag, so the message always has room
+    private static final int HEADER_STRING_BYTES = 64;
+    private static final long DRAIN_INTERVAL_NANOS = 100_000_000L;
+    
+    private static final Metrics.Counter RECORD_COUNTER = Metrics.getInstance().counter("log.records");
+    private static final Metrics.Counter DROP_COUNTER = Metrics.getInstance().counter("log.dropped");
+    
+    private static final Record DISABLED = new Record(null);
+    
+    private static DiagnosticLog instance;
+    
+    private volatile int level = DEFAULT_LEVEL;
+    
+    // Bounded multi-producer queue: each slot's sequence tells whose turn it is
+    private final byte[] slots = new byte[QUEUE_CAPACITY * RECORD_SIZE];
+    private final int[] lengths = new int[QUEUE_CAPACITY];
+    private final AtomicLongArray sequences = new AtomicLongArray(QUEUE_CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    
+    private final ThreadLocal<Record> records = new ThreadLocal<Record>() {
+        @Override
+        protected Record initialValue() {
+            return new Record(DiagnosticLog.this);
+        }
+    };
+    
+    private volatile boolean running;
+    private volatile Thread writerThread;
+    
+    public DiagnosticLog() {
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Get the process-wide log, creating it on first use
+     * @return Shared log
+     */
+    public static synchronized DiagnosticLog getInstance() {
+        if (instance == null) {
+            instance = new DiagnosticLog();
+        }
+        return instance;
+    }
+    
+    /**
+     * @param level Lowest level recorded, LEVEL_DEBUG to LEVEL_OFF
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+    
+    public int getLevel() {
+        return level;
+    }
+    
+    public boolean isLoggable(int level) {
+        return level >= this.level;
+    }
+    
+    /**
+     * Start writing records to rotating files in the given directory; does nothing if already started
+     * The files are opened on the writer thread.
+     * @param dir Log directory
+     */
+    public synchronized void start(final File dir) {
+        if (writerThread != null) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop(dir);
+            }
+        }, "DiagnosticLog");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+    
+    /**
+     * Write out the records committed so far, close the files and stop the writer thread
+     * @throws InterruptedException if interrupted while waiting for the writer
+     */
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+            writerThread = null;
+            running = false;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+    
+    /**
+     * Begin a record; add fields with put() and finish with commit()
+     * @param level Record level
+     * @param tag Source of the record, e.g. the class name
+     * @param message Fixed message text; variable parts belong in fields
+     * @return Record to fill in, ignoring its fields if the level is disabled
+     */
+    public Record begin(int level, String tag, String message) {
+        if (level < this.level) {
+            return DISABLED;
+        }
+        Record record = records.get();
+        record.reset(level, tag, message);
+        return record;
+    }
+    
+    public void debug(String tag, String message) {
+        begin(LEVEL_DEBUG, tag, message).commit();
+    }
+    
+    public void info(String tag, String message) {
+        begin(LEVEL_INFO, tag, message).commit();
+    }
+    
+    public void warn(String tag, String message) {
+        begin(LEVEL_WARN, tag, message).commit();
+    }
+    
+    /**
+     * Record an error with its stack trace in the "error" field
+     */
+    public void error(String tag, String message, Throwable error) {
+        begin(LEVEL_ERROR, tag, message).put("error", error).commit();
+    }
+    
+    private void offer(Record record) {
+        if (record.truncated) {
+            record.buffer[0] |= FLAG_TRUNCATED;
+        }
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & (QUEUE_CAPACITY - 1);
+            long lag = sequences.get(index) - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (lag < 0) {
+                // The writer has not freed this slot yet: full
+                DROP_COUNTER.increment();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        System.arraycopy(record.buffer, 0, slots, index * RECORD_SIZE, record.length);
+        lengths[index] = record.length;
+        sequences.set(index, position + 1);
+        RECORD_COUNTER.increment();
+        
+        if ((record.buffer[0] & LEVEL_MASK) >= LEVEL_ERROR || (position & (QUEUE_CAPACITY / 2 - 1)) == 0) {
+            // Get errors to disk, and a burst out of the queue, without waiting for the next drain
+            Thread thread = writerThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+    
+    private void writeLoop(File dir) {
+        RotatingLogFile file;
+        try {
+            file = new RotatingLogFile(dir, Constants.LOG_FILE_NAME, Constants.LOG_FILE_EXTENSION,
+                    Constants.LOG_MAX_FILE_BYTES, Constants.LOG_MAX_FILES);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            while (true) {
+                // Read before draining, so records committed before stop() are written
+                boolean stopping = !running;
+                if (drain(file) > 0) {
+                    file.flush();
+                }
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(this, DRAIN_INTERVAL_NANOS);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private int drain(RotatingLogFile file) throws IOException {
+        int drained = 0;
+        while (true) {
+            int index = (int) head & (QUEUE_CAPACITY - 1);
+            if (sequences.get(index) != head + 1) {
+                return drained;
+            }
+            file.append(slots, index * RECORD_SIZE, lengths[index]);
+            sequences.set(index, head + QUEUE_CAPACITY);
+            head++;
+            drained++;
+        }
+    }
+    
+    /**
+     * Record being built; reused by its thread for every record
+     *
+     * Encoding: a flags byte (level, truncated), varint timestamp and thread
+     * id, then the thread name, tag and message, then the fields, each a type
+     * byte, key and value. Strings are a 2-byte char count followed by each
+     * char as a varint; longs are zigzag varints.
+     */
+    public static final class Record {
+        private final DiagnosticLog log;
+        private final byte[] buffer;
+        private int length;
+        private boolean truncated;
+        
+        Record(DiagnosticLog log) {
+            this.log = log;
+            this.buffer = log != null ? new byte[RECORD_SIZE] : null;
+        }
+        
+        void reset(int level, String tag, String message) {
+            Thread thread = Thread.currentThread();
+            truncated = false;
+            buffer[0] = (byte) level;
+            length = VarInt.writeUnsigned(System.currentTimeMillis(), buffer, 1);
+            length = VarInt.writeUnsigned(thread.getId(), buffer, length);
+            writeString(thread.getName(), length + 2 + HEADER_STRING_BYTES);
+            writeString(tag, length + 2 + HEADER_STRING_BYTES);
+            writeString(message, RECORD_SIZE);
+        }
+        
+        public Record put(String key, long value) {
+            if (log == null) {
+                return this;
+            }
+            int mark = length;
+            if (!writeField(FIELD_LONG, key) || length + VarInt.MAX_LONG_BYTES > RECORD_SIZE) {
+                length = mark;
+                truncated = true;
+                return this;
+            }
+            length = VarInt.writeSigned(value, buffer, length);
+            return this;
+        }
+        
+        /**
+         * @param value Field value; cut short if the record is full
+         */
+        public Record put(String key, String value) {
+            if (log == null) {
+                return this;
+            }
+            int mark = length;
+            if (!writeField(FIELD_STRING, key) || !writeString(value, RECORD_SIZE)) {
+                length = mark;
+                truncated = true;
+            }
+            return this;
+        }
+        
+        /**
+         * @param error Exception, stored as its stack trace text
+         */
+        public Record put(String key, Throwable error) {
+            if (log == null) {
+                return this;
+            }
+            StringWriter text = new StringWriter();
+            error.printStackTrace(new PrintWriter(text));
+            return put(key, text.toString());
+        }
+        
+        /**
+         * Queue the record for writing
+         */
+        public void commit() {
+            if (log != null) {
+                log.offer(this);
+            }
+        }
+        
+        private boolean writeField(byte type, String key) {
+            if (length + 1 + 2 + key.length() * 3 > RECORD_SIZE) {
+                return false;
+            }
+            buffer[length++] = type;
+            return writeString(key, RECORD_SIZE);
+        }
+        
+        /**
+         * Write as much of the string as fits before limit
+         * @return false if not even the length fits; nothing is written then
+         */
+        private boolean writeString(String value, int limit) {
+            if (value == null) {
+                value = "null";
+            }
+            limit = Math.min(limit, RECORD_SIZE);
+            int start = length;
+            if (start + 2 > limit) {
+                return false;
+            }
+            int position = start + 2;
+            int count = 0;
+            int chars = value.length();
+            while (count < chars) {
+                char c = value.charAt(count);
+                int size = c < 0x80 ? 1 : c < 0x4000 ? 2 : 3;
+                if (position + size > limit) {
+                    truncated = true;
+                    break;
+                }
+                position = VarInt.writeUnsigned(c, buffer, position);
+                count++;
+            }
+            buffer[start] = (byte) (count >>> 8);
+            buffer[start + 1] = (byte) count;
+            length = position;
+            return true;
+        }
+    }
+}
\ No newline at end of file
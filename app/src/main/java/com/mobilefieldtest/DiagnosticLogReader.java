@@ -0,0 +1,107 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats DiagnosticLog files as text, one line per record:
+ *
+ *     2026-10-17 09:41:07.312 I/MainActivity [main]: Coverage updated sessions=2
+ *
+ * A torn record at the end of a file ends it.
+ */
+public final class DiagnosticLogReader {
+    
+    private static final char[] LEVEL_LETTERS = {'D', 'I', 'W', 'E'};
+    
+    private DiagnosticLogReader() {
+        throw new AssertionError("DiagnosticLogReader class should not be instantiated");
+    }
+    
+    /**
+     * @param file Log file written by a RotatingLogFile for a DiagnosticLog
+     * @param out Destination of the text
+     * @return Number of records formatted
+     * @throws IOException if the file cannot be read or is not a diagnostic log
+     */
+    public static int format(File file, Appendable out) throws IOException {
+        byte[] bytes;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < RotatingLogFile.HEADER_SIZE || buffer.getInt() != RotatingLogFile.MAGIC) {
+            throw new IOException("Not a diagnostic log: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != RotatingLogFile.VERSION) {
+            throw new IOException("Unsupported diagnostic log version " + version);
+        }
+        
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder line = new StringBuilder(256);
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            line.setLength(0);
+            try {
+                int length = (int) VarInt.readUnsigned(buffer);
+                if (length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                buffer.position(buffer.position() + length);
+                formatRecord(record, dateFormat, line);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+            out.append(line).append('\n');
+            count++;
+        }
+        return count;
+    }
+    
+    private static void formatRecord(ByteBuffer record, SimpleDateFormat dateFormat, StringBuilder line) {
+        int flags = record.get() & 0xFF;
+        long timestamp = VarInt.readUnsigned(record);
+        VarInt.readUnsigned(record); // thread id
+        line.append(dateFormat.format(new Date(timestamp))).append(' ');
+        int level = flags & DiagnosticLog.LEVEL_MASK;
+        line.append(level < LEVEL_LETTERS.length ? LEVEL_LETTERS[level] : '?').append('/');
+        String thread = readString(record);
+        line.append(readString(record)).append(" [").append(thread).append("]: ").append(readString(record));
+        while (record.hasRemaining()) {
+            byte type = record.get();
+            line.append(' ').append(readString(record)).append('=');
+            if (type == DiagnosticLog.FIELD_LONG) {
+                line.append(VarInt.readSigned(record));
+            } else if (type == DiagnosticLog.FIELD_STRING) {
+                line.append(readString(record));
+            } else {
+                throw new IllegalArgumentException("Unknown field type " + type);
+            }
+        }
+        if ((flags & DiagnosticLog.FLAG_TRUNCATED) != 0) {
+            line.append(" (truncated)");
+        }
+    }
+    
+    private static String readString(ByteBuffer record) {
+        int count = record.getShort() & 0xFFFF;
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = (char) VarInt.readUnsigned(record);
+        }
+        return new String(chars);
+    }
+}
\ No newline at end of file
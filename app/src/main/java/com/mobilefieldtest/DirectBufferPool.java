@@ -0,0 +1,52 @@
+package com.mobilefieldtest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct ByteBuffers
+ * Direct buffers are expensive to allocate and are freed only by the GC, so
+ * network tests borrow them from here and return them when done.
+ */
+public final class DirectBufferPool {
+    
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    
+    /**
+     * @param bufferSize Capacity of every buffer
+     * @param maxPooled Most buffers kept when returned
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+    
+    /**
+     * Borrow a cleared buffer
+     * @return Buffer of getBufferSize() bytes
+     */
+    public synchronized ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * Return a buffer from acquire()
+     * @param buffer Buffer no longer used by the caller
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && buffer.isDirect() && free.size() < maxPooled) {
+            free.addFirst(buffer);
+        }
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
\ No newline at end of file
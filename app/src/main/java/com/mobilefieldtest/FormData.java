@@ -0,0 +1,144 @@
+package com.mobilefieldtest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Form data collected from the prerequisites screen
+ * Describes one test session and serializes to a compact binary form
+ */
+public class FormData {
+    
+    private static final int FORMAT_VERSION = 1;
+    
+    private String employeeId;
+    private String model;
+    private String buildVersion;
+    private String buildType;
+    private String testArea;
+    private List<String> selectedOperators;
+    
+    // Getters and setters
+    public String getEmployeeId() { return employeeId; }
+    public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
+    
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+    
+    public String getBuildVersion() { return buildVersion; }
+    public void setBuildVersion(String buildVersion) { this.buildVersion = buildVersion; }
+    
+    public String getBuildType() { return buildType; }
+    public void setBuildType(String buildType) { this.buildType = buildType; }
+    
+    public String getTestArea() { return testArea; }
+    public void setTestArea(String testArea) { this.testArea = testArea; }
+    
+    public List<String> getSelectedOperators() { return selectedOperators; }
+    public void setSelectedOperators(List<String> selectedOperators) { this.selectedOperators = selectedOperators; }
+    
+    /**
+     * Build the id of a test session recorded with this form data
+     * Made of employee id, model, build version and test area plus the start
+     * time, restricted to characters that are safe in file names and URLs
+     * @param startTimeMillis Session start time
+     * @return Session id, e.g. "EMP001-Pixel_7-1.2.3-Dhaka-1700000000000"
+     */
+    public String getSessionId(long startTimeMillis) {
+        StringBuilder id = new StringBuilder(64);
+        appendIdPart(id, employeeId);
+        appendIdPart(id, model);
+        appendIdPart(id, buildVersion);
+        appendIdPart(id, testArea);
+        return id.append(startTimeMillis).toString();
+    }
+    
+    private static void appendIdPart(StringBuilder id, String value) {
+        appendSafe(id, value);
+        id.append('-');
+    }
+    
+    /**
+     * Restrict a value to characters that are safe in file names and URLs
+     * @param value Any text, may be null
+     * @return Text with every other character replaced by '_'
+     */
+    public static String toSafeName(String value) {
+        StringBuilder name = new StringBuilder(value != null ? value.length() : 0);
+        appendSafe(name, value);
+        return name.toString();
+    }
+    
+    private static void appendSafe(StringBuilder dest, String value) {
+        if (value != null) {
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                boolean safe = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '_';
+                dest.append(safe ? c : '_');
+            }
+        }
+    }
+    
+    /**
+     * Write this form data in binary form
+     * @param out Destination
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        writeString(out, employeeId);
+        writeString(out, model);
+        writeString(out, buildVersion);
+        writeString(out, buildType);
+        writeString(out, testArea);
+        
+        int operatorCount = selectedOperators != null ? selectedOperators.size() : 0;
+        out.writeShort(operatorCount);
+        for (int i = 0; i < operatorCount; i++) {
+            out.writeUTF(selectedOperators.get(i));
+        }
+    }
+    
+    /**
+     * Read form data written by writeTo
+     * @param in Source
+     * @return The decoded form data
+     * @throws IOException if the source fails or holds an unknown format
+     */
+    public static FormData readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported form data version: " + version);
+        }
+        
+        FormData formData = new FormData();
+        formData.employeeId = readString(in);
+        formData.model = readString(in);
+        formData.buildVersion = readString(in);
+        formData.buildType = readString(in);
+        formData.testArea = readString(in);
+        
+        int operatorCount = in.readUnsignedShort();
+        List<String> operators = new ArrayList<>(operatorCount);
+        for (int i = 0; i < operatorCount; i++) {
+            operators.add(in.readUTF());
+        }
+        formData.selectedOperators = operators;
+        return formData;
+    }
+    
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
\ No newline at end of file
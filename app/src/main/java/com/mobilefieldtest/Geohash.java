@@ -0,0 +1,93 @@
+package com.mobilefieldtest;
+
+/**
+ * Geohash encoding of coordinates in 1e-7 degree units
+ * A hash of n bits alternates longitude and latitude bits, longitude first,
+ * so cells of a given precision form a fixed grid and nearby points share
+ * a prefix. Hashes are kept as integers; toString() gives the usual base32 text.
+ */
+public final class Geohash {
+    
+    // Longest supported hash: 12 base32 characters
+    public static final int MAX_BITS = 60;
+    
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    
+    private Geohash() {
+        throw new AssertionError("Geohash class should not be instantiated");
+    }
+    
+    /**
+     * @param latitudeE7 Latitude in 1e-7 degrees
+     * @param longitudeE7 Longitude in 1e-7 degrees
+     * @param bits Hash length in bits, 1 to MAX_BITS
+     * @return Hash in the low bits
+     */
+    public static long encode(int latitudeE7, int longitudeE7, int bits) {
+        int lonBits = (bits + 1) / 2;
+        int latBits = bits / 2;
+        long lon = quantize(longitudeE7 + 1_800_000_000L, 3_600_000_000L, lonBits);
+        long lat = quantize(latitudeE7 + 900_000_000L, 1_800_000_000L, latBits);
+        
+        long hash = 0;
+        for (int i = bits - 1; i >= 0; i--) {
+            // Counting from the top bit, even positions are longitude
+            int position = bits - 1 - i;
+            long bit = (position & 1) == 0
+                    ? lon >>> (lonBits - 1 - position / 2)
+                    : lat >>> (latBits - 1 - position / 2);
+            hash |= (bit & 1) << i;
+        }
+        return hash;
+    }
+    
+    /**
+     * @return Latitude of the cell centre in 1e-7 degrees
+     */
+    public static int centerLatitudeE7(long hash, int bits) {
+        int latBits = bits / 2;
+        long lat = 0;
+        for (int k = 0; k < latBits; k++) {
+            lat = (lat << 1) | ((hash >>> (bits - 2 - 2 * k)) & 1);
+        }
+        return (int) (center(lat, 1_800_000_000L, latBits) - 900_000_000L);
+    }
+    
+    /**
+     * @return Longitude of the cell centre in 1e-7 degrees
+     */
+    public static int centerLongitudeE7(long hash, int bits) {
+        int lonBits = (bits + 1) / 2;
+        long lon = 0;
+        for (int k = 0; k < lonBits; k++) {
+            lon = (lon << 1) | ((hash >>> (bits - 1 - 2 * k)) & 1);
+        }
+        return (int) (center(lon, 3_600_000_000L, lonBits) - 1_800_000_000L);
+    }
+    
+    /**
+     * Base32 text of a hash; bits should be a multiple of 5
+     */
+    public static String toString(long hash, int bits) {
+        char[] text = new char[bits / 5];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = BASE32[(int) (hash >>> (bits - 5 * (i + 1))) & 31];
+        }
+        return new String(text);
+    }
+    
+    /**
+     * Index of an offset within [0, range) split into 2^bits equal steps
+     */
+    private static long quantize(long offset, long range, int bits) {
+        long steps = 1L << bits;
+        // offset * steps fits a long for bits up to 30
+        long index = offset * steps / range;
+        return Math.max(0, Math.min(steps - 1, index));
+    }
+    
+    private static long center(long index, long range, int bits) {
+        long steps = 1L << bits;
+        return (index * range + range / 2) / steps;
+    }
+}
\ No newline at end of file
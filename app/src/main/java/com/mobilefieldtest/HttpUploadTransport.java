@@ -0,0 +1,113 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * UploadTransport over plain HTTP(S) with HttpURLConnection
+ *
+ * Requests, relative to the base URL:
+ * - PUT sessions/{id}/chunks/{index}: deflate body with X-Chunk-Count,
+ *   X-Chunk-Crc32 (hex, of the compressed body) and X-Raw-Length headers;
+ *   2xx acknowledges the chunk, 409 or 422 rejects it as corrupt
+ * - POST sessions/{id}/complete: X-Chunk-Count and X-File-Length headers
+ *
+ * Each request uses fixed-length streaming so the body is not buffered again,
+ * and response bodies are drained so connections can be kept alive.
+ */
+public final class HttpUploadTransport implements UploadTransport {
+    
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    
+    private final String baseUrl;
+    
+    /**
+     * @param baseUrl Ingest endpoint, with or without a trailing slash
+     */
+    public HttpUploadTransport(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+    
+    @Override
+    public boolean sendChunk(String sessionId, int index, int chunkCount, byte[] body, int length,
+                             int rawLength, long crc32) throws IOException {
+        HttpURLConnection connection = open("sessions/" + sessionId + "/chunks/" + index, "PUT");
+        try {
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty("Content-Encoding", "deflate");
+            connection.setRequestProperty("X-Chunk-Count", Integer.toString(chunkCount));
+            connection.setRequestProperty("X-Chunk-Crc32", Long.toHexString(crc32));
+            connection.setRequestProperty("X-Raw-Length", Integer.toString(rawLength));
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body, 0, length);
+            } finally {
+                out.close();
+            }
+            return checkResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    @Override
+    public boolean completeSession(String sessionId, int chunkCount, long fileLength) throws IOException {
+        HttpURLConnection connection = open("sessions/" + sessionId + "/complete", "POST");
+        try {
+            connection.setRequestProperty("X-Chunk-Count", Integer.toString(chunkCount));
+            connection.setRequestProperty("X-File-Length", Long.toString(fileLength));
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(0);
+            connection.getOutputStream().close();
+            return checkResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setUseCaches(false);
+        return connection;
+    }
+    
+    /**
+     * @return true for 2xx, false for a corrupt-chunk rejection
+     * @throws IOException for any other status
+     */
+    private static boolean checkResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        if (status >= 200 && status < 300) {
+            return true;
+        }
+        if (status == 409 || status == 422) {
+            return false;
+        }
+        throw new IOException("Unexpected ingest response: " + status);
+    }
+    
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] scratch = new byte[512];
+            while (in.read(scratch) >= 0) {
+                // Discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
\ No newline at end of file
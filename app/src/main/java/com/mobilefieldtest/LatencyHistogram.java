@@ -0,0 +1,253 @@
+package com.mobilefieldtest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-memory log-linear histogram of latencies in microseconds
+ *
+ * Values below SUB_BUCKETS get one bucket each; above that every power of
+ * two is split into SUB_BUCKETS / 2 equal buckets, so a value is known to
+ * within about 3% at any magnitude (the layout used by HdrHistogram).
+ * The bucket array is allocated once: recording is an index computation
+ * and an increment, and two histograms merge by adding their arrays, so
+ * aggregating any number of sessions costs O(buckets), not O(samples).
+ *
+ * Not thread-safe; record on one thread and merge the results.
+ */
+public final class LatencyHistogram {
+    
+    // Largest value told apart from the others, about 134 s
+    public static final long MAX_VALUE = (1L << 27) - 1;
+    
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+    
+    private static final int FORMAT_VERSION = 1;
+    
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    
+    /**
+     * Record one value
+     * @param value Latency in microseconds; negative values count as 0 and
+     *              values above MAX_VALUE fall in the last bucket
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketIndex(Math.min(value, MAX_VALUE))]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+    
+    /**
+     * Add another histogram's counts to this one
+     * @param other Histogram to merge; unchanged
+     */
+    public void merge(LatencyHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+    
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+    
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    /**
+     * @return Smallest recorded value, or 0 when empty
+     */
+    public long getMin() {
+        return totalCount > 0 ? min : 0;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    /**
+     * @return Exact mean of the recorded values, or 0 when empty
+     */
+    public double getMean() {
+        return totalCount > 0 ? (double) sum / totalCount : 0;
+    }
+    
+    /**
+     * Value at or below which the given share of the recorded values fall
+     * @param percentile Percentile in [0, 100], e.g. 99.9
+     * @return Midpoint of the bucket holding that value (clamped to the
+     *         recorded range), or 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double share = Math.min(Math.max(percentile, 0), 100) / 100.0;
+        // Rank of the wanted value, counting from 1
+        long rank = Math.max(1, (long) Math.ceil(share * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long value = bucketMidpoint(i);
+                return Math.min(Math.max(value, min), max);
+            }
+        }
+        return max;
+    }
+    
+    /**
+     * @param bucket Bucket index, below BUCKET_COUNT
+     * @return Number of values recorded in the bucket
+     */
+    long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+    
+    /**
+     * @param bucket Bucket index, below BUCKET_COUNT
+     * @return Midpoint of the values the bucket holds
+     */
+    static long bucketMidpoint(int bucket) {
+        return bucketLowerBound(bucket) + (bucketWidth(bucket) - 1) / 2;
+    }
+    
+    /**
+     * Write the non-empty buckets in binary form
+     * @param out Destination
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(totalCount);
+        if (totalCount == 0) {
+            return;
+        }
+        out.writeLong(sum);
+        out.writeLong(min);
+        out.writeLong(max);
+        int used = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                used++;
+            }
+        }
+        out.writeShort(used);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+    
+    /**
+     * Read a histogram written by writeTo
+     * @param in Source
+     * @return The decoded histogram
+     * @throws IOException if the source fails or holds an unknown format
+     */
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported histogram version: " + version);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.totalCount = in.readLong();
+        if (histogram.totalCount == 0) {
+            return histogram;
+        }
+        histogram.sum = in.readLong();
+        histogram.min = in.readLong();
+        histogram.max = in.readLong();
+        int used = in.readUnsignedShort();
+        for (int i = 0; i < used; i++) {
+            int index = in.readUnsignedShort();
+            if (index >= BUCKET_COUNT) {
+                throw new IOException("Invalid histogram bucket: " + index);
+            }
+            histogram.counts[index] = in.readLong();
+        }
+        return histogram;
+    }
+    
+    /**
+     * Build a histogram from bucket counts kept elsewhere (see Metrics.Timer)
+     * @param bucketCounts Count of each of the BUCKET_COUNT buckets
+     * @param sum Sum of the values
+     * @param max Largest value; the smallest is taken as the first bucket's lower bound
+     */
+    static LatencyHistogram fromBuckets(long[] bucketCounts, long sum, long max) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = bucketCounts[i];
+            if (count != 0 && histogram.totalCount == 0) {
+                histogram.min = bucketLowerBound(i);
+            }
+            histogram.counts[i] = count;
+            histogram.totalCount += count;
+        }
+        histogram.sum = sum;
+        histogram.max = Math.max(max, histogram.totalCount > 0 ? histogram.min : 0);
+        return histogram;
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // Keep the leading one and the SUB_BUCKET_BITS - 1 bits after it
+        int shift = exponent - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS
+                + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+    
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int offset = index - SUB_BUCKETS;
+        int exponent = offset / HALF_SUB_BUCKETS + SUB_BUCKET_BITS;
+        long subBucket = offset % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return subBucket << (exponent - (SUB_BUCKET_BITS - 1));
+    }
+    
+    private static long bucketWidth(int index) {
+        if (index < SUB_BUCKETS) {
+            return 1;
+        }
+        int exponent = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + SUB_BUCKET_BITS;
+        return 1L << (exponent - (SUB_BUCKET_BITS - 1));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,200 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Sends a paced series of latency probes to one server
+ *
+ * MODE_UDP_ECHO sends small numbered datagrams to an echo server (RFC 862)
+ * and times each reply; late replies to earlier probes are discarded, so a
+ * probe counts as lost once its timeout passes. MODE_TCP_CONNECT times the
+ * TCP handshake of a new connection per probe. Probes are paced from the
+ * start of the run, not from the previous reply, so a slow reply does not
+ * lower the probe rate.
+ *
+ * UDP probing reuses one socket, packet and buffer; results go straight
+ * into a LatencyStats, so a probe does not allocate. A TCP connect probe
+ * needs a new socket each time.
+ */
+public final class LatencyProbe {
+    
+    public static final int MODE_UDP_ECHO = 0;
+    public static final int MODE_TCP_CONNECT = 1;
+    
+    public static final int DEFAULT_COUNT = 500;
+    public static final long DEFAULT_INTERVAL_MS = 20;
+    public static final int DEFAULT_TIMEOUT_MS = 1_000;
+    
+    // Sequence number and send time
+    private static final int PROBE_SIZE = 16;
+    
+    /**
+     * Prepares each probe socket before use, e.g. to bind it to a specific network
+     */
+    public interface SocketConfigurator {
+        void configure(DatagramSocket socket) throws IOException;
+        void configure(Socket socket) throws IOException;
+    }
+    
+    private final InetSocketAddress server;
+    private final int mode;
+    
+    private int count = DEFAULT_COUNT;
+    private long intervalMillis = DEFAULT_INTERVAL_MS;
+    private int timeoutMillis = DEFAULT_TIMEOUT_MS;
+    private SocketConfigurator socketConfigurator;
+    
+    /**
+     * @param server Echo server for MODE_UDP_ECHO, any listening TCP port for MODE_TCP_CONNECT
+     * @param mode MODE_UDP_ECHO or MODE_TCP_CONNECT
+     */
+    public LatencyProbe(InetSocketAddress server, int mode) {
+        if (mode != MODE_UDP_ECHO && mode != MODE_TCP_CONNECT) {
+            throw new IllegalArgumentException("Invalid mode: " + mode);
+        }
+        this.server = server;
+        this.mode = mode;
+    }
+    
+    public void setCount(int count) {
+        this.count = count;
+    }
+    
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+    
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    public void setSocketConfigurator(SocketConfigurator socketConfigurator) {
+        this.socketConfigurator = socketConfigurator;
+    }
+    
+    /**
+     * Run the probes on the calling thread
+     * @param results Receives every probe's outcome
+     * @throws IOException if the probe socket cannot be set up
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void run(LatencyStats results) throws IOException, InterruptedException {
+        try {
+            if (mode == MODE_UDP_ECHO) {
+                runUdp(results);
+            } else {
+                runTcp(results);
+            }
+        } finally {
+            results.endRun();
+        }
+    }
+    
+    private void runUdp(LatencyStats results) throws IOException, InterruptedException {
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            if (socketConfigurator != null) {
+                socketConfigurator.configure(socket);
+            }
+            socket.connect(server);
+            byte[] sendData = new byte[PROBE_SIZE];
+            byte[] receiveData = new byte[PROBE_SIZE];
+            DatagramPacket sendPacket = new DatagramPacket(sendData, PROBE_SIZE);
+            DatagramPacket receivePacket = new DatagramPacket(receiveData, PROBE_SIZE);
+            long start = System.nanoTime();
+            
+            for (int sequence = 0; sequence < count; sequence++) {
+                long sendTime = System.nanoTime();
+                putLong(sendData, 0, sequence);
+                putLong(sendData, 8, sendTime);
+                socket.send(sendPacket);
+                
+                long deadline = sendTime + timeoutMillis * 1_000_000L;
+                boolean answered = false;
+                while (!answered) {
+                    long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    socket.setSoTimeout((int) remaining);
+                    receivePacket.setLength(PROBE_SIZE);
+                    try {
+                        socket.receive(receivePacket);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    // Anything else is a late reply to an earlier probe
+                    if (receivePacket.getLength() == PROBE_SIZE && getLong(receiveData, 0) == sequence
+                            && getLong(receiveData, 8) == sendTime) {
+                        results.recordRtt((now - sendTime) / 1_000);
+                        answered = true;
+                    }
+                }
+                if (!answered) {
+                    results.recordLoss();
+                }
+                pace(start, sequence + 1);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+    
+    private void runTcp(LatencyStats results) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Socket socket = new Socket();
+            try {
+                if (socketConfigurator != null) {
+                    socketConfigurator.configure(socket);
+                }
+                // Lingering connections would fill the server's backlog
+                socket.setSoLinger(true, 0);
+                long connectStart = System.nanoTime();
+                try {
+                    socket.connect(server, timeoutMillis);
+                    results.recordRtt((System.nanoTime() - connectStart) / 1_000);
+                } catch (IOException e) {
+                    // Refused or timed out
+                    results.recordLoss();
+                }
+            } finally {
+                socket.close();
+            }
+            pace(start, i + 1);
+        }
+    }
+    
+    /**
+     * Sleep until the given probe is due
+     */
+    private void pace(long start, int nextProbe) throws InterruptedException {
+        long waitMillis = (start + nextProbe * intervalMillis * 1_000_000L - System.nanoTime()) / 1_000_000L;
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        } else if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+    
+    private static void putLong(byte[] data, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+    
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency results keyed by probe mode, operator and test area
+ * Saved next to each session; reports of any number of sessions merge into
+ * one by merging the histograms of matching entries.
+ */
+public final class LatencyReport {
+    
+    private static final int MAGIC = 0x4D46544C; // "MFTL"
+    private static final int FORMAT_VERSION = 1;
+    
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<Integer> modes = new ArrayList<>();
+    private final List<String> operators = new ArrayList<>();
+    private final List<String> areas = new ArrayList<>();
+    private final List<LatencyStats> stats = new ArrayList<>();
+    
+    /**
+     * Merge results into the entry for a probe mode, operator and area
+     * @param mode LatencyProbe.MODE_UDP_ECHO or MODE_TCP_CONNECT
+     * @param operator Operator name
+     * @param area Test area
+     * @param results Results to add; unchanged
+     */
+    public synchronized void add(int mode, String operator, String area, LatencyStats results) {
+        String key = mode + "\u0000" + operator + '\u0000' + area;
+        Integer position = index.get(key);
+        if (position == null) {
+            position = stats.size();
+            index.put(key, position);
+            modes.add(mode);
+            operators.add(operator);
+            areas.add(area);
+            stats.add(new LatencyStats());
+        }
+        stats.get(position).merge(results);
+    }
+    
+    /**
+     * Merge every entry of another report into this one
+     * @param other Report to merge; unchanged
+     */
+    public void merge(LatencyReport other) {
+        synchronized (other) {
+            for (int i = 0; i < other.stats.size(); i++) {
+                add(other.modes.get(i), other.operators.get(i), other.areas.get(i), other.stats.get(i));
+            }
+        }
+    }
+    
+    public synchronized int getEntryCount() {
+        return stats.size();
+    }
+    
+    public synchronized int getMode(int entry) {
+        return modes.get(entry);
+    }
+    
+    public synchronized String getOperator(int entry) {
+        return operators.get(entry);
+    }
+    
+    public synchronized String getArea(int entry) {
+        return areas.get(entry);
+    }
+    
+    /**
+     * @param entry Entry index
+     * @return Copy of the entry's results
+     */
+    public synchronized LatencyStats getStats(int entry) {
+        LatencyStats copy = new LatencyStats();
+        copy.merge(stats.get(entry));
+        return copy;
+    }
+    
+    /**
+     * Save the report (write to a temporary file, then rename)
+     * @param file Report file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(stats.size());
+            for (int i = 0; i < stats.size(); i++) {
+                out.writeByte(modes.get(i));
+                out.writeUTF(operators.get(i));
+                out.writeUTF(areas.get(i));
+                stats.get(i).writeTo(out);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save latency report: " + file);
+        }
+    }
+    
+    /**
+     * Load a report written by save
+     * @param file Report file
+     * @return The decoded report
+     * @throws IOException if the file cannot be read or holds an unknown format
+     */
+    public static LatencyReport load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a latency report: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported latency report version: " + version);
+            }
+            LatencyReport report = new LatencyReport();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int mode = in.readUnsignedByte();
+                String operator = in.readUTF();
+                String area = in.readUTF();
+                report.add(mode, operator, area, LatencyStats.readFrom(in));
+            }
+            return report;
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < stats.size(); i++) {
+            builder.append(modes.get(i) == LatencyProbe.MODE_UDP_ECHO ? "udp " : "tcp ").append(operators.get(i)).append(" @ ").append(areas.get(i)).append(": ")
+                    .append(stats.get(i)).append('\n');
+        }
+        return builder.toString();
+    }
+}
\ No newline at end of file
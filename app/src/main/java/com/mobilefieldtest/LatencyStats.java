@@ -0,0 +1,145 @@
+package com.mobilefieldtest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Latency probe results for one operator in one test area
+ * Round-trip times go to one histogram and the change between consecutive
+ * answered probes (IP packet delay variation) to another, so both the RTT
+ * percentiles and the jitter stay exact under merging.
+ *
+ * Not thread-safe; a probe run fills its own instance, which is then merged
+ * into a LatencyReport.
+ */
+public final class LatencyStats {
+    
+    private final LatencyHistogram rtt;
+    private final LatencyHistogram jitter;
+    private long sent;
+    
+    // RTT of the previous answered probe of the current run, or -1
+    private long lastRtt = -1;
+    
+    public LatencyStats() {
+        this(new LatencyHistogram(), new LatencyHistogram(), 0);
+    }
+    
+    private LatencyStats(LatencyHistogram rtt, LatencyHistogram jitter, long sent) {
+        this.rtt = rtt;
+        this.jitter = jitter;
+        this.sent = sent;
+    }
+    
+    /**
+     * Record an answered probe
+     * @param rttMicros Round-trip time in microseconds
+     */
+    public void recordRtt(long rttMicros) {
+        sent++;
+        rtt.record(rttMicros);
+        if (lastRtt >= 0) {
+            jitter.record(Math.abs(rttMicros - lastRtt));
+        }
+        lastRtt = rttMicros;
+    }
+    
+    /**
+     * Record a probe that was not answered in time
+     */
+    public void recordLoss() {
+        sent++;
+    }
+    
+    /**
+     * End a probe run, so jitter is not measured across two runs
+     */
+    public void endRun() {
+        lastRtt = -1;
+    }
+    
+    /**
+     * Add another instance's results to this one
+     * @param other Results to merge; unchanged
+     */
+    public void merge(LatencyStats other) {
+        rtt.merge(other.rtt);
+        jitter.merge(other.jitter);
+        sent += other.sent;
+    }
+    
+    public long getSent() {
+        return sent;
+    }
+    
+    public long getReceived() {
+        return rtt.getTotalCount();
+    }
+    
+    /**
+     * @return Share of probes not answered, 0 to 1
+     */
+    public double getLossRatio() {
+        return sent > 0 ? (double) (sent - rtt.getTotalCount()) / sent : 0;
+    }
+    
+    /**
+     * @param percentile Percentile in [0, 100]
+     * @return RTT percentile in microseconds
+     */
+    public long getRttPercentile(double percentile) {
+        return rtt.getValueAtPercentile(percentile);
+    }
+    
+    /**
+     * @return Mean delay variation between consecutive answered probes in microseconds
+     */
+    public double getMeanJitter() {
+        return jitter.getMean();
+    }
+    
+    public LatencyHistogram getRttHistogram() {
+        return rtt;
+    }
+    
+    public LatencyHistogram getJitterHistogram() {
+        return jitter;
+    }
+    
+    /**
+     * Write these results in binary form
+     * @param out Destination
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(sent);
+        rtt.writeTo(out);
+        jitter.writeTo(out);
+    }
+    
+    /**
+     * Read results written by writeTo
+     * @param in Source
+     * @return The decoded results
+     * @throws IOException if the source fails or holds an unknown format
+     */
+    public static LatencyStats readFrom(DataInput in) throws IOException {
+        long sent = in.readLong();
+        LatencyHistogram rtt = LatencyHistogram.readFrom(in);
+        LatencyHistogram jitter = LatencyHistogram.readFrom(in);
+        return new LatencyStats(rtt, jitter, sent);
+    }
+    
+    @Override
+    public String toString() {
+        return "p50 " + millis(getRttPercentile(50)) + " ms, p90 " + millis(getRttPercentile(90))
+                + " ms, p99 " + millis(getRttPercentile(99)) + " ms, p99.9 " + millis(getRttPercentile(99.9))
+                + " ms, jitter " + millis((long) getMeanJitter()) + " ms, loss "
+                + Math.round(getLossRatio() * 1000) / 10.0 + "% of " + sent;
+    }
+    
+    private static double millis(long micros) {
+        return micros / 10 / 100.0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.mobilefieldtest;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Forwards GPS fixes while a session is recorded
+ * Fixes are stamped with System.currentTimeMillis() on arrival, the clock
+ * the sampler uses, rather than the GPS time, so they line up with the samples.
+ */
+public final class LocationRecorder implements LocationListener {
+    
+    public static final long INTERVAL_MS = 1000;
+    
+    /**
+     * Receives fixes on the main thread
+     */
+    public interface Listener {
+        void onLocation(long timestampMillis, int latitudeE7, int longitudeE7, int accuracyMeters);
+    }
+    
+    private static final String TAG = "LocationRecorder";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private final LocationManager locationManager;
+    private final Context context;
+    private final Listener listener;
+    private boolean started;
+    
+    public LocationRecorder(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.listener = listener;
+    }
+    
+    /**
+     * Start GPS updates
+     * @return false without location permission or GPS
+     */
+    public boolean start() {
+        if (started) {
+            return true;
+        }
+        if (locationManager == null || ContextCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        try {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, INTERVAL_MS, 0, this,
+                    Looper.getMainLooper());
+            started = true;
+        } catch (SecurityException | IllegalArgumentException e) {
+            // Permission revoked meanwhile, or no GPS provider on this device
+            LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Location updates unavailable")
+                    .put("reason", e.toString())
+                    .commit();
+        }
+        return started;
+    }
+    
+    public void stop() {
+        if (started) {
+            locationManager.removeUpdates(this);
+            started = false;
+        }
+    }
+    
+    @Override
+    public void onLocationChanged(Location location) {
+        int accuracy = location.hasAccuracy() ? Math.round(location.getAccuracy()) : SampleRingBuffer.UNAVAILABLE;
+        listener.onLocation(System.currentTimeMillis(), (int) Math.round(location.getLatitude() * 1e7),
+                (int) Math.round(location.getLongitude() * 1e7), accuracy);
+    }
+    
+    // Abstract before API 30
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+    }
+    
+    @Override
+    public void onProviderEnabled(String provider) {
+    }
+    
+    @Override
+    public void onProviderDisabled(String provider) {
+    }
+}
\ No newline at end of file
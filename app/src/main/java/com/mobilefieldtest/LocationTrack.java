@@ -0,0 +1,87 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * Time-ordered location fixes in parallel primitive arrays
+ * Coordinates are in 1e-7 degrees, as stored in session logs.
+ */
+public final class LocationTrack {
+    
+    private long[] timestamps;
+    private int[] latitudes;
+    private int[] longitudes;
+    private int[] accuracies;
+    private int size;
+    
+    public LocationTrack(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        timestamps = new long[capacity];
+        latitudes = new int[capacity];
+        longitudes = new int[capacity];
+        accuracies = new int[capacity];
+    }
+    
+    /**
+     * Add a fix
+     * @param timestamp Fix time in milliseconds
+     * @param latitudeE7 Latitude in 1e-7 degrees
+     * @param longitudeE7 Longitude in 1e-7 degrees
+     * @param accuracyMeters Horizontal accuracy, or SampleRingBuffer.UNAVAILABLE
+     */
+    public void add(long timestamp, int latitudeE7, int longitudeE7, int accuracyMeters) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+        }
+        timestamps[size] = timestamp;
+        latitudes[size] = latitudeE7;
+        longitudes[size] = longitudeE7;
+        accuracies[size] = accuracyMeters;
+        size++;
+    }
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+    
+    public int getLatitudeE7(int index) {
+        return latitudes[index];
+    }
+    
+    public int getLongitudeE7(int index) {
+        return longitudes[index];
+    }
+    
+    public int getAccuracyMeters(int index) {
+        return accuracies[index];
+    }
+    
+    /**
+     * @return Index of the last fix at or before the time, or -1 if there is none
+     */
+    public int floorIndex(long timestamp) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to dense int indexes
+ * Keys get indexes 0, 1, 2, ... in insertion order, so callers keep their
+ * values in parallel primitive arrays. Linear probing over a power-of-two
+ * table of indexes kept at most half full; no boxing and no per-entry
+ * objects. Keys cannot be removed.
+ */
+public final class LongIndexMap {
+    
+    private long[] keys;
+    private int[] table; // index + 1 per slot, 0 when empty
+    private int mask;
+    private int size;
+    
+    public LongIndexMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[Math.max(4, expectedSize)];
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    /**
+     * @return Index of the key, or -1 if absent
+     */
+    public int get(long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    /**
+     * @return Index of the key, adding it with the next free index if absent
+     */
+    public int getOrAdd(long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        int index = size++;
+        if (index == keys.length) {
+            keys = Arrays.copyOf(keys, index * 2);
+        }
+        keys[index] = key;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            table[slot] = index + 1;
+        }
+        return index;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long getKey(int index) {
+        return keys[index];
+    }
+    
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+    
+    /**
+     * Spread all key bits over the low bits (MurmurHash3 finalizer)
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
\ No newline at end of file
@@ -1,16 +1,46 @@
 package com.mobilefieldtest;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.os.BatteryManager;
 import android.os.Bundle;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import com.google.android.material.textfield.MaterialAutoCompleteTextView;
 import com.google.android.material.textfield.TextInputEditText;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Main Activity - Contains the form for Mobile Field Test Prerequisites
@@ -18,37 +48,248 @@ import java.util.List;
  */
 public class MainActivity extends AppCompatActivity {
     
+    private static final String TAG = "MainActivity";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private static final Metrics.Timer INFLATE_TIMER = Metrics.getInstance().timer("main.inflate");
+    private static final Metrics.Timer VALIDATE_TIMER = Metrics.getInstance().timer("form.validate");
+    
+    private static final String STATE_OPERATOR_MASK = "operator_mask";
+    private static final String STATE_OPERATORS_EDITED = "operators_edited";
+    
+    private static final int MENU_EXPORT = 1;
+    private static final int MENU_COMPARE_BUILDS = 2;
+    
+    // Quantiles shown in the session summary: p10, median, p90
+    private static final double[] SUMMARY_QUANTILES = {0.1, 0.5, 0.9};
+    
+    // Label of each BuildComparison.METRIC_* in the session summary
+    private static final int[] SUMMARY_METRIC_LABELS = {
+        R.string.summary_rsrp, R.string.summary_rsrq, R.string.summary_sinr, R.string.summary_download,
+        R.string.summary_upload, R.string.summary_udp_rtt, R.string.summary_tcp_rtt
+    };
+    
     // Form input fields
-    private TextInputEditText etEmployeeId;
-    private TextInputEditText etModel;
+    private MaterialAutoCompleteTextView etEmployeeId;
+    private MaterialAutoCompleteTextView etModel;
     private TextInputEditText etBuildVersion;
-    private TextInputEditText etTestArea;
+    private MaterialAutoCompleteTextView etTestArea;
     private Spinner spinnerBuildType;
     
-    // Operator checkboxes
-    private CheckBox cbRobi;
-    private CheckBox cbAirtel;
-    private CheckBox cbGrameenPhone;
-    private CheckBox cbBanglalink;
-    private CheckBox cbTeletalk;
+    // Operator checkboxes, one per registry entry
+    private LinearLayout llOperators;
+    private OperatorRegistry operatorRegistry;
+    
+    // Detected SIMs pre-select their operators until the user changes the selection
+    private boolean operatorsEdited;
+    private boolean applyingDetectedOperators;
+    private final SimDetectionUtil.OnSimSnapshotChangedListener operatorPreselector =
+            this::preselectDetectedOperators;
     
     // Action buttons
     private Button btnNext;
     private Button btnReset;
+    private Button btnPlan;
+    
+    // Operator test progress
+    private ProgressBar progressTests;
+    private TextView tvTestStatus;
+    private TextView tvRadioEvent;
+    private AlertDialog summaryDialog;
     
     // Lists for validation
-    private List<TextInputEditText> editTextList;
+    private List<EditText> editTextList;
     private List<CheckBox> checkBoxList;
     
+    // Measurement
+    private SimDetectionUtil simDetectionUtil;
+    private MeasurementSampler measurementSampler;
+    private SessionJournal sessionJournal;
+    private RadioEventDetector radioEventDetector;
+    private LocationRecorder locationRecorder;
+    private long sessionStartTime;
+    
+    // Per-operator tests
+    private OperatorTestScheduler operatorTestScheduler;
+    private final Runnable testProgressUpdater = this::updateTestProgress;
+    private LatencyReport latencyReport;
+    private ThroughputReport throughputReport;
+    private SessionSummary sessionSummary;
+    private SamplingGovernor samplingGovernor;
+    // Records SIM swaps in the session log; the governor follows them in the sampler
+    private final SimDetectionUtil.OnSimSnapshotChangedListener subscriptionLogger = this::logSubscriptions;
+    
+    // Feeds battery changes to the governor while a session is recorded
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            SamplingGovernor governor = samplingGovernor;
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (governor != null && level >= 0 && scale > 0) {
+                governor.setBattery(level * 100 / scale, intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+            }
+        }
+    };
+    
+    // Stream buffers for throughput tests, reused across runs
+    private final DirectBufferPool throughputBuffers =
+            new DirectBufferPool(Constants.THROUGHPUT_BUFFER_SIZE, ThroughputTest.DEFAULT_STREAMS);
+    
+    // Background upload of finished sessions
+    private SessionUploader sessionUploader;
+    private ExecutorService uploadExecutor;
+    
+    // Coverage maps, updated with each finished session
+    private final ExecutorService coverageExecutor = Executors.newSingleThreadExecutor();
+    
+    // Set while a build comparison runs after the coverage updates
+    private final AtomicBoolean comparisonRunning = new AtomicBoolean();
+    
+    // Catalog of stored sessions for queries, updated with the coverage maps
+    private volatile SessionIndex sessionIndex;
+    
+    // Suggestions for the free-text fields, from past sessions and the roster
+    private AutocompleteStore autocompleteStore;
+    private final ExecutorService autocompleteExecutor = Executors.newSingleThreadExecutor();
+    
+    // Export of stored sessions for spreadsheet and GIS tools
+    private SessionExporter sessionExporter;
+    private SessionExporter.Job exportJob;
+    private int exportPercent;
+    
+    // Sessions planned ahead, started when their SIMs and the device allow
+    private SessionQueueScheduler sessionQueueScheduler;
+    private long plannedSessionId;
+    
+    // Spinner items and operators prepared off the main thread during startup
+    private static volatile String[] preparedBuildTypes;
+    private static volatile OperatorRegistry preparedOperatorRegistry;
+    // Guarded by the class lock; see recoverInterruptedSession
+    private static boolean interruptedSessionRecovered;
+    
+    /**
+     * Prepare what the form needs before the activity is created
+     * Called from a background thread during startup; onCreate falls back
+     * to doing the work itself if this has not run
+     * @param context Application context
+     */
+    static void prepare(Context context) {
+        // Compile validation rules
+        ValidationUtil.preload();
+        
+        Resources resources = context.getResources();
+        preparedBuildTypes = new String[] {
+            resources.getString(R.string.build_type_user),
+            resources.getString(R.string.build_type_debug),
+            resources.getString(R.string.build_type_demo)
+        };
+        preparedOperatorRegistry = loadOperatorRegistry(context);
+        
+        // Load the compiled layout once so inflation starts from warm resource caches
+        XmlResourceParser parser = resources.getLayout(R.layout.activity_main);
+        parser.close();
+        
+        recoverInterruptedSession(context);
+    }
+    
+    /**
+     * Load the operators of the market under test from the app's assets
+     * @param context Any context
+     * @return Registry, empty if the asset is missing or invalid
+     */
+    private static OperatorRegistry loadOperatorRegistry(Context context) {
+        try {
+            InputStream in = context.getAssets().open(Constants.OPERATOR_REGISTRY_ASSET);
+            try {
+                return OperatorRegistry.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not load operator registry", e);
+            return new OperatorRegistry(new String[0], new int[0][]);
+        }
+    }
+    
+    /**
+     * Complete a session log left behind when the process was killed mid-session
+     * Runs once per process: whichever of startup, the first session and the
+     * upload and coverage tasks gets here first recovers, and the others wait
+     * for it. Later calls return at once, so a live session is never recovered.
+     * @param context Any context
+     */
+    private static synchronized void recoverInterruptedSession(Context context) {
+        if (interruptedSessionRecovered) {
+            return;
+        }
+        interruptedSessionRecovered = true;
+        File journalFile = new File(context.getFilesDir(), Constants.SESSION_JOURNAL_FILE);
+        try {
+            SessionJournal.recover(journalFile);
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not recover interrupted session", e);
+        }
+    }
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        LOG.start(new File(getFilesDir(), Constants.LOG_DIR));
+        
+        final StartupTrace startupTrace = StartupTrace.getInstance();
+        startupTrace.begin("main_create");
+        long inflateStart = INFLATE_TIMER.start();
         setContentView(R.layout.activity_main);
+        INFLATE_TIMER.stop(inflateStart);
         
         initializeViews();
         setupSpinner();
         setupClickListeners();
         initializeLists();
+        setupAutocomplete();
+        if (savedInstanceState != null) {
+            restoreOperatorSelection(savedInstanceState);
+        }
+        initializeMeasurement();
+        startBackgroundUpload();
+        updateCoverage();
+        startupTrace.end("main_create");
+        
+        // Record the first frame and export the startup trace
+        getWindow().getDecorView().post(() -> {
+            startupTrace.mark("main_first_frame");
+            exportStartupTrace(startupTrace);
+        });
+    }
+    
+    /**
+     * Write the startup trace to app storage on a background thread
+     * @param startupTrace Trace to export
+     */
+    private void exportStartupTrace(final StartupTrace startupTrace) {
+        final File traceFile = new File(getFilesDir(), Constants.STARTUP_TRACE_FILE);
+        new Thread(() -> {
+            try {
+                startupTrace.writeTo(traceFile);
+            } catch (IOException e) {
+                LOG.error(TAG, "Could not export startup trace", e);
+            }
+        }, "StartupTraceExport").start();
+    }
+    
+    /**
+     * Write the metrics snapshot to app storage on a background thread
+     */
+    private void exportMetrics() {
+        final File metricsFile = new File(getFilesDir(), Constants.METRICS_FILE);
+        new Thread(() -> {
+            try {
+                Metrics.getInstance().writeTo(metricsFile);
+            } catch (IOException e) {
+                LOG.error(TAG, "Could not export metrics", e);
+            }
+        }, "MetricsExport").start();
     }
     
     /**
@@ -62,27 +303,32 @@ public class MainActivity extends AppCompatActivity {
         etTestArea = findViewById(R.id.etTestArea);
         spinnerBuildType = findViewById(R.id.spinnerBuildType);
         
-        // Checkboxes
-        cbRobi = findViewById(R.id.cbRobi);
-        cbAirtel = findViewById(R.id.cbAirtel);
-        cbGrameenPhone = findViewById(R.id.cbGrameenPhone);
-        cbBanglalink = findViewById(R.id.cbBanglalink);
-        cbTeletalk = findViewById(R.id.cbTeletalk);
+        // Operator checkboxes are added to this container
+        llOperators = findViewById(R.id.llOperators);
         
         // Buttons
         btnNext = findViewById(R.id.btnNext);
         btnReset = findViewById(R.id.btnReset);
+        btnPlan = findViewById(R.id.btnPlan);
+        
+        // Progress
+        progressTests = findViewById(R.id.progressTests);
+        tvTestStatus = findViewById(R.id.tvTestStatus);
+        tvRadioEvent = findViewById(R.id.tvRadioEvent);
     }
     
     /**
      * Setup the Build Type spinner with options
      */
     private void setupSpinner() {
-        String[] buildTypes = {
-            getString(R.string.build_type_user),
-            getString(R.string.build_type_debug),
-            getString(R.string.build_type_demo)
-        };
+        String[] buildTypes = preparedBuildTypes;
+        if (buildTypes == null) {
+            buildTypes = new String[] {
+                getString(R.string.build_type_user),
+                getString(R.string.build_type_debug),
+                getString(R.string.build_type_demo)
+            };
+        }
         
         ArrayAdapter<String> adapter = new ArrayAdapter<>(
             this,
@@ -93,6 +339,41 @@ public class MainActivity extends AppCompatActivity {
         spinnerBuildType.setAdapter(adapter);
     }
     
+    /**
+     * Attach suggestion drop-downs to the free-text fields
+     * The indexes are mapped and brought up to date in the background; until
+     * then the fields simply show no suggestions.
+     */
+    private void setupAutocomplete() {
+        autocompleteStore = new AutocompleteStore(new File(getFilesDir(), Constants.AUTOCOMPLETE_DIR));
+        etEmployeeId.setAdapter(new SuggestionAdapter(this, autocompleteStore, ValidationRules.FIELD_EMPLOYEE_ID));
+        etModel.setAdapter(new SuggestionAdapter(this, autocompleteStore, ValidationRules.FIELD_MODEL));
+        etTestArea.setAdapter(new SuggestionAdapter(this, autocompleteStore, ValidationRules.FIELD_TEST_AREA));
+        autocompleteExecutor.execute(autocompleteStore::open);
+        updateAutocomplete();
+    }
+    
+    /**
+     * Add finished sessions and a new roster to the suggestions
+     */
+    private void updateAutocomplete() {
+        final AutocompleteStore store = autocompleteStore;
+        final File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        // The roster is copied in by hand, so it lives where a file manager or adb can reach it
+        File rosterDir = getExternalFilesDir(null);
+        final File rosterFile = new File(rosterDir != null ? rosterDir : getFilesDir(), Constants.ROSTER_FILE);
+        autocompleteExecutor.execute(() -> {
+            try {
+                int added = store.update(sessionDir, rosterFile);
+                if (added > 0) {
+                    LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Suggestions updated").put("sessions", added).commit();
+                }
+            } catch (IOException e) {
+                LOG.error(TAG, "Suggestion update failed", e);
+            }
+        });
+    }
+    
     /**
      * Setup click listeners for buttons
      */
@@ -110,6 +391,13 @@ public class MainActivity extends AppCompatActivity {
                 handleResetButtonClick();
             }
         });
+        
+        btnPlan.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                handlePlanButtonClick();
+            }
+        });
     }
     
     /**
@@ -122,22 +410,398 @@ public class MainActivity extends AppCompatActivity {
         editTextList.add(etBuildVersion);
         editTextList.add(etTestArea);
         
-        checkBoxList = new ArrayList<>();
-        checkBoxList.add(cbRobi);
-        checkBoxList.add(cbAirtel);
-        checkBoxList.add(cbGrameenPhone);
-        checkBoxList.add(cbBanglalink);
-        checkBoxList.add(cbTeletalk);
+        operatorRegistry = preparedOperatorRegistry;
+        if (operatorRegistry == null) {
+            operatorRegistry = loadOperatorRegistry(this);
+        }
+        checkBoxList = new ArrayList<>(operatorRegistry.getOperatorCount());
+        LayoutInflater inflater = getLayoutInflater();
+        for (int i = 0; i < operatorRegistry.getOperatorCount(); i++) {
+            CheckBox checkBox = (CheckBox) inflater.inflate(R.layout.item_operator_checkbox, llOperators, false);
+            checkBox.setText(operatorRegistry.getName(i));
+            checkBox.setOnCheckedChangeListener((button, checked) -> {
+                if (!applyingDetectedOperators) {
+                    operatorsEdited = true;
+                }
+            });
+            llOperators.addView(checkBox);
+            checkBoxList.add(checkBox);
+        }
+    }
+    
+    /**
+     * Check the operators of the active SIMs, unless the user has changed the selection
+     * @param snapshot Current SIM state
+     */
+    private void preselectDetectedOperators(SimSnapshot snapshot) {
+        if (operatorsEdited) {
+            return;
+        }
+        applyCheckedMask(operatorRegistry.getDetectedMask(snapshot));
+    }
+    
+    private void applyCheckedMask(long mask) {
+        applyingDetectedOperators = true;
+        for (int i = 0; i < checkBoxList.size(); i++) {
+            checkBoxList.get(i).setChecked((mask & (1L << i)) != 0);
+        }
+        applyingDetectedOperators = false;
+    }
+    
+    /**
+     * Restore the operator checkboxes, which have no view IDs for the framework to restore
+     * @param state State saved by onSaveInstanceState
+     */
+    private void restoreOperatorSelection(Bundle state) {
+        applyCheckedMask(state.getLong(STATE_OPERATOR_MASK));
+        operatorsEdited = state.getBoolean(STATE_OPERATORS_EDITED);
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(STATE_OPERATOR_MASK,
+                ValidationUtil.getOperatorSelection(operatorRegistry, checkBoxList).getMask());
+        outState.putBoolean(STATE_OPERATORS_EDITED, operatorsEdited);
+    }
+    
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_EXPORT, Menu.NONE, R.string.export_sessions);
+        menu.add(Menu.NONE, MENU_COMPARE_BUILDS, Menu.NONE, R.string.compare_builds);
+        return true;
+    }
+    
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem export = menu.findItem(MENU_EXPORT);
+        export.setTitle(exportJob != null ? getString(R.string.cancel_export, exportPercent)
+                : getString(R.string.export_sessions));
+        return true;
+    }
+    
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_COMPARE_BUILDS) {
+            compareBuilds();
+            return true;
+        }
+        if (item.getItemId() != MENU_EXPORT) {
+            return super.onOptionsItemSelected(item);
+        }
+        if (exportJob != null) {
+            exportJob.cancel();
+        } else {
+            startExport();
+        }
+        return true;
+    }
+    
+    /**
+     * @return Directory for exports and reports, or null if it cannot be created
+     */
+    private File getExportDir() {
+        // Exports are copied off the device, so they go where a file manager or adb can reach them
+        File exportBase = getExternalFilesDir(null);
+        File exportDir = new File(exportBase != null ? exportBase : getFilesDir(), Constants.EXPORT_DIR);
+        if (!exportDir.isDirectory() && !exportDir.mkdirs()) {
+            LOG.begin(DiagnosticLog.LEVEL_ERROR, TAG, "Could not create export directory")
+                    .put("dir", exportDir.getPath())
+                    .commit();
+            return null;
+        }
+        return exportDir;
+    }
+    
+    /**
+     * Compare the build in the form with the build tested before it
+     * Runs after the coverage updates, on the shared fork/join pool; the
+     * deltas are written as a CSV report next to the exports. A comparison
+     * still running turns the next one away.
+     */
+    private void compareBuilds() {
+        final SessionIndex index = sessionIndex;
+        final String candidate = etBuildVersion.getText().toString().trim();
+        final File exportDir = getExportDir();
+        if (index == null || candidate.isEmpty() || exportDir == null) {
+            Toast.makeText(this, R.string.compare_builds_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!comparisonRunning.compareAndSet(false, true)) {
+            Toast.makeText(this, R.string.compare_builds_running, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        final OperatorRegistry registry = operatorRegistry;
+        // The task only holds the application, so a closed screen is not kept alive
+        final Context appContext = getApplicationContext();
+        final Executor mainExecutor = ContextCompat.getMainExecutor(appContext);
+        final AtomicBoolean running = comparisonRunning;
+        coverageExecutor.execute(() -> {
+            String message;
+            try {
+                String baseline = BuildComparison.findPreviousBuild(index, candidate);
+                if (baseline == null) {
+                    message = appContext.getString(R.string.compare_builds_no_baseline, candidate);
+                } else {
+                    List<BuildComparison.Delta> deltas = new BuildComparison(ForkJoinPool.commonPool(), registry)
+                            .compare(BuildComparison.selectSessions(index, sessionDir, baseline, candidate),
+                                    baseline, candidate, BuildComparison.DEFAULT_FALSE_DISCOVERY_RATE);
+                    int regressions = 0;
+                    for (BuildComparison.Delta delta : deltas) {
+                        if (delta.isRegression()) {
+                            regressions++;
+                        }
+                    }
+                    File report = new File(exportDir, "compare_" + baseline.replaceAll("[^A-Za-z0-9._-]", "_")
+                            + "_" + candidate.replaceAll("[^A-Za-z0-9._-]", "_") + ".csv");
+                    BuildComparison.writeReport(deltas, report);
+                    LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Builds compared")
+                            .put("baseline", baseline)
+                            .put("candidate", candidate)
+                            .put("deltas", deltas.size())
+                            .put("regressions", regressions)
+                            .commit();
+                    message = appContext.getString(R.string.compare_builds_finished,
+                            regressions, baseline, candidate, report.getPath());
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error(TAG, "Build comparison failed", e);
+                message = appContext.getString(R.string.compare_builds_failed, String.valueOf(e.getMessage()));
+            } finally {
+                running.set(false);
+            }
+            final String result = message;
+            mainExecutor.execute(() -> Toast.makeText(appContext, result, Toast.LENGTH_LONG).show());
+        });
+    }
+    
+    /**
+     * Export every finished session as CSV, KML and GeoJSON
+     * Progress shows in the menu, which also cancels the export.
+     */
+    private void startExport() {
+        final File exportDir = getExportDir();
+        if (exportDir == null) {
+            return;
+        }
+        File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        // The session being recorded is left out
+        final File activeFile = sessionJournal != null
+                ? new File(sessionDir, sessionStartTime + Constants.SESSION_FILE_EXTENSION) : null;
+        File[] files = sessionDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(Constants.SESSION_FILE_EXTENSION) && !file.equals(activeFile);
+            }
+        });
+        List<File> sessionFiles = new ArrayList<>();
+        if (files != null) {
+            Collections.addAll(sessionFiles, files);
+        }
+        
+        if (sessionExporter == null) {
+            sessionExporter = new SessionExporter(SessionExporter.DEFAULT_CONCURRENCY);
+        }
+        exportPercent = 0;
+        exportJob = sessionExporter.export(sessionFiles, exportDir, SessionExporter.FORMAT_ALL,
+                new SessionExporter.Listener() {
+                    @Override
+                    public void onProgress(int percent) {
+                        runOnUiThread(() -> {
+                            exportPercent = percent;
+                            invalidateOptionsMenu();
+                        });
+                    }
+                    
+                    @Override
+                    public void onSessionFailed(File sessionFile, Exception error) {
+                        // Logged by the exporter; the other sessions are still exported
+                    }
+                    
+                    @Override
+                    public void onFinished(int exported, boolean cancelled) {
+                        runOnUiThread(() -> {
+                            exportJob = null;
+                            invalidateOptionsMenu();
+                            Toast.makeText(MainActivity.this, cancelled ? getString(R.string.export_cancelled)
+                                    : getString(R.string.export_finished, exported, exportDir.getPath()),
+                                    Toast.LENGTH_LONG).show();
+                        });
+                    }
+                });
+        invalidateOptionsMenu();
+    }
+    
+    /**
+     * Set up SIM tracking and the radio measurement sampler
+     */
+    private void initializeMeasurement() {
+        simDetectionUtil = new SimDetectionUtil(new AndroidTelephonyProvider(this),
+                ContextCompat.getMainExecutor(this));
+        simDetectionUtil.start(operatorPreselector);
+        measurementSampler = new MeasurementSampler(simDetectionUtil.createRadioSource(),
+                new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY));
+        startSessionQueue();
+    }
+    
+    /**
+     * Open the planned-session queue and start sessions from it as they become due
+     */
+    private void startSessionQueue() {
+        sessionQueueScheduler = new SessionQueueScheduler(
+                new File(getFilesDir(), Constants.SESSION_QUEUE_FILE), operatorRegistry,
+                this::isReadyForPlannedSession,
+                new SessionQueueScheduler.Listener() {
+                    @Override
+                    public void onSessionDue(PlannedSession session) {
+                        startPlannedSession(session);
+                    }
+                    
+                    @Override
+                    public void onQueueChanged(int size) {
+                        btnPlan.setText(size > 0 ? getString(R.string.plan_session_count, size)
+                                : getString(R.string.plan_session));
+                    }
+                },
+                ContextCompat.getMainExecutor(this),
+                SessionQueueScheduler.DEFAULT_CHECK_INTERVAL_MILLIS);
+        sessionQueueScheduler.start(simDetectionUtil.getSnapshot());
+        simDetectionUtil.start(sessionQueueScheduler);
+    }
+    
+    /**
+     * Device conditions for a planned session; called on the queue's thread
+     * @return True if no session is being recorded and the battery is charging or charged enough
+     */
+    private boolean isReadyForPlannedSession() {
+        if (measurementSampler.isRunning()) {
+            return false;
+        }
+        Intent battery = getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return true;
+        }
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 || level * 100 / scale >= Constants.PLANNED_SESSION_MIN_BATTERY_PERCENT;
+    }
+    
+    /**
+     * Show a due planned session in the form and run it like a submitted one
+     * @param session Session the queue just started
+     */
+    private void startPlannedSession(PlannedSession session) {
+        if (measurementSampler.isRunning() || isFinishing()) {
+            // A session was started by hand meanwhile
+            sessionQueueScheduler.release(session.getId());
+            return;
+        }
+        FormData formData = session.getFormData();
+        etEmployeeId.setText(formData.getEmployeeId(), false);
+        etModel.setText(formData.getModel(), false);
+        etBuildVersion.setText(formData.getBuildVersion());
+        etTestArea.setText(formData.getTestArea(), false);
+        for (int i = 0; i < spinnerBuildType.getCount(); i++) {
+            if (spinnerBuildType.getItemAtPosition(i).toString().equals(formData.getBuildType())) {
+                spinnerBuildType.setSelection(i);
+            }
+        }
+        OperatorSelection selection = operatorRegistry.newSelection();
+        for (String operator : formData.getSelectedOperators()) {
+            selection.setSelected(operatorRegistry.indexOf(operator), true);
+        }
+        applyCheckedMask(selection.getMask());
+        operatorsEdited = true;
+        
+        LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Planned session started")
+                .put("id", session.getId())
+                .put("attempts", session.getAttempts())
+                .commit();
+        Toast.makeText(this, getString(R.string.planned_session_started, formData.getTestArea()),
+                Toast.LENGTH_LONG).show();
+        plannedSessionId = session.getId();
+        proceedToNext(formData);
+    }
+    
+    /**
+     * Close a planned session's log and report the outcome to the queue
+     * @param id Planned session id
+     * @param succeeded False if the tests were cancelled or a step failed; the session is then retried
+     */
+    private void finishPlannedSession(long id, boolean succeeded) {
+        if (plannedSessionId != id) {
+            return;
+        }
+        plannedSessionId = 0;
+        stopMeasurement();
+        sessionQueueScheduler.finish(id, succeeded);
+    }
+    
+    /**
+     * End a session started from the form once its operator tests are done
+     * @param startTime Start time of the session the tests belonged to
+     */
+    private void finishManualSession(long startTime) {
+        if (plannedSessionId != 0 || sessionStartTime != startTime) {
+            // Already stopped, or a planned session has taken over
+            return;
+        }
+        stopMeasurement();
+    }
+    
+    /**
+     * @return True while a session is being recorded or its operator tests are running
+     */
+    private boolean isSessionActive() {
+        return measurementSampler.isRunning()
+                || (operatorTestScheduler != null && !operatorTestScheduler.isFinished());
+    }
+    
+    /**
+     * Upload finished sessions in the background, resuming earlier attempts
+     */
+    private void startBackgroundUpload() {
+        if (Constants.INGEST_URL.isEmpty()) {
+            return;
+        }
+        sessionUploader = new SessionUploader(new HttpUploadTransport(Constants.INGEST_URL),
+                Constants.UPLOAD_CHUNK_SIZE, Constants.UPLOAD_CONCURRENCY);
+        uploadExecutor = Executors.newSingleThreadExecutor();
+        
+        final Context appContext = getApplicationContext();
+        final File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        uploadExecutor.execute(() -> {
+            // An interrupted session is completed before it is sent; a no-op once startup did it
+            recoverInterruptedSession(appContext);
+            try {
+                sessionUploader.uploadPending(sessionDir, null);
+            } catch (IOException e) {
+                // Network unavailable; acknowledged chunks are kept for the next launch
+                LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Upload deferred").put("reason", e.toString()).commit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
     }
     
     /**
      * Handle Next button click - validate and proceed
      */
     private void handleNextButtonClick() {
+        if (isSessionActive()) {
+            // Its reports are filed under its start time; a second run would overwrite them
+            Toast.makeText(this, getString(R.string.session_in_progress), Toast.LENGTH_SHORT).show();
+            return;
+        }
         if (validateAllInputs()) {
             // All validation passed
-            collectFormData();
-            proceedToNext();
+            FormData formData = collectFormData();
+            proceedToNext(formData);
         } else {
             // Validation failed - show error
             Toast.makeText(this, "Please fix the errors and try again", Toast.LENGTH_SHORT).show();
@@ -149,6 +813,7 @@ public class MainActivity extends AppCompatActivity {
      * @return true if all inputs are valid
      */
     private boolean validateAllInputs() {
+        long start = VALIDATE_TIMER.start();
         boolean isValid = true;
         
         // Validate text fields
@@ -163,13 +828,15 @@ public class MainActivity extends AppCompatActivity {
             isValid = false;
         }
         
+        VALIDATE_TIMER.stop(start);
         return isValid;
     }
     
     /**
      * Collect all form data for processing
+     * @return The collected form data
      */
-    private void collectFormData() {
+    private FormData collectFormData() {
         FormData formData = new FormData();
         
         // Collect text data
@@ -180,11 +847,12 @@ public class MainActivity extends AppCompatActivity {
         formData.setTestArea(etTestArea.getText().toString().trim());
         
         // Collect selected operators
-        List<String> selectedOperators = ValidationUtil.getSelectedOperators(checkBoxList);
+        List<String> selectedOperators = ValidationUtil.getSelectedOperators(operatorRegistry, checkBoxList);
         formData.setSelectedOperators(selectedOperators);
         
         // Log the collected data (for debugging)
         logFormData(formData);
+        return formData;
     }
     
     /**
@@ -192,32 +860,567 @@ public class MainActivity extends AppCompatActivity {
      * @param formData The collected form data
      */
     private void logFormData(FormData formData) {
-        System.out.println("=== Form Data Collected ===");
-        System.out.println("Employee ID: " + formData.getEmployeeId());
-        System.out.println("Model: " + formData.getModel());
-        System.out.println("Build Version: " + formData.getBuildVersion());
-        System.out.println("Build Type: " + formData.getBuildType());
-        System.out.println("Test Area: " + formData.getTestArea());
-        System.out.println("Selected Operators: " + formData.getSelectedOperators());
-        System.out.println("========================");
+        if (!LOG.isLoggable(DiagnosticLog.LEVEL_INFO)) {
+            return;
+        }
+        LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Form data collected")
+                .put("employee_id", formData.getEmployeeId())
+                .put("model", formData.getModel())
+                .put("build_version", formData.getBuildVersion())
+                .put("build_type", formData.getBuildType())
+                .put("test_area", formData.getTestArea())
+                .put("operators", formData.getSelectedOperators().toString())
+                .commit();
     }
     
     /**
-     * Proceed to next step (placeholder for now)
+     * Start a session for validated form data: open its log, start sampling
+     * every active subscription and run the operator tests, then confirm the
+     * submitted details
+     * @param formData The collected form data
      */
-    private void proceedToNext() {
+    private void proceedToNext(FormData formData) {
         Toast.makeText(this, "Form validation successful! Ready to proceed.", Toast.LENGTH_LONG).show();
         
-        // TODO: Implement next step logic
-        // This could be:
-        // - Navigate to test configuration screen
-        // - Start network tests
-        // - Save data and proceed to results
+        startMeasurement(formData);
+        startOperatorTests(formData);
         
-        // For now, just show success message
         showSuccessMessage();
     }
     
+    /**
+     * Start sampling every active subscription into a new session log
+     * @param formData Form data stored in the session header
+     */
+    private void startMeasurement(FormData formData) {
+        if (measurementSampler.isRunning()) {
+            return;
+        }
+        openSessionLog(formData);
+        
+        SimSnapshot snapshot = simDetectionUtil.getSnapshot();
+        int[] subscriptionIds = new int[snapshot.getActiveSubscriptionCount()];
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            subscriptionIds[i] = snapshot.getSubscriptionId(i);
+        }
+        
+        // Rates start at the default and are adapted to speed, battery and signal; changes go to the session log
+        samplingGovernor = new SamplingGovernor(measurementSampler);
+        if (sessionJournal != null) {
+            samplingGovernor.setListener(sessionJournal.getLog());
+        }
+        
+        // Fresh detector per session; registered after the journal so a poll's rows are logged before its events
+        radioEventDetector = new RadioEventDetector();
+        radioEventDetector.addListener(event -> tvRadioEvent.post(() -> showRadioEvent(event)));
+        if (sessionJournal != null) {
+            radioEventDetector.addListener(sessionJournal.getLog());
+            logSubscriptions(snapshot);
+            simDetectionUtil.start(subscriptionLogger);
+            startLocationLog(sessionJournal.getLog());
+        }
+        measurementSampler.addListener(radioEventDetector);
+        
+        // Samples go to the operator of each SIM until the operator tests map the subscriptions
+        sessionSummary = new SessionSummary();
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            int plmn = snapshot.getMcc(i) > 0 ? snapshot.getMcc(i) * 1000 + snapshot.getMnc(i) : 0;
+            int operator = plmn != 0 ? operatorRegistry.indexOfPlmn(plmn) : -1;
+            if (operator >= 0) {
+                sessionSummary.setOperator(subscriptionIds[i], operatorRegistry.getName(operator));
+            }
+        }
+        measurementSampler.addListener(sessionSummary);
+        
+        // The governor sets the sampler's subscriptions, now and after every SIM change
+        samplingGovernor.onSimSnapshotChanged(snapshot);
+        simDetectionUtil.start(samplingGovernor);
+        measurementSampler.addListener(samplingGovernor);
+        // The sticky battery state is delivered at once
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        measurementSampler.start();
+    }
+    
+    /**
+     * Record the operators of the sampled subscriptions in the session log
+     * Called at the start of a session and after every SIM change during it.
+     * @param snapshot Subscriptions being sampled
+     */
+    private void logSubscriptions(SimSnapshot snapshot) {
+        SessionJournal journal = sessionJournal;
+        if (journal == null) {
+            return;
+        }
+        int count = snapshot.getActiveSubscriptionCount();
+        int[] subscriptionIds = new int[count];
+        int[] plmns = new int[count];
+        for (int i = 0; i < count; i++) {
+            subscriptionIds[i] = snapshot.getSubscriptionId(i);
+            plmns[i] = snapshot.getMcc(i) > 0 ? snapshot.getMcc(i) * 1000 + snapshot.getMnc(i) : 0;
+        }
+        try {
+            journal.getLog().appendSubscriptions(subscriptionIds, plmns);
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not store subscriptions", e);
+        }
+    }
+    
+    /**
+     * Record the GPS track in the session log
+     * Samples are binned into the coverage grid by the track; without location
+     * permission the session simply has no coverage.
+     * @param log Session log
+     */
+    private void startLocationLog(final SessionLogWriter log) {
+        locationRecorder = new LocationRecorder(this, (timestamp, latitudeE7, longitudeE7, accuracy) -> {
+            try {
+                log.appendLocation(timestamp, latitudeE7, longitudeE7, accuracy);
+            } catch (IOException e) {
+                LOG.error(TAG, "Could not store location", e);
+            }
+            SamplingGovernor governor = samplingGovernor;
+            if (governor != null) {
+                governor.onLocation(timestamp, latitudeE7, longitudeE7, accuracy);
+            }
+        });
+        if (!locationRecorder.start()) {
+            locationRecorder = null;
+        }
+    }
+    
+    /**
+     * Merge finished sessions into the coverage maps of their test areas
+     * Sessions started from now on are left for the next update.
+     */
+    private void updateCoverage() {
+        final long cutoff = System.currentTimeMillis();
+        final File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        final File indexFile = new File(getFilesDir(), Constants.SESSION_INDEX_FILE);
+        final CoverageStore store = new CoverageStore(sessionDir, CoverageGrid.DEFAULT_PRECISION_BITS);
+        final Context appContext = getApplicationContext();
+        coverageExecutor.execute(() -> {
+            // A grid is never rebuilt, so an interrupted session is completed before it is read
+            recoverInterruptedSession(appContext);
+            try {
+                int added = store.updatePending(cutoff);
+                if (added > 0) {
+                    LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Coverage updated").put("sessions", added).commit();
+                }
+            } catch (IOException e) {
+                LOG.error(TAG, "Coverage update failed", e);
+            }
+            updateSessionIndex(indexFile, sessionDir, cutoff);
+        });
+    }
+    
+    /**
+     * Add finished sessions to the session catalog, loading it first if needed
+     * Runs on the coverage executor.
+     */
+    private void updateSessionIndex(File indexFile, File sessionDir, long cutoff) {
+        SessionIndex index = sessionIndex;
+        try {
+            if (index == null) {
+                index = SessionIndex.load(indexFile);
+            }
+        } catch (IOException e) {
+            // Rebuilt from the session logs below
+            LOG.error(TAG, "Could not load session index", e);
+            index = new SessionIndex();
+        }
+        int added = index.update(sessionDir, cutoff);
+        if (added > 0) {
+            try {
+                index.save(indexFile);
+            } catch (IOException e) {
+                LOG.error(TAG, "Could not save session index", e);
+            }
+        }
+        // Published once loaded; later updates are synchronized with queries
+        sessionIndex = index;
+    }
+    
+    /**
+     * Run the test plan for every selected operator on its own subscription
+     * @param formData Form data of the current session
+     */
+    private void startOperatorTests(FormData formData) {
+        if (operatorTestScheduler != null && !operatorTestScheduler.isFinished()) {
+            return;
+        }
+        final LatencyReport report = new LatencyReport();
+        final long plannedId = plannedSessionId;
+        final long startTime = sessionStartTime;
+        final File reportFile = new File(new File(getFilesDir(), Constants.SESSION_DIR),
+                sessionStartTime + Constants.LATENCY_REPORT_EXTENSION);
+        latencyReport = report;
+        final ThroughputReport rates = new ThroughputReport();
+        final File ratesFile = new File(new File(getFilesDir(), Constants.SESSION_DIR),
+                sessionStartTime + Constants.THROUGHPUT_REPORT_EXTENSION);
+        throughputReport = rates;
+        final OperatorTestScheduler scheduler = new OperatorTestScheduler(
+                ValidationUtil.getOperatorSelection(operatorRegistry, checkBoxList), operatorRegistry,
+                simDetectionUtil.getSnapshot(), createTestPlan(formData.getTestArea()));
+        operatorTestScheduler = scheduler;
+        final SessionSummary summary = sessionSummary;
+        if (summary != null) {
+            for (int i = 0; i < scheduler.getOperatorCount(); i++) {
+                summary.setOperator(scheduler.getSubscriptionId(i), scheduler.getOperatorName(i));
+            }
+        }
+        
+        List<String> unmapped = operatorTestScheduler.getUnmappedOperators();
+        if (!unmapped.isEmpty()) {
+            Toast.makeText(this, getString(R.string.operators_without_sim, TextUtils.join(", ", unmapped)),
+                    Toast.LENGTH_LONG).show();
+        }
+        
+        progressTests.setMax(Math.max(1, operatorTestScheduler.getTotalSteps()));
+        progressTests.setVisibility(View.VISIBLE);
+        tvTestStatus.setVisibility(View.VISIBLE);
+        updateTestProgress();
+        
+        operatorTestScheduler.start(new OperatorTestScheduler.Listener() {
+            @Override
+            public void onProgress(int completedSteps, int totalSteps) {
+                // Coalesce bursts; the updater reads the latest counters
+                progressTests.removeCallbacks(testProgressUpdater);
+                progressTests.post(testProgressUpdater);
+            }
+            
+            @Override
+            public void onStepFailed(String operator, String stepName, Throwable error) {
+                LOG.begin(DiagnosticLog.LEVEL_ERROR, TAG, "Test step failed")
+                        .put("operator", operator)
+                        .put("step", stepName)
+                        .put("error", error)
+                        .commit();
+            }
+            
+            @Override
+            public void onFinished(boolean cancelled) {
+                if (report.getEntryCount() > 0) {
+                    LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Latency report")
+                            .put("entries", report.getEntryCount())
+                            .put("file", reportFile.getName())
+                            .commit();
+                    try {
+                        report.save(reportFile);
+                    } catch (IOException e) {
+                        LOG.error(TAG, "Could not save latency report", e);
+                    }
+                }
+                if (rates.getEntryCount() > 0) {
+                    try {
+                        rates.save(ratesFile);
+                    } catch (IOException e) {
+                        LOG.error(TAG, "Could not save throughput report", e);
+                    }
+                }
+                progressTests.post(testProgressUpdater);
+                if (summary != null) {
+                    progressTests.post(() -> showSessionSummary(summary));
+                }
+                if (plannedId != 0) {
+                    final boolean succeeded = !cancelled && scheduler.getFailedSteps() == 0;
+                    progressTests.post(() -> finishPlannedSession(plannedId, succeeded));
+                } else {
+                    // The session ends with its tests, so planned sessions can start again
+                    progressTests.post(() -> finishManualSession(startTime));
+                }
+            }
+        });
+    }
+    
+    /**
+     * Build the test plan run for each operator
+     * @param testArea Test area the latency and throughput results are filed under
+     * @return New test plan
+     */
+    private TestPlan createTestPlan(final String testArea) {
+        TestPlan plan = new TestPlan()
+                // Serving and neighbour cells are recorded by the sampler meanwhile
+                .addStep("signal_survey", false,
+                        subscriptionId -> Thread.sleep(Constants.SIGNAL_SURVEY_DURATION_MS));
+        
+        if (!Constants.LATENCY_SERVER_HOST.isEmpty()) {
+            plan.addStep("latency_udp", true,
+                    subscriptionId -> runLatencyProbe(subscriptionId, LatencyProbe.MODE_UDP_ECHO, testArea));
+            plan.addStep("latency_tcp", true,
+                    subscriptionId -> runLatencyProbe(subscriptionId, LatencyProbe.MODE_TCP_CONNECT, testArea));
+        }
+        if (!Constants.THROUGHPUT_SERVER_HOST.isEmpty()) {
+            // Data tests need the shared radio
+            plan.addStep("download", true,
+                    subscriptionId -> runThroughputTest(subscriptionId, ThroughputTest.DIRECTION_DOWNLOAD, testArea));
+            plan.addStep("upload", true,
+                    subscriptionId -> runThroughputTest(subscriptionId, ThroughputTest.DIRECTION_UPLOAD, testArea));
+        }
+        return plan;
+    }
+    
+    /**
+     * Run one throughput test over the subscription's own data network
+     * @param subscriptionId Subscription under test
+     * @param direction ThroughputTest.DIRECTION_DOWNLOAD or DIRECTION_UPLOAD
+     * @param testArea Test area the results are filed under
+     * @throws IOException if the subscription's network cannot be used; nothing is filed
+     */
+    private void runThroughputTest(int subscriptionId, int direction, String testArea) throws Exception {
+        ThroughputTest.Result result;
+        SubscriptionNetwork network = requestSubscriptionNetwork(subscriptionId);
+        try {
+            InetSocketAddress server = network.resolve(
+                    Constants.THROUGHPUT_SERVER_HOST, Constants.THROUGHPUT_SERVER_PORT);
+            ThroughputTest test = new ThroughputTest(server, direction, ThroughputTest.DEFAULT_STREAMS,
+                    throughputBuffers);
+            test.setSocketConfigurator(network);
+            result = test.run();
+        } finally {
+            network.close();
+        }
+        String operator = getOperatorName(subscriptionId);
+        throughputReport.add(operator, testArea, result);
+        SessionSummary summary = sessionSummary;
+        if (summary != null) {
+            summary.add(operator, result);
+        }
+        LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Throughput test finished")
+                .put("subscription", subscriptionId)
+                .put("result", result.toString())
+                .commit();
+    }
+    
+    /**
+     * Probe latency over the subscription's own data network and add the results to the session's report
+     * @param subscriptionId Subscription under test
+     * @param mode LatencyProbe.MODE_UDP_ECHO or MODE_TCP_CONNECT
+     * @param testArea Test area the results are filed under
+     * @throws IOException if the subscription's network cannot be used; nothing is filed
+     */
+    private void runLatencyProbe(int subscriptionId, int mode, String testArea) throws Exception {
+        int port = mode == LatencyProbe.MODE_UDP_ECHO ? Constants.LATENCY_ECHO_PORT : Constants.LATENCY_TCP_PORT;
+        LatencyStats results = new LatencyStats();
+        SubscriptionNetwork network = requestSubscriptionNetwork(subscriptionId);
+        try {
+            LatencyProbe probe = new LatencyProbe(network.resolve(Constants.LATENCY_SERVER_HOST, port), mode);
+            probe.setSocketConfigurator(network);
+            probe.run(results);
+        } finally {
+            network.close();
+        }
+        String operator = getOperatorName(subscriptionId);
+        latencyReport.add(mode, operator, testArea, results);
+        SessionSummary summary = sessionSummary;
+        if (summary != null) {
+            summary.add(mode, operator, results);
+        }
+    }
+    
+    /**
+     * Hold the subscription's cellular network for one test step
+     * @param subscriptionId Subscription under test
+     * @return Network to bind the step's sockets to; close when done
+     * @throws IOException if the network is not available
+     */
+    private SubscriptionNetwork requestSubscriptionNetwork(int subscriptionId)
+            throws IOException, InterruptedException {
+        boolean onlySubscription = simDetectionUtil.getSnapshot().getActiveSubscriptionCount() == 1;
+        return SubscriptionNetwork.request(this, subscriptionId, onlySubscription,
+                Constants.NETWORK_REQUEST_TIMEOUT_MS);
+    }
+    
+    /**
+     * @param subscriptionId Subscription under test
+     * @return Name of the operator the scheduler mapped to the subscription
+     */
+    private String getOperatorName(int subscriptionId) {
+        OperatorTestScheduler scheduler = operatorTestScheduler;
+        for (int i = 0; i < scheduler.getOperatorCount(); i++) {
+            if (scheduler.getSubscriptionId(i) == subscriptionId) {
+                return scheduler.getOperatorName(i);
+            }
+        }
+        return String.valueOf(subscriptionId);
+    }
+    
+    /**
+     * Show operator test progress; reads the scheduler's counters on the main thread
+     */
+    private void updateTestProgress() {
+        OperatorTestScheduler scheduler = operatorTestScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        int completed = scheduler.getCompletedSteps();
+        progressTests.setProgress(completed);
+        if (!scheduler.isFinished()) {
+            tvTestStatus.setText(getString(R.string.test_progress, completed, scheduler.getTotalSteps()));
+        } else if (scheduler.getFailedSteps() > 0) {
+            tvTestStatus.setText(getString(R.string.tests_failed_steps, scheduler.getFailedSteps()));
+        } else {
+            tvTestStatus.setText(R.string.tests_finished);
+        }
+    }
+    
+    /**
+     * Show the latest radio event under the test status
+     * @param event Event raised by the detector
+     */
+    private void showRadioEvent(RadioEvent event) {
+        tvRadioEvent.setText(getString(R.string.radio_event, event.getTypeName(), event.getSubscriptionId()));
+        tvRadioEvent.setVisibility(View.VISIBLE);
+        LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Radio event")
+                .put("type", event.getTypeName())
+                .put("subscription", event.getSubscriptionId())
+                .put("cell", event.getCellKey())
+                .put("previous_cell", event.getPreviousCellKey())
+                .put("rsrp", event.getRsrp())
+                .commit();
+    }
+    
+    /**
+     * Create the session log and its journal and attach them to the sampler
+     * Sampling still runs if the log cannot be created
+     * @param formData Form data stored in the session header
+     */
+    private void openSessionLog(FormData formData) {
+        // Only if startup has not got to it yet; waits while it is running
+        recoverInterruptedSession(this);
+        
+        File sessionDir = new File(getFilesDir(), Constants.SESSION_DIR);
+        if (!sessionDir.isDirectory() && !sessionDir.mkdirs()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        sessionStartTime = startTime;
+        File sessionFile = new File(sessionDir, startTime + Constants.SESSION_FILE_EXTENSION);
+        File journalFile = new File(getFilesDir(), Constants.SESSION_JOURNAL_FILE);
+        SessionLogWriter sessionLog = null;
+        try {
+            sessionLog = new SessionLogWriter(sessionFile, formData, startTime);
+            sessionJournal = new SessionJournal(journalFile, sessionLog, formData, startTime,
+                    Constants.JOURNAL_COMMIT_INTERVAL_MS);
+            measurementSampler.addListener(sessionJournal);
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not open session log", e);
+            if (sessionLog != null) {
+                closeQuietly(sessionLog);
+            }
+        }
+    }
+    
+    /**
+     * Stop sampling and close the session log
+     */
+    private void stopMeasurement() {
+        if (measurementSampler != null) {
+            measurementSampler.stop();
+        }
+        if (radioEventDetector != null) {
+            measurementSampler.removeListener(radioEventDetector);
+            radioEventDetector = null;
+        }
+        if (locationRecorder != null) {
+            locationRecorder.stop();
+            locationRecorder = null;
+        }
+        if (sessionSummary != null) {
+            measurementSampler.removeListener(sessionSummary);
+        }
+        if (samplingGovernor != null) {
+            unregisterReceiver(batteryReceiver);
+            simDetectionUtil.removeListener(samplingGovernor);
+            measurementSampler.removeListener(samplingGovernor);
+            samplingGovernor = null;
+        }
+        if (sessionJournal != null) {
+            simDetectionUtil.removeListener(subscriptionLogger);
+            measurementSampler.removeListener(sessionJournal);
+            // Keep the session's metrics with it, so runs can be compared across models
+            try {
+                sessionJournal.getLog().appendMetrics(Metrics.getInstance().toJson());
+            } catch (IOException e) {
+                LOG.error(TAG, "Could not attach metrics", e);
+            }
+            closeQuietly(sessionJournal);
+            sessionJournal = null;
+            saveSessionSummary();
+            updateCoverage();
+            updateAutocomplete();
+            exportMetrics();
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOG.begin(DiagnosticLog.LEVEL_ERROR, TAG, "Could not close")
+                    .put("target", closeable.getClass().getSimpleName())
+                    .put("error", e)
+                    .commit();
+        }
+    }
+    
+    /**
+     * Save the session's distributions next to its log
+     */
+    private void saveSessionSummary() {
+        SessionSummary summary = sessionSummary;
+        if (summary == null || summary.getOperatorCount() == 0) {
+            return;
+        }
+        File file = new File(new File(getFilesDir(), Constants.SESSION_DIR),
+                sessionStartTime + Constants.SESSION_SUMMARY_EXTENSION);
+        try {
+            summary.save(file);
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not save session summary", e);
+        }
+    }
+    
+    /**
+     * Show the distribution of each measured metric per operator
+     * A dialog, since the table runs to several lines per operator
+     * @param summary Summary of the current session
+     */
+    private void showSessionSummary(SessionSummary summary) {
+        if (isFinishing()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (int entry = 0; entry < summary.getOperatorCount(); entry++) {
+            if (message.length() > 0) {
+                message.append('\n');
+            }
+            message.append(summary.getOperator(entry));
+            for (int metric = 0; metric < BuildComparison.METRIC_COUNT; metric++) {
+                QuantileSketch sketch = summary.getSketch(entry, metric);
+                if (sketch.getCount() == 0) {
+                    continue;
+                }
+                float[] values = sketch.getQuantiles(SUMMARY_QUANTILES);
+                // RTTs are kept in microseconds
+                float scale = metric == BuildComparison.METRIC_UDP_RTT
+                        || metric == BuildComparison.METRIC_TCP_RTT ? 1000f : 1f;
+                message.append('\n').append(getString(R.string.summary_metric,
+                        getString(SUMMARY_METRIC_LABELS[metric]),
+                        values[0] / scale, values[1] / scale, values[2] / scale, sketch.getCount()));
+            }
+        }
+        if (message.length() > 0) {
+            if (summaryDialog != null) {
+                summaryDialog.dismiss();
+            }
+            summaryDialog = new AlertDialog.Builder(this)
+                    .setTitle(R.string.summary_title)
+                    .setMessage(message.toString())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+        }
+    }
+    
     /**
      * Show success message with form summary
      */
@@ -230,12 +1433,31 @@ public class MainActivity extends AppCompatActivity {
         message.append("Type: ").append(spinnerBuildType.getSelectedItem().toString()).append("\n");
         message.append("Area: ").append(etTestArea.getText().toString()).append("\n");
         
-        List<String> operators = ValidationUtil.getSelectedOperators(checkBoxList);
+        List<String> operators = ValidationUtil.getSelectedOperators(operatorRegistry, checkBoxList);
         message.append("Operators: ").append(operators.toString());
         
+        SessionIndex index = sessionIndex;
+        if (index != null) {
+            SessionIndex.Selection earlier = index.query(new SessionQuery()
+                    .where(SessionIndex.FIELD_TEST_AREA, etTestArea.getText().toString()));
+            message.append("\nEarlier sessions in area: ").append(earlier.getCount());
+        }
+        
         Toast.makeText(this, message.toString(), Toast.LENGTH_LONG).show();
     }
     
+    /**
+     * Handle Plan button click - validate and queue the session for later
+     */
+    private void handlePlanButtonClick() {
+        if (!validateAllInputs()) {
+            Toast.makeText(this, "Please fix the errors and try again", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        sessionQueueScheduler.add(collectFormData(), SessionQueue.PRIORITY_NORMAL, 0);
+        Toast.makeText(this, getString(R.string.session_planned), Toast.LENGTH_SHORT).show();
+    }
+    
     /**
      * Handle Reset button click - clear all fields
      */
@@ -249,6 +1471,39 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(this, getString(R.string.fields_cleared), Toast.LENGTH_SHORT).show();
     }
     
+    /**
+     * Stop measurement when the form is closed
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (operatorTestScheduler != null) {
+            operatorTestScheduler.cancel();
+        }
+        stopMeasurement();
+        if (summaryDialog != null) {
+            summaryDialog.dismiss();
+        }
+        if (uploadExecutor != null) {
+            uploadExecutor.shutdownNow();
+            sessionUploader.shutdown();
+        }
+        if (simDetectionUtil != null) {
+            simDetectionUtil.stop(operatorPreselector);
+            simDetectionUtil.stop(sessionQueueScheduler);
+        }
+        if (sessionQueueScheduler != null) {
+            // A planned session still running counts as interrupted on the next launch
+            sessionQueueScheduler.stop();
+        }
+        if (sessionExporter != null) {
+            // Unfinished exports are discarded
+            sessionExporter.shutdown();
+        }
+        coverageExecutor.shutdown();
+        autocompleteExecutor.shutdown();
+    }
+    
     /**
      * Handle back button press
      */
@@ -258,35 +1513,4 @@ public class MainActivity extends AppCompatActivity {
         super.onBackPressed();
         finish();
     }
-    
-    /**
-     * Inner class to hold form data
-     */
-    private static class FormData {
-        private String employeeId;
-        private String model;
-        private String buildVersion;
-        private String buildType;
-        private String testArea;
-        private List<String> selectedOperators;
-        
-        // Getters and setters
-        public String getEmployeeId() { return employeeId; }
-        public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
-        
-        public String getModel() { return model; }
-        public void setModel(String model) { this.model = model; }
-        
-        public String getBuildVersion() { return buildVersion; }
-        public void setBuildVersion(String buildVersion) { this.buildVersion = buildVersion; }
-        
-        public String getBuildType() { return buildType; }
-        public void setBuildType(String buildType) { this.buildType = buildType; }
-        
-        public String getTestArea() { return testArea; }
-        public void setTestArea(String testArea) { this.testArea = testArea; }
-        
-        public List<String> getSelectedOperators() { return selectedOperators; }
-        public void setSelectedOperators(List<String> selectedOperators) { this.selectedOperators = selectedOperators; }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,383 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Periodic radio measurement sampler
+ * A dedicated thread polls the RadioSource for each subscription on its own
+ * fixed-rate schedule (up to MAX_RATE_HZ) and appends the cells to a
+ * SampleRingBuffer. Listeners are called on the sampler thread right after
+ * each poll with the range of rows it produced. The steady-state loop does
+ * not allocate.
+ *
+ * The schedule runs on a Clock, the system clock unless a ReplayClock is
+ * given to run a trace faster than real time.
+ */
+public final class MeasurementSampler {
+    
+    public static final double MAX_RATE_HZ = 10.0;
+    public static final double DEFAULT_RATE_HZ = 1.0;
+    
+    private static final long MIN_INTERVAL_NANOS = (long) (1_000_000_000L / MAX_RATE_HZ);
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    
+    private static final Metrics.Timer POLL_TIMER = Metrics.getInstance().timer("sampler.poll");
+    private static final Metrics.Timer LISTENER_TIMER = Metrics.getInstance().timer("sampler.listeners");
+    private static final Metrics.Counter ROW_COUNTER = Metrics.getInstance().counter("sampler.rows");
+    private static final Metrics.Counter OVERRUN_COUNTER = Metrics.getInstance().counter("sampler.overruns");
+    
+    /**
+     * Receives rows as they are sampled, on the sampler thread
+     */
+    public interface Listener {
+        /**
+         * @param buffer Buffer holding the rows
+         * @param subscriptionId Subscription that was sampled
+         * @param fromSequence First new row
+         * @param toSequence One past the last new row
+         */
+        void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId, long fromSequence, long toSequence);
+        
+        /**
+         * A poll found no cells, as while the subscription has no service
+         * @param subscriptionId Subscription that was sampled
+         * @param timestampMillis Poll time
+         */
+        void onPollEmpty(int subscriptionId, long timestampMillis);
+    }
+    
+    /**
+     * Time source of the sampling schedule
+     */
+    public interface Clock {
+        /**
+         * @return Monotonic time in nanoseconds
+         */
+        long nanoTime();
+        
+        /**
+         * @return Wall-clock time stamped on samples, in milliseconds
+         */
+        long currentTimeMillis();
+        
+        /**
+         * Park the calling thread for up to the given time of this clock; may return early
+         */
+        void parkNanos(Object blocker, long nanos);
+    }
+    
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+        
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+        
+        @Override
+        public void parkNanos(Object blocker, long nanos) {
+            LockSupport.parkNanos(blocker, nanos);
+        }
+    };
+    
+    private final RadioSource source;
+    private final SampleRingBuffer buffer;
+    private final Clock clock;
+    
+    // Replaced as a whole so the sampler thread always sees a consistent schedule
+    private volatile Schedule schedule = new Schedule(new int[0], new long[0]);
+    private volatile Listener[] listeners = new Listener[0];
+    
+    private Thread thread;
+    private volatile boolean running;
+    
+    // Written by the sampler thread only
+    private volatile long pollCount;
+    private volatile long overrunCount;
+    private volatile long errorCount;
+    
+    /**
+     * @param source Radio measurements to poll
+     * @param buffer Destination ring buffer; this sampler must be its only writer
+     */
+    public MeasurementSampler(RadioSource source, SampleRingBuffer buffer) {
+        this(source, buffer, SYSTEM_CLOCK);
+    }
+    
+    /**
+     * @param source Radio measurements to poll
+     * @param buffer Destination ring buffer; this sampler must be its only writer
+     * @param clock Time source of the schedule and the sample timestamps
+     */
+    public MeasurementSampler(RadioSource source, SampleRingBuffer buffer, Clock clock) {
+        this.source = source;
+        this.buffer = buffer;
+        this.clock = clock;
+    }
+    
+    /**
+     * Set the subscriptions to sample, all at the same rate
+     * @param subscriptionIds Subscriptions to poll
+     * @param rateHz Polls per second per subscription, at most MAX_RATE_HZ
+     */
+    public synchronized void setSubscriptions(int[] subscriptionIds, double rateHz) {
+        long interval = toIntervalNanos(rateHz);
+        long[] intervals = new long[subscriptionIds.length];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = interval;
+        }
+        schedule = new Schedule(subscriptionIds.clone(), intervals);
+        LockSupport.unpark(thread);
+    }
+    
+    /**
+     * Set the subscriptions to sample, each at its own rate
+     * Subscriptions kept from the previous schedule keep their place in it.
+     * @param subscriptionIds Subscriptions to poll
+     * @param ratesHz Polls per second of each subscription, at most MAX_RATE_HZ
+     */
+    public synchronized void setSubscriptions(int[] subscriptionIds, double[] ratesHz) {
+        if (ratesHz.length != subscriptionIds.length) {
+            throw new IllegalArgumentException("Expected " + subscriptionIds.length + " rates: " + ratesHz.length);
+        }
+        long[] intervals = new long[subscriptionIds.length];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = toIntervalNanos(ratesHz[i]);
+        }
+        schedule = new Schedule(subscriptionIds.clone(), intervals);
+        LockSupport.unpark(thread);
+    }
+    
+    /**
+     * Change the rate of one subscription
+     * @param subscriptionId Subscription already being sampled
+     * @param rateHz Polls per second, at most MAX_RATE_HZ
+     * @return false if the subscription is not being sampled
+     */
+    public synchronized boolean setRate(int subscriptionId, double rateHz) {
+        Schedule current = schedule;
+        for (int i = 0; i < current.subscriptionIds.length; i++) {
+            if (current.subscriptionIds[i] == subscriptionId) {
+                long[] intervals = current.intervalNanos.clone();
+                intervals[i] = toIntervalNanos(rateHz);
+                schedule = new Schedule(current.subscriptionIds, intervals);
+                LockSupport.unpark(thread);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Get the current polling rate of a subscription
+     * @param subscriptionId Subscription id
+     * @return Rate in Hz, or 0 if the subscription is not being sampled
+     */
+    public double getRate(int subscriptionId) {
+        Schedule current = schedule;
+        for (int i = 0; i < current.subscriptionIds.length; i++) {
+            if (current.subscriptionIds[i] == subscriptionId) {
+                return 1_000_000_000.0 / current.intervalNanos[i];
+            }
+        }
+        return 0;
+    }
+    
+    public synchronized void addListener(Listener listener) {
+        Listener[] current = listeners;
+        Listener[] next = new Listener[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = listener;
+        listeners = next;
+    }
+    
+    public synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] next = new Listener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Start the sampler thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "MeasurementSampler");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+    
+    /**
+     * Stop the sampler thread and wait for the current poll to finish
+     */
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    public SampleRingBuffer getBuffer() {
+        return buffer;
+    }
+    
+    /**
+     * @return Number of subscription polls made
+     */
+    public long getPollCount() {
+        return pollCount;
+    }
+    
+    /**
+     * @return Number of polls that started a full interval or more late
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+    
+    /**
+     * @return Number of polls where the source threw
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+    
+    private void runLoop() {
+        Schedule active = null;
+        long[] nextDue = null;
+        
+        while (running) {
+            Schedule current = schedule;
+            if (current != active) {
+                nextDue = reschedule(active, nextDue, current, clock.nanoTime());
+                active = current;
+            }
+            
+            int count = active.subscriptionIds.length;
+            if (count == 0) {
+                clock.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            
+            long now = clock.nanoTime();
+            long earliest = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (nextDue[i] - now <= 0) {
+                    poll(active.subscriptionIds[i]);
+                    nextDue[i] += active.intervalNanos[i];
+                    if (nextDue[i] - now <= 0) {
+                        // Fell behind; skip missed slots instead of bursting
+                        overrunCount++;
+                        OVERRUN_COUNTER.increment();
+                        nextDue[i] = now + active.intervalNanos[i];
+                    }
+                }
+                earliest = Math.min(earliest, nextDue[i]);
+            }
+            
+            long wait = earliest - clock.nanoTime();
+            if (wait > 0) {
+                clock.parkNanos(this, wait);
+            }
+        }
+    }
+    
+    private void poll(int subscriptionId) {
+        long from = buffer.getWriteSequence();
+        long timestamp = clock.currentTimeMillis();
+        long start = POLL_TIMER.start();
+        try {
+            source.sample(subscriptionId, timestamp, buffer);
+        } catch (RuntimeException e) {
+            errorCount++;
+        }
+        POLL_TIMER.stop(start);
+        pollCount++;
+        
+        long to = buffer.getWriteSequence();
+        ROW_COUNTER.add(to - from);
+        start = LISTENER_TIMER.start();
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (to != from) {
+                current[i].onSamplesAppended(buffer, subscriptionId, from, to);
+            } else {
+                // Listeners still learn of the poll, e.g. to time out lost service
+                current[i].onPollEmpty(subscriptionId, timestamp);
+            }
+        }
+        LISTENER_TIMER.stop(start);
+    }
+    
+    /**
+     * Carry due times over for subscriptions that stay in the schedule
+     */
+    private static long[] reschedule(Schedule previous, long[] previousDue, Schedule next, long now) {
+        long[] due = new long[next.subscriptionIds.length];
+        for (int i = 0; i < due.length; i++) {
+            due[i] = now;
+            if (previous == null) {
+                continue;
+            }
+            for (int j = 0; j < previous.subscriptionIds.length; j++) {
+                if (previous.subscriptionIds[j] == next.subscriptionIds[i]) {
+                    // Never wait longer than the new interval
+                    long lastPoll = previousDue[j] - previous.intervalNanos[j];
+                    due[i] = Math.min(previousDue[j], lastPoll + next.intervalNanos[i]);
+                    break;
+                }
+            }
+        }
+        return due;
+    }
+    
+    private static long toIntervalNanos(double rateHz) {
+        if (!(rateHz > 0)) {
+            throw new IllegalArgumentException("Invalid sampling rate: " + rateHz);
+        }
+        return Math.max(MIN_INTERVAL_NANOS, (long) (1_000_000_000L / rateHz));
+    }
+    
+    private static final class Schedule {
+        final int[] subscriptionIds;
+        final long[] intervalNanos;
+        
+        Schedule(int[] subscriptionIds, long[] intervalNanos) {
+            this.subscriptionIds = subscriptionIds;
+            this.intervalNanos = intervalNanos;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,285 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of counters, gauges and timers
+ *
+ * Metrics are looked up by name once, typically into static final fields,
+ * and then updated without locks or allocation:
+ * - Counter: striped over cells a cache line apart, picked by thread, so
+ *   threads counting at the same time do not contend
+ * - Gauge: the last value set
+ * - Timer: durations bucketed in the LatencyHistogram layout (microseconds),
+ *   with the exact count, total and maximum in nanoseconds
+ *
+ * An update costs a few atomic adds, and a timed section two System.nanoTime()
+ * calls on top. The whole registry can be exported as JSON, to a file or
+ * into a session log.
+ */
+public final class Metrics {
+    
+    private static Metrics instance;
+    
+    private final long originNanos = System.nanoTime();
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, Timer> timers = new LinkedHashMap<>();
+    
+    /**
+     * Get the process-wide registry, creating it on first use
+     * @return Shared registry
+     */
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+    
+    /**
+     * @param name Metric name, e.g. "sampler.rows"
+     * @return The counter of that name, created on first use
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+    
+    /**
+     * @param name Metric name
+     * @return The gauge of that name, created on first use
+     */
+    public synchronized Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge();
+            gauges.put(name, gauge);
+        }
+        return gauge;
+    }
+    
+    /**
+     * @param name Metric name
+     * @return The timer of that name, created on first use
+     */
+    public synchronized Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = new Timer();
+            timers.put(name, timer);
+        }
+        return timer;
+    }
+    
+    /**
+     * Format the current values as JSON
+     * Timers give their count, mean, maximum and percentiles in microseconds.
+     * @return JSON object text
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(256 + 64 * (counters.size() + gauges.size())
+                + 128 * timers.size());
+        json.append("{\"uptimeMs\":").append((System.nanoTime() - originNanos) / 1_000_000L);
+        json.append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            json.append(entry.getValue().get());
+        }
+        json.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            json.append(entry.getValue().get());
+        }
+        json.append("},\"timers\":{");
+        first = true;
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            first = appendName(json, entry.getKey(), first);
+            LatencyHistogram histogram = entry.getValue().getHistogram();
+            json.append("{\"count\":").append(histogram.getTotalCount())
+                .append(",\"meanUs\":").append(String.format(Locale.US, "%.3f", entry.getValue().getMeanNanos() / 1000))
+                .append(",\"p50Us\":").append(histogram.getValueAtPercentile(50))
+                .append(",\"p90Us\":").append(histogram.getValueAtPercentile(90))
+                .append(",\"p99Us\":").append(histogram.getValueAtPercentile(99))
+                .append(",\"maxUs\":").append(entry.getValue().getMaxNanos() / 1000)
+                .append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+    
+    /**
+     * Write the current values as JSON, replacing the file
+     * @param file Destination file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        String json = toJson();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+    
+    private static boolean appendName(StringBuilder json, String name, boolean first) {
+        if (!first) {
+            json.append(',');
+        }
+        json.append('"').append(name).append("\":");
+        return false;
+    }
+    
+    /**
+     * Monotonic count, striped by thread
+     */
+    public static final class Counter {
+        // Longs per 64-byte cache line
+        private static final int PADDING = 8;
+        private static final int STRIPES = stripeCount();
+        
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+        
+        Counter() {
+        }
+        
+        public void increment() {
+            cells.getAndIncrement(stripe());
+        }
+        
+        public void add(long delta) {
+            cells.getAndAdd(stripe(), delta);
+        }
+        
+        /**
+         * @return Sum over all stripes; concurrent updates may or may not be included
+         */
+        public long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+        
+        private static int stripe() {
+            // Fibonacci hash of the thread id: consecutive ids land on different stripes
+            long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+            return ((int) (hash >>> 32) & (STRIPES - 1)) * PADDING;
+        }
+        
+        private static int stripeCount() {
+            int processors = Math.max(2, Math.min(64, Runtime.getRuntime().availableProcessors()));
+            return Integer.highestOneBit(processors - 1) << 1;
+        }
+    }
+    
+    /**
+     * Last value set
+     */
+    public static final class Gauge {
+        private volatile long value;
+        
+        Gauge() {
+        }
+        
+        public void set(long value) {
+            this.value = value;
+        }
+        
+        public long get() {
+            return value;
+        }
+    }
+    
+    /**
+     * Duration histogram
+     * Time a section with stop(start()), or record a measured duration.
+     */
+    public static final class Timer {
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        
+        Timer() {
+        }
+        
+        /**
+         * @return Start time to pass to stop()
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+        
+        /**
+         * Record the time since start()
+         * @param startNanos Value returned by start()
+         */
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+        
+        /**
+         * Record one duration
+         * @param nanos Duration in nanoseconds; negative values count as 0
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            counts.getAndIncrement(LatencyHistogram.bucketIndex(Math.min(nanos / 1000, LatencyHistogram.MAX_VALUE)));
+            totalNanos.getAndAdd(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // Lost a race with a larger value or another update; re-check
+            }
+        }
+        
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+        
+        /**
+         * @return Exact mean duration in nanoseconds, or 0 before the first record
+         */
+        public double getMeanNanos() {
+            long count = getCount();
+            return count > 0 ? (double) totalNanos.get() / count : 0;
+        }
+        
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+        
+        /**
+         * @return Copy of the recorded durations in microseconds
+         */
+        public LatencyHistogram getHistogram() {
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return LatencyHistogram.fromBuckets(snapshot, totalNanos.get() / 1000, maxNanos.get() / 1000);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Operators of the market under test, in display order, with their networks
+ * Loaded from a text table with one operator per line:
+ *
+ *     # comment
+ *     GrameenPhone,470-01
+ *     Robi,470-02,470-09
+ *
+ * The first MCC-MNC of an operator is its home network; any further ones
+ * (merged brands, MVNOs on the same core) map to the same operator. A
+ * network resolves to its operator through an int-keyed hash index, so
+ * matching a subscription costs the same for five operators or fifty.
+ * Networks are MCC * 1000 + MNC, as reported by SubscriptionInfo.
+ */
+public final class OperatorRegistry {
+    
+    private final String[] names;
+    private final int[] homePlmns;
+    private final LongIndexMap plmnIndex;
+    private final int[] plmnOperators;
+    
+    /**
+     * @param names Operator names, in display order
+     * @param plmns Networks of each operator, home network first
+     */
+    public OperatorRegistry(String[] names, int[][] plmns) {
+        if (names.length != plmns.length) {
+            throw new IllegalArgumentException("Names and networks differ in length");
+        }
+        if (names.length > OperatorSelection.MAX_OPERATORS) {
+            throw new IllegalArgumentException("At most " + OperatorSelection.MAX_OPERATORS
+                    + " operators are supported");
+        }
+        int plmnCount = 0;
+        for (int[] operatorPlmns : plmns) {
+            if (operatorPlmns.length == 0) {
+                throw new IllegalArgumentException("Every operator needs a home network");
+            }
+            plmnCount += operatorPlmns.length;
+        }
+        this.names = names.clone();
+        this.homePlmns = new int[names.length];
+        this.plmnIndex = new LongIndexMap(plmnCount);
+        this.plmnOperators = new int[plmnCount];
+        for (int i = 0; i < names.length; i++) {
+            homePlmns[i] = plmns[i][0];
+            for (int plmn : plmns[i]) {
+                if (plmnIndex.get(plmn) >= 0) {
+                    throw new IllegalArgumentException("Network " + formatPlmn(plmn) + " listed twice");
+                }
+                plmnOperators[plmnIndex.getOrAdd(plmn)] = i;
+            }
+        }
+    }
+    
+    /**
+     * Parse a registry table
+     * @param in Table text, UTF-8; not closed
+     * @return New registry
+     * @throws IOException if the table cannot be read or has an invalid line
+     */
+    public static OperatorRegistry load(InputStream in) throws IOException {
+        return parse(new InputStreamReader(in, "UTF-8"));
+    }
+    
+    /**
+     * Parse a registry table
+     * @param reader Table text; not closed
+     * @return New registry
+     * @throws IOException if the table cannot be read or has an invalid line
+     */
+    public static OperatorRegistry parse(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        List<String> names = new ArrayList<>();
+        List<int[]> plmns = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length < 2 || fields[0].trim().isEmpty()) {
+                throw new IOException("Line " + lineNumber + ": expected name,MCC-MNC[,MCC-MNC...]");
+            }
+            int[] operatorPlmns = new int[fields.length - 1];
+            for (int i = 1; i < fields.length; i++) {
+                operatorPlmns[i - 1] = parsePlmn(fields[i].trim());
+                if (operatorPlmns[i - 1] < 0) {
+                    throw new IOException("Line " + lineNumber + ": invalid network '" + fields[i].trim() + "'");
+                }
+            }
+            names.add(fields[0].trim());
+            plmns.add(operatorPlmns);
+        }
+        try {
+            return new OperatorRegistry(names.toArray(new String[0]), plmns.toArray(new int[0][]));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+    
+    public int getOperatorCount() {
+        return names.length;
+    }
+    
+    public String getName(int index) {
+        return names[index];
+    }
+    
+    /**
+     * @return Copy of the operator names, in display order
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+    
+    /**
+     * @return Home network of the operator, MCC * 1000 + MNC
+     */
+    public int getHomePlmn(int index) {
+        return homePlmns[index];
+    }
+    
+    /**
+     * @return Index of the operator with that name, ignoring case, or -1
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @param plmn MCC * 1000 + MNC
+     * @return Index of the operator running that network, or -1
+     */
+    public int indexOfPlmn(int plmn) {
+        int index = plmnIndex.get(plmn);
+        return index < 0 ? -1 : plmnOperators[index];
+    }
+    
+    /**
+     * @return Index of the operator running that network, or -1
+     */
+    public int indexOfPlmn(int mcc, int mnc) {
+        return mcc > 0 ? indexOfPlmn(mcc * 1000 + mnc) : -1;
+    }
+    
+    /**
+     * @return New empty selection over these operators
+     */
+    public OperatorSelection newSelection() {
+        return new OperatorSelection(names);
+    }
+    
+    /**
+     * Find the operators of the active SIMs
+     * @param snapshot Current SIM state
+     * @return Bitmask over the operator indexes, as OperatorSelection.getMask()
+     */
+    public long getDetectedMask(SimSnapshot snapshot) {
+        long mask = 0;
+        for (int i = 0; i < snapshot.getActiveSubscriptionCount(); i++) {
+            int index = indexOfPlmn(snapshot.getMcc(i), snapshot.getMnc(i));
+            if (index >= 0) {
+                mask |= 1L << index;
+            }
+        }
+        return mask;
+    }
+    
+    /**
+     * @param text MCC-MNC, e.g. "470-02"
+     * @return MCC * 1000 + MNC, or -1 if malformed
+     */
+    static int parsePlmn(String text) {
+        int dash = text.indexOf('-');
+        if (dash != 3 || text.length() < 6 || text.length() > 7) {
+            return -1;
+        }
+        int mcc = parseDigits(text, 0, dash);
+        int mnc = parseDigits(text, dash + 1, text.length());
+        return mcc < 0 || mnc < 0 ? -1 : mcc * 1000 + mnc;
+    }
+    
+    static String formatPlmn(int plmn) {
+        return String.format(Locale.US, "%03d-%02d", plmn / 1000, plmn % 1000);
+    }
+    
+    private static int parseDigits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of selected operators, kept as a bitmask over a fixed operator table
+ * Selection changes and counts do not allocate; only toList() builds a list
+ */
+public final class OperatorSelection {
+    
+    public static final int MAX_OPERATORS = 64;
+    
+    private final String[] operators;
+    private long selectedMask;
+    
+    /**
+     * @param operators Operator names, in display order
+     */
+    public OperatorSelection(String[] operators) {
+        if (operators.length > MAX_OPERATORS) {
+            throw new IllegalArgumentException("At most " + MAX_OPERATORS + " operators are supported");
+        }
+        this.operators = operators;
+    }
+    
+    /**
+     * Mark an operator as selected or not
+     * @param index Operator index in the table
+     * @param selected New selection state
+     */
+    public void setSelected(int index, boolean selected) {
+        if (index < 0 || index >= operators.length) {
+            throw new IndexOutOfBoundsException("Operator index " + index);
+        }
+        if (selected) {
+            selectedMask |= 1L << index;
+        } else {
+            selectedMask &= ~(1L << index);
+        }
+    }
+    
+    public boolean isSelected(int index) {
+        return (selectedMask & (1L << index)) != 0;
+    }
+    
+    public int count() {
+        return Long.bitCount(selectedMask);
+    }
+    
+    public boolean isEmpty() {
+        return selectedMask == 0;
+    }
+    
+    public void clear() {
+        selectedMask = 0;
+    }
+    
+    public long getMask() {
+        return selectedMask;
+    }
+    
+    public int getOperatorCount() {
+        return operators.length;
+    }
+    
+    public String getOperatorName(int index) {
+        return operators[index];
+    }
+    
+    /**
+     * Get the selected operator names in table order
+     * @return New list sized to the selection
+     */
+    public List<String> toList() {
+        List<String> selected = new ArrayList<>(count());
+        long mask = selectedMask;
+        while (mask != 0) {
+            int index = Long.numberOfTrailingZeros(mask);
+            selected.add(operators[index]);
+            mask &= mask - 1;
+        }
+        return selected;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,245 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a test plan for every selected operator at once
+ * Each selected operator is mapped to an active subscription on one of its
+ * networks (by MCC/MNC through the registry, falling back to the carrier name) and its plan runs on a
+ * bounded pool, one task per subscription. Steps that need the shared radio
+ * take a fair lock for the length of one step, so subscriptions interleave
+ * step by step instead of one running all its radio steps first.
+ *
+ * Progress is kept in atomic counters that any thread can read without
+ * locking; the listener is called on the worker that made progress.
+ */
+public final class OperatorTestScheduler {
+    
+    public static final int MAX_PARALLEL = 4;
+    
+    /**
+     * Progress callbacks, called on worker threads
+     */
+    public interface Listener {
+        void onProgress(int completedSteps, int totalSteps);
+        void onStepFailed(String operator, String stepName, Throwable error);
+        void onFinished(boolean cancelled);
+    }
+    
+    private final TestPlan plan;
+    private final String[] operators;
+    private final int[] subscriptionIds;
+    private final List<String> unmappedOperators = new ArrayList<>();
+    
+    // Shared by radio steps; fair so waiting subscriptions are served in turn
+    private final ReentrantLock radioLock = new ReentrantLock(true);
+    
+    private final AtomicIntegerArray completedSteps;
+    private final AtomicInteger totalCompleted = new AtomicInteger();
+    private final AtomicInteger failedSteps = new AtomicInteger();
+    private final AtomicInteger remainingRuns = new AtomicInteger();
+    
+    private ExecutorService executor;
+    private volatile boolean started;
+    private volatile Listener listener;
+    private volatile boolean cancelled;
+    
+    /**
+     * Map the selected operators to active subscriptions
+     * Operators without a matching subscription are skipped and reported by
+     * getUnmappedOperators(); an operator is never given a subscription
+     * already taken by an earlier one.
+     * @param selection Selected operators, over the registry's operators
+     * @param registry Networks of each operator
+     * @param snapshot Current SIM state
+     * @param plan Plan to run per subscription
+     */
+    public OperatorTestScheduler(OperatorSelection selection, OperatorRegistry registry, SimSnapshot snapshot,
+                                 TestPlan plan) {
+        this.plan = plan;
+        List<String> names = new ArrayList<>(selection.count());
+        int[] ids = new int[selection.count()];
+        for (int i = 0; i < selection.getOperatorCount(); i++) {
+            if (!selection.isSelected(i)) {
+                continue;
+            }
+            String name = selection.getOperatorName(i);
+            int subscriptionId = findSubscription(snapshot, registry, i, name, ids, names.size());
+            if (subscriptionId < 0) {
+                unmappedOperators.add(name);
+            } else {
+                ids[names.size()] = subscriptionId;
+                names.add(name);
+            }
+        }
+        this.operators = names.toArray(new String[0]);
+        this.subscriptionIds = new int[operators.length];
+        System.arraycopy(ids, 0, subscriptionIds, 0, operators.length);
+        this.completedSteps = new AtomicIntegerArray(operators.length);
+    }
+    
+    private static int findSubscription(SimSnapshot snapshot, OperatorRegistry registry, int operator, String name,
+                                        int[] taken, int takenCount) {
+        int count = snapshot.getActiveSubscriptionCount();
+        int byName = -1;
+        for (int i = 0; i < count; i++) {
+            int subscriptionId = snapshot.getSubscriptionId(i);
+            if (contains(taken, takenCount, subscriptionId)) {
+                continue;
+            }
+            if (registry.indexOfPlmn(snapshot.getMcc(i), snapshot.getMnc(i)) == operator) {
+                return subscriptionId;
+            }
+            String carrier = snapshot.getCarrierName(i);
+            if (byName < 0 && carrier != null && carrier.toLowerCase().contains(name.toLowerCase())) {
+                byName = subscriptionId;
+            }
+        }
+        return byName;
+    }
+    
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Start running the plan for every mapped operator
+     * @param listener Progress listener, may be null
+     */
+    public synchronized void start(Listener listener) {
+        if (started) {
+            throw new IllegalStateException("Scheduler already started");
+        }
+        started = true;
+        this.listener = listener;
+        if (operators.length == 0) {
+            if (listener != null) {
+                listener.onFinished(false);
+            }
+            return;
+        }
+        
+        executor = Executors.newFixedThreadPool(Math.min(operators.length, MAX_PARALLEL));
+        remainingRuns.set(operators.length);
+        for (int i = 0; i < operators.length; i++) {
+            final int operatorIndex = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runPlan(operatorIndex);
+                }
+            });
+        }
+        // Let the pool threads exit once the plans are done
+        executor.shutdown();
+    }
+    
+    /**
+     * Stop all runs; steps in progress are interrupted
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    public int getOperatorCount() {
+        return operators.length;
+    }
+    
+    public String getOperatorName(int index) {
+        return operators[index];
+    }
+    
+    public int getSubscriptionId(int index) {
+        return subscriptionIds[index];
+    }
+    
+    /**
+     * @return Selected operators that had no active subscription
+     */
+    public List<String> getUnmappedOperators() {
+        return unmappedOperators;
+    }
+    
+    public int getTotalSteps() {
+        return operators.length * plan.getStepCount();
+    }
+    
+    /**
+     * @return Steps finished across all operators, failed ones included
+     */
+    public int getCompletedSteps() {
+        return totalCompleted.get();
+    }
+    
+    public int getCompletedSteps(int operatorIndex) {
+        return completedSteps.get(operatorIndex);
+    }
+    
+    public int getFailedSteps() {
+        return failedSteps.get();
+    }
+    
+    public boolean isFinished() {
+        return started && remainingRuns.get() == 0;
+    }
+    
+    private void runPlan(int operatorIndex) {
+        int subscriptionId = subscriptionIds[operatorIndex];
+        try {
+            for (int step = 0; step < plan.getStepCount() && !cancelled; step++) {
+                try {
+                    runStep(step, subscriptionId);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    // Steps are independent measurements; carry on with the rest
+                    failedSteps.incrementAndGet();
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onStepFailed(operators[operatorIndex], plan.getStepName(step), e);
+                    }
+                }
+                completedSteps.incrementAndGet(operatorIndex);
+                int completed = totalCompleted.incrementAndGet();
+                Listener current = listener;
+                if (current != null) {
+                    current.onProgress(completed, getTotalSteps());
+                }
+            }
+        } finally {
+            if (remainingRuns.decrementAndGet() == 0) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onFinished(cancelled);
+                }
+            }
+        }
+    }
+    
+    private void runStep(int step, int subscriptionId) throws Exception {
+        if (!plan.usesRadio(step)) {
+            plan.getStep(step).run(subscriptionId);
+            return;
+        }
+        radioLock.lockInterruptibly();
+        try {
+            plan.getStep(step).run(subscriptionId);
+        } finally {
+            radioLock.unlock();
+        }
+    }
+}
\ No newline at end of file
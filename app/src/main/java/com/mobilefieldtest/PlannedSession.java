@@ -0,0 +1,112 @@
+package com.mobilefieldtest;
+
+/**
+ * A test session filled in ahead of time and waiting in a SessionQueue
+ * The form data, priority and deadline are fixed when the session is
+ * queued; attempts and backoff change as the queue schedules it and are
+ * only read consistently on the thread that drives the queue.
+ */
+public final class PlannedSession {
+    
+    private final long id;
+    private final FormData formData;
+    private final int priority;
+    private final long deadlineMillis;
+    private final long createdMillis;
+    
+    // Operators the session needs a SIM for; unresolved if one is not in the registry
+    final long operatorMask;
+    final boolean resolved;
+    
+    // Scheduling state, guarded by the queue
+    int attempts;
+    long notBeforeMillis;
+    boolean leased;
+    
+    // Position in the queue's heaps, maintained by the heap holding the session
+    SessionQueue.SessionHeap heap;
+    int heapIndex = -1;
+    
+    PlannedSession(long id, FormData formData, int priority, long deadlineMillis, long createdMillis,
+                   OperatorRegistry registry) {
+        this.id = id;
+        this.formData = formData;
+        this.priority = priority;
+        this.deadlineMillis = deadlineMillis;
+        this.createdMillis = createdMillis;
+        
+        long mask = 0;
+        boolean allKnown = true;
+        if (formData.getSelectedOperators() != null) {
+            for (String operator : formData.getSelectedOperators()) {
+                int index = registry.indexOf(operator);
+                if (index < 0) {
+                    allKnown = false;
+                } else {
+                    mask |= 1L << index;
+                }
+            }
+        }
+        this.operatorMask = mask;
+        this.resolved = allKnown;
+    }
+    
+    public long getId() {
+        return id;
+    }
+    
+    public FormData getFormData() {
+        return formData;
+    }
+    
+    /**
+     * @return One of the SessionQueue.PRIORITY_* constants
+     */
+    public int getPriority() {
+        return priority;
+    }
+    
+    /**
+     * @return Latest start time, or 0 if the session has no deadline
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+    
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+    
+    /**
+     * @return Number of failed or interrupted runs so far
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    /**
+     * @return Time before which a retry is not started, or 0
+     */
+    public long getNotBeforeMillis() {
+        return notBeforeMillis;
+    }
+    
+    /**
+     * @return True while the session is running
+     */
+    public boolean isLeased() {
+        return leased;
+    }
+    
+    /**
+     * @return False if an operator of the session is not in the registry;
+     *         such a session is kept but never started
+     */
+    public boolean isResolved() {
+        return resolved;
+    }
+    
+    boolean isExpired(long nowMillis) {
+        return deadlineMillis != 0 && nowMillis > deadlineMillis;
+    }
+}
\ No newline at end of file
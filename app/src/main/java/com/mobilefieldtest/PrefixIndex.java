@@ -0,0 +1,323 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted, memory-mapped string index for prefix lookups
+ * Entries are sorted case-insensitively and each carries a weight (how often
+ * it was used). Opening maps the file and reads the fixed header only; a
+ * lookup binary searches the mapped entries for the first one starting with
+ * the prefix and ranks the matches that follow by weight. The index is
+ * immutable: build a new one with a Builder and replace the file.
+ *
+ * File layout: MAGIC, FORMAT_VERSION, the source and roster times it was
+ * built from, the entry count, an offset per entry, then the entries, each a
+ * weight, a char count and the chars as UTF-16.
+ */
+public final class PrefixIndex {
+    
+    static final int MAGIC = 0x4D465450; // "MFTP"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 4;
+    
+    // Matches looked at per lookup; a very short prefix ranks only the first ones
+    public static final int MAX_SCAN = 512;
+    public static final int DEFAULT_LIMIT = 8; // suggestions shown in a drop-down
+    
+    public static final PrefixIndex EMPTY = new PrefixIndex(ByteBuffer.allocate(HEADER_SIZE), 0, 0, 0);
+    
+    private final ByteBuffer data;
+    private final int count;
+    private final long sourceTime;
+    private final long rosterTime;
+    
+    private PrefixIndex(ByteBuffer data, int count, long sourceTime, long rosterTime) {
+        this.data = data;
+        this.count = count;
+        this.sourceTime = sourceTime;
+        this.rosterTime = rosterTime;
+    }
+    
+    /**
+     * Map an index file
+     * @param file Index file
+     * @return Index backed by the mapped file
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static PrefixIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException("Not a prefix index: " + file);
+            }
+            if (data.get(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported prefix index version: " + data.get(4));
+            }
+            int count = data.getInt(21);
+            if (count < 0 || HEADER_SIZE + 4L * count > data.limit()) {
+                throw new IOException("Corrupt prefix index: " + file);
+            }
+            return new PrefixIndex(data, count, data.getLong(5), data.getLong(13));
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * @return Time of the newest source (e.g. session) the index was built from
+     */
+    public long getSourceTime() {
+        return sourceTime;
+    }
+    
+    /**
+     * @return Modification time of the roster last imported into the index
+     */
+    public long getRosterTime() {
+        return rosterTime;
+    }
+    
+    public String getText(int index) {
+        int offset = entryOffset(index);
+        int length = data.getShort(offset + 4) & 0xFFFF;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = data.getChar(offset + 6 + 2 * i);
+        }
+        return new String(chars);
+    }
+    
+    public int getWeight(int index) {
+        return data.getInt(entryOffset(index));
+    }
+    
+    /**
+     * Find the highest-weighted entries starting with a prefix, ignoring case
+     * @param prefix Typed text; leading whitespace is ignored
+     * @param limit Maximum number of suggestions
+     * @return Matches, highest weight first, then in index order
+     */
+    public List<String> lookup(CharSequence prefix, int limit) {
+        int start = 0;
+        while (start < prefix.length() && prefix.charAt(start) <= ' ') {
+            start++;
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        if (start == prefix.length() || limit <= 0) {
+            return result;
+        }
+        int first = lowerBound(prefix, start);
+        int end = first;
+        while (end < count && end - first < MAX_SCAN && startsWith(end, prefix, start)) {
+            end++;
+        }
+        
+        // Keep the best `limit` matches by insertion into a small sorted array
+        int[] best = new int[Math.min(limit, end - first)];
+        int[] bestWeights = new int[best.length];
+        int kept = 0;
+        for (int i = first; i < end; i++) {
+            int weight = getWeight(i);
+            int position = kept;
+            while (position > 0 && bestWeights[position - 1] < weight) {
+                position--;
+            }
+            if (position == best.length) {
+                continue;
+            }
+            int moved = Math.min(kept, best.length - 1) - position;
+            System.arraycopy(best, position, best, position + 1, moved);
+            System.arraycopy(bestWeights, position, bestWeights, position + 1, moved);
+            best[position] = i;
+            bestWeights[position] = weight;
+            kept = Math.min(kept + 1, best.length);
+        }
+        for (int i = 0; i < kept; i++) {
+            result.add(getText(best[i]));
+        }
+        return result;
+    }
+    
+    private int entryOffset(int index) {
+        return data.getInt(HEADER_SIZE + 4 * index);
+    }
+    
+    /**
+     * @return First entry not ordered before the prefix
+     */
+    private int lowerBound(CharSequence prefix, int start) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareToPrefix(middle, prefix, start) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Compare an entry, cut to the prefix length, with the prefix
+     */
+    private int compareToPrefix(int index, CharSequence prefix, int start) {
+        int offset = entryOffset(index);
+        int length = data.getShort(offset + 4) & 0xFFFF;
+        int prefixLength = prefix.length() - start;
+        int common = Math.min(length, prefixLength);
+        for (int i = 0; i < common; i++) {
+            int difference = fold(data.getChar(offset + 6 + 2 * i)) - fold(prefix.charAt(start + i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length >= prefixLength ? 0 : -1;
+    }
+    
+    private boolean startsWith(int index, CharSequence prefix, int start) {
+        return compareToPrefix(index, prefix, start) == 0;
+    }
+    
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+    
+    static int compareFolded(String a, String b) {
+        int common = Math.min(a.length(), b.length());
+        for (int i = 0; i < common; i++) {
+            int difference = fold(a.charAt(i)) - fold(b.charAt(i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length() - b.length();
+    }
+    
+    /**
+     * Collects entries for a new index
+     * Entries that differ only in case are merged: the weights add up and the
+     * spelling of the first one added is kept.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final List<String> texts = new ArrayList<>();
+        private int[] weights = new int[64];
+        
+        /**
+         * Start from the entries of an existing index
+         */
+        public Builder addAll(PrefixIndex index) {
+            for (int i = 0; i < index.size(); i++) {
+                add(index.getText(i), index.getWeight(i));
+            }
+            return this;
+        }
+        
+        /**
+         * @param text Entry text, trimmed; at most 65535 chars
+         * @param weight Added to the entry's weight; 0 adds the entry without ranking it up
+         */
+        public Builder add(String text, int weight) {
+            text = text.trim();
+            if (text.isEmpty() || text.length() > 0xFFFF) {
+                return this;
+            }
+            String key = foldAll(text);
+            Integer position = positions.get(key);
+            if (position == null) {
+                position = texts.size();
+                positions.put(key, position);
+                texts.add(text);
+                if (position == weights.length) {
+                    weights = Arrays.copyOf(weights, position * 2);
+                }
+            }
+            weights[position] += weight;
+            return this;
+        }
+        
+        public int size() {
+            return texts.size();
+        }
+        
+        /**
+         * Write the index (to a temporary file, then rename)
+         * @param file Index file
+         * @param sourceTime Newest source included, see getSourceTime()
+         * @param rosterTime Roster included, see getRosterTime()
+         * @throws IOException if the file cannot be written
+         */
+        public void writeTo(File file, long sourceTime, long rosterTime) throws IOException {
+            final int count = texts.size();
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compareFolded(texts.get(a), texts.get(b));
+                }
+            });
+            
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                out.writeLong(sourceTime);
+                out.writeLong(rosterTime);
+                out.writeInt(count);
+                int offset = HEADER_SIZE + 4 * count;
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(offset);
+                    offset += 4 + 2 + 2 * texts.get(order[i]).length();
+                }
+                for (int i = 0; i < count; i++) {
+                    String text = texts.get(order[i]);
+                    out.writeInt(weights[order[i]]);
+                    out.writeShort(text.length());
+                    out.writeChars(text);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not save prefix index: " + file);
+            }
+        }
+        
+        private static String foldAll(String text) {
+            char[] chars = new char[text.length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = fold(text.charAt(i));
+            }
+            return new String(chars);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,389 @@
+package com.mobilefieldtest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of float values (the KLL sketch)
+ *
+ * Values are kept in levels; an item on level h stands for 2^h inputs.
+ * Level 0 takes new values unsorted, so an update is an array store. When
+ * the sketch is full, the lowest level over its capacity is sorted and
+ * every other item of it (odd or even positions, at random) moves up one
+ * level, halving the level with an error that cancels out on average.
+ * Capacities shrink by 2/3 per level below the top, so the sketch keeps
+ * about 3k items however many values it has seen, and the rank error of a
+ * quantile is about 1.7 / k (under 1% for the default k).
+ *
+ * Two sketches merge by combining their levels and compacting, so the
+ * sketches of many sessions or operators summarise as one. Unlike
+ * LatencyHistogram the sketch needs no value range up front.
+ *
+ * Not thread-safe; update on one thread and merge the results.
+ */
+public final class QuantileSketch {
+    
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+    
+    // Smallest capacity of a level
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final int MAX_LEVELS = 61;
+    
+    private static final int FORMAT_VERSION = 1;
+    
+    private final int k;
+    
+    // Level h holds sizes[h] items; levels above 0 are sorted
+    private float[][] levels;
+    private int[] sizes;
+    private int levelCount;
+    
+    // Items retained before the next compaction
+    private int capacity;
+    private int retained;
+    
+    private long count;
+    private float min = Float.NaN;
+    private float max = Float.NaN;
+    
+    // Xorshift state choosing the half that moves up; fixed seed, so runs are repeatable
+    private long random = 0x9E3779B97F4A7C15L;
+    
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+    
+    /**
+     * @param k Accuracy parameter; the rank error is about 1.7 / k and the
+     *          sketch holds about 3k items
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_K || k > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid k: " + k);
+        }
+        this.k = k;
+        this.levels = new float[1][];
+        this.sizes = new int[1];
+        this.levels[0] = new float[k];
+        this.levelCount = 1;
+        this.capacity = levelCapacity(0);
+    }
+    
+    /**
+     * Add one value
+     * @param value Value to add; NaN is ignored
+     */
+    public void update(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else if (value < min) {
+            min = value;
+        } else if (value > max) {
+            max = value;
+        }
+        count++;
+        if (retained >= capacity) {
+            compress();
+        }
+        append(0, value);
+        retained++;
+    }
+    
+    /**
+     * Add another sketch's values to this one
+     * @param other Sketch to merge; unchanged
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0 || other == this) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        while (levelCount < other.levelCount) {
+            addLevel();
+        }
+        for (int i = 0; i < other.sizes[0]; i++) {
+            append(0, other.levels[0][i]);
+        }
+        for (int h = 1; h < other.levelCount; h++) {
+            mergeSorted(h, other.levels[h], 0, other.sizes[h]);
+        }
+        retained += other.retained;
+        while (retained >= capacity) {
+            compress();
+        }
+    }
+    
+    public void reset() {
+        Arrays.fill(sizes, 0);
+        retained = 0;
+        count = 0;
+        min = Float.NaN;
+        max = Float.NaN;
+    }
+    
+    public int getK() {
+        return k;
+    }
+    
+    /**
+     * @return Number of values added, including merged ones
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * @return Number of items held
+     */
+    public int getRetainedCount() {
+        return retained;
+    }
+    
+    /**
+     * @return Smallest value added, or NaN when empty
+     */
+    public float getMin() {
+        return min;
+    }
+    
+    /**
+     * @return Largest value added, or NaN when empty
+     */
+    public float getMax() {
+        return max;
+    }
+    
+    /**
+     * Value at or below which the given share of the values fall
+     * @param fraction Share in [0, 1], e.g. 0.5 for the median
+     * @return Estimated value, exact at 0 and 1, or NaN when empty
+     */
+    public float getQuantile(double fraction) {
+        return getQuantiles(new double[] {fraction})[0];
+    }
+    
+    /**
+     * Several quantiles at once; sorts the items only once
+     * @param fractions Shares in [0, 1]
+     * @return Estimated value for each share, or NaNs when empty
+     */
+    public float[] getQuantiles(double[] fractions) {
+        float[] result = new float[fractions.length];
+        if (count == 0) {
+            Arrays.fill(result, Float.NaN);
+            return result;
+        }
+        
+        // Items sorted by value with their cumulative weight
+        float[] values = new float[retained];
+        long[] weights = new long[retained];
+        int n = sizes[0];
+        System.arraycopy(levels[0], 0, values, 0, n);
+        Arrays.sort(values, 0, n);
+        Arrays.fill(weights, 0, n, 1);
+        for (int h = 1; h < levelCount; h++) {
+            // Merge the next sorted level into the sorted prefix, from the back
+            int size = sizes[h];
+            int i = n - 1;
+            int j = size - 1;
+            for (int out = n + size - 1; j >= 0; out--) {
+                if (i >= 0 && values[i] > levels[h][j]) {
+                    values[out] = values[i];
+                    weights[out] = weights[i--];
+                } else {
+                    values[out] = levels[h][j--];
+                    weights[out] = 1L << h;
+                }
+            }
+            n += size;
+        }
+        for (int i = 1; i < n; i++) {
+            weights[i] += weights[i - 1];
+        }
+        long total = weights[n - 1];
+        
+        for (int q = 0; q < fractions.length; q++) {
+            double fraction = Math.min(Math.max(fractions[q], 0), 1);
+            if (fraction == 0) {
+                result[q] = min;
+            } else if (fraction == 1) {
+                result[q] = max;
+            } else {
+                // First item whose cumulative weight reaches the wanted rank
+                long rank = Math.max(1, (long) Math.ceil(fraction * total));
+                int position = Arrays.binarySearch(weights, 0, n, rank);
+                if (position < 0) {
+                    position = -position - 1;
+                }
+                result[q] = values[Math.min(position, n - 1)];
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Write the sketch in binary form, about 4 bytes per retained item
+     * @param out Destination
+     * @throws IOException if the destination fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeShort(k);
+        out.writeLong(count);
+        if (count == 0) {
+            return;
+        }
+        out.writeFloat(min);
+        out.writeFloat(max);
+        out.writeByte(levelCount);
+        for (int h = 0; h < levelCount; h++) {
+            out.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeFloat(levels[h][i]);
+            }
+        }
+    }
+    
+    /**
+     * Read a sketch written by writeTo
+     * @param in Source
+     * @return The decoded sketch
+     * @throws IOException if the source fails or holds an unknown format
+     */
+    public static QuantileSketch readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported sketch version: " + version);
+        }
+        int k = in.readUnsignedShort();
+        if (k < MIN_K) {
+            throw new IOException("Invalid sketch k: " + k);
+        }
+        QuantileSketch sketch = new QuantileSketch(k);
+        sketch.count = in.readLong();
+        if (sketch.count == 0) {
+            return sketch;
+        }
+        sketch.min = in.readFloat();
+        sketch.max = in.readFloat();
+        int levelCount = in.readUnsignedByte();
+        if (levelCount < 1 || levelCount > MAX_LEVELS) {
+            throw new IOException("Invalid sketch level count: " + levelCount);
+        }
+        while (sketch.levelCount < levelCount) {
+            sketch.addLevel();
+        }
+        for (int h = 0; h < levelCount; h++) {
+            int size = in.readInt();
+            if (size < 0 || size > 3 * k + MIN_LEVEL_CAPACITY * MAX_LEVELS) {
+                throw new IOException("Invalid sketch level size: " + size);
+            }
+            sketch.ensureCapacity(h, size);
+            for (int i = 0; i < size; i++) {
+                sketch.levels[h][i] = in.readFloat();
+            }
+            sketch.sizes[h] = size;
+            sketch.retained += size;
+        }
+        return sketch;
+    }
+    
+    /**
+     * Compact the lowest level that is over its capacity into the next one
+     */
+    private void compress() {
+        int h = 0;
+        while (h < levelCount - 1 && sizes[h] < levelCapacity(h)) {
+            h++;
+        }
+        if (h == levelCount - 1) {
+            // Only the top level is full: grow the sketch by a level
+            if (levelCount == MAX_LEVELS) {
+                throw new IllegalStateException("Sketch is full");
+            }
+            addLevel();
+        }
+        
+        float[] items = levels[h];
+        int size = sizes[h];
+        if (h == 0) {
+            Arrays.sort(items, 0, size);
+        }
+        // With an odd count the smallest item stays behind
+        int from = size & 1;
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        int offset = (int) (random & 1);
+        int promoted = (size - from) / 2;
+        // Pack the promoted half in place; it is read before the next level may reallocate
+        for (int i = 0; i < promoted; i++) {
+            items[from + i] = items[from + 2 * i + offset];
+        }
+        mergeSorted(h + 1, items, from, promoted);
+        sizes[h] = from;
+        retained -= size - from - promoted;
+    }
+    
+    private void append(int level, float value) {
+        ensureCapacity(level, sizes[level] + 1);
+        levels[level][sizes[level]++] = value;
+    }
+    
+    /**
+     * Merge sorted items into a sorted level
+     */
+    private void mergeSorted(int level, float[] items, int from, int length) {
+        int size = sizes[level];
+        ensureCapacity(level, size + length);
+        float[] target = levels[level];
+        int i = size - 1;
+        int j = from + length - 1;
+        for (int out = size + length - 1; j >= from; out--) {
+            target[out] = i >= 0 && target[i] > items[j] ? target[i--] : items[j--];
+        }
+        sizes[level] = size + length;
+    }
+    
+    private void ensureCapacity(int level, int size) {
+        float[] items = levels[level];
+        if (size > items.length) {
+            levels[level] = Arrays.copyOf(items, Math.max(size, items.length * 2));
+        }
+    }
+    
+    private void addLevel() {
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, levelCount + 1);
+            sizes = Arrays.copyOf(sizes, levelCount + 1);
+        }
+        levels[levelCount] = new float[MIN_LEVEL_CAPACITY];
+        levelCount++;
+        capacity = 0;
+        for (int h = 0; h < levelCount; h++) {
+            capacity += levelCapacity(h);
+        }
+    }
+    
+    /**
+     * @return Capacity of a level: k at the top, shrinking by 2/3 per level below
+     */
+    private int levelCapacity(int level) {
+        int depth = levelCount - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package com.mobilefieldtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Radio event found by RadioEventDetector
+ * Cells are identified by their cell id, or by RAT, ARFCN and PCI where the
+ * modem did not report one (see RadioEventDetector.cellKey()).
+ */
+public final class RadioEvent {
+    
+    public static final int TYPE_HANDOVER = 1;
+    public static final int TYPE_COVERAGE_HOLE_START = 2;
+    public static final int TYPE_COVERAGE_HOLE_END = 3;
+    public static final int TYPE_RSRP_CLIFF = 4;
+    public static final int TYPE_SERVICE_LOST = 5;
+    public static final int TYPE_SERVICE_RESTORED = 6;
+    
+    // Longest encoding: type byte and six varints
+    static final int MAX_ENCODED_SIZE = 1 + 6 * VarInt.MAX_LONG_BYTES;
+    
+    private final int type;
+    private final long timestamp;
+    private final int subscriptionId;
+    private final long cellKey;
+    private final long previousCellKey;
+    private final int rsrp;
+    private final int referenceRsrp;
+    
+    /**
+     * @param type One of the TYPE_ constants
+     * @param timestamp Time of the sample that raised the event, in milliseconds
+     * @param subscriptionId Subscription the event belongs to
+     * @param cellKey Serving cell, or 0 without service
+     * @param previousCellKey Serving cell before a handover, otherwise 0
+     * @param rsrp Serving RSRP of the sample, or SampleRingBuffer.UNAVAILABLE
+     * @param referenceRsrp RSRP the sample was compared with: window mean for
+     *                      coverage holes, window maximum for cliffs, last
+     *                      RSRP on the old cell for handovers
+     */
+    public RadioEvent(int type, long timestamp, int subscriptionId, long cellKey, long previousCellKey,
+                      int rsrp, int referenceRsrp) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.subscriptionId = subscriptionId;
+        this.cellKey = cellKey;
+        this.previousCellKey = previousCellKey;
+        this.rsrp = rsrp;
+        this.referenceRsrp = referenceRsrp;
+    }
+    
+    public int getType() {
+        return type;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public int getSubscriptionId() {
+        return subscriptionId;
+    }
+    
+    public long getCellKey() {
+        return cellKey;
+    }
+    
+    public long getPreviousCellKey() {
+        return previousCellKey;
+    }
+    
+    public int getRsrp() {
+        return rsrp;
+    }
+    
+    public int getReferenceRsrp() {
+        return referenceRsrp;
+    }
+    
+    /**
+     * @return Short English name of the event type
+     */
+    public String getTypeName() {
+        switch (type) {
+            case TYPE_HANDOVER:
+                return "Handover";
+            case TYPE_COVERAGE_HOLE_START:
+                return "Coverage hole";
+            case TYPE_COVERAGE_HOLE_END:
+                return "Coverage restored";
+            case TYPE_RSRP_CLIFF:
+                return "RSRP cliff";
+            case TYPE_SERVICE_LOST:
+                return "Service lost";
+            case TYPE_SERVICE_RESTORED:
+                return "Service restored";
+            default:
+                return "Event " + type;
+        }
+    }
+    
+    /**
+     * Encode for a session log events block
+     * @param dest Destination with at least MAX_ENCODED_SIZE bytes free
+     * @param offset Write position
+     * @return Position after the event
+     */
+    int encode(byte[] dest, int offset) {
+        dest[offset++] = (byte) type;
+        offset = VarInt.writeUnsigned(timestamp, dest, offset);
+        offset = VarInt.writeSigned(subscriptionId, dest, offset);
+        offset = VarInt.writeSigned(cellKey, dest, offset);
+        offset = VarInt.writeSigned(previousCellKey, dest, offset);
+        offset = VarInt.writeSigned(rsrp, dest, offset);
+        return VarInt.writeSigned(referenceRsrp, dest, offset);
+    }
+    
+    /**
+     * Decode an event written by encode, advancing the buffer
+     */
+    static RadioEvent decode(ByteBuffer source) {
+        int type = source.get() & 0xFF;
+        long timestamp = VarInt.readUnsigned(source);
+        int subscriptionId = (int) VarInt.readSigned(source);
+        long cellKey = VarInt.readSigned(source);
+        long previousCellKey = VarInt.readSigned(source);
+        int rsrp = (int) VarInt.readSigned(source);
+        int referenceRsrp = (int) VarInt.readSigned(source);
+        return new RadioEvent(type, timestamp, subscriptionId, cellKey, previousCellKey, rsrp, referenceRsrp);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getTypeName())
+                .append(" at ").append(timestamp)
+                .append(", subscription ").append(subscriptionId);
+        if (type == TYPE_HANDOVER) {
+            builder.append(", cell ").append(Long.toHexString(previousCellKey))
+                    .append(" -> ").append(Long.toHexString(cellKey));
+        }
+        if (rsrp != SampleRingBuffer.UNAVAILABLE) {
+            builder.append(", RSRP ").append(rsrp).append(" dBm");
+        }
+        if (referenceRsrp != SampleRingBuffer.UNAVAILABLE) {
+            builder.append(" (was ").append(referenceRsrp).append(')');
+        }
+        return builder.toString();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RadioEvent)) {
+            return false;
+        }
+        RadioEvent other = (RadioEvent) o;
+        return type == other.type && timestamp == other.timestamp && subscriptionId == other.subscriptionId
+                && cellKey == other.cellKey && previousCellKey == other.previousCellKey
+                && rsrp == other.rsrp && referenceRsrp == other.referenceRsrp;
+    }
+    
+    @Override
+    public int hashCode() {
+        int result = type;
+        result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+        result = 31 * result + subscriptionId;
+        result = 31 * result + (int) (cellKey ^ (cellKey >>> 32));
+        return 31 * result + rsrp;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,369 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * Streaming detector of handovers, coverage holes, RSRP cliffs and service loss
+ *
+ * Consumes one poll at a time, either live as a sampler listener or from a
+ * stored session log via replay(), and does O(1) work per poll: each
+ * subscription keeps a sliding window of its last serving RSRP values with a
+ * running sum (for the window mean) and a monotonic deque (for the window
+ * maximum), both in preallocated arrays. Events are only allocated when one
+ * is raised.
+ *
+ * - Handover: the serving cell changed between two polls with service
+ * - Coverage hole: the window mean fell below the hole threshold; it ends
+ *   once the mean is back above the threshold plus the hysteresis
+ * - RSRP cliff: the serving RSRP fell by the cliff threshold or more below
+ *   the window maximum
+ * - Service loss: a subscription has had no serving cell for the loss
+ *   timeout; checked on every poll of any subscription, including the empty
+ *   polls the sampler reports while a subscription has no service. A stored
+ *   log keeps no empty polls, so replay() raises a loss at the next stored
+ *   poll of any subscription instead.
+ *
+ * Live and replayed runs see the same rows, so they raise the same events.
+ * Not thread-safe: feed it from one thread (the sampler thread when live).
+ * Listeners are called on that thread.
+ */
+public final class RadioEventDetector implements MeasurementSampler.Listener {
+    
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    public static final int DEFAULT_HOLE_THRESHOLD_DBM = -115;
+    public static final int DEFAULT_HOLE_HYSTERESIS_DB = 3;
+    public static final int DEFAULT_CLIFF_THRESHOLD_DB = 15;
+    public static final long DEFAULT_SERVICE_LOSS_MS = 5_000;
+    
+    /**
+     * Receives events as they are detected
+     */
+    public interface Listener {
+        void onRadioEvent(RadioEvent event);
+    }
+    
+    private final int windowSize;
+    private volatile int holeThresholdDbm = DEFAULT_HOLE_THRESHOLD_DBM;
+    private volatile int holeHysteresisDb = DEFAULT_HOLE_HYSTERESIS_DB;
+    private volatile int cliffThresholdDb = DEFAULT_CLIFF_THRESHOLD_DB;
+    private volatile long serviceLossMillis = DEFAULT_SERVICE_LOSS_MS;
+    private volatile Listener[] listeners = new Listener[0];
+    
+    // Per-subscription state, indexed by slot; grown when a new subscription appears
+    private int subscriptionCount;
+    private int[] subscriptionIds = new int[0];
+    private long[] lastServingTime = new long[0];
+    private long[] servingCell = new long[0];
+    private int[] lastRsrp = new int[0];
+    private boolean[] inHole = new boolean[0];
+    private boolean[] lost = new boolean[0];
+    
+    // RSRP window: ring of the last windowSize values and their sum
+    private int[][] window = new int[0][];
+    private int[] windowHead = new int[0];
+    private int[] windowCount = new int[0];
+    private long[] windowSum = new long[0];
+    
+    // Window maximum: ring deque of (sample number, RSRP), RSRP decreasing from the front
+    private long[] sampleNumber = new long[0];
+    private long[][] maxSample = new long[0][];
+    private int[][] maxValue = new int[0][];
+    private int[] maxHead = new int[0];
+    private int[] maxSize = new int[0];
+    
+    public RadioEventDetector() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * @param windowSize Number of serving RSRP values in the sliding window
+     */
+    public RadioEventDetector(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * @param thresholdDbm Window mean RSRP below which a coverage hole starts
+     * @param hysteresisDb Margin above the threshold the mean must regain to end it
+     */
+    public void setHoleThreshold(int thresholdDbm, int hysteresisDb) {
+        this.holeThresholdDbm = thresholdDbm;
+        this.holeHysteresisDb = hysteresisDb;
+    }
+    
+    /**
+     * @param thresholdDb Drop below the window maximum that counts as a cliff
+     */
+    public void setCliffThreshold(int thresholdDb) {
+        this.cliffThresholdDb = thresholdDb;
+    }
+    
+    /**
+     * @param lossMillis Time without a serving cell after which service counts as lost
+     */
+    public void setServiceLossMillis(long lossMillis) {
+        this.serviceLossMillis = lossMillis;
+    }
+    
+    public int getWindowSize() {
+        return windowSize;
+    }
+    
+    public synchronized void addListener(Listener listener) {
+        Listener[] current = listeners;
+        Listener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        listeners = next;
+    }
+    
+    public synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] next = new Listener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next;
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId, long fromSequence, long toSequence) {
+        long timestamp = buffer.getTimestamp(fromSequence);
+        for (long sequence = fromSequence; sequence < toSequence; sequence++) {
+            if (buffer.isServing(sequence)) {
+                long cell = cellKey(buffer.getInt(SampleRingBuffer.INT_RAT, sequence),
+                        buffer.getLong(SampleRingBuffer.LONG_CELL_ID, sequence),
+                        buffer.getInt(SampleRingBuffer.INT_ARFCN, sequence),
+                        buffer.getInt(SampleRingBuffer.INT_PCI, sequence));
+                processPoll(subscriptionId, timestamp, true, cell, buffer.getRsrp(sequence));
+                return;
+            }
+        }
+        processPoll(subscriptionId, timestamp, false, 0, SampleRingBuffer.UNAVAILABLE);
+    }
+    
+    @Override
+    public void onPollEmpty(int subscriptionId, long timestampMillis) {
+        processPoll(subscriptionId, timestampMillis, false, 0, SampleRingBuffer.UNAVAILABLE);
+    }
+    
+    /**
+     * Run every sample of a stored session log through the detector
+     * Rows are grouped back into polls by timestamp and subscription.
+     * @param reader Open session log
+     * @return Number of polls processed
+     */
+    public long replay(SessionLogReader reader) {
+        SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        long polls = 0;
+        
+        // The poll being assembled; a poll can span two blocks
+        boolean pending = false;
+        long pollTime = 0;
+        int pollSubscription = 0;
+        boolean pollServing = false;
+        long pollCell = 0;
+        int pollRsrp = SampleRingBuffer.UNAVAILABLE;
+        
+        for (int b = 0; b < reader.getBlockCount(); b++) {
+            reader.readBlock(b, block);
+            for (int row = 0; row < block.getRowCount(); row++) {
+                long timestamp = block.getTimestamp(row);
+                int subscriptionId = block.getInt(SampleRingBuffer.INT_SUBSCRIPTION_ID, row);
+                if (!pending || timestamp != pollTime || subscriptionId != pollSubscription) {
+                    if (pending) {
+                        processPoll(pollSubscription, pollTime, pollServing, pollCell, pollRsrp);
+                        polls++;
+                    }
+                    pending = true;
+                    pollTime = timestamp;
+                    pollSubscription = subscriptionId;
+                    pollServing = false;
+                }
+                if (!pollServing && (block.getInt(SampleRingBuffer.INT_FLAGS, row) & SampleRingBuffer.FLAG_SERVING) != 0) {
+                    pollServing = true;
+                    pollCell = cellKey(block.getInt(SampleRingBuffer.INT_RAT, row),
+                            block.getLong(SampleRingBuffer.LONG_CELL_ID, row),
+                            block.getInt(SampleRingBuffer.INT_ARFCN, row),
+                            block.getInt(SampleRingBuffer.INT_PCI, row));
+                    pollRsrp = block.getInt(SampleRingBuffer.INT_RSRP, row);
+                }
+            }
+        }
+        if (pending) {
+            processPoll(pollSubscription, pollTime, pollServing, pollCell, pollRsrp);
+            polls++;
+        }
+        return polls;
+    }
+    
+    /**
+     * Identify a cell by its cell id, or by RAT, ARFCN and PCI if the id is unknown
+     * The RAT is kept in the top bits so ids of different RATs do not collide.
+     */
+    public static long cellKey(int rat, long cellId, int arfcn, int pci) {
+        if (cellId != SampleRingBuffer.UNAVAILABLE && cellId != Long.MAX_VALUE && cellId >= 0) {
+            return ((long) rat << 56) | (cellId & 0xFFFFFFFFFFFFFFL);
+        }
+        // Unknown id: bit 55 set, ARFCN and PCI below
+        return ((long) rat << 56) | (1L << 55) | ((long) (arfcn & 0xFFFFFF) << 24) | (pci & 0xFFFFFF);
+    }
+    
+    /**
+     * Process one poll of one subscription
+     * @param subscriptionId Subscription that was polled
+     * @param timestamp Poll time in milliseconds
+     * @param serving Whether the poll reported a serving cell
+     * @param cell Serving cell key, see cellKey()
+     * @param rsrp Serving RSRP, or SampleRingBuffer.UNAVAILABLE
+     */
+    void processPoll(int subscriptionId, long timestamp, boolean serving, long cell, int rsrp) {
+        int slot = slotOf(subscriptionId);
+        checkServiceLoss(timestamp);
+        if (!serving) {
+            return;
+        }
+        
+        if (lost[slot]) {
+            // Back in service; the window restarts on the new cell
+            lost[slot] = false;
+            windowHead[slot] = 0;
+            windowCount[slot] = 0;
+            windowSum[slot] = 0;
+            maxSize[slot] = 0;
+            emit(RadioEvent.TYPE_SERVICE_RESTORED, timestamp, subscriptionId, cell, 0,
+                    rsrp, SampleRingBuffer.UNAVAILABLE);
+        } else if (servingCell[slot] != 0 && servingCell[slot] != cell) {
+            // Cliffs are measured within one cell
+            maxSize[slot] = 0;
+            emit(RadioEvent.TYPE_HANDOVER, timestamp, subscriptionId, cell, servingCell[slot],
+                    rsrp, lastRsrp[slot]);
+        }
+        servingCell[slot] = cell;
+        lastServingTime[slot] = timestamp;
+        lastRsrp[slot] = rsrp;
+        if (rsrp == SampleRingBuffer.UNAVAILABLE) {
+            return;
+        }
+        
+        long sample = sampleNumber[slot]++;
+        updateMaximum(slot, subscriptionId, timestamp, cell, rsrp, sample);
+        updateMean(slot, subscriptionId, timestamp, cell, rsrp);
+    }
+    
+    private void checkServiceLoss(long timestamp) {
+        long lossMillis = serviceLossMillis;
+        for (int i = 0; i < subscriptionCount; i++) {
+            if (!lost[i] && servingCell[i] != 0 && timestamp - lastServingTime[i] >= lossMillis) {
+                lost[i] = true;
+                emit(RadioEvent.TYPE_SERVICE_LOST, timestamp, subscriptionIds[i], 0, servingCell[i],
+                        SampleRingBuffer.UNAVAILABLE, lastRsrp[i]);
+            }
+        }
+    }
+    
+    private void updateMaximum(int slot, int subscriptionId, long timestamp, long cell, int rsrp, long sample) {
+        long[] samples = maxSample[slot];
+        int[] values = maxValue[slot];
+        int head = maxHead[slot];
+        int size = maxSize[slot];
+        
+        // Drop the front if it slid out of the window
+        if (size > 0 && samples[head] <= sample - windowSize) {
+            head = (head + 1) % windowSize;
+            size--;
+        }
+        if (size > 0 && values[head] - rsrp >= cliffThresholdDb) {
+            emit(RadioEvent.TYPE_RSRP_CLIFF, timestamp, subscriptionId, cell, 0, rsrp, values[head]);
+            // Start over from the new level so one drop raises one event
+            size = 0;
+        }
+        // Values not above the new one can never be the maximum again
+        while (size > 0 && values[(head + size - 1) % windowSize] <= rsrp) {
+            size--;
+        }
+        int tail = (head + size) % windowSize;
+        samples[tail] = sample;
+        values[tail] = rsrp;
+        maxHead[slot] = head;
+        maxSize[slot] = size + 1;
+    }
+    
+    private void updateMean(int slot, int subscriptionId, long timestamp, long cell, int rsrp) {
+        int[] values = window[slot];
+        int head = windowHead[slot];
+        if (windowCount[slot] == windowSize) {
+            windowSum[slot] -= values[head];
+        } else {
+            windowCount[slot]++;
+        }
+        values[head] = rsrp;
+        windowSum[slot] += rsrp;
+        windowHead[slot] = (head + 1) % windowSize;
+        if (windowCount[slot] < windowSize) {
+            return;
+        }
+        
+        int mean = (int) Math.floor((double) windowSum[slot] / windowSize);
+        if (!inHole[slot] && mean < holeThresholdDbm) {
+            inHole[slot] = true;
+            emit(RadioEvent.TYPE_COVERAGE_HOLE_START, timestamp, subscriptionId, cell, 0, rsrp, mean);
+        } else if (inHole[slot] && mean >= holeThresholdDbm + holeHysteresisDb) {
+            inHole[slot] = false;
+            emit(RadioEvent.TYPE_COVERAGE_HOLE_END, timestamp, subscriptionId, cell, 0, rsrp, mean);
+        }
+    }
+    
+    private int slotOf(int subscriptionId) {
+        for (int i = 0; i < subscriptionCount; i++) {
+            if (subscriptionIds[i] == subscriptionId) {
+                return i;
+            }
+        }
+        if (subscriptionCount == subscriptionIds.length) {
+            grow(subscriptionCount + 2);
+        }
+        int slot = subscriptionCount++;
+        subscriptionIds[slot] = subscriptionId;
+        window[slot] = new int[windowSize];
+        maxSample[slot] = new long[windowSize];
+        maxValue[slot] = new int[windowSize];
+        return slot;
+    }
+    
+    private void grow(int capacity) {
+        subscriptionIds = Arrays.copyOf(subscriptionIds, capacity);
+        lastServingTime = Arrays.copyOf(lastServingTime, capacity);
+        servingCell = Arrays.copyOf(servingCell, capacity);
+        lastRsrp = Arrays.copyOf(lastRsrp, capacity);
+        inHole = Arrays.copyOf(inHole, capacity);
+        lost = Arrays.copyOf(lost, capacity);
+        window = Arrays.copyOf(window, capacity);
+        windowHead = Arrays.copyOf(windowHead, capacity);
+        windowCount = Arrays.copyOf(windowCount, capacity);
+        windowSum = Arrays.copyOf(windowSum, capacity);
+        sampleNumber = Arrays.copyOf(sampleNumber, capacity);
+        maxSample = Arrays.copyOf(maxSample, capacity);
+        maxValue = Arrays.copyOf(maxValue, capacity);
+        maxHead = Arrays.copyOf(maxHead, capacity);
+        maxSize = Arrays.copyOf(maxSize, capacity);
+    }
+    
+    private void emit(int type, long timestamp, int subscriptionId, long cell, long previousCell,
+                      int rsrp, int referenceRsrp) {
+        Listener[] current = listeners;
+        if (current.length == 0) {
+            return;
+        }
+        RadioEvent event = new RadioEvent(type, timestamp, subscriptionId, cell, previousCell, rsrp, referenceRsrp);
+        for (int i = 0; i < current.length; i++) {
+            current[i].onRadioEvent(event);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.mobilefieldtest;
+
+/**
+ * Source of serving and neighbour cell measurements
+ * Implemented over TelephonyManager on devices and by synthetic or replayed
+ * sources on the JVM, so the measurement pipeline can run without a phone
+ */
+public interface RadioSource {
+    
+    /**
+     * Read the current cells of one subscription into the buffer
+     * Called from the sampler thread; implementations should not allocate
+     * per call where the platform allows it
+     * @param subscriptionId Subscription to measure
+     * @param timestampMillis Sample time to stamp on every row
+     * @param buffer Destination for one row per cell
+     * @return Number of rows appended
+     */
+    int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer);
+}
\ No newline at end of file
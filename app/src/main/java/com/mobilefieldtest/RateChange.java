@@ -0,0 +1,112 @@
+package com.mobilefieldtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sampling rate change made by SamplingGovernor
+ * Carries the inputs the decision was based on, so a session shows why it
+ * was sampled faster or slower at any point.
+ */
+public final class RateChange {
+    
+    // Value for inputs that were not known, e.g. speed without a location fix
+    public static final int UNKNOWN = -1;
+    
+    // Longest encoding: seven varints
+    static final int MAX_ENCODED_SIZE = 7 * VarInt.MAX_LONG_BYTES;
+    
+    private final long timestamp;
+    private final int subscriptionId;
+    private final int previousIntervalMillis;
+    private final int intervalMillis;
+    private final int speedCentimetersPerSecond;
+    private final int trendMillibelsPerSecond;
+    private final int batteryPercent;
+    
+    /**
+     * @param timestamp Time of the poll that led to the change, in milliseconds
+     * @param subscriptionId Subscription whose rate changed
+     * @param previousIntervalMillis Sampling interval before the change
+     * @param intervalMillis Sampling interval from now on
+     * @param speedCentimetersPerSecond Smoothed speed, or UNKNOWN
+     * @param trendMillibelsPerSecond Change of the smoothed serving RSRP in
+     *                                0.01 dB per second, or UNKNOWN
+     * @param batteryPercent Battery level, or UNKNOWN
+     */
+    public RateChange(long timestamp, int subscriptionId, int previousIntervalMillis, int intervalMillis,
+                      int speedCentimetersPerSecond, int trendMillibelsPerSecond, int batteryPercent) {
+        this.timestamp = timestamp;
+        this.subscriptionId = subscriptionId;
+        this.previousIntervalMillis = previousIntervalMillis;
+        this.intervalMillis = intervalMillis;
+        this.speedCentimetersPerSecond = speedCentimetersPerSecond;
+        this.trendMillibelsPerSecond = trendMillibelsPerSecond;
+        this.batteryPercent = batteryPercent;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public int getSubscriptionId() {
+        return subscriptionId;
+    }
+    
+    public int getPreviousIntervalMillis() {
+        return previousIntervalMillis;
+    }
+    
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+    
+    public int getSpeedCentimetersPerSecond() {
+        return speedCentimetersPerSecond;
+    }
+    
+    public int getTrendMillibelsPerSecond() {
+        return trendMillibelsPerSecond;
+    }
+    
+    public int getBatteryPercent() {
+        return batteryPercent;
+    }
+    
+    /**
+     * Encode for a session log rates block
+     * @param dest Destination with at least MAX_ENCODED_SIZE bytes free
+     * @param offset Write position
+     * @return Position after the change
+     */
+    int encode(byte[] dest, int offset) {
+        offset = VarInt.writeUnsigned(timestamp, dest, offset);
+        offset = VarInt.writeSigned(subscriptionId, dest, offset);
+        offset = VarInt.writeUnsigned(previousIntervalMillis, dest, offset);
+        offset = VarInt.writeUnsigned(intervalMillis, dest, offset);
+        offset = VarInt.writeSigned(speedCentimetersPerSecond, dest, offset);
+        offset = VarInt.writeSigned(trendMillibelsPerSecond, dest, offset);
+        return VarInt.writeSigned(batteryPercent, dest, offset);
+    }
+    
+    /**
+     * Decode a change written by encode, advancing the buffer
+     */
+    static RateChange decode(ByteBuffer source) {
+        long timestamp = VarInt.readUnsigned(source);
+        int subscriptionId = (int) VarInt.readSigned(source);
+        int previousIntervalMillis = (int) VarInt.readUnsigned(source);
+        int intervalMillis = (int) VarInt.readUnsigned(source);
+        int speed = (int) VarInt.readSigned(source);
+        int trend = (int) VarInt.readSigned(source);
+        int battery = (int) VarInt.readSigned(source);
+        return new RateChange(timestamp, subscriptionId, previousIntervalMillis, intervalMillis, speed, trend,
+                battery);
+    }
+    
+    @Override
+    public String toString() {
+        return "Rate change at " + timestamp + ", subscription " + subscriptionId + ": "
+                + previousIntervalMillis + " -> " + intervalMillis + " ms (speed " + speedCentimetersPerSecond
+                + " cm/s, trend " + trendMillibelsPerSecond + " mB/s, battery " + batteryPercent + "%)";
+    }
+}
\ No newline at end of file
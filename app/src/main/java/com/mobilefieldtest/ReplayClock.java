@@ -0,0 +1,59 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock that runs a fixed multiple faster than real time
+ * Trace time starts at the given wall-clock time when the clock is created.
+ * Given to MeasurementSampler and TraceTelephonyProvider, it plays a trace
+ * back at the chosen speed while every interval and timestamp downstream
+ * stays in trace time.
+ */
+public final class ReplayClock implements MeasurementSampler.Clock {
+    
+    public static final double MIN_SPEED = 1.0;
+    public static final double MAX_SPEED = 1000.0;
+    
+    private final long startMillis;
+    private final double speed;
+    private final long realStartNanos;
+    
+    /**
+     * @param startMillis Trace time at which the clock starts, in milliseconds
+     * @param speed Trace time per real time, from MIN_SPEED to MAX_SPEED
+     */
+    public ReplayClock(long startMillis, double speed) {
+        if (!(speed >= MIN_SPEED && speed <= MAX_SPEED)) {
+            throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        }
+        this.startMillis = startMillis;
+        this.speed = speed;
+        this.realStartNanos = System.nanoTime();
+    }
+    
+    /**
+     * @return Trace time elapsed since the clock was created, in nanoseconds
+     */
+    @Override
+    public long nanoTime() {
+        return (long) ((System.nanoTime() - realStartNanos) * speed);
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return startMillis + nanoTime() / 1_000_000L;
+    }
+    
+    @Override
+    public void parkNanos(Object blocker, long nanos) {
+        LockSupport.parkNanos(blocker, Math.max(1, (long) (nanos / speed)));
+    }
+    
+    public long getStartMillis() {
+        return startMillis;
+    }
+    
+    public double getSpeed() {
+        return speed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only record files rotated by size
+ * The current file is name + extension. When the next record would take it
+ * past the size limit it becomes name.1 + extension, older files move up
+ * one and the oldest beyond the file limit is deleted. Each file starts with
+ * MAGIC and VERSION, followed by records, each a varint length and that many
+ * bytes. A current file left by an earlier process is rotated out on open,
+ * so nothing is ever appended after a torn record.
+ */
+public final class RotatingLogFile implements Closeable {
+    
+    static final int MAGIC = 0x4D46544C; // "MFTL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    
+    private final File dir;
+    private final String name;
+    private final String extension;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final byte[] lengthBuffer = new byte[VarInt.MAX_LONG_BYTES];
+    
+    private DataOutputStream out;
+    private long size;
+    
+    /**
+     * @param dir Directory of the files, created if needed
+     * @param name File name without extension
+     * @param extension File name extension
+     * @param maxFileBytes Size at which a file is rotated
+     * @param maxFiles Number of files kept, including the current one
+     * @throws IOException if the current file cannot be created
+     */
+    public RotatingLogFile(File dir, String name, String extension, long maxFileBytes, int maxFiles)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        this.dir = dir;
+        this.name = name;
+        this.extension = extension;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        if (getFile(0).length() > 0) {
+            rotate();
+        } else {
+            open();
+        }
+    }
+    
+    /**
+     * Append one record, rotating first if it would not fit
+     * @param record Source array
+     * @param offset Start of the record
+     * @param length Record length
+     * @throws IOException if the record cannot be written
+     */
+    public void append(byte[] record, int offset, int length) throws IOException {
+        int lengthBytes = VarInt.writeUnsigned(length, lengthBuffer, 0);
+        if (size > HEADER_SIZE && size + lengthBytes + length > maxFileBytes) {
+            rotate();
+        }
+        out.write(lengthBuffer, 0, lengthBytes);
+        out.write(record, offset, length);
+        size += lengthBytes + length;
+    }
+    
+    /**
+     * Hand buffered records to the file system
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    /**
+     * @param index 0 for the current file, higher for older ones
+     * @return File of that index, which may not exist
+     */
+    public File getFile(int index) {
+        return new File(dir, index == 0 ? name + extension : name + "." + index + extension);
+    }
+    
+    /**
+     * @return Existing files, oldest first
+     */
+    public List<File> getFiles() {
+        List<File> files = new ArrayList<>(maxFiles);
+        for (int i = maxFiles - 1; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.isFile()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+    
+    private void rotate() throws IOException {
+        close();
+        File oldest = getFile(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Could not delete " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists() && !file.renameTo(getFile(i + 1))) {
+                throw new IOException("Could not rotate " + file);
+            }
+        }
+        open();
+    }
+    
+    private void open() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(0)), 8192));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        size = HEADER_SIZE;
+    }
+}
\ No newline at end of file
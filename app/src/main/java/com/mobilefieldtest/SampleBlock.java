@@ -0,0 +1,75 @@
+package com.mobilefieldtest;
+
+/**
+ * Fixed-capacity columnar block of sample rows
+ * Uses the SampleRingBuffer column layout; the unit in which samples are
+ * encoded to and decoded from session logs. Reusable via clear().
+ */
+public final class SampleBlock {
+    
+    public static final int DEFAULT_CAPACITY = 4096;
+    
+    final long[][] longColumns;
+    final int[][] intColumns;
+    private final int capacity;
+    int rowCount;
+    
+    public SampleBlock(int capacity) {
+        this.capacity = capacity;
+        this.longColumns = new long[SampleRingBuffer.LONG_COLUMN_COUNT][capacity];
+        this.intColumns = new int[SampleRingBuffer.INT_COLUMN_COUNT][capacity];
+    }
+    
+    /**
+     * Copy rows from a ring buffer, as far as this block has room
+     * @param buffer Source ring buffer
+     * @param fromSequence First row to copy
+     * @param toSequence One past the last row to copy
+     * @return Number of rows copied
+     */
+    public int copyFrom(SampleRingBuffer buffer, long fromSequence, long toSequence) {
+        int count = (int) Math.min(toSequence - fromSequence, capacity - rowCount);
+        for (int c = 0; c < SampleRingBuffer.LONG_COLUMN_COUNT; c++) {
+            long[] column = longColumns[c];
+            for (int i = 0; i < count; i++) {
+                column[rowCount + i] = buffer.getLong(c, fromSequence + i);
+            }
+        }
+        for (int c = 0; c < SampleRingBuffer.INT_COLUMN_COUNT; c++) {
+            int[] column = intColumns[c];
+            for (int i = 0; i < count; i++) {
+                column[rowCount + i] = buffer.getInt(c, fromSequence + i);
+            }
+        }
+        rowCount += count;
+        return count;
+    }
+    
+    public void clear() {
+        rowCount = 0;
+    }
+    
+    public boolean isFull() {
+        return rowCount == capacity;
+    }
+    
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public long getLong(int column, int row) {
+        return longColumns[column][row];
+    }
+    
+    public int getInt(int column, int row) {
+        return intColumns[column][row];
+    }
+    
+    public long getTimestamp(int row) {
+        return longColumns[SampleRingBuffer.LONG_TIMESTAMP][row];
+    }
+}
\ No newline at end of file
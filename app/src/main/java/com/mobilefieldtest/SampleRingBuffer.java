@@ -0,0 +1,144 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity ring buffer of radio measurement rows
+ * Each row is one cell (serving or neighbour) seen by one subscription at one
+ * sample time. Rows are stored column-wise in preallocated primitive arrays,
+ * so appending never allocates and a long drive test creates no garbage.
+ *
+ * There is a single writer (the sampler thread). Readers address rows by a
+ * monotonically increasing sequence number and must treat a row as valid only
+ * if its sequence is still at or above getOldestSequence() after reading it;
+ * older rows may have been overwritten.
+ */
+public final class SampleRingBuffer {
+    
+    // Long columns
+    public static final int LONG_TIMESTAMP = 0;
+    public static final int LONG_CELL_ID = 1;
+    public static final int LONG_COLUMN_COUNT = 2;
+    
+    // Int columns
+    public static final int INT_SUBSCRIPTION_ID = 0;
+    public static final int INT_RAT = 1;
+    public static final int INT_FLAGS = 2;
+    public static final int INT_PCI = 3;
+    public static final int INT_ARFCN = 4;
+    public static final int INT_BAND = 5;
+    public static final int INT_RSRP = 6;
+    public static final int INT_RSRQ = 7;
+    public static final int INT_SINR = 8;
+    public static final int INT_COLUMN_COUNT = 9;
+    
+    public static final String[] LONG_COLUMN_NAMES = {"timestamp", "cell_id"};
+    public static final String[] INT_COLUMN_NAMES = {
+        "subscription_id", "rat", "flags", "pci", "arfcn", "band", "rsrp", "rsrq", "sinr"
+    };
+    
+    // Radio access technologies
+    public static final int RAT_UNKNOWN = 0;
+    public static final int RAT_GSM = 1;
+    public static final int RAT_WCDMA = 2;
+    public static final int RAT_LTE = 3;
+    public static final int RAT_NR = 4;
+    
+    // Row flags
+    public static final int FLAG_SERVING = 1;
+    
+    // Value for metrics the modem did not report, same as CellInfo.UNAVAILABLE
+    public static final int UNAVAILABLE = Integer.MAX_VALUE;
+    
+    private final int capacity;
+    private final int mask;
+    private final long[][] longColumns;
+    private final int[][] intColumns;
+    
+    // Sequence of the next row to be written; advanced after the row is complete
+    private final AtomicLong writeSequence = new AtomicLong();
+    private long nextSequence;
+    
+    /**
+     * @param capacity Number of rows kept, rounded up to a power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = roundUp(capacity);
+        this.mask = this.capacity - 1;
+        this.longColumns = new long[LONG_COLUMN_COUNT][this.capacity];
+        this.intColumns = new int[INT_COLUMN_COUNT][this.capacity];
+    }
+    
+    private static int roundUp(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+    
+    /**
+     * Append one cell row; single writer only
+     */
+    public void append(long timestamp, int subscriptionId, int rat, int flags, long cellId,
+                       int pci, int arfcn, int band, int rsrp, int rsrq, int sinr) {
+        int slot = (int) (nextSequence & mask);
+        longColumns[LONG_TIMESTAMP][slot] = timestamp;
+        longColumns[LONG_CELL_ID][slot] = cellId;
+        intColumns[INT_SUBSCRIPTION_ID][slot] = subscriptionId;
+        intColumns[INT_RAT][slot] = rat;
+        intColumns[INT_FLAGS][slot] = flags;
+        intColumns[INT_PCI][slot] = pci;
+        intColumns[INT_ARFCN][slot] = arfcn;
+        intColumns[INT_BAND][slot] = band;
+        intColumns[INT_RSRP][slot] = rsrp;
+        intColumns[INT_RSRQ][slot] = rsrq;
+        intColumns[INT_SINR][slot] = sinr;
+        
+        // Ordered store: readers that see the new sequence see the whole row
+        writeSequence.lazySet(++nextSequence);
+    }
+    
+    /**
+     * @return Sequence one past the newest readable row
+     */
+    public long getWriteSequence() {
+        return writeSequence.get();
+    }
+    
+    /**
+     * @return Sequence of the oldest row that has not been overwritten
+     */
+    public long getOldestSequence() {
+        // The writer may already be filling the slot after the newest row
+        return Math.max(0, writeSequence.get() - capacity + 1);
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public long getLong(int column, long sequence) {
+        return longColumns[column][(int) (sequence & mask)];
+    }
+    
+    public int getInt(int column, long sequence) {
+        return intColumns[column][(int) (sequence & mask)];
+    }
+    
+    public long getTimestamp(long sequence) {
+        return getLong(LONG_TIMESTAMP, sequence);
+    }
+    
+    public int getSubscriptionId(long sequence) {
+        return getInt(INT_SUBSCRIPTION_ID, sequence);
+    }
+    
+    public boolean isServing(long sequence) {
+        return (getInt(INT_FLAGS, sequence) & FLAG_SERVING) != 0;
+    }
+    
+    public int getRsrp(long sequence) {
+        return getInt(INT_RSRP, sequence);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,379 @@
+package com.mobilefieldtest;
+
+/**
+ * Sets each subscription's sampling rate from speed, battery and signal trend
+ *
+ * The rate steps between RATES_HZ. Speed picks the base step: parked,
+ * walking, town, road or motorway, from location fixes. A serving RSRP that
+ * is moving quickly, or sitting at the cell edge, adds a step or two on that
+ * subscription. A low battery caps the rate. Without a recent fix the base
+ * step is the fixed default rate.
+ *
+ * Two kinds of hysteresis keep the rate from flapping. Every band is entered
+ * above its edge plus HYSTERESIS and left only below its edge minus
+ * HYSTERESIS. A higher rate applies at the next poll, so detail is not lost,
+ * but a lower rate waits until the target has stayed lower for HOLD_DOWN_MS.
+ * A battery cap applies at once.
+ *
+ * Registered as a sampler listener, the governor re-evaluates a
+ * subscription after each of its polls. Times are taken from the samples
+ * and fixes, so a replayed trace is governed as the drive was. Registered
+ * as a SIM listener, it follows the active subscriptions and sets them as
+ * the sampler's, so a swapped SIM is sampled and a removed one is not.
+ */
+public final class SamplingGovernor implements MeasurementSampler.Listener,
+        SimDetectionUtil.OnSimSnapshotChangedListener {
+    
+    /**
+     * Receives every rate change, on the thread that made it
+     */
+    public interface Listener {
+        void onRateChanged(RateChange change);
+    }
+    
+    // Rates the governor steps between; a level is an index
+    static final double[] RATES_HZ = {0.2, 0.5, 1.0, 2.0, 5.0};
+    // Level of the fixed default rate, used while speed is unknown
+    static final int DEFAULT_LEVEL = 2;
+    
+    // Speed band edges in m/s: parked, walking, town, road, motorway
+    private static final double[] SPEED_EDGES = {0.5, 3.0, 15.0, 25.0};
+    // Signal trend edges in dB/s; each band above the first adds a level
+    private static final double[] TREND_EDGES = {0.5, 1.5};
+    // Bands are entered above edge * (1 + HYSTERESIS) and left below edge * (1 - HYSTERESIS)
+    private static final double HYSTERESIS = 0.25;
+    
+    // The cell edge adds a level: entered at or below CELL_EDGE_DBM, left above CELL_EDGE_EXIT_DBM
+    private static final double CELL_EDGE_DBM = -110;
+    private static final double CELL_EDGE_EXIT_DBM = -105;
+    
+    // Below LOW the rate is capped at the default, below CRITICAL at the lowest; left BATTERY_HYSTERESIS_PERCENT higher
+    private static final int BATTERY_LOW_PERCENT = 30;
+    private static final int BATTERY_CRITICAL_PERCENT = 15;
+    private static final int BATTERY_HYSTERESIS_PERCENT = 5;
+    
+    // A lower target must hold this long before it is applied
+    static final long HOLD_DOWN_MS = 20_000;
+    // Speed is unknown without a fix for this long
+    private static final long SPEED_TIMEOUT_MS = 30_000;
+    // Speed is measured over at least the fixes' accuracy or at most this long
+    private static final long SPEED_WINDOW_MS = 10_000;
+    private static final double SPEED_SMOOTHING = 0.3;
+    // Serving RSRP is smoothed with this time constant; its trend is taken over TREND_WINDOW_MS
+    private static final double RSRP_TIME_CONSTANT_MS = 3_000;
+    private static final long TREND_WINDOW_MS = 10_000;
+    
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+    
+    private static final Metrics.Counter CHANGE_COUNTER = Metrics.getInstance().counter("governor.rate_changes");
+    
+    private final MeasurementSampler sampler;
+    private Listener listener;
+    
+    // Governed subscriptions, from the latest SIM snapshot
+    private Subscription[] subscriptions = new Subscription[0];
+    
+    // Location anchor the speed is measured from, and the smoothed speed
+    private long anchorTime;
+    private int anchorLatitudeE7;
+    private int anchorLongitudeE7;
+    private int anchorAccuracy;
+    private long lastFixTime;
+    private double speed = Double.NaN;
+    private int speedBand = DEFAULT_LEVEL;
+    
+    private int batteryPercent = RateChange.UNKNOWN;
+    private int batteryCap = RATES_HZ.length - 1;
+    
+    private long changeCount;
+    
+    /**
+     * @param sampler Sampler whose subscriptions and rates are set; subscriptions are
+     *                governed from the first SIM snapshot on
+     */
+    public SamplingGovernor(MeasurementSampler sampler) {
+        this.sampler = sampler;
+    }
+    
+    /**
+     * @param listener Receives rate changes, e.g. the session log; may be null
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Follow the active subscriptions: the sampler polls exactly these, new
+     * ones at the default rate and the others at their current rate
+     */
+    @Override
+    public synchronized void onSimSnapshotChanged(SimSnapshot snapshot) {
+        Subscription[] next = new Subscription[snapshot.getActiveSubscriptionCount()];
+        int[] subscriptionIds = new int[next.length];
+        double[] rates = new double[next.length];
+        for (int i = 0; i < next.length; i++) {
+            int subscriptionId = snapshot.getSubscriptionId(i);
+            next[i] = find(subscriptionId);
+            if (next[i] == null) {
+                next[i] = new Subscription(subscriptionId);
+            }
+            subscriptionIds[i] = subscriptionId;
+            rates[i] = RATES_HZ[next[i].level];
+        }
+        subscriptions = next;
+        sampler.setSubscriptions(subscriptionIds, rates);
+    }
+    
+    /**
+     * Update the speed from a location fix
+     * @param timestamp Fix time in milliseconds, on the same clock as the samples
+     * @param latitudeE7 Latitude in 1e-7 degrees
+     * @param longitudeE7 Longitude in 1e-7 degrees
+     * @param accuracyMeters Horizontal accuracy, or SampleRingBuffer.UNAVAILABLE
+     */
+    public synchronized void onLocation(long timestamp, int latitudeE7, int longitudeE7, int accuracyMeters) {
+        int accuracy = accuracyMeters == SampleRingBuffer.UNAVAILABLE ? 0 : accuracyMeters;
+        if (lastFixTime == 0 || timestamp - lastFixTime > SPEED_TIMEOUT_MS) {
+            // First fix, or the first after a gap: only an anchor
+            setAnchor(timestamp, latitudeE7, longitudeE7, accuracy);
+            lastFixTime = timestamp;
+            return;
+        }
+        lastFixTime = timestamp;
+        long elapsed = timestamp - anchorTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        double distance = distanceMeters(anchorLatitudeE7, anchorLongitudeE7, latitudeE7, longitudeE7);
+        // Movement within the fixes' accuracy cannot be told from jitter, so wait for more
+        boolean moved = distance > Math.max(accuracy, anchorAccuracy);
+        if (!moved && elapsed < SPEED_WINDOW_MS) {
+            return;
+        }
+        if (moved) {
+            double measured = distance * 1000.0 / elapsed;
+            speed = Double.isNaN(speed) ? measured : speed + SPEED_SMOOTHING * (measured - speed);
+        } else {
+            // A whole window without leaving the fixes' accuracy is a stop, not a slow drive
+            speed = 0;
+        }
+        speedBand = band(speedBand, speed, SPEED_EDGES);
+        setAnchor(timestamp, latitudeE7, longitudeE7, accuracy);
+    }
+    
+    /**
+     * Update the battery state
+     * @param percent Battery level in percent
+     * @param charging True while the device is charging; the rate is then not capped
+     */
+    public synchronized void setBattery(int percent, boolean charging) {
+        this.batteryPercent = percent;
+        int top = RATES_HZ.length - 1;
+        // Just above a threshold the previous cap is kept
+        if (charging || percent >= BATTERY_LOW_PERCENT + BATTERY_HYSTERESIS_PERCENT) {
+            batteryCap = top;
+        } else if (percent >= BATTERY_LOW_PERCENT) {
+            batteryCap = batteryCap == top ? top : DEFAULT_LEVEL;
+        } else if (percent >= BATTERY_CRITICAL_PERCENT + BATTERY_HYSTERESIS_PERCENT) {
+            batteryCap = DEFAULT_LEVEL;
+        } else if (percent >= BATTERY_CRITICAL_PERCENT) {
+            batteryCap = batteryCap == 0 ? 0 : DEFAULT_LEVEL;
+        } else {
+            batteryCap = 0;
+        }
+    }
+    
+    @Override
+    public synchronized void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId, long fromSequence,
+                                               long toSequence) {
+        Subscription subscription = find(subscriptionId);
+        if (subscription == null) {
+            return;
+        }
+        long timestamp = buffer.getTimestamp(fromSequence);
+        int rsrp = SampleRingBuffer.UNAVAILABLE;
+        for (long sequence = fromSequence; sequence < toSequence; sequence++) {
+            if (buffer.isServing(sequence)) {
+                rsrp = buffer.getRsrp(sequence);
+                break;
+            }
+        }
+        if (rsrp != SampleRingBuffer.UNAVAILABLE) {
+            subscription.updateSignal(timestamp, rsrp);
+        }
+        evaluate(subscription, timestamp);
+    }
+    
+    @Override
+    public synchronized void onPollEmpty(int subscriptionId, long timestampMillis) {
+        // Without a serving cell only speed and battery still apply
+        Subscription subscription = find(subscriptionId);
+        if (subscription != null) {
+            evaluate(subscription, timestampMillis);
+        }
+    }
+    
+    /**
+     * @param subscriptionId Governed subscription
+     * @return Current rate in Hz, or 0 if the subscription is not governed
+     */
+    public synchronized double getRate(int subscriptionId) {
+        Subscription subscription = find(subscriptionId);
+        return subscription != null ? RATES_HZ[subscription.level] : 0;
+    }
+    
+    /**
+     * @return Smoothed speed in m/s, or NaN when unknown
+     */
+    public synchronized double getSpeed() {
+        return speed;
+    }
+    
+    /**
+     * @return Number of rate changes made
+     */
+    public synchronized long getChangeCount() {
+        return changeCount;
+    }
+    
+    private void evaluate(Subscription subscription, long now) {
+        boolean speedKnown = lastFixTime != 0 && now - lastFixTime <= SPEED_TIMEOUT_MS && !Double.isNaN(speed);
+        int target = (speedKnown ? speedBand : DEFAULT_LEVEL) + subscription.trendBand
+                + (subscription.cellEdge ? 1 : 0);
+        target = Math.min(Math.min(target, RATES_HZ.length - 1), batteryCap);
+        
+        int level = subscription.level;
+        if (target > level || level > batteryCap) {
+            setLevel(subscription, target, now, speedKnown);
+        } else if (target < level) {
+            if (subscription.lowerSince < 0) {
+                subscription.lowerSince = now;
+            } else if (now - subscription.lowerSince >= HOLD_DOWN_MS) {
+                setLevel(subscription, target, now, speedKnown);
+            }
+        } else {
+            subscription.lowerSince = -1;
+        }
+    }
+    
+    private void setLevel(Subscription subscription, int level, long now, boolean speedKnown) {
+        if (!sampler.setRate(subscription.id, RATES_HZ[level])) {
+            // No longer sampled; the next SIM snapshot drops it
+            return;
+        }
+        int previous = subscription.level;
+        subscription.level = level;
+        subscription.lowerSince = -1;
+        changeCount++;
+        CHANGE_COUNTER.increment();
+        if (listener != null) {
+            listener.onRateChanged(new RateChange(now, subscription.id, intervalMillis(previous),
+                    intervalMillis(level),
+                    speedKnown ? (int) Math.round(speed * 100) : RateChange.UNKNOWN,
+                    Double.isNaN(subscription.trend) ? RateChange.UNKNOWN
+                            : (int) Math.round(subscription.trend * 100),
+                    batteryPercent));
+        }
+    }
+    
+    private Subscription find(int subscriptionId) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.id == subscriptionId) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+    
+    private void setAnchor(long timestamp, int latitudeE7, int longitudeE7, int accuracy) {
+        anchorTime = timestamp;
+        anchorLatitudeE7 = latitudeE7;
+        anchorLongitudeE7 = longitudeE7;
+        anchorAccuracy = accuracy;
+    }
+    
+    /**
+     * Move a band index up or down past edges with hysteresis
+     * @param current Current band, 0 to edges.length
+     * @param value Measured value
+     * @param edges Ascending band edges
+     * @return New band
+     */
+    static int band(int current, double value, double[] edges) {
+        int band = current;
+        while (band < edges.length && value >= edges[band] * (1 + HYSTERESIS)) {
+            band++;
+        }
+        while (band > 0 && value < edges[band - 1] * (1 - HYSTERESIS)) {
+            band--;
+        }
+        return band;
+    }
+    
+    private static int intervalMillis(int level) {
+        return (int) Math.round(1000 / RATES_HZ[level]);
+    }
+    
+    /**
+     * Equirectangular distance; exact enough over the few hundred metres between fixes
+     */
+    private static double distanceMeters(int latitudeE7A, int longitudeE7A, int latitudeE7B, int longitudeE7B) {
+        double latitudeA = Math.toRadians(latitudeE7A / 1e7);
+        double latitudeB = Math.toRadians(latitudeE7B / 1e7);
+        double x = Math.toRadians((longitudeE7B - longitudeE7A) / 1e7) * Math.cos((latitudeA + latitudeB) / 2);
+        double y = latitudeB - latitudeA;
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+    
+    /**
+     * Signal state and rate level of one subscription
+     */
+    private static final class Subscription {
+        final int id;
+        int level = DEFAULT_LEVEL;
+        // Time the target first fell below level, or -1
+        long lowerSince = -1;
+        
+        double smoothedRsrp = Double.NaN;
+        long lastSampleTime;
+        double checkpointRsrp;
+        long checkpointTime;
+        double trend = Double.NaN;
+        int trendBand;
+        boolean cellEdge;
+        
+        Subscription(int id) {
+            this.id = id;
+        }
+        
+        /**
+         * Smooth the serving RSRP over time and take its trend once per window,
+         * so the trend does not depend on the sampling rate
+         */
+        void updateSignal(long timestamp, int rsrp) {
+            if (Double.isNaN(smoothedRsrp)) {
+                smoothedRsrp = rsrp;
+                checkpointRsrp = rsrp;
+                checkpointTime = timestamp;
+            } else {
+                long elapsed = Math.max(0, timestamp - lastSampleTime);
+                double weight = 1 - Math.exp(-elapsed / RSRP_TIME_CONSTANT_MS);
+                smoothedRsrp += weight * (rsrp - smoothedRsrp);
+            }
+            lastSampleTime = timestamp;
+            
+            long window = timestamp - checkpointTime;
+            if (window >= TREND_WINDOW_MS) {
+                trend = Math.abs(smoothedRsrp - checkpointRsrp) * 1000.0 / window;
+                trendBand = band(trendBand, trend, TREND_EDGES);
+                checkpointRsrp = smoothedRsrp;
+                checkpointTime = timestamp;
+            }
+            if (smoothedRsrp <= CELL_EDGE_DBM) {
+                cellEdge = true;
+            } else if (smoothedRsrp > CELL_EDGE_EXIT_DBM) {
+                cellEdge = false;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,724 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports session logs as CSV, KML and GeoJSON for spreadsheets and GIS tools
+ * A session is read one sample block and one location block at a time and
+ * every requested format is written in the same pass, so memory use does
+ * not depend on the session length. Text is formatted straight into a
+ * byte buffer per output, reused across rows and sessions by each export
+ * thread; numbers, coordinates and times are formatted without creating
+ * strings.
+ *
+ * CSV holds every row, serving and neighbour cells, with the location of
+ * the last fix if it is recent enough. KML and GeoJSON hold one point per
+ * serving cell sample that has such a fix.
+ *
+ * Several sessions are exported in parallel. Progress is estimated from
+ * the session log sizes, and an export can be cancelled, which discards
+ * the files of sessions not yet finished.
+ */
+public final class SessionExporter {
+    
+    // Formats, combinable
+    public static final int FORMAT_CSV = 1;
+    public static final int FORMAT_KML = 1 << 1;
+    public static final int FORMAT_GEOJSON = 1 << 2;
+    public static final int FORMAT_ALL = FORMAT_CSV | FORMAT_KML | FORMAT_GEOJSON;
+    
+    public static final int DEFAULT_CONCURRENCY = 2;
+    
+    static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    
+    // Indexed by format bit position
+    private static final String[] EXTENSIONS = {".csv", ".kml", ".geojson"};
+    private static final int OUTPUT_CSV = 0;
+    private static final int OUTPUT_KML = 1;
+    private static final int OUTPUT_GEOJSON = 2;
+    
+    private static final String CSV_HEADER = "session_id,time,timestamp,subscription_id,plmn,rat,serving,cell_id,"
+            + "pci,arfcn,band,rsrp,rsrq,sinr,latitude,longitude,accuracy\n";
+    
+    private static final String TAG = "SessionExporter";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    private static final Metrics.Timer SESSION_TIMER = Metrics.getInstance().timer("export.session");
+    
+    /**
+     * Export progress, called on export threads
+     */
+    public interface Listener {
+        /**
+         * @param percent Estimated share of the work done, 0 to 100; called when it increases
+         */
+        void onProgress(int percent);
+        
+        void onSessionFailed(File sessionFile, Exception error);
+        
+        /**
+         * Called once, after the last session
+         * @param exported Number of sessions exported
+         * @param cancelled True if the export was cancelled
+         */
+        void onFinished(int exported, boolean cancelled);
+    }
+    
+    private final int concurrency;
+    private final ExecutorService executor;
+    
+    /**
+     * @param concurrency Number of sessions exported at once
+     */
+    public SessionExporter(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SessionExport-" + count.incrementAndGet());
+            }
+        });
+    }
+    
+    /**
+     * Start exporting sessions; output files are named by session id
+     * @param sessionFiles Finished session logs
+     * @param outputDir Directory for the exported files; must exist
+     * @param formats FORMAT_* flags
+     * @param listener Progress listener
+     * @return Handle to cancel the export
+     */
+    public Job export(List<File> sessionFiles, File outputDir, int formats, Listener listener) {
+        if ((formats & FORMAT_ALL) == 0) {
+            throw new IllegalArgumentException("No export format: " + formats);
+        }
+        Job job = new Job(new ArrayList<>(sessionFiles), outputDir, formats, listener);
+        for (int i = 0; i < job.workers.get(); i++) {
+            executor.execute(new Worker(job));
+        }
+        return job;
+    }
+    
+    /**
+     * Stop the export threads; exports in progress end as if cancelled
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * One export call's sessions and progress, shared by its workers
+     */
+    public final class Job {
+        private final List<File> sessionFiles;
+        private final File outputDir;
+        private final int formats;
+        private final Listener listener;
+        
+        private final AtomicInteger nextSession = new AtomicInteger();
+        private final AtomicInteger workers;
+        private final AtomicInteger exported = new AtomicInteger();
+        private final long totalBytes;
+        private final AtomicLong doneBytes = new AtomicLong();
+        private final AtomicInteger reportedPercent = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean finished;
+        
+        Job(List<File> sessionFiles, File outputDir, int formats, Listener listener) {
+            this.sessionFiles = sessionFiles;
+            this.outputDir = outputDir;
+            this.formats = formats;
+            this.listener = listener;
+            long total = 0;
+            for (File file : sessionFiles) {
+                total += file.length();
+            }
+            this.totalBytes = total;
+            // At least one worker, to report the end of an empty export
+            this.workers = new AtomicInteger(Math.max(1, Math.min(concurrency, sessionFiles.size())));
+        }
+        
+        /**
+         * Stop after the current block of each session being exported
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public boolean isFinished() {
+            return finished;
+        }
+        
+        void addProgress(long bytes) {
+            long done = doneBytes.addAndGet(bytes);
+            int percent = totalBytes > 0 ? (int) Math.min(100, done * 100 / totalBytes) : 100;
+            int reported = reportedPercent.get();
+            if (percent > reported && reportedPercent.compareAndSet(reported, percent)) {
+                listener.onProgress(percent);
+            }
+        }
+    }
+    
+    /**
+     * Exports sessions of a job until none are left; owns its buffers
+     */
+    private static final class Worker implements Runnable {
+        private final Job job;
+        private final SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        private final LocationCursor locations = new LocationCursor();
+        private final TextOutput[] outputs = new TextOutput[EXTENSIONS.length];
+        private long reportedBytes;
+        
+        Worker(Job job) {
+            this.job = job;
+            for (int i = 0; i < outputs.length; i++) {
+                if ((job.formats & (1 << i)) != 0) {
+                    outputs[i] = new TextOutput();
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            try {
+                int index;
+                while (!job.cancelled && (index = job.nextSession.getAndIncrement()) < job.sessionFiles.size()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        job.cancel();
+                        break;
+                    }
+                    File file = job.sessionFiles.get(index);
+                    reportedBytes = 0;
+                    try {
+                        if (exportSession(file)) {
+                            job.exported.incrementAndGet();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Session export failed")
+                                .put("file", file.getName())
+                                .put("error", e)
+                                .commit();
+                        job.listener.onSessionFailed(file, e);
+                    }
+                    // Count what is left of a failed session as done
+                    job.addProgress(file.length() - reportedBytes);
+                }
+            } finally {
+                if (job.workers.decrementAndGet() == 0) {
+                    job.finished = true;
+                    job.listener.onFinished(job.exported.get(), job.cancelled);
+                }
+            }
+        }
+        
+        /**
+         * @return False if the export was cancelled before the session was complete
+         */
+        private boolean exportSession(File file) throws IOException {
+            long start = SESSION_TIMER.start();
+            SessionLogReader reader = new SessionLogReader(file);
+            boolean complete = false;
+            try {
+                FormData formData = reader.getFormData();
+                String sessionId = formData.getSessionId(reader.getStartTimeMillis());
+                for (int i = 0; i < outputs.length; i++) {
+                    if (outputs[i] != null) {
+                        outputs[i].open(new File(job.outputDir, sessionId + EXTENSIONS[i]));
+                    }
+                }
+                writeHeaders(sessionId, formData, reader.getStartTimeMillis());
+                
+                locations.reset(reader);
+                long fileBytes = file.length();
+                long rowCount = reader.getRowCount();
+                long rowsDone = 0;
+                for (int b = 0; b < reader.getBlockCount(); b++) {
+                    if (job.cancelled) {
+                        return false;
+                    }
+                    reader.readBlock(b, block);
+                    for (int row = 0; row < block.getRowCount(); row++) {
+                        writeRow(sessionId, reader, row);
+                    }
+                    rowsDone += block.getRowCount();
+                    long bytes = fileBytes * rowsDone / rowCount;
+                    job.addProgress(bytes - reportedBytes);
+                    reportedBytes = bytes;
+                }
+                
+                writeFooters();
+                for (TextOutput output : outputs) {
+                    if (output != null) {
+                        output.commit();
+                    }
+                }
+                complete = true;
+                return true;
+            } finally {
+                if (!complete) {
+                    for (TextOutput output : outputs) {
+                        if (output != null) {
+                            output.abort();
+                        }
+                    }
+                }
+                reader.close();
+                SESSION_TIMER.stop(start);
+            }
+        }
+        
+        private void writeHeaders(String sessionId, FormData formData, long startTimeMillis) throws IOException {
+            TextOutput csv = outputs[OUTPUT_CSV];
+            if (csv != null) {
+                csv.ascii(CSV_HEADER);
+            }
+            TextOutput kml = outputs[OUTPUT_KML];
+            if (kml != null) {
+                kml.ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                        .ascii("<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n<Document>\n<name>")
+                        .text(sessionId, TextOutput.ESCAPE_XML)
+                        .ascii("</name>\n<description>Employee: ")
+                        .text(formData.getEmployeeId(), TextOutput.ESCAPE_XML)
+                        .ascii("\nModel: ").text(formData.getModel(), TextOutput.ESCAPE_XML)
+                        .ascii("\nBuild: ").text(formData.getBuildVersion(), TextOutput.ESCAPE_XML)
+                        .ascii(" ").text(formData.getBuildType(), TextOutput.ESCAPE_XML)
+                        .ascii("\nArea: ").text(formData.getTestArea(), TextOutput.ESCAPE_XML)
+                        .ascii("\nStarted: ").time(startTimeMillis)
+                        .ascii("</description>\n");
+            }
+            TextOutput geojson = outputs[OUTPUT_GEOJSON];
+            if (geojson != null) {
+                geojson.ascii("{\"type\":\"FeatureCollection\",\"session\":{\"id\":")
+                        .text(sessionId, TextOutput.ESCAPE_JSON)
+                        .ascii(",\"employee_id\":").text(formData.getEmployeeId(), TextOutput.ESCAPE_JSON)
+                        .ascii(",\"model\":").text(formData.getModel(), TextOutput.ESCAPE_JSON)
+                        .ascii(",\"build_version\":").text(formData.getBuildVersion(), TextOutput.ESCAPE_JSON)
+                        .ascii(",\"build_type\":").text(formData.getBuildType(), TextOutput.ESCAPE_JSON)
+                        .ascii(",\"test_area\":").text(formData.getTestArea(), TextOutput.ESCAPE_JSON)
+                        .ascii(",\"operators\":[");
+                List<String> operators = formData.getSelectedOperators();
+                if (operators != null) {
+                    for (int i = 0; i < operators.size(); i++) {
+                        if (i > 0) {
+                            geojson.put(',');
+                        }
+                        geojson.text(operators.get(i), TextOutput.ESCAPE_JSON);
+                    }
+                }
+                geojson.ascii("],\"start_time\":\"").time(startTimeMillis).ascii("\"},\"features\":[");
+            }
+        }
+        
+        private void writeRow(String sessionId, SessionLogReader reader, int row) throws IOException {
+            long timestamp = block.getTimestamp(row);
+            int subscriptionId = block.getInt(SampleRingBuffer.INT_SUBSCRIPTION_ID, row);
+            int plmn = reader.getSubscriptionPlmn(subscriptionId);
+            boolean serving = (block.getInt(SampleRingBuffer.INT_FLAGS, row) & SampleRingBuffer.FLAG_SERVING) != 0;
+            long cellId = block.getLong(SampleRingBuffer.LONG_CELL_ID, row);
+            boolean located = locations.seek(timestamp);
+            
+            TextOutput csv = outputs[OUTPUT_CSV];
+            if (csv != null) {
+                csv.text(sessionId, TextOutput.ESCAPE_CSV).put(',')
+                        .time(timestamp).put(',')
+                        .number(timestamp).put(',')
+                        .number(subscriptionId).put(',');
+                if (plmn != 0) {
+                    csv.number(plmn);
+                }
+                csv.put(',').number(block.getInt(SampleRingBuffer.INT_RAT, row)).put(',')
+                        .put(serving ? '1' : '0').put(',');
+                if (isAvailable(cellId)) {
+                    csv.number(cellId);
+                }
+                for (int column = SampleRingBuffer.INT_PCI; column <= SampleRingBuffer.INT_SINR; column++) {
+                    csv.put(',').value(block.getInt(column, row), false);
+                }
+                csv.put(',');
+                if (located) {
+                    csv.degrees(locations.latitudeE7).put(',')
+                            .degrees(locations.longitudeE7).put(',')
+                            .value(locations.accuracyMeters, false);
+                } else {
+                    csv.put(',');
+                }
+                csv.put('\n');
+            }
+            if (!serving || !located) {
+                return;
+            }
+            
+            TextOutput kml = outputs[OUTPUT_KML];
+            if (kml != null) {
+                kml.ascii("<Placemark><TimeStamp><when>").time(timestamp).ascii("</when></TimeStamp><ExtendedData>");
+                if (plmn != 0) {
+                    kml.ascii("<Data name=\"plmn\"><value>").number(plmn).ascii("</value></Data>");
+                }
+                kml.ascii("<Data name=\"rat\"><value>").number(block.getInt(SampleRingBuffer.INT_RAT, row))
+                        .ascii("</value></Data>");
+                if (isAvailable(cellId)) {
+                    kml.ascii("<Data name=\"cell_id\"><value>").number(cellId).ascii("</value></Data>");
+                }
+                for (int column = SampleRingBuffer.INT_PCI; column <= SampleRingBuffer.INT_SINR; column++) {
+                    int value = block.getInt(column, row);
+                    if (value != SampleRingBuffer.UNAVAILABLE) {
+                        kml.ascii("<Data name=\"").ascii(SampleRingBuffer.INT_COLUMN_NAMES[column])
+                                .ascii("\"><value>").number(value).ascii("</value></Data>");
+                    }
+                }
+                kml.ascii("</ExtendedData><Point><coordinates>")
+                        .degrees(locations.longitudeE7).put(',').degrees(locations.latitudeE7)
+                        .ascii("</coordinates></Point></Placemark>\n");
+            }
+            
+            TextOutput geojson = outputs[OUTPUT_GEOJSON];
+            if (geojson != null) {
+                geojson.ascii(geojson.features++ == 0 ? "\n" : ",\n")
+                        .ascii("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                        .degrees(locations.longitudeE7).put(',').degrees(locations.latitudeE7)
+                        .ascii("]},\"properties\":{\"time\":\"").time(timestamp)
+                        .ascii("\",\"plmn\":").value(plmn != 0 ? plmn : SampleRingBuffer.UNAVAILABLE, true)
+                        .ascii(",\"rat\":").number(block.getInt(SampleRingBuffer.INT_RAT, row))
+                        .ascii(",\"cell_id\":");
+                if (isAvailable(cellId)) {
+                    geojson.number(cellId);
+                } else {
+                    geojson.ascii("null");
+                }
+                for (int column = SampleRingBuffer.INT_PCI; column <= SampleRingBuffer.INT_SINR; column++) {
+                    geojson.ascii(",\"").ascii(SampleRingBuffer.INT_COLUMN_NAMES[column]).ascii("\":")
+                            .value(block.getInt(column, row), true);
+                }
+                geojson.ascii("}}");
+            }
+        }
+        
+        private void writeFooters() throws IOException {
+            TextOutput kml = outputs[OUTPUT_KML];
+            if (kml != null) {
+                kml.ascii("</Document>\n</kml>\n");
+            }
+            TextOutput geojson = outputs[OUTPUT_GEOJSON];
+            if (geojson != null) {
+                geojson.ascii("\n]}\n");
+            }
+        }
+        
+        private static boolean isAvailable(long cellId) {
+            // LTE cell identities report Integer.MAX_VALUE when unknown, NR ones Long.MAX_VALUE
+            return cellId != SampleRingBuffer.UNAVAILABLE && cellId != Long.MAX_VALUE;
+        }
+    }
+    
+    /**
+     * Walks a session's location fixes forward in time, one block in memory
+     */
+    private static final class LocationCursor {
+        private final LocationTrack track = new LocationTrack(SessionLogWriter.LOCATION_BLOCK_FIXES);
+        private SessionLogReader reader;
+        private int block;
+        private int fix;
+        
+        // Last fix at or before the time of the last seek
+        private boolean valid;
+        private long timestamp;
+        int latitudeE7;
+        int longitudeE7;
+        int accuracyMeters;
+        
+        void reset(SessionLogReader reader) {
+            this.reader = reader;
+            track.clear();
+            block = -1;
+            fix = -1;
+            valid = false;
+        }
+        
+        /**
+         * Move to the last fix at or before a time
+         * @return True if there is one at most CoverageGrid.MAX_FIX_AGE_MS old
+         */
+        boolean seek(long time) {
+            if (valid && timestamp > time) {
+                // The clock was set back; start over
+                reset(reader);
+            }
+            while (true) {
+                if (fix + 1 >= track.size()) {
+                    if (block + 1 >= reader.getLocationBlockCount()) {
+                        break;
+                    }
+                    reader.readLocationBlock(++block, track);
+                    fix = -1;
+                    continue;
+                }
+                if (track.getTimestamp(fix + 1) > time) {
+                    break;
+                }
+                fix++;
+                valid = true;
+                timestamp = track.getTimestamp(fix);
+                latitudeE7 = track.getLatitudeE7(fix);
+                longitudeE7 = track.getLongitudeE7(fix);
+                accuracyMeters = track.getAccuracyMeters(fix);
+            }
+            return valid && time - timestamp <= CoverageGrid.MAX_FIX_AGE_MS;
+        }
+    }
+    
+    /**
+     * UTF-8 text output through a fixed buffer, written to a temporary file
+     * and renamed on commit
+     */
+    private static final class TextOutput {
+        static final int ESCAPE_CSV = 0;
+        static final int ESCAPE_XML = 1;
+        static final int ESCAPE_JSON = 2;
+        
+        private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+        
+        private final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        private final byte[] digits = new byte[20];
+        private int length;
+        private FileOutputStream stream;
+        private File file;
+        private File temp;
+        
+        // GeoJSON features written, for the separators
+        int features;
+        
+        void open(File file) throws IOException {
+            this.file = file;
+            temp = new File(file.getPath() + ".tmp");
+            stream = new FileOutputStream(temp);
+            length = 0;
+            features = 0;
+        }
+        
+        void commit() throws IOException {
+            try {
+                flush();
+            } finally {
+                stream.close();
+                stream = null;
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not write " + file);
+            }
+        }
+        
+        void abort() {
+            if (stream == null) {
+                return;
+            }
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Discarded anyway
+            }
+            stream = null;
+            temp.delete();
+        }
+        
+        TextOutput put(char c) throws IOException {
+            if (length == buffer.length) {
+                flush();
+            }
+            buffer[length++] = (byte) c;
+            return this;
+        }
+        
+        /**
+         * Write ASCII text as is, for markup and names
+         */
+        TextOutput ascii(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                put(text.charAt(i));
+            }
+            return this;
+        }
+        
+        /**
+         * Write a user-entered value escaped for the format; JSON values are quoted,
+         * CSV values only when needed
+         */
+        TextOutput text(String text, int escape) throws IOException {
+            if (text == null) {
+                text = "";
+            }
+            boolean quote = escape == ESCAPE_JSON || (escape == ESCAPE_CSV && needsQuotes(text));
+            if (quote) {
+                put('"');
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (escape == ESCAPE_XML) {
+                    if (c == '&') {
+                        ascii("&amp;");
+                        continue;
+                    } else if (c == '<') {
+                        ascii("&lt;");
+                        continue;
+                    } else if (c == '>') {
+                        ascii("&gt;");
+                        continue;
+                    } else if (c == '"') {
+                        ascii("&quot;");
+                        continue;
+                    } else if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        // Not allowed in XML 1.0
+                        continue;
+                    }
+                } else if (escape == ESCAPE_JSON) {
+                    if (c == '"' || c == '\\') {
+                        put('\\');
+                    } else if (c < 0x20) {
+                        ascii("\\u00").put(Character.forDigit(c >> 4, 16)).put(Character.forDigit(c & 0xF, 16));
+                        continue;
+                    }
+                } else if (c == '"') {
+                    put('"');
+                }
+                
+                if (c < 0x80) {
+                    put(c);
+                } else if (c < 0x800) {
+                    put((char) (0xC0 | (c >> 6)));
+                    put((char) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    put((char) (0xF0 | (codePoint >> 18)));
+                    put((char) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    put((char) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    put((char) (0x80 | (codePoint & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    put('?');
+                } else {
+                    put((char) (0xE0 | (c >> 12)));
+                    put((char) (0x80 | ((c >> 6) & 0x3F)));
+                    put((char) (0x80 | (c & 0x3F)));
+                }
+            }
+            if (quote) {
+                put('"');
+            }
+            return this;
+        }
+        
+        TextOutput number(long value) throws IOException {
+            // Digits of the negated value, so Long.MIN_VALUE needs no special case
+            long remaining = value < 0 ? value : -value;
+            if (value < 0) {
+                put('-');
+            }
+            int count = 0;
+            do {
+                digits[count++] = (byte) ('0' - remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+            while (count > 0) {
+                put((char) digits[--count]);
+            }
+            return this;
+        }
+        
+        /**
+         * Write a metric, or nothing (CSV) or null (JSON) if it is unavailable
+         */
+        TextOutput value(int value, boolean json) throws IOException {
+            if (value != SampleRingBuffer.UNAVAILABLE) {
+                number(value);
+            } else if (json) {
+                ascii("null");
+            }
+            return this;
+        }
+        
+        /**
+         * Write 1e-7 degrees as decimal degrees, with all seven decimals
+         */
+        TextOutput degrees(int e7) throws IOException {
+            long value = e7;
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+            number(value / 10_000_000);
+            put('.');
+            padded(value % 10_000_000, 7);
+            return this;
+        }
+        
+        /**
+         * Write a time as ISO 8601 in UTC, e.g. 2024-05-01T12:30:00.250Z
+         */
+        TextOutput time(long millis) throws IOException {
+            long days = millis / DAY_MILLIS;
+            long millisOfDay = millis % DAY_MILLIS;
+            if (millisOfDay < 0) {
+                millisOfDay += DAY_MILLIS;
+                days--;
+            }
+            // Civil date from days since 1970-01-01, in 400-year eras starting on March 1st
+            long z = days + 719_468;
+            long era = (z >= 0 ? z : z - 146_096) / 146_097;
+            long dayOfEra = z - era * 146_097;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long shiftedMonth = (5 * dayOfYear + 2) / 153;
+            long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+            long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+            long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+            
+            padded(year, 4).put('-').padded(month, 2).put('-').padded(day, 2).put('T')
+                    .padded(millisOfDay / 3_600_000, 2).put(':')
+                    .padded(millisOfDay / 60_000 % 60, 2).put(':')
+                    .padded(millisOfDay / 1000 % 60, 2).put('.')
+                    .padded(millisOfDay % 1000, 3).put('Z');
+            return this;
+        }
+        
+        private TextOutput padded(long value, int width) throws IOException {
+            for (long limit = 10; width > 1; width--, limit *= 10) {
+                if (value < limit) {
+                    put('0');
+                }
+            }
+            return number(value);
+        }
+        
+        private void flush() throws IOException {
+            stream.write(buffer, 0, length);
+            length = 0;
+        }
+        
+        private static boolean needsQuotes(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,600 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queryable catalog of stored sessions
+ *
+ * Holds each session's form data and a few totals as columns, one row per
+ * session in start-time order, with text values dictionary-encoded. The
+ * catalog is saved as one file and extended with new sessions only, so
+ * a query never opens a session log. Queries run on secondary indexes
+ * rebuilt on load: the sorted start times give the time range by binary
+ * search, fields with few distinct values (operator, build type) keep a
+ * bitmap of rows per value, and the others a sorted list of rows per value.
+ * The matching rows come back as a bitmap that counts with popcount and
+ * aggregates in one pass over its set bits.
+ *
+ * Queries and updates are synchronized, so one thread can update the
+ * catalog while others query it.
+ */
+public final class SessionIndex {
+    
+    static final int MAGIC = 0x4D465349; // "MFSI"
+    static final int FORMAT_VERSION = 1;
+    
+    // Fields
+    public static final int FIELD_EMPLOYEE_ID = 0;
+    public static final int FIELD_MODEL = 1;
+    public static final int FIELD_BUILD_VERSION = 2;
+    public static final int FIELD_BUILD_TYPE = 3;
+    public static final int FIELD_TEST_AREA = 4;
+    public static final int FIELD_OPERATOR = 5; // several per session
+    public static final int FIELD_COUNT = 6;
+    
+    // Measures
+    public static final int MEASURE_SESSIONS = 0;
+    public static final int MEASURE_ROWS = 1;
+    public static final int MEASURE_EVENTS = 2;
+    public static final int MEASURE_LOCATIONS = 3;
+    public static final int MEASURE_BYTES = 4;
+    public static final int MEASURE_COUNT = 5;
+    
+    // Fields with at most this many values get bitmap indexes; a bitmap costs n/8 bytes per value
+    static final int BITMAP_MAX_VALUES = 32;
+    
+    private static final String TAG = "SessionIndex";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    // Columns, one entry per session in start order
+    private int size;
+    private long[] startTimes = new long[64];
+    private final int[][] codes = new int[FIELD_OPERATOR][64];
+    private int[] operatorStart = new int[65]; // row r's operators are operatorCodes[operatorStart[r]..[r+1])
+    private int[] operatorCodes = new int[128];
+    private final long[][] measures = new long[MEASURE_COUNT][64];
+    private final Dictionary[] dictionaries = new Dictionary[FIELD_COUNT];
+    
+    // Secondary indexes by field and value code; one of the two is set per field
+    private final long[][][] bitmaps = new long[FIELD_COUNT][][];
+    private final int[][][] postings = new int[FIELD_COUNT][][];
+    
+    public SessionIndex() {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            dictionaries[field] = new Dictionary();
+        }
+        buildIndexes();
+    }
+    
+    /**
+     * Load a saved catalog
+     * @param file Catalog file
+     * @return The catalog, or an empty one if the file does not exist
+     * @throws IOException if the file cannot be read or is not a catalog
+     */
+    public static SessionIndex load(File file) throws IOException {
+        SessionIndex index = new SessionIndex();
+        if (!file.exists()) {
+            return index;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a session index: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported session index version: " + version);
+            }
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                int values = in.readInt();
+                for (int i = 0; i < values; i++) {
+                    index.dictionaries[field].getOrAdd(in.readUTF());
+                }
+            }
+            int count = in.readInt();
+            index.ensureCapacity(count);
+            for (int row = 0; row < count; row++) {
+                index.startTimes[row] = in.readLong();
+                for (int field = 0; field < FIELD_OPERATOR; field++) {
+                    index.codes[field][row] = in.readInt();
+                }
+                int operators = in.readUnsignedShort();
+                int start = index.operatorStart[row];
+                index.ensureOperatorCapacity(start + operators);
+                for (int i = 0; i < operators; i++) {
+                    index.operatorCodes[start + i] = in.readInt();
+                }
+                index.operatorStart[row + 1] = start + operators;
+                for (int measure = MEASURE_ROWS; measure < MEASURE_COUNT; measure++) {
+                    index.measures[measure][row] = in.readLong();
+                }
+                index.measures[MEASURE_SESSIONS][row] = 1;
+                index.size++;
+            }
+        } finally {
+            in.close();
+        }
+        index.buildIndexes();
+        return index;
+    }
+    
+    /**
+     * Save the catalog (to a temporary file, then rename)
+     * @param file Catalog file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                Dictionary dictionary = dictionaries[field];
+                out.writeInt(dictionary.size());
+                for (int i = 0; i < dictionary.size(); i++) {
+                    out.writeUTF(dictionary.get(i));
+                }
+            }
+            out.writeInt(size);
+            for (int row = 0; row < size; row++) {
+                out.writeLong(startTimes[row]);
+                for (int field = 0; field < FIELD_OPERATOR; field++) {
+                    out.writeInt(codes[field][row]);
+                }
+                out.writeShort(operatorStart[row + 1] - operatorStart[row]);
+                for (int i = operatorStart[row]; i < operatorStart[row + 1]; i++) {
+                    out.writeInt(operatorCodes[i]);
+                }
+                for (int measure = MEASURE_ROWS; measure < MEASURE_COUNT; measure++) {
+                    out.writeLong(measures[measure][row]);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save session index: " + file);
+        }
+    }
+    
+    /**
+     * Add the session logs not in the catalog yet
+     * Each new session is opened once, for its totals.
+     * @param sessionDir Directory holding the session logs
+     * @param startedBefore Only sessions started before this time are taken,
+     *                      so a session still being recorded is left alone
+     * @return Number of sessions added
+     */
+    public synchronized int update(File sessionDir, final long startedBefore) {
+        File[] files = sessionDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                long start = getStartTime(file);
+                return start >= 0 && start < startedBefore && !contains(start);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        Arrays.sort(files);
+        int added = 0;
+        for (File file : files) {
+            try {
+                SessionLogReader reader = new SessionLogReader(file);
+                try {
+                    addRow(reader.getStartTimeMillis(), reader.getFormData(), reader.getRowCount(),
+                            reader.getEventCount(), reader.getLocationCount(), file.length());
+                } finally {
+                    reader.close();
+                }
+                added++;
+            } catch (IOException | RuntimeException e) {
+                LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Unreadable session skipped")
+                        .put("file", file.getName())
+                        .put("error", e)
+                        .commit();
+            }
+        }
+        if (added > 0) {
+            buildIndexes();
+        }
+        return added;
+    }
+    
+    /**
+     * Add one session; the indexes are rebuilt once the batch is complete
+     * with buildIndexes()
+     */
+    void addRow(long startTime, FormData formData, long rows, int events, int locations, long bytes) {
+        ensureCapacity(size + 1);
+        int row = size;
+        if (row > 0 && startTime < startTimes[row - 1]) {
+            // Keep start order; only happens for logs restored out of order
+            row = lowerBound(startTime);
+            shiftRows(row);
+        }
+        startTimes[row] = startTime;
+        codes[FIELD_EMPLOYEE_ID][row] = dictionaries[FIELD_EMPLOYEE_ID].getOrAdd(formData.getEmployeeId());
+        codes[FIELD_MODEL][row] = dictionaries[FIELD_MODEL].getOrAdd(formData.getModel());
+        codes[FIELD_BUILD_VERSION][row] = dictionaries[FIELD_BUILD_VERSION].getOrAdd(formData.getBuildVersion());
+        codes[FIELD_BUILD_TYPE][row] = dictionaries[FIELD_BUILD_TYPE].getOrAdd(formData.getBuildType());
+        codes[FIELD_TEST_AREA][row] = dictionaries[FIELD_TEST_AREA].getOrAdd(formData.getTestArea());
+        measures[MEASURE_SESSIONS][row] = 1;
+        measures[MEASURE_ROWS][row] = rows;
+        measures[MEASURE_EVENTS][row] = events;
+        measures[MEASURE_LOCATIONS][row] = locations;
+        measures[MEASURE_BYTES][row] = bytes;
+        
+        List<String> operators = formData.getSelectedOperators();
+        int operatorCount = operators != null ? operators.size() : 0;
+        int start = operatorStart[row];
+        int tail = operatorStart[size] - start;
+        ensureOperatorCapacity(operatorStart[size] + operatorCount);
+        System.arraycopy(operatorCodes, start, operatorCodes, start + operatorCount, tail);
+        for (int i = 0; i < operatorCount; i++) {
+            operatorCodes[start + i] = dictionaries[FIELD_OPERATOR].getOrAdd(operators.get(i));
+        }
+        for (int r = size + 1; r > row; r--) {
+            operatorStart[r] = operatorStart[r - 1] + operatorCount;
+        }
+        size++;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized long getStartTime(int row) {
+        return startTimes[row];
+    }
+    
+    /**
+     * @param field One of the FIELD_* constants other than FIELD_OPERATOR
+     * @param row Row index, below size()
+     * @return The session's value of the field
+     */
+    public synchronized String getValue(int field, int row) {
+        if (field == FIELD_OPERATOR) {
+            throw new IllegalArgumentException("Sessions have several operators");
+        }
+        return dictionaries[field].get(codes[field][row]);
+    }
+    
+    /**
+     * @return Copy of the distinct values of a field, in the order used by sumBy()
+     */
+    public synchronized List<String> getValues(int field) {
+        return dictionaries[field].values();
+    }
+    
+    /**
+     * Find the sessions matching a filter
+     * @param query Filter
+     * @return Matching sessions
+     */
+    public synchronized Selection query(SessionQuery query) {
+        int from = lowerBound(query.getFromMillis());
+        int to = lowerBound(query.getToMillis());
+        long[] bits = new long[(size + 63) >>> 6];
+        setRange(bits, from, to);
+        long[] scratch = null;
+        
+        for (int field = 0; field < FIELD_COUNT && from < to; field++) {
+            List<String> values = query.getValues(field);
+            if (values == null) {
+                continue;
+            }
+            if (scratch == null) {
+                scratch = new long[bits.length];
+            } else {
+                Arrays.fill(scratch, 0);
+            }
+            for (String value : values) {
+                int code = dictionaries[field].indexOf(value);
+                if (code < 0) {
+                    continue;
+                }
+                if (bitmaps[field] != null) {
+                    long[] bitmap = bitmaps[field][code];
+                    for (int i = from >>> 6; i <= (to - 1) >>> 6; i++) {
+                        scratch[i] |= bitmap[i];
+                    }
+                } else {
+                    int[] rows = postings[field][code];
+                    int i = Arrays.binarySearch(rows, from);
+                    for (i = i < 0 ? -i - 1 : i; i < rows.length && rows[i] < to; i++) {
+                        scratch[rows[i] >>> 6] |= 1L << rows[i];
+                    }
+                }
+            }
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] &= scratch[i];
+            }
+        }
+        return new Selection(bits);
+    }
+    
+    /**
+     * Rebuild the bitmap and row-list indexes from the columns
+     */
+    void buildIndexes() {
+        int words = (size + 63) >>> 6;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int values = dictionaries[field].size();
+            // Occurrences of each value, to size the row lists
+            int[] counts = new int[values];
+            if (field == FIELD_OPERATOR) {
+                for (int i = 0; i < operatorStart[size]; i++) {
+                    counts[operatorCodes[i]]++;
+                }
+            } else {
+                for (int row = 0; row < size; row++) {
+                    counts[codes[field][row]]++;
+                }
+            }
+            
+            if (values <= BITMAP_MAX_VALUES) {
+                long[][] fieldBitmaps = new long[values][words];
+                for (int row = 0; row < size; row++) {
+                    if (field == FIELD_OPERATOR) {
+                        for (int i = operatorStart[row]; i < operatorStart[row + 1]; i++) {
+                            fieldBitmaps[operatorCodes[i]][row >>> 6] |= 1L << row;
+                        }
+                    } else {
+                        fieldBitmaps[codes[field][row]][row >>> 6] |= 1L << row;
+                    }
+                }
+                bitmaps[field] = fieldBitmaps;
+                postings[field] = null;
+            } else {
+                int[][] fieldPostings = new int[values][];
+                for (int code = 0; code < values; code++) {
+                    fieldPostings[code] = new int[counts[code]];
+                }
+                int[] filled = new int[values];
+                for (int row = 0; row < size; row++) {
+                    if (field == FIELD_OPERATOR) {
+                        for (int i = operatorStart[row]; i < operatorStart[row + 1]; i++) {
+                            int code = operatorCodes[i];
+                            fieldPostings[code][filled[code]++] = row;
+                        }
+                    } else {
+                        int code = codes[field][row];
+                        fieldPostings[code][filled[code]++] = row;
+                    }
+                }
+                postings[field] = fieldPostings;
+                bitmaps[field] = null;
+            }
+        }
+    }
+    
+    private boolean contains(long startTime) {
+        int row = lowerBound(startTime);
+        return row < size && startTimes[row] == startTime;
+    }
+    
+    /**
+     * @return First row started at or after the time
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startTimes[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    private static void setRange(long[] bits, int from, int to) {
+        for (int row = from; row < to; ) {
+            int word = row >>> 6;
+            int end = Math.min(to, (word + 1) << 6);
+            long mask = end - row == 64 ? -1L : ((1L << (end - row)) - 1) << row;
+            bits[word] |= mask;
+            row = end;
+        }
+    }
+    
+    private void shiftRows(int row) {
+        int moved = size - row;
+        System.arraycopy(startTimes, row, startTimes, row + 1, moved);
+        for (int[] column : codes) {
+            System.arraycopy(column, row, column, row + 1, moved);
+        }
+        for (long[] column : measures) {
+            System.arraycopy(column, row, column, row + 1, moved);
+        }
+    }
+    
+    private void ensureCapacity(int rows) {
+        if (rows <= startTimes.length) {
+            return;
+        }
+        int capacity = Math.max(rows, startTimes.length * 2);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        for (int field = 0; field < codes.length; field++) {
+            codes[field] = Arrays.copyOf(codes[field], capacity);
+        }
+        for (int measure = 0; measure < MEASURE_COUNT; measure++) {
+            measures[measure] = Arrays.copyOf(measures[measure], capacity);
+        }
+        operatorStart = Arrays.copyOf(operatorStart, capacity + 1);
+    }
+    
+    private void ensureOperatorCapacity(int count) {
+        if (count > operatorCodes.length) {
+            operatorCodes = Arrays.copyOf(operatorCodes, Math.max(count, operatorCodes.length * 2));
+        }
+    }
+    
+    /**
+     * @return Start time from a session log's file name, or -1 for other files
+     */
+    private static long getStartTime(File file) {
+        String name = file.getName();
+        if (!file.isFile() || !name.endsWith(Constants.SESSION_FILE_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - Constants.SESSION_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Sessions matched by a query, as a bitmap over the catalog's rows
+     * The count is always valid; sums read the catalog and are only
+     * meaningful until it is updated.
+     */
+    public final class Selection {
+        private final long[] bits;
+        
+        private Selection(long[] bits) {
+            this.bits = bits;
+        }
+        
+        public int getCount() {
+            int count = 0;
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+        
+        public boolean contains(int row) {
+            return (bits[row >>> 6] & (1L << row)) != 0;
+        }
+        
+        /**
+         * @param measure One of the MEASURE_* constants
+         * @return Sum of the measure over the selected sessions
+         */
+        public long sum(int measure) {
+            if (measure == MEASURE_SESSIONS) {
+                return getCount();
+            }
+            long[] column = measures[measure];
+            long sum = 0;
+            for (int word = 0; word < bits.length; word++) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    sum += column[(word << 6) + Long.numberOfTrailingZeros(w)];
+                }
+            }
+            return sum;
+        }
+        
+        /**
+         * Sum a measure per value of a field (group by)
+         * For FIELD_OPERATOR a session counts towards each of its operators.
+         * @param field One of the FIELD_* constants
+         * @param measure One of the MEASURE_* constants
+         * @return Sums indexed like getValues(field)
+         */
+        public long[] sumBy(int field, int measure) {
+            long[] sums = new long[dictionaries[field].size()];
+            if (measure == MEASURE_SESSIONS && bitmaps[field] != null) {
+                // Counting by bitmap is a popcount of the intersection
+                for (int code = 0; code < sums.length; code++) {
+                    long[] bitmap = bitmaps[field][code];
+                    long count = 0;
+                    for (int word = 0; word < bits.length; word++) {
+                        count += Long.bitCount(bits[word] & bitmap[word]);
+                    }
+                    sums[code] = count;
+                }
+                return sums;
+            }
+            long[] column = measures[measure];
+            for (int word = 0; word < bits.length; word++) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(w);
+                    if (field == FIELD_OPERATOR) {
+                        for (int i = operatorStart[row]; i < operatorStart[row + 1]; i++) {
+                            sums[operatorCodes[i]] += column[row];
+                        }
+                    } else {
+                        sums[codes[field][row]] += column[row];
+                    }
+                }
+            }
+            return sums;
+        }
+        
+        /**
+         * @return Selected rows in start order
+         */
+        public int[] getRows() {
+            int[] rows = new int[getCount()];
+            int n = 0;
+            for (int word = 0; word < bits.length; word++) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    rows[n++] = (word << 6) + Long.numberOfTrailingZeros(w);
+                }
+            }
+            return rows;
+        }
+    }
+    
+    /**
+     * Text values of a field and their dense codes
+     */
+    private static final class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        
+        int getOrAdd(String value) {
+            if (value == null) {
+                value = "";
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+        
+        int indexOf(String value) {
+            Integer code = codes.get(value);
+            return code != null ? code : -1;
+        }
+        
+        String get(int code) {
+            return values.get(code);
+        }
+        
+        int size() {
+            return values.size();
+        }
+        
+        List<String> values() {
+            return new ArrayList<>(values);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,461 @@
+package com.mobilefieldtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal for the session being recorded
+ * Rows reach the session log one block at a time, so a process kill would
+ * lose up to a whole block. The journal sits in front of the SessionLogWriter
+ * as the sampler listener: each poll's rows go to the log and are also
+ * appended to an in-memory batch, and a committer thread writes and fsyncs
+ * the batch once per commit interval (group commit). The sampling path never
+ * waits for storage; at most one commit interval is lost.
+ *
+ * Record layout: payload length, CRC32 of type and payload, type, payload.
+ * The first record describes the session (log file, start time, FormData);
+ * the rest hold sample rows tagged with their row number in the log. Once a
+ * block reaches the log, the log is synced and the journal is cut back to
+ * its first record.
+ *
+ * On the next launch recover() replays a leftover journal: it reopens the
+ * log, drops torn records by length and checksum, and appends the rows the
+ * log is missing. A cleanly closed session deletes its journal.
+ */
+public final class SessionJournal implements MeasurementSampler.Listener, Closeable {
+    
+    static final int MAGIC = 0x4D46544A; // "MFTJ"
+    static final int VERSION = 1;
+    static final int RECORD_HEADER_SIZE = 9;
+    
+    // Record types
+    static final byte RECORD_SESSION = 1;
+    static final byte RECORD_SAMPLES = 2;
+    
+    // Two longs and nine ints per row, stored row by row
+    private static final int ROW_SIZE = SampleRingBuffer.LONG_COLUMN_COUNT * 8 + SampleRingBuffer.INT_COLUMN_COUNT * 4;
+    private static final int SAMPLES_HEADER_SIZE = 12;
+    private static final int MAX_RECORD_ROWS = 256;
+    private static final int INITIAL_BATCH_SIZE = 64 * 1024;
+    
+    private static final Metrics.Timer COMMIT_TIMER = Metrics.getInstance().timer("journal.commit");
+    
+    private final File file;
+    private final SessionLogWriter log;
+    private final FileChannel channel;
+    private final long sessionRecordEnd;
+    private final long commitIntervalNanos;
+    private final CRC32 crc = new CRC32();
+    private final Thread committer;
+    
+    // Batch being filled by the sampler thread, guarded by this
+    private byte[] batch = new byte[INITIAL_BATCH_SIZE];
+    private ByteBuffer batchView = ByteBuffer.wrap(batch);
+    private boolean checkpointPending;
+    private long checkpointRow;
+    private boolean closing;
+    private IOException logFailure;
+    private IOException journalFailure;
+    
+    // Batch last written by the committer, swapped back in on the next commit
+    private byte[] spare = new byte[INITIAL_BATCH_SIZE];
+    private ByteBuffer spareView = ByteBuffer.wrap(spare);
+    
+    private volatile long commitCount;
+    
+    /**
+     * Start journaling a new session, replacing any journal at the path
+     * The session record is on storage before this returns.
+     * @param file Journal file
+     * @param log Log receiving the session's rows; closed with the journal
+     * @param formData Session metadata
+     * @param startTimeMillis Session start time
+     * @param commitIntervalMillis Time between group commits
+     * @throws IOException if the journal cannot be created
+     */
+    public SessionJournal(File file, SessionLogWriter log, FormData formData, long startTimeMillis,
+                          long commitIntervalMillis) throws IOException {
+        this.file = file;
+        this.log = log;
+        this.commitIntervalNanos = commitIntervalMillis * 1_000_000L;
+        this.checkpointRow = log.getWrittenRowCount();
+        
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(log.getFile().getAbsolutePath());
+        out.writeLong(startTimeMillis);
+        formData.writeTo(out);
+        out.flush();
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            channel = raf.getChannel();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.size());
+            record.position(RECORD_HEADER_SIZE);
+            record.put(body.toByteArray());
+            sealRecord(record, 0, RECORD_SESSION, body.size());
+            record.clear();
+            writeFully(record);
+            channel.force(true);
+            sessionRecordEnd = channel.position();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        
+        committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runCommitter();
+            }
+        }, "SessionJournal");
+        committer.start();
+    }
+    
+    @Override
+    public void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId,
+                                  long fromSequence, long toSequence) {
+        synchronized (this) {
+            if (closing || logFailure != null) {
+                return;
+            }
+            long firstRow = log.getRowCount();
+            try {
+                log.append(buffer, fromSequence, toSequence);
+            } catch (IOException e) {
+                // Keep sampling; the failure is reported on close
+                logFailure = e;
+                return;
+            }
+            if (journalFailure != null) {
+                // The committer has stopped; keep recording to the log only
+                return;
+            }
+            
+            long writtenRows = log.getWrittenRowCount();
+            if (writtenRows > checkpointRow) {
+                // A block reached the log; only rows after it still need the journal
+                batchView.clear();
+                checkpointPending = true;
+                checkpointRow = writtenRows;
+                fromSequence += writtenRows - firstRow;
+                firstRow = writtenRows;
+            }
+            appendRows(buffer, fromSequence, toSequence, firstRow);
+        }
+    }
+    
+    @Override
+    public void onPollEmpty(int subscriptionId, long timestampMillis) {
+        // Nothing to journal
+    }
+    
+    /**
+     * Commit outstanding rows, stop the committer and close the log
+     * The journal file is deleted once the log is safely closed.
+     * @throws IOException if the log failed; the journal is then kept for recovery
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            log.close();
+        } finally {
+            channel.close();
+        }
+        synchronized (this) {
+            // Leave the journal for recovery if the log may be incomplete
+            if (logFailure != null) {
+                throw logFailure;
+            }
+        }
+        if (!file.delete()) {
+            throw new IOException("Could not delete session journal: " + file);
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public SessionLogWriter getLog() {
+        return log;
+    }
+    
+    /**
+     * @return Error that stopped journaling, or null while the journal is healthy
+     */
+    public synchronized IOException getJournalFailure() {
+        return journalFailure;
+    }
+    
+    /**
+     * @return Number of group commits written to storage
+     */
+    public long getCommitCount() {
+        return commitCount;
+    }
+    
+    /**
+     * Encode rows as samples records into the current batch
+     */
+    private void appendRows(SampleRingBuffer buffer, long fromSequence, long toSequence, long firstRow) {
+        while (fromSequence < toSequence) {
+            int rows = (int) Math.min(toSequence - fromSequence, MAX_RECORD_ROWS);
+            int payloadLength = SAMPLES_HEADER_SIZE + rows * ROW_SIZE;
+            ensureBatchCapacity(RECORD_HEADER_SIZE + payloadLength);
+            
+            int recordStart = batchView.position();
+            batchView.position(recordStart + RECORD_HEADER_SIZE);
+            batchView.putLong(firstRow);
+            batchView.putInt(rows);
+            for (int i = 0; i < rows; i++) {
+                long sequence = fromSequence + i;
+                for (int c = 0; c < SampleRingBuffer.LONG_COLUMN_COUNT; c++) {
+                    batchView.putLong(buffer.getLong(c, sequence));
+                }
+                for (int c = 0; c < SampleRingBuffer.INT_COLUMN_COUNT; c++) {
+                    batchView.putInt(buffer.getInt(c, sequence));
+                }
+            }
+            sealRecord(batchView, recordStart, RECORD_SAMPLES, payloadLength);
+            
+            fromSequence += rows;
+            firstRow += rows;
+        }
+    }
+    
+    private void ensureBatchCapacity(int extra) {
+        int position = batchView.position();
+        if (batch.length - position >= extra) {
+            return;
+        }
+        // Only when commits fall far behind; the batch normally holds one interval
+        batch = Arrays.copyOf(batch, Math.max(batch.length * 2, position + extra));
+        batchView = ByteBuffer.wrap(batch);
+        batchView.position(position);
+    }
+    
+    /**
+     * Fill in the header of a record whose payload is already in place
+     * Absolute puts, so the view's position and the sampler path stay allocation-free
+     */
+    private void sealRecord(ByteBuffer view, int recordStart, byte type, int payloadLength) {
+        byte[] array = view.array();
+        array[recordStart + 8] = type;
+        crc.reset();
+        crc.update(array, recordStart + 8, 1 + payloadLength);
+        view.putInt(recordStart, payloadLength);
+        view.putInt(recordStart + 4, (int) crc.getValue());
+    }
+    
+    private void runCommitter() {
+        while (true) {
+            byte[] pending;
+            ByteBuffer pendingView;
+            int length;
+            boolean checkpoint;
+            boolean last;
+            synchronized (this) {
+                long deadline = System.nanoTime() + commitIntervalNanos;
+                long remaining;
+                while (!closing && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        closing = true;
+                    }
+                }
+                
+                // Swap batches so the sampler keeps appending while this one is written
+                pending = batch;
+                pendingView = batchView;
+                length = batchView.position();
+                checkpoint = checkpointPending;
+                batch = spare;
+                batchView = spareView;
+                batchView.clear();
+                checkpointPending = false;
+                spare = pending;
+                spareView = pendingView;
+                last = closing;
+            }
+            
+            if (length > 0 || checkpoint) {
+                try {
+                    commit(pendingView, length, checkpoint);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        journalFailure = e;
+                    }
+                    return;
+                }
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+    
+    private void commit(ByteBuffer pending, int length, boolean checkpoint) throws IOException {
+        long start = COMMIT_TIMER.start();
+        if (checkpoint) {
+            // The new block must be on storage before its rows leave the journal
+            log.sync();
+            channel.truncate(sessionRecordEnd);
+            channel.position(sessionRecordEnd);
+        }
+        pending.limit(length);
+        pending.position(0);
+        writeFully(pending);
+        channel.force(false);
+        commitCount++;
+        COMMIT_TIMER.stop(start);
+    }
+    
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+    
+    /**
+     * Finish a session interrupted by a process kill
+     * Replays the journal's rows into the session log, closes the log and
+     * deletes the journal. Records after a torn or corrupt one are dropped.
+     * If the log itself cannot be reopened it is recreated from the journal.
+     * @param file Journal file
+     * @return The completed session log, or null if there was nothing to recover
+     * @throws IOException if the log cannot be written
+     */
+    public static synchronized File recover(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            data = new byte[(int) raf.length()];
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        
+        ByteBuffer records = ByteBuffer.wrap(data);
+        CRC32 checksum = new CRC32();
+        if (nextRecord(records, checksum) != RECORD_SESSION) {
+            // Killed before the session record was complete; nothing was sampled yet
+            deleteJournal(file);
+            return null;
+        }
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data, records.position(), records.remaining()));
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            throw new IOException("Unsupported session journal: " + file);
+        }
+        File logFile = new File(in.readUTF());
+        long startTimeMillis = in.readLong();
+        FormData formData = FormData.readFrom(in);
+        records.position(records.limit());
+        records.limit(data.length);
+        
+        SessionLogWriter log;
+        try {
+            log = SessionLogWriter.resume(logFile);
+        } catch (IOException e) {
+            log = new SessionLogWriter(logFile, formData, startTimeMillis);
+        }
+        
+        try {
+            SampleRingBuffer rows = new SampleRingBuffer(MAX_RECORD_ROWS);
+            while (nextRecord(records, checksum) == RECORD_SAMPLES) {
+                long firstRow = records.getLong();
+                int count = records.getInt();
+                long from = rows.getWriteSequence();
+                for (int i = 0; i < count; i++) {
+                    long timestamp = records.getLong();
+                    long cellId = records.getLong();
+                    int subscriptionId = records.getInt();
+                    int rat = records.getInt();
+                    int flags = records.getInt();
+                    int pci = records.getInt();
+                    int arfcn = records.getInt();
+                    int band = records.getInt();
+                    int rsrp = records.getInt();
+                    int rsrq = records.getInt();
+                    int sinr = records.getInt();
+                    // Rows the log already holds were journaled before a checkpoint finished
+                    if (firstRow + i >= log.getRowCount()) {
+                        rows.append(timestamp, subscriptionId, rat, flags, cellId,
+                                pci, arfcn, band, rsrp, rsrq, sinr);
+                    }
+                }
+                log.append(rows, from, rows.getWriteSequence());
+                records.position(records.limit());
+                records.limit(data.length);
+            }
+        } finally {
+            log.close();
+        }
+        deleteJournal(file);
+        return logFile;
+    }
+    
+    /**
+     * Validate the record at the buffer's position
+     * On success the buffer is limited to the payload, positioned at its start.
+     * @return Record type, or 0 at the end of the journal or a torn record
+     */
+    private static byte nextRecord(ByteBuffer records, CRC32 checksum) {
+        int start = records.position();
+        if (records.remaining() < RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        int payloadLength = records.getInt(start);
+        int expectedCrc = records.getInt(start + 4);
+        if (payloadLength < 0 || payloadLength > records.remaining() - RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        checksum.reset();
+        checksum.update(records.array(), start + 8, 1 + payloadLength);
+        if ((int) checksum.getValue() != expectedCrc) {
+            return 0;
+        }
+        byte type = records.get(start + 8);
+        records.position(start + RECORD_HEADER_SIZE);
+        records.limit(start + RECORD_HEADER_SIZE + payloadLength);
+        return type;
+    }
+    
+    private static void deleteJournal(File file) throws IOException {
+        if (!file.delete()) {
+            throw new IOException("Could not delete session journal: " + file);
+        }
+    }
+}
\ No newline at end of file
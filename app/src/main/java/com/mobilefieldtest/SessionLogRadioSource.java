@@ -0,0 +1,158 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * RadioSource that plays back the rows of a stored session log
+ * The log is loaded into memory once. Rows are grouped into the polls that
+ * produced them, and each sample() call emits the subscription's oldest
+ * poll not yet emitted, with its recorded values and timestamp, once the
+ * requested time has reached it. One call is one poll, as for a live source,
+ * so downstream listeners see the recorded polls unchanged. Sampled faster
+ * than it was recorded, on a ReplayClock starting at the session's start
+ * time, the source catches up after any stall and emits every recorded row
+ * once, in order.
+ */
+public final class SessionLogRadioSource implements RadioSource {
+    
+    private final long[][] longColumns = new long[SampleRingBuffer.LONG_COLUMN_COUNT][];
+    private final int[][] intColumns = new int[SampleRingBuffer.INT_COLUMN_COUNT][];
+    
+    // Polls of each subscription: first row of each, plus one past the last row
+    private final int[] subscriptionIds;
+    private final int[][] pollStarts;
+    private final int[] pollCounts;
+    private final int[] nextPoll;
+    private final long endTimeMillis;
+    
+    /**
+     * @param reader Open session log; can be closed once this returns
+     */
+    public SessionLogRadioSource(SessionLogReader reader) {
+        int rowCount = (int) reader.getRowCount();
+        for (int c = 0; c < longColumns.length; c++) {
+            longColumns[c] = new long[rowCount];
+        }
+        for (int c = 0; c < intColumns.length; c++) {
+            intColumns[c] = new int[rowCount];
+        }
+        SampleBlock block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        int offset = 0;
+        for (int b = 0; b < reader.getBlockCount(); b++) {
+            reader.readBlock(b, block);
+            int rows = block.getRowCount();
+            for (int c = 0; c < longColumns.length; c++) {
+                System.arraycopy(block.longColumns[c], 0, longColumns[c], offset, rows);
+            }
+            for (int c = 0; c < intColumns.length; c++) {
+                System.arraycopy(block.intColumns[c], 0, intColumns[c], offset, rows);
+            }
+            offset += rows;
+        }
+        
+        // A poll is a run of rows with the same subscription and timestamp
+        long[] timestamps = longColumns[SampleRingBuffer.LONG_TIMESTAMP];
+        int[] rowSubscriptions = intColumns[SampleRingBuffer.INT_SUBSCRIPTION_ID];
+        int[] ids = new int[0];
+        int[][] starts = new int[0][];
+        int[] counts = new int[0];
+        long end = reader.getStartTimeMillis();
+        for (int row = 0; row < offset; row++) {
+            if (row > 0 && rowSubscriptions[row] == rowSubscriptions[row - 1]
+                    && timestamps[row] == timestamps[row - 1]) {
+                continue;
+            }
+            int index = indexOf(ids, rowSubscriptions[row]);
+            if (index < 0) {
+                index = ids.length;
+                ids = Arrays.copyOf(ids, index + 1);
+                ids[index] = rowSubscriptions[row];
+                starts = Arrays.copyOf(starts, index + 1);
+                starts[index] = new int[16];
+                counts = Arrays.copyOf(counts, index + 1);
+            }
+            if (counts[index] == starts[index].length) {
+                starts[index] = Arrays.copyOf(starts[index], counts[index] * 2);
+            }
+            starts[index][counts[index]++] = row;
+            end = Math.max(end, timestamps[row]);
+        }
+        subscriptionIds = ids;
+        pollStarts = starts;
+        pollCounts = counts;
+        nextPoll = new int[ids.length];
+        endTimeMillis = end;
+    }
+    
+    @Override
+    public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+        int index = indexOf(subscriptionIds, subscriptionId);
+        if (index < 0) {
+            return 0;
+        }
+        long[] timestamps = longColumns[SampleRingBuffer.LONG_TIMESTAMP];
+        int[] starts = pollStarts[index];
+        if (nextPoll[index] == pollCounts[index] || timestamps[starts[nextPoll[index]]] > timestampMillis) {
+            return 0;
+        }
+        int row = starts[nextPoll[index]++];
+        long pollTime = timestamps[row];
+        int appended = 0;
+        do {
+            appendRow(row, buffer);
+            appended++;
+            row++;
+        } while (row < timestamps.length && timestamps[row] == pollTime
+                && intColumns[SampleRingBuffer.INT_SUBSCRIPTION_ID][row] == subscriptionId);
+        return appended;
+    }
+    
+    /**
+     * @return Subscriptions with rows in the log, in order of their first row
+     */
+    public int[] getSubscriptionIds() {
+        return subscriptionIds.clone();
+    }
+    
+    /**
+     * @return Timestamp of the last recorded poll
+     */
+    public long getEndTimeMillis() {
+        return endTimeMillis;
+    }
+    
+    /**
+     * @return true once every recorded poll has been emitted
+     */
+    public boolean isFinished() {
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            if (nextPoll[i] < pollCounts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void appendRow(int row, SampleRingBuffer buffer) {
+        buffer.append(longColumns[SampleRingBuffer.LONG_TIMESTAMP][row],
+                intColumns[SampleRingBuffer.INT_SUBSCRIPTION_ID][row],
+                intColumns[SampleRingBuffer.INT_RAT][row],
+                intColumns[SampleRingBuffer.INT_FLAGS][row],
+                longColumns[SampleRingBuffer.LONG_CELL_ID][row],
+                intColumns[SampleRingBuffer.INT_PCI][row],
+                intColumns[SampleRingBuffer.INT_ARFCN][row],
+                intColumns[SampleRingBuffer.INT_BAND][row],
+                intColumns[SampleRingBuffer.INT_RSRP][row],
+                intColumns[SampleRingBuffer.INT_RSRQ][row],
+                intColumns[SampleRingBuffer.INT_SINR][row]);
+    }
+    
+    private static int indexOf(int[] ids, int subscriptionId) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == subscriptionId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
\ No newline at end of file
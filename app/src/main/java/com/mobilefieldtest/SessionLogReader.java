@@ -0,0 +1,462 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped reader for session logs written by SessionLogWriter
+ * Opening maps the file, decodes the header and indexes the blocks; sample
+ * blocks are then decoded on demand into a caller-supplied SampleBlock.
+ * Radio events and location fixes are read all at once with readEvents()
+ * and readLocations(), the attached metrics with readMetrics().
+ * Blocks of unknown type are skipped, and a torn or corrupt tail ends the
+ * readable part of the file.
+ */
+public final class SessionLogReader implements Closeable {
+    
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer mapped;
+    private final FormData formData;
+    private final long startTimeMillis;
+    
+    // Index of valid sample blocks
+    private int[] blockOffsets = new int[16];
+    private int[] blockRows = new int[16];
+    private int blockCount;
+    private long rowCount;
+    private int[] eventOffsets = new int[16];
+    private int eventCount;
+    private int[] rateOffsets = new int[16];
+    private int rateCount;
+    private int[] locationOffsets = new int[16];
+    private int[] locationCounts = new int[16];
+    private int locationBlockCount;
+    private int locationCount;
+    
+    // From the last subscriptions block
+    private int[] subscriptionIds = new int[0];
+    private int[] subscriptionPlmns = new int[0];
+    private int metricsOffset = -1;
+    private int metricsLength;
+    private int validLength;
+    private boolean truncated;
+    
+    /**
+     * Open and index a session log
+     * @param file Session log file
+     * @throws IOException if the file cannot be read or is not a session log
+     */
+    public SessionLogReader(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            
+            if (mapped.remaining() < 10 || mapped.getInt() != SessionLogWriter.MAGIC) {
+                throw new IOException("Not a session log: " + file);
+            }
+            int version = mapped.getShort();
+            if (version != SessionLogWriter.VERSION) {
+                throw new IOException("Unsupported session log version: " + version);
+            }
+            
+            int headerLength = mapped.getInt();
+            if (headerLength < 10 || headerLength > mapped.remaining()) {
+                throw new IOException("Corrupt session log header: " + file);
+            }
+            ByteBuffer header = mapped.slice();
+            header.limit(headerLength);
+            DataInputStream headerIn = new DataInputStream(new ByteBufferInputStream(header));
+            startTimeMillis = headerIn.readLong();
+            int longColumns = headerIn.readUnsignedByte();
+            int intColumns = headerIn.readUnsignedByte();
+            if (longColumns != SampleRingBuffer.LONG_COLUMN_COUNT || intColumns != SampleRingBuffer.INT_COLUMN_COUNT) {
+                throw new IOException("Unsupported session log columns: " + longColumns + "/" + intColumns);
+            }
+            formData = FormData.readFrom(headerIn);
+            
+            indexBlocks(mapped.position() + headerLength);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Read only the form data from a session log's header, without mapping
+     * or indexing the rest of the file
+     * @param file Session log file
+     * @return Form data the session was started with
+     * @throws IOException if the file cannot be read or is not a session log
+     */
+    public static FormData readFormData(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 512));
+        try {
+            if (in.readInt() != SessionLogWriter.MAGIC) {
+                throw new IOException("Not a session log: " + file);
+            }
+            int version = in.readShort();
+            if (version != SessionLogWriter.VERSION) {
+                throw new IOException("Unsupported session log version: " + version);
+            }
+            in.readInt(); // Header length
+            in.readLong(); // Start time
+            int longColumns = in.readUnsignedByte();
+            int intColumns = in.readUnsignedByte();
+            if (longColumns != SampleRingBuffer.LONG_COLUMN_COUNT || intColumns != SampleRingBuffer.INT_COLUMN_COUNT) {
+                throw new IOException("Unsupported session log columns: " + longColumns + "/" + intColumns);
+            }
+            return FormData.readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private void indexBlocks(int position) {
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[8192];
+        int limit = mapped.limit();
+        
+        while (true) {
+            validLength = position;
+            if (position >= limit) {
+                return;
+            }
+            if (limit - position < SessionLogWriter.BLOCK_HEADER_SIZE) {
+                truncated = true;
+                return;
+            }
+            byte type = mapped.get(position);
+            int rows = mapped.getInt(position + 1);
+            int payloadLength = mapped.getInt(position + 5);
+            int expectedCrc = mapped.getInt(position + 9);
+            int payloadStart = position + SessionLogWriter.BLOCK_HEADER_SIZE;
+            
+            if (rows < 0 || payloadLength < 0 || payloadLength > limit - payloadStart) {
+                truncated = true;
+                return;
+            }
+            
+            crc.reset();
+            updateCrc(crc, payloadStart, payloadLength, scratch);
+            if ((int) crc.getValue() != expectedCrc) {
+                truncated = true;
+                return;
+            }
+            
+            if (type == SessionLogWriter.BLOCK_SAMPLES) {
+                if (blockCount == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+                    blockRows = Arrays.copyOf(blockRows, blockCount * 2);
+                }
+                blockOffsets[blockCount] = position;
+                blockRows[blockCount] = rows;
+                blockCount++;
+                rowCount += rows;
+            } else if (type == SessionLogWriter.BLOCK_EVENTS) {
+                if (eventCount == eventOffsets.length) {
+                    eventOffsets = Arrays.copyOf(eventOffsets, eventCount * 2);
+                }
+                eventOffsets[eventCount++] = position;
+            } else if (type == SessionLogWriter.BLOCK_RATES) {
+                if (rateCount == rateOffsets.length) {
+                    rateOffsets = Arrays.copyOf(rateOffsets, rateCount * 2);
+                }
+                rateOffsets[rateCount++] = position;
+            } else if (type == SessionLogWriter.BLOCK_LOCATIONS) {
+                if (locationBlockCount == locationOffsets.length) {
+                    locationOffsets = Arrays.copyOf(locationOffsets, locationBlockCount * 2);
+                    locationCounts = Arrays.copyOf(locationCounts, locationBlockCount * 2);
+                }
+                locationOffsets[locationBlockCount] = position;
+                locationCounts[locationBlockCount] = rows;
+                locationBlockCount++;
+                locationCount += rows;
+            } else if (type == SessionLogWriter.BLOCK_SUBSCRIPTIONS) {
+                readSubscriptions(payloadStart, rows);
+            } else if (type == SessionLogWriter.BLOCK_METRICS) {
+                metricsOffset = payloadStart;
+                metricsLength = payloadLength;
+            }
+            position = payloadStart + payloadLength;
+        }
+    }
+    
+    private void readSubscriptions(int payloadStart, int count) {
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(payloadStart);
+        subscriptionIds = new int[count];
+        subscriptionPlmns = new int[count];
+        for (int i = 0; i < count; i++) {
+            subscriptionIds[i] = (int) VarInt.readSigned(payload);
+            subscriptionPlmns[i] = (int) VarInt.readUnsigned(payload);
+        }
+    }
+    
+    /**
+     * Checksum a range of the mapped file; CRC32.update(ByteBuffer) needs API 26
+     */
+    private void updateCrc(CRC32 crc, int position, int length, byte[] scratch) {
+        ByteBuffer source = mapped.duplicate();
+        source.position(position);
+        while (length > 0) {
+            int count = Math.min(length, scratch.length);
+            source.get(scratch, 0, count);
+            crc.update(scratch, 0, count);
+            length -= count;
+        }
+    }
+    
+    public FormData getFormData() {
+        return formData;
+    }
+    
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+    
+    public int getBlockCount() {
+        return blockCount;
+    }
+    
+    public long getRowCount() {
+        return rowCount;
+    }
+    
+    /**
+     * @return Number of radio events in the log
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+    
+    /**
+     * @return Number of sampling rate changes in the log
+     */
+    public int getRateChangeCount() {
+        return rateCount;
+    }
+    
+    /**
+     * @return Number of location fixes in the log
+     */
+    public int getLocationCount() {
+        return locationCount;
+    }
+    
+    /**
+     * @param subscriptionId Subscription id
+     * @return MCC * 1000 + MNC recorded for the subscription, or 0 if unknown
+     */
+    public int getSubscriptionPlmn(int subscriptionId) {
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            if (subscriptionIds[i] == subscriptionId) {
+                return subscriptionPlmns[i];
+            }
+        }
+        return 0;
+    }
+    
+    public int getBlockRowCount(int index) {
+        return blockRows[index];
+    }
+    
+    /**
+     * @return Length of the file up to the end of the last valid block
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+    
+    /**
+     * @return true if the file ended in a torn or corrupt block
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+    
+    /**
+     * Decode one sample block
+     * @param index Block index, below getBlockCount()
+     * @param dest Block to fill; needs capacity for the block's rows
+     */
+    public void readBlock(int index, SampleBlock dest) {
+        int rows = blockRows[index];
+        if (rows > dest.getCapacity()) {
+            throw new IllegalArgumentException("Block has " + rows + " rows, destination holds " + dest.getCapacity());
+        }
+        
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(blockOffsets[index] + SessionLogWriter.BLOCK_HEADER_SIZE);
+        
+        for (int c = 0; c < SampleRingBuffer.LONG_COLUMN_COUNT; c++) {
+            long[] column = dest.longColumns[c];
+            int lag = payload.get();
+            int zeros = 0;
+            for (int i = 0; i < rows; i++) {
+                long delta = 0;
+                if (zeros > 0) {
+                    zeros--;
+                } else {
+                    long encoded = VarInt.readUnsigned(payload);
+                    if (encoded == 0) {
+                        zeros = (int) VarInt.readUnsigned(payload);
+                    } else {
+                        delta = VarInt.unzigzag(encoded);
+                    }
+                }
+                column[i] = (i >= lag ? column[i - lag] : 0) + delta;
+            }
+        }
+        for (int c = 0; c < SampleRingBuffer.INT_COLUMN_COUNT; c++) {
+            int[] column = dest.intColumns[c];
+            int lag = payload.get();
+            int zeros = 0;
+            for (int i = 0; i < rows; i++) {
+                long delta = 0;
+                if (zeros > 0) {
+                    zeros--;
+                } else {
+                    long encoded = VarInt.readUnsigned(payload);
+                    if (encoded == 0) {
+                        zeros = (int) VarInt.readUnsigned(payload);
+                    } else {
+                        delta = VarInt.unzigzag(encoded);
+                    }
+                }
+                column[i] = (int) ((i >= lag ? column[i - lag] : 0) + delta);
+            }
+        }
+        dest.rowCount = rows;
+    }
+    
+    /**
+     * Decode the radio events, in the order they were logged
+     * @return Events
+     */
+    public List<RadioEvent> readEvents() {
+        List<RadioEvent> events = new ArrayList<>(eventCount);
+        ByteBuffer payload = mapped.duplicate();
+        for (int i = 0; i < eventCount; i++) {
+            payload.position(eventOffsets[i] + SessionLogWriter.BLOCK_HEADER_SIZE);
+            events.add(RadioEvent.decode(payload));
+        }
+        return events;
+    }
+    
+    /**
+     * Decode the sampling rate changes, in the order they were logged
+     * @return Rate changes
+     */
+    public List<RateChange> readRateChanges() {
+        List<RateChange> changes = new ArrayList<>(rateCount);
+        ByteBuffer payload = mapped.duplicate();
+        for (int i = 0; i < rateCount; i++) {
+            payload.position(rateOffsets[i] + SessionLogWriter.BLOCK_HEADER_SIZE);
+            changes.add(RateChange.decode(payload));
+        }
+        return changes;
+    }
+    
+    /**
+     * Decode the location fixes, in the order they were logged
+     * @return Track of all fixes
+     */
+    public LocationTrack readLocations() {
+        LocationTrack track = new LocationTrack(locationCount);
+        for (int b = 0; b < locationBlockCount; b++) {
+            decodeLocations(b, track);
+        }
+        return track;
+    }
+    
+    /**
+     * @return Number of location blocks, each up to SessionLogWriter.LOCATION_BLOCK_FIXES fixes
+     */
+    public int getLocationBlockCount() {
+        return locationBlockCount;
+    }
+    
+    /**
+     * Decode one location block, for reading the track in constant memory
+     * @param index Block index, below getLocationBlockCount()
+     * @param dest Track to fill; cleared first
+     */
+    public void readLocationBlock(int index, LocationTrack dest) {
+        dest.clear();
+        decodeLocations(index, dest);
+    }
+    
+    private void decodeLocations(int index, LocationTrack dest) {
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(locationOffsets[index] + SessionLogWriter.BLOCK_HEADER_SIZE);
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        for (int i = 0; i < locationCounts[index]; i++) {
+            time += VarInt.readSigned(payload);
+            latitude += VarInt.readSigned(payload);
+            longitude += VarInt.readSigned(payload);
+            int accuracy = (int) VarInt.readSigned(payload);
+            dest.add(time, (int) latitude, (int) longitude, accuracy);
+        }
+    }
+    
+    /**
+     * @return Metrics JSON attached to the session, or null if there is none
+     */
+    public String readMetrics() {
+        if (metricsOffset < 0) {
+            return null;
+        }
+        byte[] text = new byte[metricsLength];
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(metricsOffset);
+        payload.get(text);
+        return new String(text, Charset.forName("UTF-8"));
+    }
+    
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+    
+    /**
+     * Minimal InputStream over a ByteBuffer, for decoding the header
+     */
+    private static final class ByteBufferInputStream extends java.io.InputStream {
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,528 @@
+package com.mobilefieldtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only writer for drive-test session logs
+ *
+ * File layout:
+ * - header: magic, version, header length, then start time, column counts
+ *   and the session's FormData, stored once per file
+ * - blocks: type, row count, payload length, CRC32 of the payload, payload
+ * - events blocks: one RadioEvent each, written as soon as it is raised
+ * - locations blocks: up to LOCATION_BLOCK_FIXES location fixes, delta encoded
+ * - subscriptions blocks: the PLMN of each sampled subscription
+ * - metrics blocks: the app's Metrics as JSON text, written when the session ends
+ * - rates blocks: one SamplingGovernor RateChange each
+ *
+ * A sample block holds up to SampleBlock.DEFAULT_CAPACITY rows stored column
+ * by column; each column is delta encoded against an earlier row and written
+ * as zigzag varints with zero runs collapsed, so slowly changing values take
+ * about one byte and constant ones almost nothing.
+ * Blocks are written through a FileChannel from a reused buffer. A torn last
+ * block is detected by its length and checksum and ignored on read.
+ *
+ * Registered as a sampler listener, rows are copied on the sampler thread and
+ * a block is written each time one fills up. Registered as a detector
+ * listener, it logs radio events the same way, and as a governor listener
+ * its rate changes.
+ */
+public final class SessionLogWriter implements MeasurementSampler.Listener, RadioEventDetector.Listener,
+        SamplingGovernor.Listener, Closeable {
+    
+    static final int MAGIC = 0x4D465453; // "MFTS"
+    static final int VERSION = 1;
+    static final int BLOCK_HEADER_SIZE = 13;
+    
+    // Largest delta lag tried per column; covers a serving cell plus 15 neighbours
+    static final int MAX_LAG = 16;
+    // Rows at the start of a block used to pick each column's lag
+    private static final int LAG_PROBE_ROWS = 512;
+    
+    // Block types
+    static final byte BLOCK_SAMPLES = 1;
+    static final byte BLOCK_EVENTS = 2;
+    static final byte BLOCK_LOCATIONS = 3;
+    static final byte BLOCK_SUBSCRIPTIONS = 4;
+    static final byte BLOCK_METRICS = 5;
+    static final byte BLOCK_RATES = 6;
+    
+    // About a minute of fixes at 1 Hz
+    static final int LOCATION_BLOCK_FIXES = 64;
+    
+    private static final Metrics.Timer BLOCK_TIMER = Metrics.getInstance().timer("log.write_block");
+    private static final Metrics.Counter BYTE_COUNTER = Metrics.getInstance().counter("log.bytes");
+    
+    private final File file;
+    private final FileChannel channel;
+    private final SampleBlock block;
+    private final byte[] encodeBuffer;
+    private final ByteBuffer encodeView;
+    private final byte[] eventBuffer = new byte[BLOCK_HEADER_SIZE + RadioEvent.MAX_ENCODED_SIZE];
+    private final ByteBuffer eventView = ByteBuffer.wrap(eventBuffer);
+    private final byte[] rateBuffer = new byte[BLOCK_HEADER_SIZE + RateChange.MAX_ENCODED_SIZE];
+    private final ByteBuffer rateView = ByteBuffer.wrap(rateBuffer);
+    private final LocationTrack pendingLocations = new LocationTrack(LOCATION_BLOCK_FIXES);
+    private final byte[] locationBuffer = new byte[BLOCK_HEADER_SIZE + LOCATION_BLOCK_FIXES * 4 * VarInt.MAX_LONG_BYTES];
+    private final ByteBuffer locationView = ByteBuffer.wrap(locationBuffer);
+    private final CRC32 crc = new CRC32();
+    
+    private long rowCount;
+    private long blockCount;
+    private long eventCount;
+    private long bytesWritten;
+    private IOException failure;
+    private boolean closed;
+    
+    /**
+     * Create a new session log, replacing any file at the path
+     * @param file Destination file
+     * @param formData Session metadata stored in the header
+     * @param startTimeMillis Session start time
+     * @throws IOException if the file cannot be created
+     */
+    public SessionLogWriter(File file, FormData formData, long startTimeMillis) throws IOException {
+        this(file, openChannel(file, 0));
+        writeFully(ByteBuffer.wrap(encodeHeader(formData, startTimeMillis)));
+    }
+    
+    private SessionLogWriter(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        this.block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        
+        // Worst case: every value takes a full varint
+        int columns = SampleRingBuffer.LONG_COLUMN_COUNT + SampleRingBuffer.INT_COLUMN_COUNT;
+        int maxBytes = BLOCK_HEADER_SIZE + columns * (1 + VarInt.MAX_LONG_BYTES
+                + SampleBlock.DEFAULT_CAPACITY * VarInt.MAX_LONG_BYTES);
+        this.encodeBuffer = new byte[maxBytes];
+        this.encodeView = ByteBuffer.wrap(encodeBuffer);
+    }
+    
+    /**
+     * Reopen an existing session log for appending
+     * A torn tail left by a crash is cut off first
+     * @param file Session log file
+     * @return Writer positioned after the last valid block
+     * @throws IOException if the file is not a readable session log
+     */
+    public static SessionLogWriter resume(File file) throws IOException {
+        SessionLogReader reader = new SessionLogReader(file);
+        long validLength;
+        long rows;
+        int blocks;
+        int events;
+        try {
+            validLength = reader.getValidLength();
+            rows = reader.getRowCount();
+            blocks = reader.getBlockCount();
+            events = reader.getEventCount();
+        } finally {
+            reader.close();
+        }
+        
+        SessionLogWriter writer = new SessionLogWriter(file, openChannel(file, validLength));
+        writer.rowCount = rows;
+        writer.blockCount = blocks;
+        writer.eventCount = events;
+        writer.bytesWritten = validLength;
+        return writer;
+    }
+    
+    private static FileChannel openChannel(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+            raf.seek(length);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        return raf.getChannel();
+    }
+    
+    private static byte[] encodeHeader(FormData formData, long startTimeMillis) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(startTimeMillis);
+        out.writeByte(SampleRingBuffer.LONG_COLUMN_COUNT);
+        out.writeByte(SampleRingBuffer.INT_COLUMN_COUNT);
+        formData.writeTo(out);
+        out.flush();
+        
+        ByteArrayOutputStream header = new ByteArrayOutputStream(body.size() + 10);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeShort(VERSION);
+        headerOut.writeInt(body.size());
+        body.writeTo(headerOut);
+        headerOut.flush();
+        return header.toByteArray();
+    }
+    
+    @Override
+    public synchronized void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId,
+                                               long fromSequence, long toSequence) {
+        if (closed || failure != null) {
+            return;
+        }
+        try {
+            append(buffer, fromSequence, toSequence);
+        } catch (IOException e) {
+            // Keep sampling; the failure is reported on flush or close
+            failure = e;
+        }
+    }
+    
+    @Override
+    public void onPollEmpty(int subscriptionId, long timestampMillis) {
+        // Nothing to log; lost service is logged as a radio event
+    }
+    
+    @Override
+    public synchronized void onRadioEvent(RadioEvent event) {
+        if (closed || failure != null) {
+            return;
+        }
+        try {
+            appendEvent(event);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    /**
+     * Write a radio event as its own block
+     * Events are rare, so they are not batched; buffered sample rows stay buffered.
+     * @param event Event to log
+     * @throws IOException if the block cannot be written
+     */
+    public synchronized void appendEvent(RadioEvent event) throws IOException {
+        int end = event.encode(eventBuffer, BLOCK_HEADER_SIZE);
+        writeBlockHeader(eventView, BLOCK_EVENTS, 1, end - BLOCK_HEADER_SIZE);
+        eventView.position(0).limit(end);
+        writeFully(eventView);
+        eventCount++;
+    }
+    
+    @Override
+    public synchronized void onRateChanged(RateChange change) {
+        if (closed || failure != null) {
+            return;
+        }
+        try {
+            appendRateChange(change);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    /**
+     * Write a sampling rate change as its own block
+     * @param change Change to log
+     * @throws IOException if the block cannot be written
+     */
+    public synchronized void appendRateChange(RateChange change) throws IOException {
+        int end = change.encode(rateBuffer, BLOCK_HEADER_SIZE);
+        writeBlockHeader(rateView, BLOCK_RATES, 1, end - BLOCK_HEADER_SIZE);
+        rateView.position(0).limit(end);
+        writeFully(rateView);
+    }
+    
+    /**
+     * Add a location fix; fixes are written in blocks of LOCATION_BLOCK_FIXES
+     * @param timestamp Fix time in milliseconds, on the same clock as the samples
+     * @param latitudeE7 Latitude in 1e-7 degrees
+     * @param longitudeE7 Longitude in 1e-7 degrees
+     * @param accuracyMeters Horizontal accuracy, or SampleRingBuffer.UNAVAILABLE
+     * @throws IOException if a block cannot be written
+     */
+    public synchronized void appendLocation(long timestamp, int latitudeE7, int longitudeE7, int accuracyMeters)
+            throws IOException {
+        pendingLocations.add(timestamp, latitudeE7, longitudeE7, accuracyMeters);
+        if (pendingLocations.size() == LOCATION_BLOCK_FIXES) {
+            writeLocationBlock();
+        }
+    }
+    
+    /**
+     * Record which network each subscription is on
+     * Written once per session; a later block replaces an earlier one.
+     * @param subscriptionIds Sampled subscriptions
+     * @param plmns MCC * 1000 + MNC of each subscription, or 0 if unknown
+     * @throws IOException if the block cannot be written
+     */
+    public synchronized void appendSubscriptions(int[] subscriptionIds, int[] plmns) throws IOException {
+        byte[] block = new byte[BLOCK_HEADER_SIZE + subscriptionIds.length * 2 * VarInt.MAX_LONG_BYTES];
+        int end = BLOCK_HEADER_SIZE;
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            end = VarInt.writeSigned(subscriptionIds[i], block, end);
+            end = VarInt.writeUnsigned(plmns[i], block, end);
+        }
+        ByteBuffer view = ByteBuffer.wrap(block);
+        writeBlockHeader(view, BLOCK_SUBSCRIPTIONS, subscriptionIds.length, end - BLOCK_HEADER_SIZE);
+        view.position(0).limit(end);
+        writeFully(view);
+    }
+    
+    /**
+     * Attach a metrics snapshot, so app performance can be read next to the session's device and build
+     * @param json Metrics.toJson() output; a later block replaces an earlier one
+     * @throws IOException if the block cannot be written
+     */
+    public synchronized void appendMetrics(String json) throws IOException {
+        byte[] text = json.getBytes("UTF-8");
+        byte[] block = new byte[BLOCK_HEADER_SIZE + text.length];
+        System.arraycopy(text, 0, block, BLOCK_HEADER_SIZE, text.length);
+        ByteBuffer view = ByteBuffer.wrap(block);
+        writeBlockHeader(view, BLOCK_METRICS, 1, text.length);
+        view.position(0);
+        writeFully(view);
+    }
+    
+    /**
+     * Append rows from a ring buffer
+     * @param buffer Source ring buffer
+     * @param fromSequence First row
+     * @param toSequence One past the last row
+     * @throws IOException if a block cannot be written
+     */
+    public synchronized void append(SampleRingBuffer buffer, long fromSequence, long toSequence) throws IOException {
+        long sequence = fromSequence;
+        while (sequence < toSequence) {
+            sequence += block.copyFrom(buffer, sequence, toSequence);
+            if (block.isFull()) {
+                writeBlock();
+            }
+        }
+    }
+    
+    /**
+     * Write any buffered rows as a (short) block
+     * @throws IOException if the write fails or an earlier write failed
+     */
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (block.getRowCount() > 0) {
+            writeBlock();
+        }
+        if (pendingLocations.size() > 0) {
+            writeLocationBlock();
+        }
+    }
+    
+    /**
+     * Force written blocks to storage
+     * Not synchronized, so a sync from another thread does not hold up appends
+     * @throws IOException if the sync fails or the log is closed
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            channel.force(false);
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public synchronized long getRowCount() {
+        return rowCount + block.getRowCount();
+    }
+    
+    /**
+     * @return Number of rows in blocks already written to the file
+     */
+    public synchronized long getWrittenRowCount() {
+        return rowCount;
+    }
+    
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+    
+    /**
+     * @return Number of sample blocks written
+     */
+    public synchronized long getBlockCount() {
+        return blockCount;
+    }
+    
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+    
+    private void writeBlock() throws IOException {
+        long start = BLOCK_TIMER.start();
+        int rows = block.getRowCount();
+        int end = encodeSampleBlock(block, encodeBuffer, BLOCK_HEADER_SIZE);
+        writeBlockHeader(encodeView, BLOCK_SAMPLES, rows, end - BLOCK_HEADER_SIZE);
+        encodeView.position(0).limit(end);
+        writeFully(encodeView);
+        
+        rowCount += rows;
+        blockCount++;
+        block.clear();
+        BLOCK_TIMER.stop(start);
+    }
+    
+    private void writeLocationBlock() throws IOException {
+        int end = BLOCK_HEADER_SIZE;
+        long previousTime = 0;
+        int previousLatitude = 0;
+        int previousLongitude = 0;
+        for (int i = 0; i < pendingLocations.size(); i++) {
+            long time = pendingLocations.getTimestamp(i);
+            int latitude = pendingLocations.getLatitudeE7(i);
+            int longitude = pendingLocations.getLongitudeE7(i);
+            end = VarInt.writeSigned(time - previousTime, locationBuffer, end);
+            end = VarInt.writeSigned((long) latitude - previousLatitude, locationBuffer, end);
+            end = VarInt.writeSigned((long) longitude - previousLongitude, locationBuffer, end);
+            end = VarInt.writeSigned(pendingLocations.getAccuracyMeters(i), locationBuffer, end);
+            previousTime = time;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+        writeBlockHeader(locationView, BLOCK_LOCATIONS, pendingLocations.size(), end - BLOCK_HEADER_SIZE);
+        locationView.position(0).limit(end);
+        writeFully(locationView);
+        pendingLocations.clear();
+    }
+    
+    /**
+     * Fill in the header in front of an encoded payload
+     */
+    private void writeBlockHeader(ByteBuffer block, byte type, int rows, int payloadLength) {
+        crc.reset();
+        crc.update(block.array(), BLOCK_HEADER_SIZE, payloadLength);
+        
+        block.clear();
+        block.put(type);
+        block.putInt(rows);
+        block.putInt(payloadLength);
+        block.putInt((int) crc.getValue());
+    }
+    
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            int written = channel.write(source);
+            bytesWritten += written;
+            BYTE_COUNTER.add(written);
+        }
+    }
+    
+    /**
+     * Encode a block's columns
+     * Each column starts with a lag byte, followed by every value as a zigzag
+     * varint delta against the value lag rows earlier; a zero delta is
+     * followed by the count of further zeros, so unchanged columns collapse
+     * to a few bytes. Rows interleave serving and neighbour cells, so the best
+     * lag is often the number of cells per poll rather than 1; it is picked per
+     * column by estimated encoded size.
+     * @return Position after the encoded payload
+     */
+    static int encodeSampleBlock(SampleBlock block, byte[] dest, int offset) {
+        int rows = block.getRowCount();
+        for (int c = 0; c < SampleRingBuffer.LONG_COLUMN_COUNT; c++) {
+            long[] column = block.longColumns[c];
+            int lag = chooseLag(column, null, rows);
+            dest[offset++] = (byte) lag;
+            int zeros = 0;
+            for (int i = 0; i < rows; i++) {
+                long delta = column[i] - (i >= lag ? column[i - lag] : 0);
+                if (delta == 0) {
+                    zeros++;
+                    continue;
+                }
+                offset = writeZeroRun(zeros, dest, offset);
+                zeros = 0;
+                offset = VarInt.writeSigned(delta, dest, offset);
+            }
+            offset = writeZeroRun(zeros, dest, offset);
+        }
+        for (int c = 0; c < SampleRingBuffer.INT_COLUMN_COUNT; c++) {
+            int[] column = block.intColumns[c];
+            int lag = chooseLag(null, column, rows);
+            dest[offset++] = (byte) lag;
+            int zeros = 0;
+            for (int i = 0; i < rows; i++) {
+                long delta = (long) column[i] - (i >= lag ? column[i - lag] : 0);
+                if (delta == 0) {
+                    zeros++;
+                    continue;
+                }
+                offset = writeZeroRun(zeros, dest, offset);
+                zeros = 0;
+                offset = VarInt.writeSigned(delta, dest, offset);
+            }
+            offset = writeZeroRun(zeros, dest, offset);
+        }
+        return offset;
+    }
+    
+    private static int writeZeroRun(int zeros, byte[] dest, int offset) {
+        if (zeros == 0) {
+            return offset;
+        }
+        dest[offset++] = 0;
+        return VarInt.writeUnsigned(zeros - 1, dest, offset);
+    }
+    
+    /**
+     * Pick the delta lag with the smallest estimated encoded size over the
+     * first rows of the block
+     * Exactly one of longColumn and intColumn is non-null
+     */
+    private static int chooseLag(long[] longColumn, int[] intColumn, int rows) {
+        int bestLag = 1;
+        long bestSize = Long.MAX_VALUE;
+        int probeRows = Math.min(rows, LAG_PROBE_ROWS);
+        for (int lag = 1; lag <= MAX_LAG && lag < Math.max(2, probeRows); lag++) {
+            long size = 0;
+            boolean inZeroRun = false;
+            for (int i = lag; i < probeRows; i++) {
+                long delta = longColumn != null
+                        ? longColumn[i] - longColumn[i - lag]
+                        : (long) intColumn[i] - intColumn[i - lag];
+                if (delta == 0) {
+                    // A run costs about two bytes however long it is
+                    if (!inZeroRun) {
+                        size += 2;
+                        inZeroRun = true;
+                    }
+                    continue;
+                }
+                inZeroRun = false;
+                int bits = 64 - Long.numberOfLeadingZeros(VarInt.zigzag(delta));
+                size += bits <= 7 ? 1 : (bits + 6) / 7;
+            }
+            if (size < bestSize) {
+                bestSize = size;
+                bestLag = lag;
+            }
+        }
+        return bestLag;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter over stored sessions, evaluated by SessionIndex.query()
+ * Values of one field are alternatives (any may match); different fields
+ * and the time range must all match. A field without values is not
+ * filtered on.
+ */
+public final class SessionQuery {
+    
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    
+    // Accepted values by SessionIndex.FIELD_*, null when the field is not filtered
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<String>[] values = new List[SessionIndex.FIELD_COUNT];
+    
+    /**
+     * Only sessions started in [fromMillis, toMillis)
+     */
+    public SessionQuery between(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        return this;
+    }
+    
+    /**
+     * Accept sessions whose field has this value; for FIELD_OPERATOR, sessions
+     * that selected this operator among others
+     * @param field One of the SessionIndex.FIELD_* constants
+     * @param value Exact value, as entered in the form
+     */
+    public SessionQuery where(int field, String value) {
+        if (values[field] == null) {
+            values[field] = new ArrayList<>(2);
+        }
+        values[field].add(value);
+        return this;
+    }
+    
+    public long getFromMillis() {
+        return fromMillis;
+    }
+    
+    public long getToMillis() {
+        return toMillis;
+    }
+    
+    /**
+     * @return Accepted values of the field, or null if it is not filtered on
+     */
+    public List<String> getValues(int field) {
+        return values[field];
+    }
+}
\ No newline at end of file
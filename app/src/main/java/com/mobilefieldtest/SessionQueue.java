@@ -0,0 +1,690 @@
+package com.mobilefieldtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent queue of planned test sessions
+ *
+ * Sessions are filled in ahead of time and started later, highest priority
+ * first, then earliest deadline, then oldest. A session can only start when
+ * every operator it selects has an active SIM, so waiting sessions are kept
+ * in one heap per operator combination; poll() compares the tops of the
+ * heaps the current SIMs satisfy. A failed run is retried after an
+ * exponential backoff, held meanwhile in a heap ordered by retry time.
+ * Sessions whose deadline passes are dropped when they come up. Adding,
+ * polling and finishing a session cost O(log n) plus one record.
+ *
+ * Every change is appended to the queue file as a checksummed record and
+ * synced before it takes effect, so the queue survives a process kill.
+ * Opening replays the records, drops a torn tail, and counts a session
+ * that was running when the process died as a failed attempt. Once the file
+ * holds far more records than live sessions it is rewritten with one record
+ * per session (to a temporary file, then renamed).
+ *
+ * Record layout, as in SessionJournal: payload length, CRC32 of type and
+ * payload, type, payload. The first record holds MAGIC and VERSION.
+ */
+public final class SessionQueue implements Closeable {
+    
+    static final int MAGIC = 0x4D465451; // "MFTQ"
+    static final int VERSION = 1;
+    static final int RECORD_HEADER_SIZE = 9;
+    
+    // Record types
+    static final byte RECORD_HEADER = 1;
+    static final byte RECORD_ADD = 2;
+    static final byte RECORD_LEASE = 3;
+    static final byte RECORD_RETRY = 4;
+    static final byte RECORD_REMOVE = 5;
+    
+    // Priorities
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+    
+    // Why a session left the queue
+    public static final int REMOVED_COMPLETED = 1;
+    public static final int REMOVED_CANCELLED = 2;
+    public static final int REMOVED_EXPIRED = 3;
+    public static final int REMOVED_EXHAUSTED = 4;
+    
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BACKOFF_MILLIS = 60_000L; // doubled after each failure
+    public static final long MAX_BACKOFF_MILLIS = 60 * 60_000L;
+    
+    // The file is rewritten once it has this many records and more than twice one per session
+    private static final int COMPACT_MIN_RECORDS = 256;
+    
+    private static final String TAG = "SessionQueue";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    /** Start order of waiting sessions */
+    static final Comparator<PlannedSession> START_ORDER = new Comparator<PlannedSession>() {
+        @Override
+        public int compare(PlannedSession a, PlannedSession b) {
+            if (a.getPriority() != b.getPriority()) {
+                return a.getPriority() > b.getPriority() ? -1 : 1;
+            }
+            long deadlineA = a.getDeadlineMillis() == 0 ? Long.MAX_VALUE : a.getDeadlineMillis();
+            long deadlineB = b.getDeadlineMillis() == 0 ? Long.MAX_VALUE : b.getDeadlineMillis();
+            if (deadlineA != deadlineB) {
+                return deadlineA < deadlineB ? -1 : 1;
+            }
+            return a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1;
+        }
+    };
+    
+    private static final Comparator<PlannedSession> RETRY_ORDER = new Comparator<PlannedSession>() {
+        @Override
+        public int compare(PlannedSession a, PlannedSession b) {
+            if (a.notBeforeMillis != b.notBeforeMillis) {
+                return a.notBeforeMillis < b.notBeforeMillis ? -1 : 1;
+            }
+            return START_ORDER.compare(a, b);
+        }
+    };
+    
+    private final File file;
+    private final OperatorRegistry registry;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final CRC32 crc = new CRC32();
+    private final Map<Long, PlannedSession> sessions = new HashMap<>();
+    private final Map<Long, SessionHeap> waiting = new HashMap<>();
+    private final SessionHeap retries = new SessionHeap(RETRY_ORDER);
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long nextId = 1;
+    private int recordCount;
+    
+    private SessionQueue(File file, OperatorRegistry registry, int maxAttempts, long backoffMillis) {
+        this.file = file;
+        this.registry = registry;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+    
+    /**
+     * Open a queue with the default retry policy, creating the file if needed
+     * @see #open(File, OperatorRegistry, long, int, long)
+     */
+    public static SessionQueue open(File file, OperatorRegistry registry, long nowMillis) throws IOException {
+        return open(file, registry, nowMillis, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+    }
+    
+    /**
+     * Open a queue, creating the file if needed
+     * @param file Queue file
+     * @param registry Operators, to match sessions against the active SIMs
+     * @param nowMillis Current time; sessions interrupted by a process kill are retried from it
+     * @param maxAttempts Runs a session gets before it is dropped
+     * @param backoffMillis Delay before the first retry; doubled for each further one
+     * @return Open queue
+     * @throws IOException if the file cannot be read or written, or is not a queue
+     */
+    public static SessionQueue open(File file, OperatorRegistry registry, long nowMillis,
+                                    int maxAttempts, long backoffMillis) throws IOException {
+        SessionQueue queue = new SessionQueue(file, registry, maxAttempts, backoffMillis);
+        List<PlannedSession> interrupted = queue.replay();
+        for (PlannedSession session : queue.sessions.values()) {
+            if (!session.leased) {
+                queue.place(session, nowMillis);
+            }
+        }
+        try {
+            for (PlannedSession session : interrupted) {
+                queue.fail(session.getId(), nowMillis);
+            }
+            queue.compactIfWasteful();
+        } catch (IOException e) {
+            queue.close();
+            throw e;
+        }
+        return queue;
+    }
+    
+    /**
+     * Queue a session
+     * @param formData Validated form data of the session
+     * @param priority One of the PRIORITY_* constants
+     * @param deadlineMillis Latest start time, or 0 for none
+     * @param nowMillis Current time
+     * @return The queued session
+     * @throws IOException if the queue file cannot be written; the session is then not queued
+     */
+    public synchronized PlannedSession add(FormData formData, int priority, long deadlineMillis,
+                                           long nowMillis) throws IOException {
+        PlannedSession session = new PlannedSession(nextId, formData, priority, deadlineMillis, nowMillis, registry);
+        writeRecord(RECORD_ADD, encodeSession(session));
+        nextId++;
+        sessions.put(session.getId(), session);
+        place(session, nowMillis);
+        compactIfWasteful();
+        return session;
+    }
+    
+    /**
+     * Start the next session that can run on the current SIMs
+     * The session stays in the queue, marked as running, until it is
+     * completed, failed or released.
+     * @param availableMask Operators with an active SIM, as OperatorRegistry.getDetectedMask()
+     * @param nowMillis Current time
+     * @return The started session, or null if none can run now
+     * @throws IOException if the queue file cannot be written
+     */
+    public synchronized PlannedSession poll(long availableMask, long nowMillis) throws IOException {
+        while (!retries.isEmpty() && retries.peek().notBeforeMillis <= nowMillis) {
+            PlannedSession session = retries.removeFirst();
+            waitingFor(session.operatorMask).add(session);
+        }
+        
+        SessionHeap bestHeap = null;
+        for (Map.Entry<Long, SessionHeap> entry : waiting.entrySet()) {
+            if ((entry.getKey() & ~availableMask) != 0) {
+                continue;
+            }
+            SessionHeap heap = entry.getValue();
+            while (!heap.isEmpty() && heap.peek().isExpired(nowMillis)) {
+                remove(heap.peek(), REMOVED_EXPIRED);
+            }
+            if (!heap.isEmpty() && (bestHeap == null || START_ORDER.compare(heap.peek(), bestHeap.peek()) < 0)) {
+                bestHeap = heap;
+            }
+        }
+        if (bestHeap == null) {
+            return null;
+        }
+        PlannedSession session = bestHeap.peek();
+        writeRecord(RECORD_LEASE, encodeId(session.getId()));
+        bestHeap.removeFirst();
+        session.leased = true;
+        compactIfWasteful();
+        return session;
+    }
+    
+    /**
+     * Remove a session that ran successfully
+     * @return False if the session is not in the queue
+     */
+    public synchronized boolean complete(long id) throws IOException {
+        PlannedSession session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        remove(session, REMOVED_COMPLETED);
+        return true;
+    }
+    
+    /**
+     * Record a failed run; the session is retried after a backoff, or dropped
+     * once it has used up its attempts
+     * @param id Running session
+     * @param nowMillis Current time
+     * @return True if the session will be retried
+     */
+    public synchronized boolean fail(long id, long nowMillis) throws IOException {
+        PlannedSession session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        int attempts = session.attempts + 1;
+        if (attempts >= maxAttempts) {
+            remove(session, REMOVED_EXHAUSTED);
+            return false;
+        }
+        long delay = Math.min(backoffMillis << Math.min(attempts - 1, 30), MAX_BACKOFF_MILLIS);
+        retry(session, attempts, nowMillis + delay, nowMillis);
+        return true;
+    }
+    
+    /**
+     * Put a running session back without counting an attempt, e.g. when
+     * it could not be started after all
+     * @return False if the session is not in the queue
+     */
+    public synchronized boolean release(long id, long nowMillis) throws IOException {
+        PlannedSession session = sessions.get(id);
+        if (session == null || !session.leased) {
+            return false;
+        }
+        retry(session, session.attempts, session.notBeforeMillis, nowMillis);
+        return true;
+    }
+    
+    /**
+     * Remove a session, waiting or running
+     * @return False if the session is not in the queue
+     */
+    public synchronized boolean cancel(long id) throws IOException {
+        PlannedSession session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        remove(session, REMOVED_CANCELLED);
+        return true;
+    }
+    
+    public synchronized int size() {
+        return sessions.size();
+    }
+    
+    public synchronized PlannedSession get(long id) {
+        return sessions.get(id);
+    }
+    
+    /**
+     * @return All queued sessions in start order, ignoring SIMs and backoff
+     */
+    public synchronized List<PlannedSession> getSessions() {
+        List<PlannedSession> list = new ArrayList<>(sessions.values());
+        Collections.sort(list, START_ORDER);
+        return list;
+    }
+    
+    /**
+     * @return Earliest time a backed-off session becomes ready, or Long.MAX_VALUE
+     */
+    public synchronized long getNextRetryMillis() {
+        return retries.isEmpty() ? Long.MAX_VALUE : retries.peek().notBeforeMillis;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+    
+    private void place(PlannedSession session, long nowMillis) {
+        if (!session.resolved) {
+            // Kept until the registry knows its operators again
+            return;
+        }
+        if (session.notBeforeMillis > nowMillis) {
+            retries.add(session);
+        } else {
+            waitingFor(session.operatorMask).add(session);
+        }
+    }
+    
+    private SessionHeap waitingFor(long operatorMask) {
+        SessionHeap heap = waiting.get(operatorMask);
+        if (heap == null) {
+            heap = new SessionHeap(START_ORDER);
+            waiting.put(operatorMask, heap);
+        }
+        return heap;
+    }
+    
+    private void retry(PlannedSession session, int attempts, long notBeforeMillis, long nowMillis) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(24);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(session.getId());
+        out.writeInt(attempts);
+        out.writeLong(notBeforeMillis);
+        writeRecord(RECORD_RETRY, body.toByteArray());
+        
+        if (session.heap != null) {
+            session.heap.remove(session);
+        }
+        session.attempts = attempts;
+        session.notBeforeMillis = notBeforeMillis;
+        session.leased = false;
+        place(session, nowMillis);
+        compactIfWasteful();
+    }
+    
+    private void remove(PlannedSession session, int reason) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(session.getId());
+        out.writeByte(reason);
+        writeRecord(RECORD_REMOVE, body.toByteArray());
+        
+        if (session.heap != null) {
+            session.heap.remove(session);
+        }
+        sessions.remove(session.getId());
+        if (reason == REMOVED_EXPIRED || reason == REMOVED_EXHAUSTED) {
+            LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Planned session dropped")
+                    .put("id", session.getId())
+                    .put("reason", reason == REMOVED_EXPIRED ? "expired" : "exhausted")
+                    .put("attempts", session.attempts)
+                    .commit();
+        }
+        compactIfWasteful();
+    }
+    
+    private static byte[] encodeId(long id) {
+        return ByteBuffer.allocate(8).putLong(id).array();
+    }
+    
+    private static byte[] encodeSession(PlannedSession session) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(session.getId());
+        out.writeByte(session.getPriority());
+        out.writeLong(session.getDeadlineMillis());
+        out.writeLong(session.getCreatedMillis());
+        out.writeInt(session.attempts);
+        out.writeLong(session.notBeforeMillis);
+        out.writeBoolean(session.leased);
+        session.getFormData().writeTo(out);
+        out.flush();
+        return body.toByteArray();
+    }
+    
+    private PlannedSession decodeSession(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        int priority = in.readByte();
+        long deadlineMillis = in.readLong();
+        long createdMillis = in.readLong();
+        int attempts = in.readInt();
+        long notBeforeMillis = in.readLong();
+        boolean leased = in.readBoolean();
+        FormData formData = FormData.readFrom(in);
+        PlannedSession session = new PlannedSession(id, formData, priority, deadlineMillis, createdMillis, registry);
+        session.attempts = attempts;
+        session.notBeforeMillis = notBeforeMillis;
+        session.leased = leased;
+        return session;
+    }
+    
+    /**
+     * Load the queue file and open it for appending
+     * @return Sessions that were running when the file was last written
+     */
+    private List<PlannedSession> replay() throws IOException {
+        byte[] data = new byte[0];
+        if (file.exists()) {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                data = new byte[(int) in.length()];
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+        }
+        
+        ByteBuffer records = ByteBuffer.wrap(data);
+        int validLength = 0;
+        if (nextRecord(records) == RECORD_HEADER) {
+            if (records.getInt() != MAGIC || records.getShort() != VERSION) {
+                throw new IOException("Unsupported session queue: " + file);
+            }
+            nextId = records.getLong();
+            recordCount = 1;
+            validLength = records.limit();
+            records.limit(data.length);
+            records.position(validLength);
+            
+            byte type;
+            while ((type = nextRecord(records)) != 0) {
+                applyRecord(type, data, records);
+                recordCount++;
+                validLength = records.limit();
+                records.limit(data.length);
+                records.position(validLength);
+            }
+        }
+        
+        List<PlannedSession> interrupted = new ArrayList<>();
+        for (PlannedSession session : sessions.values()) {
+            if (session.leased) {
+                interrupted.add(session);
+            }
+        }
+        if (recordCount == 0) {
+            // New queue, or killed before the header was complete
+            compact();
+        } else {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            if (validLength < data.length) {
+                // Drop a torn or corrupt tail
+                channel.truncate(validLength);
+                channel.force(false);
+            }
+            channel.position(validLength);
+        }
+        return interrupted;
+    }
+    
+    private void applyRecord(byte type, byte[] data, ByteBuffer records) throws IOException {
+        if (type == RECORD_ADD) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    data, records.position(), records.remaining()));
+            PlannedSession session = decodeSession(in);
+            sessions.put(session.getId(), session);
+            nextId = Math.max(nextId, session.getId() + 1);
+            return;
+        }
+        PlannedSession session = sessions.get(records.getLong());
+        if (session == null) {
+            return;
+        }
+        if (type == RECORD_LEASE) {
+            session.leased = true;
+        } else if (type == RECORD_RETRY) {
+            session.attempts = records.getInt();
+            session.notBeforeMillis = records.getLong();
+            session.leased = false;
+        } else if (type == RECORD_REMOVE) {
+            sessions.remove(session.getId());
+        }
+    }
+    
+    /**
+     * Validate the record at the buffer's position
+     * On success the buffer is limited to the payload, positioned at its start.
+     * @return Record type, or 0 at the end of the file or a torn record
+     */
+    private byte nextRecord(ByteBuffer records) {
+        if (records.remaining() < RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        int start = records.position();
+        int payloadLength = records.getInt(start);
+        int expectedCrc = records.getInt(start + 4);
+        if (payloadLength < 0 || payloadLength > records.remaining() - RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(records.array(), start + 8, 1 + payloadLength);
+        if ((int) crc.getValue() != expectedCrc) {
+            return 0;
+        }
+        byte type = records.get(start + 8);
+        records.position(start + RECORD_HEADER_SIZE);
+        records.limit(start + RECORD_HEADER_SIZE + payloadLength);
+        return type;
+    }
+    
+    private void writeRecord(byte type, byte[] payload) throws IOException {
+        if (channel == null) {
+            throw new IOException("Session queue is closed");
+        }
+        ByteBuffer record = encodeRecord(type, payload);
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(false);
+        recordCount++;
+    }
+    
+    private ByteBuffer encodeRecord(byte type, byte[] payload) {
+        byte[] record = new byte[RECORD_HEADER_SIZE + payload.length];
+        record[8] = type;
+        System.arraycopy(payload, 0, record, RECORD_HEADER_SIZE, payload.length);
+        crc.reset();
+        crc.update(record, 8, 1 + payload.length);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, payload.length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer;
+    }
+    
+    private void compactIfWasteful() throws IOException {
+        if (recordCount >= COMPACT_MIN_RECORDS && recordCount > 2 * sessions.size() + 1) {
+            compact();
+        }
+    }
+    
+    /**
+     * Rewrite the file with a header and one record per session
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(14);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeShort(VERSION);
+        headerOut.writeLong(nextId);
+        
+        List<PlannedSession> live = new ArrayList<>(sessions.values());
+        Collections.sort(live, new Comparator<PlannedSession>() {
+            @Override
+            public int compare(PlannedSession a, PlannedSession b) {
+                return a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1;
+            }
+        });
+        
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            FileChannel out = stream.getChannel();
+            writeFully(out, encodeRecord(RECORD_HEADER, header.toByteArray()));
+            for (PlannedSession session : live) {
+                writeFully(out, encodeRecord(RECORD_ADD, encodeSession(session)));
+            }
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        close();
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save session queue: " + file);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.position(channel.size());
+        recordCount = 1 + live.size();
+    }
+    
+    private static void writeFully(FileChannel out, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            out.write(source);
+        }
+    }
+    
+    /**
+     * Binary min-heap of sessions that tracks each session's position, so a
+     * session can be removed from the middle in O(log n)
+     */
+    static final class SessionHeap {
+        private final Comparator<PlannedSession> order;
+        private PlannedSession[] items = new PlannedSession[16];
+        private int size;
+        
+        SessionHeap(Comparator<PlannedSession> order) {
+            this.order = order;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        PlannedSession peek() {
+            return items[0];
+        }
+        
+        void add(PlannedSession session) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            session.heap = this;
+            items[size] = session;
+            session.heapIndex = size;
+            size++;
+            siftUp(session.heapIndex);
+        }
+        
+        PlannedSession removeFirst() {
+            PlannedSession first = items[0];
+            remove(first);
+            return first;
+        }
+        
+        void remove(PlannedSession session) {
+            int index = session.heapIndex;
+            size--;
+            PlannedSession last = items[size];
+            items[size] = null;
+            if (index != size) {
+                items[index] = last;
+                last.heapIndex = index;
+                siftDown(index);
+                siftUp(last.heapIndex);
+            }
+            session.heap = null;
+            session.heapIndex = -1;
+        }
+        
+        private void siftUp(int index) {
+            PlannedSession session = items[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (order.compare(session, items[parent]) >= 0) {
+                    break;
+                }
+                items[index] = items[parent];
+                items[index].heapIndex = index;
+                index = parent;
+            }
+            items[index] = session;
+            session.heapIndex = index;
+        }
+        
+        private void siftDown(int index) {
+            PlannedSession session = items[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int child = 2 * index + 1;
+                if (child + 1 < size && order.compare(items[child + 1], items[child]) < 0) {
+                    child++;
+                }
+                if (order.compare(session, items[child]) <= 0) {
+                    break;
+                }
+                items[index] = items[child];
+                items[index].heapIndex = index;
+                index = child;
+            }
+            items[index] = session;
+            session.heapIndex = index;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,300 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts planned sessions from a SessionQueue when they can run
+ * A session is due when the SIMs reported by SimDetectionUtil cover its
+ * operators, the device conditions allow a run and no other planned
+ * session is running. The queue lives on the scheduler's own thread, which
+ * re-checks on every SIM change, when a backoff ends, after each finished
+ * session and, while sessions wait on the device, every check interval.
+ */
+public final class SessionQueueScheduler implements SimDetectionUtil.OnSimSnapshotChangedListener {
+    
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 60_000L;
+    
+    private static final String TAG = "SessionQueueScheduler";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    /**
+     * Device state a planned session depends on besides the SIMs, e.g. battery
+     * Called on the scheduler thread.
+     */
+    public interface Conditions {
+        boolean isReady();
+    }
+    
+    /**
+     * Callbacks delivered on the callback executor
+     */
+    public interface Listener {
+        /**
+         * A session was started; report its end with finish() or hand it back with release()
+         */
+        void onSessionDue(PlannedSession session);
+        
+        void onQueueChanged(int size);
+    }
+    
+    private final File file;
+    private final OperatorRegistry registry;
+    private final Conditions conditions;
+    private final Listener listener;
+    private final Executor callbackExecutor;
+    private final long checkIntervalMillis;
+    
+    private volatile long availableMask;
+    private ScheduledThreadPoolExecutor executor;
+    
+    // Owned by the scheduler thread
+    private SessionQueue queue;
+    private long runningId;
+    private ScheduledFuture<?> wakeup;
+    private final Runnable checkTask = new Runnable() {
+        @Override
+        public void run() {
+            runCheck();
+        }
+    };
+    
+    /**
+     * @param file Queue file
+     * @param registry Operators, to match sessions against the SIMs
+     * @param conditions Device conditions
+     * @param listener Listener for due sessions and queue changes
+     * @param callbackExecutor Executor delivering the listener calls, e.g. the main thread
+     * @param checkIntervalMillis Re-check interval while sessions wait on the device conditions
+     */
+    public SessionQueueScheduler(File file, OperatorRegistry registry, Conditions conditions, Listener listener,
+                                 Executor callbackExecutor, long checkIntervalMillis) {
+        this.file = file;
+        this.registry = registry;
+        this.conditions = conditions;
+        this.listener = listener;
+        this.callbackExecutor = callbackExecutor;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+    
+    /**
+     * Open the queue in the background and start scheduling
+     * @param snapshot Current SIMs; later changes arrive through onSimSnapshotChanged
+     */
+    public synchronized void start(SimSnapshot snapshot) {
+        if (executor != null) {
+            return;
+        }
+        availableMask = registry.getDetectedMask(snapshot);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SessionQueue");
+            }
+        });
+        // A pending re-check must not keep the thread alive after stop()
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue = SessionQueue.open(file, registry, System.currentTimeMillis());
+                } catch (IOException e) {
+                    LOG.error(TAG, "Could not open session queue", e);
+                    return;
+                }
+                notifyQueueChanged();
+                runCheck();
+            }
+        });
+    }
+    
+    /**
+     * Stop scheduling and close the queue; a running session stays marked
+     * as running and counts as interrupted on the next start
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue != null) {
+                    try {
+                        queue.close();
+                    } catch (IOException e) {
+                        LOG.error(TAG, "Could not close session queue", e);
+                    }
+                    queue = null;
+                }
+            }
+        });
+        executor.shutdown();
+        executor = null;
+    }
+    
+    /**
+     * Queue a session
+     * @param formData Validated form data
+     * @param priority One of the SessionQueue.PRIORITY_* constants
+     * @param deadlineMillis Latest start time, or 0 for none
+     */
+    public void add(final FormData formData, final int priority, final long deadlineMillis) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue == null) {
+                    return;
+                }
+                try {
+                    PlannedSession session = queue.add(formData, priority, deadlineMillis, System.currentTimeMillis());
+                    LOG.begin(DiagnosticLog.LEVEL_INFO, TAG, "Session planned")
+                            .put("id", session.getId())
+                            .put("priority", priority)
+                            .put("queued", queue.size())
+                            .commit();
+                } catch (IOException e) {
+                    LOG.error(TAG, "Could not queue session", e);
+                    return;
+                }
+                notifyQueueChanged();
+                runCheck();
+            }
+        });
+    }
+    
+    /**
+     * Report the end of a session handed out by onSessionDue
+     * @param id Session id
+     * @param succeeded False to retry the session after a backoff
+     */
+    public void finish(final long id, final boolean succeeded) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue == null) {
+                    return;
+                }
+                try {
+                    if (succeeded) {
+                        queue.complete(id);
+                    } else if (queue.fail(id, System.currentTimeMillis())) {
+                        LOG.begin(DiagnosticLog.LEVEL_WARN, TAG, "Planned session will be retried")
+                                .put("id", id)
+                                .commit();
+                    }
+                } catch (IOException e) {
+                    LOG.error(TAG, "Could not update session queue", e);
+                }
+                if (runningId == id) {
+                    runningId = 0;
+                }
+                notifyQueueChanged();
+                runCheck();
+            }
+        });
+    }
+    
+    /**
+     * Hand back a session that could not be started, without counting an attempt
+     * It becomes due again on the next check that finds the device ready.
+     */
+    public void release(final long id) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue == null) {
+                    return;
+                }
+                try {
+                    queue.release(id, System.currentTimeMillis());
+                } catch (IOException e) {
+                    LOG.error(TAG, "Could not update session queue", e);
+                }
+                if (runningId == id) {
+                    runningId = 0;
+                }
+                scheduleCheck(checkIntervalMillis);
+            }
+        });
+    }
+    
+    /**
+     * Re-check the queue, e.g. when the device conditions may have changed
+     */
+    public void check() {
+        execute(checkTask);
+    }
+    
+    @Override
+    public void onSimSnapshotChanged(SimSnapshot snapshot) {
+        availableMask = registry.getDetectedMask(snapshot);
+        check();
+    }
+    
+    private synchronized void execute(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+        }
+    }
+    
+    private void runCheck() {
+        if (queue == null || runningId != 0 || queue.size() == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!conditions.isReady()) {
+            scheduleCheck(checkIntervalMillis);
+            return;
+        }
+        final PlannedSession session;
+        try {
+            session = queue.poll(availableMask, now);
+        } catch (IOException e) {
+            LOG.error(TAG, "Could not update session queue", e);
+            return;
+        }
+        if (session == null) {
+            // Sessions wait for SIMs (re-checked on change) or for a backoff to end
+            long nextRetry = queue.getNextRetryMillis();
+            if (nextRetry != Long.MAX_VALUE) {
+                scheduleCheck(Math.max(0, nextRetry - now));
+            }
+            return;
+        }
+        runningId = session.getId();
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSessionDue(session);
+            }
+        });
+    }
+    
+    private void scheduleCheck(long delayMillis) {
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        synchronized (this) {
+            if (executor != null) {
+                wakeup = executor.schedule(checkTask, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    private void notifyQueueChanged() {
+        final int size = queue.size();
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onQueueChanged(size);
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,254 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Distributions of a session's measurements for each operator
+ * One QuantileSketch per operator and BuildComparison.METRIC_*: serving
+ * cell signal from the sampler, interval rates from the throughput tests
+ * and probe RTTs from the latency tests. Memory stays the same however long
+ * the session runs, and summaries of several sessions merge into one.
+ * Saved next to each session.
+ */
+public final class SessionSummary implements MeasurementSampler.Listener {
+    
+    private static final int MAGIC = 0x4D465353; // "MFSS"
+    private static final int FORMAT_VERSION = 1;
+    
+    private final int k;
+    private final List<String> operators = new ArrayList<>();
+    private final List<QuantileSketch[]> sketches = new ArrayList<>();
+    
+    // Operator entry of each sampled subscription
+    private int[] subscriptionIds = new int[0];
+    private int[] subscriptionEntries = new int[0];
+    
+    public SessionSummary() {
+        this(QuantileSketch.DEFAULT_K);
+    }
+    
+    /**
+     * @param k Accuracy parameter of the sketches
+     */
+    public SessionSummary(int k) {
+        this.k = k;
+    }
+    
+    /**
+     * Attribute a subscription's samples to an operator; samples of
+     * unmapped subscriptions are not summarised
+     * @param subscriptionId Sampled subscription
+     * @param operator Operator name
+     */
+    public synchronized void setOperator(int subscriptionId, String operator) {
+        int entry = entry(operator);
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            if (subscriptionIds[i] == subscriptionId) {
+                subscriptionEntries[i] = entry;
+                return;
+            }
+        }
+        int count = subscriptionIds.length;
+        subscriptionIds = Arrays.copyOf(subscriptionIds, count + 1);
+        subscriptionEntries = Arrays.copyOf(subscriptionEntries, count + 1);
+        subscriptionIds[count] = subscriptionId;
+        subscriptionEntries[count] = entry;
+    }
+    
+    @Override
+    public synchronized void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId,
+            long fromSequence, long toSequence) {
+        QuantileSketch[] target = null;
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            if (subscriptionIds[i] == subscriptionId) {
+                target = sketches.get(subscriptionEntries[i]);
+            }
+        }
+        if (target == null) {
+            return;
+        }
+        for (long sequence = fromSequence; sequence < toSequence; sequence++) {
+            if (buffer.isServing(sequence)) {
+                record(target[BuildComparison.METRIC_RSRP], buffer.getRsrp(sequence));
+                record(target[BuildComparison.METRIC_RSRQ], buffer.getInt(SampleRingBuffer.INT_RSRQ, sequence));
+                record(target[BuildComparison.METRIC_SINR], buffer.getInt(SampleRingBuffer.INT_SINR, sequence));
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public void onPollEmpty(int subscriptionId, long timestampMillis) {
+        // No signal to summarise
+    }
+    
+    /**
+     * Add the intervals of a throughput test run, warm-up excluded
+     * @param operator Operator name
+     * @param result Finished test run
+     */
+    public synchronized void add(String operator, ThroughputTest.Result result) {
+        QuantileSketch sketch = entry(operator, result.getDirection() == ThroughputTest.DIRECTION_DOWNLOAD
+                ? BuildComparison.METRIC_DOWNLOAD : BuildComparison.METRIC_UPLOAD);
+        for (int i = ThroughputTest.WARMUP_INTERVALS; i < result.getIntervalCount(); i++) {
+            sketch.update(result.getIntervalBitsPerSecond(i) / 1000f);
+        }
+    }
+    
+    /**
+     * Add the round-trip times of a latency probe run
+     * @param mode LatencyProbe.MODE_UDP_ECHO or MODE_TCP_CONNECT
+     * @param operator Operator name
+     * @param results Probe results; unchanged
+     */
+    public synchronized void add(int mode, String operator, LatencyStats results) {
+        QuantileSketch sketch = entry(operator, mode == LatencyProbe.MODE_UDP_ECHO
+                ? BuildComparison.METRIC_UDP_RTT : BuildComparison.METRIC_TCP_RTT);
+        // Probes are few; each bucket's values go in at its midpoint
+        LatencyHistogram rtt = results.getRttHistogram();
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            float value = LatencyHistogram.bucketMidpoint(bucket);
+            for (long n = rtt.getBucketCount(bucket); n > 0; n--) {
+                sketch.update(value);
+            }
+        }
+    }
+    
+    /**
+     * Merge every operator's sketches of another summary into this one
+     * @param other Summary to merge; unchanged
+     */
+    public void merge(SessionSummary other) {
+        synchronized (other) {
+            for (int i = 0; i < other.operators.size(); i++) {
+                add(other.operators.get(i), other.sketches.get(i));
+            }
+        }
+    }
+    
+    public synchronized int getOperatorCount() {
+        return operators.size();
+    }
+    
+    public synchronized String getOperator(int entry) {
+        return operators.get(entry);
+    }
+    
+    /**
+     * @param entry Operator index
+     * @param metric One of the BuildComparison.METRIC_* constants
+     * @return Copy of the operator's sketch of the metric
+     */
+    public synchronized QuantileSketch getSketch(int entry, int metric) {
+        QuantileSketch copy = new QuantileSketch(k);
+        copy.merge(sketches.get(entry)[metric]);
+        return copy;
+    }
+    
+    /**
+     * Save the summary (write to a temporary file, then rename)
+     * @param file Summary file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeShort(k);
+            out.writeInt(operators.size());
+            for (int i = 0; i < operators.size(); i++) {
+                out.writeUTF(operators.get(i));
+                for (QuantileSketch sketch : sketches.get(i)) {
+                    sketch.writeTo(out);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save session summary: " + file);
+        }
+    }
+    
+    /**
+     * Load a summary written by save
+     * @param file Summary file
+     * @return The decoded summary
+     * @throws IOException if the file cannot be read or holds an unknown format
+     */
+    public static SessionSummary load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a session summary: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported session summary version: " + version);
+            }
+            int k = in.readUnsignedShort();
+            if (k < QuantileSketch.MIN_K) {
+                throw new IOException("Invalid session summary k: " + k);
+            }
+            SessionSummary summary = new SessionSummary(k);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String operator = in.readUTF();
+                QuantileSketch[] metrics = new QuantileSketch[BuildComparison.METRIC_COUNT];
+                for (int metric = 0; metric < metrics.length; metric++) {
+                    metrics[metric] = QuantileSketch.readFrom(in);
+                }
+                summary.add(operator, metrics);
+            }
+            return summary;
+        } finally {
+            in.close();
+        }
+    }
+    
+    private synchronized void add(String operator, QuantileSketch[] metrics) {
+        QuantileSketch[] target = sketches.get(entry(operator));
+        for (int metric = 0; metric < target.length; metric++) {
+            target[metric].merge(metrics[metric]);
+        }
+    }
+    
+    private static void record(QuantileSketch sketch, int value) {
+        if (value != SampleRingBuffer.UNAVAILABLE) {
+            sketch.update(value);
+        }
+    }
+    
+    private QuantileSketch entry(String operator, int metric) {
+        return sketches.get(entry(operator))[metric];
+    }
+    
+    private int entry(String operator) {
+        int position = operators.indexOf(operator);
+        if (position < 0) {
+            position = operators.size();
+            operators.add(operator);
+            QuantileSketch[] metrics = new QuantileSketch[BuildComparison.METRIC_COUNT];
+            for (int metric = 0; metric < metrics.length; metric++) {
+                metrics[metric] = new QuantileSketch(k);
+            }
+            sketches.add(metrics);
+        }
+        return position;
+    }
+}
\ No newline at end of file
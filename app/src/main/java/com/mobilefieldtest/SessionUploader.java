@@ -0,0 +1,293 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Uploads finished session logs to the ingest endpoint
+ * A session file is split into fixed-size chunks. Several upload threads each
+ * claim the next chunk that is not yet acknowledged, compress it with a
+ * reused Deflater, checksum the compressed bytes and send it through the
+ * UploadTransport, retrying with exponential backoff. Acknowledgements are
+ * saved in an UploadState file next to the session, so after a disconnect
+ * or process restart only unacknowledged chunks are sent again. Once every
+ * chunk is acknowledged the session is completed on the server.
+ */
+public final class SessionUploader {
+    
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 3;
+    
+    static final String STATE_EXTENSION = ".upload";
+    
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    
+    private static final Metrics.Timer CHUNK_TIMER = Metrics.getInstance().timer("upload.chunk");
+    private static final Metrics.Counter BYTE_COUNTER = Metrics.getInstance().counter("upload.bytes");
+    private static final Metrics.Counter RETRY_COUNTER = Metrics.getInstance().counter("upload.retries");
+    
+    /**
+     * Upload progress, called on upload threads
+     */
+    public interface Listener {
+        void onChunkAcknowledged(String sessionId, int ackedChunks, int chunkCount);
+    }
+    
+    private final UploadTransport transport;
+    private final int chunkSize;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private volatile Listener listener;
+    
+    /**
+     * @param transport Connection to the ingest endpoint
+     * @param chunkSize Uncompressed bytes per chunk
+     * @param concurrency Number of chunks in flight at once
+     */
+    public SessionUploader(UploadTransport transport, int chunkSize, int concurrency) {
+        if (chunkSize <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size or concurrency");
+        }
+        this.transport = transport;
+        this.chunkSize = chunkSize;
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SessionUpload-" + count.incrementAndGet());
+            }
+        });
+    }
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Upload every finished session log in a directory, oldest first
+     * Stops at the first session that fails, as the network is likely down.
+     * @param sessionDir Directory of session logs
+     * @param activeFile Session being recorded, skipped; may be null
+     * @return Number of sessions completed by this call
+     * @throws IOException if an upload failed; completed chunks are kept
+     * @throws InterruptedException if interrupted while uploading
+     */
+    public int uploadPending(File sessionDir, final File activeFile) throws IOException, InterruptedException {
+        File[] files = sessionDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(Constants.SESSION_FILE_EXTENSION) && !file.equals(activeFile);
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+        // Session files are named by start time
+        Arrays.sort(files);
+        
+        int uploaded = 0;
+        for (File file : files) {
+            if (upload(file)) {
+                uploaded++;
+            }
+        }
+        return uploaded;
+    }
+    
+    /**
+     * Upload one session log, resuming a previous attempt
+     * @param sessionFile Finished session log
+     * @return true if this call completed the session, false if it was already done
+     * @throws IOException if a chunk could not be delivered or the session not completed
+     * @throws InterruptedException if interrupted while uploading
+     */
+    public synchronized boolean upload(File sessionFile) throws IOException, InterruptedException {
+        String sessionId;
+        SessionLogReader reader = new SessionLogReader(sessionFile);
+        try {
+            sessionId = reader.getFormData().getSessionId(reader.getStartTimeMillis());
+        } finally {
+            reader.close();
+        }
+        
+        UploadState state = UploadState.load(
+                new File(sessionFile.getPath() + STATE_EXTENSION), sessionFile.length(), chunkSize);
+        if (state.isComplete()) {
+            return false;
+        }
+        
+        RandomAccessFile raf = new RandomAccessFile(sessionFile, "r");
+        try {
+            sendChunks(raf.getChannel(), sessionId, state);
+        } finally {
+            raf.close();
+        }
+        
+        if (!transport.completeSession(sessionId, state.getChunkCount(), state.getFileLength())) {
+            throw new IOException("Ingest rejected session " + sessionId);
+        }
+        state.markComplete();
+        return true;
+    }
+    
+    /**
+     * Stop the upload threads; an upload in progress fails and can be resumed later
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    private void sendChunks(FileChannel channel, String sessionId, UploadState state)
+            throws IOException, InterruptedException {
+        AtomicInteger nextChunk = new AtomicInteger();
+        int workers = Math.min(concurrency, state.getChunkCount() - state.getAckedCount());
+        List<Future<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(new ChunkWorker(channel, sessionId, state, nextChunk)));
+        }
+        
+        IOException failure = null;
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Chunk upload failed", e.getCause());
+                        // Let the other workers stop after their current chunk
+                        nextChunk.set(state.getChunkCount());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Uploads chunks until none are left; owns its buffers and Deflater
+     */
+    private final class ChunkWorker implements Callable<Void> {
+        private final FileChannel channel;
+        private final String sessionId;
+        private final UploadState state;
+        private final AtomicInteger nextChunk;
+        
+        ChunkWorker(FileChannel channel, String sessionId, UploadState state, AtomicInteger nextChunk) {
+            this.channel = channel;
+            this.sessionId = sessionId;
+            this.state = state;
+            this.nextChunk = nextChunk;
+        }
+        
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            byte[] raw = new byte[chunkSize];
+            // Deflate output can exceed its input slightly for incompressible data
+            byte[] compressed = new byte[chunkSize + (chunkSize >>> 8) + 64];
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            CRC32 crc = new CRC32();
+            try {
+                int index;
+                while ((index = nextChunk.getAndIncrement()) < state.getChunkCount()) {
+                    if (state.isAcked(index)) {
+                        continue;
+                    }
+                    int rawLength = readChunk(index, raw);
+                    
+                    deflater.reset();
+                    deflater.setInput(raw, 0, rawLength);
+                    deflater.finish();
+                    int length = 0;
+                    while (!deflater.finished()) {
+                        if (length == compressed.length) {
+                            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                        }
+                        length += deflater.deflate(compressed, length, compressed.length - length);
+                    }
+                    crc.reset();
+                    crc.update(compressed, 0, length);
+                    
+                    sendWithRetry(index, compressed, length, rawLength, crc.getValue());
+                    int acked = state.markAcked(index);
+                    Listener current = listener;
+                    if (current != null) {
+                        current.onChunkAcknowledged(sessionId, acked, state.getChunkCount());
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            return null;
+        }
+        
+        private int readChunk(int index, byte[] raw) throws IOException {
+            long position = (long) index * chunkSize;
+            int length = (int) Math.min(chunkSize, state.getFileLength() - position);
+            ByteBuffer target = ByteBuffer.wrap(raw, 0, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("Session file shrank during upload");
+                }
+            }
+            return length;
+        }
+        
+        private void sendWithRetry(int index, byte[] body, int length, int rawLength, long crc32)
+                throws IOException, InterruptedException {
+            long backoff = INITIAL_BACKOFF_MS;
+            for (int attempt = 1; ; attempt++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                IOException error;
+                long start = CHUNK_TIMER.start();
+                try {
+                    boolean accepted = transport.sendChunk(sessionId, index, state.getChunkCount(), body, length,
+                            rawLength, crc32);
+                    CHUNK_TIMER.stop(start);
+                    if (accepted) {
+                        BYTE_COUNTER.add(length);
+                        return;
+                    }
+                    error = new IOException("Chunk " + index + " rejected as corrupt");
+                } catch (IOException e) {
+                    error = e;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    throw error;
+                }
+                RETRY_COUNTER.increment();
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -1,77 +1,187 @@
 package com.mobilefieldtest;
 
-import android.content.Context;
-import android.telephony.TelephonyManager;
-import android.telephony.SubscriptionManager;
-import android.telephony.SubscriptionInfo;
-import android.Manifest;
-import android.content.pm.PackageManager;
-import androidx.core.app.ActivityCompat;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility class for SIM card detection and management
  * Handles both single and dual SIM scenarios
+ *
+ * SIM and subscription state is kept in an immutable SimSnapshot that is
+ * re-read on a background thread whenever the TelephonyProvider reports a
+ * SIM or subscription change, so callers read the current state in O(1)
  */
 public class SimDetectionUtil {
     
-    private Context context;
-    private TelephonyManager telephonyManager;
+    /**
+     * Callback for SIM state changes, delivered on the callback executor
+     */
+    public interface OnSimSnapshotChangedListener {
+        void onSimSnapshotChanged(SimSnapshot snapshot);
+    }
+    
+    private static final Metrics.Timer READ_TIMER = Metrics.getInstance().timer("sim.read_snapshot");
+    private static final Metrics.Timer AVAILABLE_TIMER = Metrics.getInstance().timer("sim.is_available");
     
-    public SimDetectionUtil(Context context) {
-        this.context = context;
-        this.telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+    private final TelephonyProvider provider;
+    private final Executor callbackExecutor;
+    
+    private final AtomicReference<SimSnapshot> snapshot = new AtomicReference<>(SimSnapshot.UNKNOWN);
+    private final List<OnSimSnapshotChangedListener> listeners = new CopyOnWriteArrayList<>();
+    
+    // Background refresh thread; a burst of change events causes one read
+    private ExecutorService refreshExecutor;
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refreshPending.set(false);
+            updateSnapshot(readSnapshot());
+        }
+    };
+    
+    private final TelephonyProvider.ChangeListener changeListener = new TelephonyProvider.ChangeListener() {
+        @Override
+        public void onTelephonyChanged() {
+            refresh();
+        }
+    };
+    
+    /**
+     * @param provider Telephony services of the device, or a trace
+     * @param callbackExecutor Executor listeners are called on, e.g. the main thread's
+     */
+    public SimDetectionUtil(TelephonyProvider provider, Executor callbackExecutor) {
+        this.provider = provider;
+        this.callbackExecutor = callbackExecutor;
     }
     
     /**
-     * Check if at least one SIM card is present and ready
-     * @return true if at least one SIM is available, false otherwise
+     * Start tracking SIM state on a background thread
+     * Reads the initial snapshot and then refreshes it on subscription and SIM
+     * state change events. Safe to call more than once.
+     * @param listener Optional listener for snapshot changes, may be null
      */
-    public boolean isSimCardAvailable() {
-        if (!hasPhoneStatePermission()) {
-            return false;
+    public synchronized void start(OnSimSnapshotChangedListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        if (refreshExecutor != null) {
+            return;
         }
         
-        try {
-            // Check basic SIM state
-            int simState = telephonyManager.getSimState();
-            if (simState == TelephonyManager.SIM_STATE_READY) {
-                return true;
-            }
-            
-            // For dual SIM devices, check subscription manager
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
-                return checkSubscriptionManager();
+        refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SimDetection");
             }
-            
-            return simState != TelephonyManager.SIM_STATE_ABSENT && 
-                   simState != TelephonyManager.SIM_STATE_UNKNOWN;
-                   
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        });
+        provider.registerChangeListener(changeListener);
+        refresh();
+    }
+    
+    /**
+     * Stop tracking SIM state and release the background thread
+     * @param listener Listener to remove, may be null
+     */
+    public synchronized void stop(OnSimSnapshotChangedListener listener) {
+        if (listener != null) {
+            listeners.remove(listener);
+        }
+        if (refreshExecutor == null) {
+            return;
+        }
+        
+        provider.unregisterChangeListener();
+        refreshExecutor.shutdown();
+        refreshExecutor = null;
+        refreshPending.set(false);
+    }
+    
+    /**
+     * Stop notifying a listener; tracking continues for the others
+     * @param listener Listener to remove
+     */
+    public void removeListener(OnSimSnapshotChangedListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Request a refresh, e.g. after a permission grant, which raises no telephony event
+     */
+    public synchronized void refresh() {
+        if (refreshExecutor == null) {
+            updateSnapshot(readSnapshot());
+        } else if (refreshPending.compareAndSet(false, true)) {
+            refreshExecutor.execute(refreshTask);
         }
     }
     
     /**
-     * Check SIM cards using SubscriptionManager for dual SIM support
-     * @return true if any active SIM found
+     * Get the latest SIM snapshot
+     * If tracking has not produced a snapshot yet, it is read on the calling thread once
+     * @return Current snapshot, never null
+     */
+    public SimSnapshot getSnapshot() {
+        SimSnapshot current = snapshot.get();
+        if (!current.isLoaded()) {
+            current = readSnapshot();
+            snapshot.compareAndSet(SimSnapshot.UNKNOWN, current);
+        }
+        return current;
+    }
+    
+    /**
+     * Create a radio measurement source over the provider's telephony services
+     * @return Source for MeasurementSampler
+     */
+    public RadioSource createRadioSource() {
+        return provider.createRadioSource();
+    }
+    
+    /**
+     * Check if at least one SIM card is present and ready
+     * @return true if at least one SIM is available, false otherwise
+     */
+    public boolean isSimCardAvailable() {
+        long start = AVAILABLE_TIMER.start();
+        boolean available = getSnapshot().isSimAvailable();
+        AVAILABLE_TIMER.stop(start);
+        return available;
+    }
+    
+    private SimSnapshot readSnapshot() {
+        long start = READ_TIMER.start();
+        SimSnapshot next = provider.readSnapshot();
+        READ_TIMER.stop(start);
+        return next;
+    }
+    
+    /**
+     * Swap in a new snapshot and notify listeners if the state changed
+     * @param next Freshly read snapshot
      */
-    private boolean checkSubscriptionManager() {
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
-            try {
-                SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-                if (ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) 
-                    == PackageManager.PERMISSION_GRANTED) {
-                    
-                    List<SubscriptionInfo> subscriptionInfoList = subscriptionManager.getActiveSubscriptionInfoList();
-                    return subscriptionInfoList != null && !subscriptionInfoList.isEmpty();
+    private void updateSnapshot(final SimSnapshot next) {
+        SimSnapshot previous = snapshot.getAndSet(next);
+        if (next.sameStateAs(previous)) {
+            return;
+        }
+        
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (OnSimSnapshotChangedListener listener : listeners) {
+                    listener.onSimSnapshotChanged(next);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
-        }
-        return false;
+        });
     }
     
     /**
@@ -79,32 +189,29 @@ public class SimDetectionUtil {
      * @return String description of SIM state
      */
     public String getSimStateDescription() {
-        if (!hasPhoneStatePermission()) {
+        SimSnapshot current = getSnapshot();
+        if (!current.isPermissionGranted()) {
             return "Permission not granted";
         }
         
-        try {
-            int simState = telephonyManager.getSimState();
-            switch (simState) {
-                case TelephonyManager.SIM_STATE_ABSENT:
-                    return "No SIM card";
-                case TelephonyManager.SIM_STATE_UNKNOWN:
-                    return "Unknown SIM state";
-                case TelephonyManager.SIM_STATE_READY:
-                    return "SIM Ready";
-                case TelephonyManager.SIM_STATE_PIN_REQUIRED:
-                    return "SIM PIN Required";
-                case TelephonyManager.SIM_STATE_PUK_REQUIRED:
-                    return "SIM PUK Required";
-                case TelephonyManager.SIM_STATE_NETWORK_LOCKED:
-                    return "SIM Network Locked";
-                case TelephonyManager.SIM_STATE_NOT_READY:
-                    return "SIM Not Ready";
-                default:
-                    return "Unknown state: " + simState;
-            }
-        } catch (Exception e) {
-            return "Error checking SIM: " + e.getMessage();
+        int simState = current.getSimState();
+        switch (simState) {
+            case SimSnapshot.SIM_STATE_ABSENT:
+                return "No SIM card";
+            case SimSnapshot.SIM_STATE_UNKNOWN:
+                return "Unknown SIM state";
+            case SimSnapshot.SIM_STATE_READY:
+                return "SIM Ready";
+            case SimSnapshot.SIM_STATE_PIN_REQUIRED:
+                return "SIM PIN Required";
+            case SimSnapshot.SIM_STATE_PUK_REQUIRED:
+                return "SIM PUK Required";
+            case SimSnapshot.SIM_STATE_NETWORK_LOCKED:
+                return "SIM Network Locked";
+            case SimSnapshot.SIM_STATE_NOT_READY:
+                return "SIM Not Ready";
+            default:
+                return "Unknown state: " + simState;
         }
     }
     
@@ -113,22 +220,17 @@ public class SimDetectionUtil {
      * @return count of active SIM cards
      */
     public int getActiveSimCount() {
-        if (!hasPhoneStatePermission()) {
+        SimSnapshot current = getSnapshot();
+        if (!current.isPermissionGranted()) {
             return 0;
         }
         
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP_MR1) {
-            try {
-                SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-                List<SubscriptionInfo> subscriptionInfoList = subscriptionManager.getActiveSubscriptionInfoList();
-                return subscriptionInfoList != null ? subscriptionInfoList.size() : 0;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (current.getActiveSubscriptionCount() > 0) {
+            return current.getActiveSubscriptionCount();
         }
         
-        // Fallback for older devices
-        return isSimCardAvailable() ? 1 : 0;
+        // Fallback for older devices, which list no subscriptions
+        return current.isSimAvailable() ? 1 : 0;
     }
     
     /**
@@ -136,8 +238,7 @@ public class SimDetectionUtil {
      * @return true if permission granted
      */
     public boolean hasPhoneStatePermission() {
-        return ActivityCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE) 
-               == PackageManager.PERMISSION_GRANTED;
+        return provider.hasPhoneStatePermission();
     }
     
     /**
@@ -149,11 +250,7 @@ public class SimDetectionUtil {
             return "Permission required";
         }
         
-        try {
-            String carrierName = telephonyManager.getNetworkOperatorName();
-            return (carrierName != null && !carrierName.isEmpty()) ? carrierName : "Unknown";
-        } catch (Exception e) {
-            return "Unknown";
-        }
+        String carrierName = provider.getNetworkOperatorName();
+        return carrierName != null ? carrierName : "Unknown";
     }
 }
\ No newline at end of file
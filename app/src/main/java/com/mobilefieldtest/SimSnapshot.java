@@ -0,0 +1,161 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of SIM and subscription state at one point in time
+ * Built off the main thread by SimDetectionUtil and swapped in atomically,
+ * so readers get a consistent answer in O(1) without touching telephony services
+ */
+public final class SimSnapshot {
+    
+    // Mirror TelephonyManager.SIM_STATE_*, kept here so the class stays plain Java
+    public static final int SIM_STATE_UNKNOWN = 0;
+    public static final int SIM_STATE_ABSENT = 1;
+    public static final int SIM_STATE_PIN_REQUIRED = 2;
+    public static final int SIM_STATE_PUK_REQUIRED = 3;
+    public static final int SIM_STATE_NETWORK_LOCKED = 4;
+    public static final int SIM_STATE_READY = 5;
+    public static final int SIM_STATE_NOT_READY = 6;
+    
+    /**
+     * Placeholder used until the first real snapshot has been read
+     */
+    public static final SimSnapshot UNKNOWN = new SimSnapshot(false, false, SIM_STATE_UNKNOWN, false,
+            new int[0], new int[0], new int[0], new int[0], new String[0], 0L);
+    
+    private final boolean loaded;
+    private final boolean permissionGranted;
+    private final int simState;
+    private final boolean simAvailable;
+    private final int[] subscriptionIds;
+    private final int[] slotIndexes;
+    private final int[] mccs;
+    private final int[] mncs;
+    private final String[] carrierNames;
+    private final long timestampMillis;
+    
+    private SimSnapshot(boolean loaded, boolean permissionGranted, int simState, boolean simAvailable,
+                        int[] subscriptionIds, int[] slotIndexes, int[] mccs, int[] mncs,
+                        String[] carrierNames, long timestampMillis) {
+        this.loaded = loaded;
+        this.permissionGranted = permissionGranted;
+        this.simState = simState;
+        this.simAvailable = simAvailable;
+        this.subscriptionIds = subscriptionIds;
+        this.slotIndexes = slotIndexes;
+        this.mccs = mccs;
+        this.mncs = mncs;
+        this.carrierNames = carrierNames;
+        this.timestampMillis = timestampMillis;
+    }
+    
+    /**
+     * Snapshot for when READ_PHONE_STATE has not been granted
+     * @param timestampMillis Time the state was read
+     * @return Snapshot reporting no SIM
+     */
+    public static SimSnapshot permissionDenied(long timestampMillis) {
+        return new SimSnapshot(true, false, SIM_STATE_UNKNOWN, false,
+                new int[0], new int[0], new int[0], new int[0], new String[0], timestampMillis);
+    }
+    
+    /**
+     * Create a snapshot from freshly read telephony state
+     * The arrays describe one active subscription per index and are copied
+     * @param simState Raw TelephonyManager SIM state of the default slot
+     * @param simAvailable Whether at least one SIM is usable
+     * @param subscriptionIds Active subscription ids
+     * @param slotIndexes SIM slot of each subscription
+     * @param mccs Mobile country code of each subscription
+     * @param mncs Mobile network code of each subscription
+     * @param carrierNames Carrier display name of each subscription
+     * @param timestampMillis Time the state was read
+     * @return New snapshot
+     */
+    public static SimSnapshot of(int simState, boolean simAvailable,
+                                 int[] subscriptionIds, int[] slotIndexes, int[] mccs, int[] mncs,
+                                 String[] carrierNames, long timestampMillis) {
+        int count = subscriptionIds.length;
+        if (slotIndexes.length != count || mccs.length != count
+                || mncs.length != count || carrierNames.length != count) {
+            throw new IllegalArgumentException("Subscription arrays must have the same length");
+        }
+        return new SimSnapshot(true, true, simState, simAvailable,
+                subscriptionIds.clone(), slotIndexes.clone(), mccs.clone(), mncs.clone(),
+                carrierNames.clone(), timestampMillis);
+    }
+    
+    /**
+     * @return false only for the UNKNOWN placeholder
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+    
+    public boolean isPermissionGranted() {
+        return permissionGranted;
+    }
+    
+    public int getSimState() {
+        return simState;
+    }
+    
+    public boolean isSimAvailable() {
+        return simAvailable;
+    }
+    
+    public int getActiveSubscriptionCount() {
+        return subscriptionIds.length;
+    }
+    
+    public int getSubscriptionId(int index) {
+        return subscriptionIds[index];
+    }
+    
+    public int getSlotIndex(int index) {
+        return slotIndexes[index];
+    }
+    
+    public int getMcc(int index) {
+        return mccs[index];
+    }
+    
+    public int getMnc(int index) {
+        return mncs[index];
+    }
+    
+    public String getCarrierName(int index) {
+        return carrierNames[index];
+    }
+    
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+    
+    /**
+     * Check whether two snapshots describe the same state, ignoring when they were read
+     * @param other Snapshot to compare with
+     * @return true if nothing a caller would act on has changed
+     */
+    public boolean sameStateAs(SimSnapshot other) {
+        return other != null
+            && loaded == other.loaded
+            && permissionGranted == other.permissionGranted
+            && simState == other.simState
+            && simAvailable == other.simAvailable
+            && Arrays.equals(subscriptionIds, other.subscriptionIds)
+            && Arrays.equals(slotIndexes, other.slotIndexes)
+            && Arrays.equals(mccs, other.mccs)
+            && Arrays.equals(mncs, other.mncs)
+            && Arrays.equals(carrierNames, other.carrierNames);
+    }
+    
+    @Override
+    public String toString() {
+        return "SimSnapshot{simAvailable=" + simAvailable
+            + ", simState=" + simState
+            + ", subscriptions=" + Arrays.toString(subscriptionIds)
+            + ", carriers=" + Arrays.toString(carrierNames) + "}";
+    }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.mobilefieldtest;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -8,28 +9,56 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Splash Activity - Entry point of the application
  * Handles SIM detection and permission requests
+ * 
+ * Startup runs as a StartupPipeline: permission checks, SIM detection and
+ * MainActivity preparation run in parallel, and the form opens as soon as
+ * the critical stages are done
  */
-public class SplashActivity extends AppCompatActivity {
+public class SplashActivity extends AppCompatActivity
+        implements SimDetectionUtil.OnSimSnapshotChangedListener, StartupPipeline.Listener {
+    
+    // Startup stage names, as they appear in the startup trace
+    private static final String STAGE_PERMISSIONS = "permissions";
+    private static final String STAGE_SIM_DETECTION = "sim_detection";
+    private static final String STAGE_PREPARE_MAIN = "prepare_main";
+    
+    private static final String TAG = "SplashActivity";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
     
     private SimDetectionUtil simDetectionUtil;
     private TextView tvLoadingStatus;
     private Handler handler;
     
+    private StartupPipeline startupPipeline;
+    private ExecutorService startupExecutor;
+    private AlertDialog startupErrorDialog;
+    
+    // Completion handles of stages that finish on later callbacks
+    private StartupPipeline.Completion permissionCompletion;
+    private StartupPipeline.Completion simCompletion;
+    private boolean noSimReported;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        LOG.start(new File(getFilesDir(), Constants.LOG_DIR));
         setContentView(R.layout.activity_splash);
         
         initializeViews();
         initializeUtils();
-        checkPermissionsAndProceed();
+        startStartupPipeline();
     }
     
     /**
@@ -44,7 +73,86 @@ public class SplashActivity extends AppCompatActivity {
      * Initialize utility classes
      */
     private void initializeUtils() {
-        simDetectionUtil = new SimDetectionUtil(this);
+        simDetectionUtil = new SimDetectionUtil(new AndroidTelephonyProvider(this),
+                ContextCompat.getMainExecutor(this));
+        startupExecutor = Executors.newSingleThreadExecutor();
+    }
+    
+    /**
+     * Build and start the startup stages
+     */
+    private void startStartupPipeline() {
+        Executor mainExecutor = ContextCompat.getMainExecutor(this);
+        final Context appContext = getApplicationContext();
+        
+        startupPipeline = new StartupPipeline(StartupTrace.getInstance())
+            .addStage(STAGE_PERMISSIONS, true, mainExecutor, completion -> {
+                permissionCompletion = completion;
+                checkPermissionsAndProceed();
+            })
+            .addStage(STAGE_SIM_DETECTION, true, mainExecutor, completion -> {
+                simCompletion = completion;
+                startSimDetection();
+            })
+            .addStage(STAGE_PREPARE_MAIN, false, startupExecutor, completion -> {
+                MainActivity.prepare(appContext);
+                completion.complete();
+            });
+        startupPipeline.start(mainExecutor, this);
+    }
+    
+    /**
+     * All critical startup stages are done
+     */
+    @Override
+    public void onCriticalStagesComplete() {
+        updateLoadingStatus("SIM detected successfully!");
+        proceedToMainActivity();
+    }
+    
+    /**
+     * A startup stage threw; preparation failures only cost warm-up
+     * A critical stage never completes after failing, so the user is offered
+     * a retry of the startup or a way out instead of a splash that never ends.
+     */
+    @Override
+    public void onStageFailed(String stageName, Throwable error) {
+        LOG.begin(DiagnosticLog.LEVEL_ERROR, TAG, "Startup stage failed")
+                .put("stage", stageName)
+                .put("error", error)
+                .commit();
+        if (!STAGE_PREPARE_MAIN.equals(stageName)) {
+            updateLoadingStatus("Error checking SIM: " + error.getMessage());
+            showStartupError(error);
+        }
+    }
+    
+    /**
+     * Ask whether to run startup again or exit
+     * @param error Failure of a critical stage
+     */
+    private void showStartupError(Throwable error) {
+        if (isFinishing() || (startupErrorDialog != null && startupErrorDialog.isShowing())) {
+            // Both critical stages can fail; one dialog covers them
+            return;
+        }
+        startupErrorDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.startup_failed)
+                .setMessage(getString(R.string.startup_failed_message, String.valueOf(error.getMessage())))
+                .setCancelable(false)
+                .setPositiveButton(R.string.retry, (dialog, which) -> retryStartup())
+                .setNegativeButton(R.string.exit, (dialog, which) -> finish())
+                .show();
+    }
+    
+    /**
+     * Run every startup stage again in a new pipeline
+     * The failed pipeline is cancelled, so its stages no longer report;
+     * preparing MainActivity again is harmless.
+     */
+    private void retryStartup() {
+        startupPipeline.cancel();
+        startStartupPipeline();
     }
     
     /**
@@ -52,7 +160,7 @@ public class SplashActivity extends AppCompatActivity {
      */
     private void checkPermissionsAndProceed() {
         if (hasRequiredPermissions()) {
-            startSimDetection();
+            permissionCompletion.complete();
         } else {
             requestPermissions();
         }
@@ -77,7 +185,8 @@ public class SplashActivity extends AppCompatActivity {
             new String[]{
                 Manifest.permission.READ_PHONE_STATE,
                 Manifest.permission.ACCESS_NETWORK_STATE,
-                Manifest.permission.READ_PHONE_NUMBERS
+                Manifest.permission.READ_PHONE_NUMBERS,
+                Manifest.permission.ACCESS_FINE_LOCATION
             },
             Constants.PERMISSION_REQUEST_READ_PHONE_STATE);
     }
@@ -91,7 +200,11 @@ public class SplashActivity extends AppCompatActivity {
         
         if (requestCode == Constants.PERMISSION_REQUEST_READ_PHONE_STATE) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                startSimDetection();
+                permissionCompletion.complete();
+                
+                // A grant raises no telephony event, so re-read SIM state now
+                updateLoadingStatus(getString(R.string.checking_sim));
+                simDetectionUtil.refresh();
             } else {
                 handlePermissionDenied();
             }
@@ -120,45 +233,31 @@ public class SplashActivity extends AppCompatActivity {
     
     /**
      * Start SIM detection process
+     * The first snapshot and every later change arrive through onSimSnapshotChanged
      */
     private void startSimDetection() {
         updateLoadingStatus(getString(R.string.checking_sim));
-        
-        // Simulate loading time for better UX
-        handler.postDelayed(() -> {
-            performSimDetection();
-        }, 1500);
+        simDetectionUtil.start(this);
     }
     
     /**
-     * Perform actual SIM detection
+     * Receive SIM state changes from the background tracker
      */
-    private void performSimDetection() {
-        try {
-            boolean simAvailable = simDetectionUtil.isSimCardAvailable();
-            
-            if (simAvailable) {
-                handleSimDetected();
-            } else {
-                handleNoSimDetected();
-            }
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-            handleSimDetectionError(e.getMessage());
+    @Override
+    public void onSimSnapshotChanged(SimSnapshot snapshot) {
+        if (snapshot.isSimAvailable()) {
+            // A SIM removed again is reported anew
+            noSimReported = false;
+        }
+        if (simCompletion == null || simCompletion.isDone() || !snapshot.isPermissionGranted()) {
+            return;
         }
-    }
-    
-    /**
-     * Handle successful SIM detection
-     */
-    private void handleSimDetected() {
-        updateLoadingStatus("SIM detected successfully!");
         
-        // Show success message briefly
-        handler.postDelayed(() -> {
-            proceedToMainActivity();
-        }, 1000);
+        if (snapshot.isSimAvailable()) {
+            simCompletion.complete();
+        } else {
+            handleNoSimDetected();
+        }
     }
     
     /**
@@ -167,27 +266,12 @@ public class SplashActivity extends AppCompatActivity {
     private void handleNoSimDetected() {
         updateLoadingStatus("No SIM card detected");
         
-        // Show toast message as required
-        Toast.makeText(this, getString(R.string.no_sim_error), Toast.LENGTH_LONG).show();
-        
-        // Optionally retry after delay
-        handler.postDelayed(() -> {
-            startSimDetection();
-        }, 3000);
-    }
-    
-    /**
-     * Handle SIM detection error
-     */
-    private void handleSimDetectionError(String error) {
-        updateLoadingStatus("Error checking SIM: " + error);
-        
-        Toast.makeText(this, "Error: " + error, Toast.LENGTH_LONG).show();
-        
-        // Retry after delay
-        handler.postDelayed(() -> {
-            startSimDetection();
-        }, 2000);
+        // Show toast message as required, once until the state changes;
+        // the next SIM or subscription event re-runs detection
+        if (!noSimReported) {
+            noSimReported = true;
+            Toast.makeText(this, getString(R.string.no_sim_error), Toast.LENGTH_LONG).show();
+        }
     }
     
     /**
@@ -221,6 +305,19 @@ public class SplashActivity extends AppCompatActivity {
         if (handler != null) {
             handler.removeCallbacksAndMessages(null);
         }
+        if (startupErrorDialog != null) {
+            startupErrorDialog.dismiss();
+        }
+        if (startupPipeline != null) {
+            startupPipeline.cancel();
+        }
+        if (startupExecutor != null) {
+            // Lets MainActivity preparation finish if it is still running
+            startupExecutor.shutdown();
+        }
+        if (simDetectionUtil != null) {
+            simDetectionUtil.stop(this);
+        }
     }
     
     /**
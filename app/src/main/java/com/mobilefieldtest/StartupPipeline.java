@@ -0,0 +1,186 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Staged startup pipeline
+ * All stages start together, each on its own executor, and report completion
+ * through a handle so asynchronous work (permission dialogs, SIM events) can
+ * finish later. The listener fires as soon as every critical stage is done;
+ * non-critical stages keep running. Every stage is timed in a StartupTrace.
+ */
+public final class StartupPipeline {
+    
+    /**
+     * Unit of startup work
+     */
+    public interface Stage {
+        /**
+         * Start the stage; call completion.complete() when it is done,
+         * either before returning or later from any thread
+         */
+        void run(Completion completion) throws Exception;
+    }
+    
+    /**
+     * Callbacks for pipeline progress, delivered on the callback executor
+     */
+    public interface Listener {
+        void onCriticalStagesComplete();
+        void onStageFailed(String stageName, Throwable error);
+    }
+    
+    private final StartupTrace trace;
+    private final List<StageEntry> stages = new ArrayList<>();
+    private final AtomicInteger pendingCritical = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private int criticalCount;
+    
+    private Executor callbackExecutor;
+    private Listener listener;
+    private volatile boolean cancelled;
+    
+    /**
+     * @param trace Trace that receives stage timings
+     */
+    public StartupPipeline(StartupTrace trace) {
+        this.trace = trace;
+    }
+    
+    /**
+     * Add a stage; must be called before start
+     * @param name Stage name used in the trace
+     * @param critical Whether the pipeline waits for this stage
+     * @param executor Executor the stage is started on
+     * @param stage Stage work
+     * @return This pipeline
+     */
+    public StartupPipeline addStage(String name, boolean critical, Executor executor, Stage stage) {
+        if (started.get()) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        stages.add(new StageEntry(name, critical, executor, stage));
+        if (critical) {
+            criticalCount++;
+            pendingCritical.incrementAndGet();
+        }
+        return this;
+    }
+    
+    /**
+     * Start every stage
+     * @param callbackExecutor Executor for listener callbacks, usually the main thread
+     * @param listener Progress listener
+     */
+    public void start(Executor callbackExecutor, Listener listener) {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        
+        for (final StageEntry entry : stages) {
+            entry.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    trace.begin(entry.name);
+                    try {
+                        entry.stage.run(entry.completion);
+                    } catch (Exception e) {
+                        entry.completion.fail(e);
+                    }
+                }
+            });
+        }
+        
+        if (criticalCount == 0) {
+            notifyCriticalComplete();
+        }
+    }
+    
+    /**
+     * Stop delivering callbacks, e.g. when the hosting activity is destroyed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public StartupTrace getTrace() {
+        return trace;
+    }
+    
+    private void notifyCriticalComplete() {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    listener.onCriticalStagesComplete();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Completion handle given to each stage; only the first call has an effect
+     */
+    public final class Completion {
+        private final StageEntry entry;
+        private final AtomicBoolean done = new AtomicBoolean();
+        
+        private Completion(StageEntry entry) {
+            this.entry = entry;
+        }
+        
+        public void complete() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            trace.end(entry.name);
+            if (entry.critical && pendingCritical.decrementAndGet() == 0) {
+                notifyCriticalComplete();
+            }
+        }
+        
+        public void fail(final Throwable error) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            trace.end(entry.name);
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        listener.onStageFailed(entry.name, error);
+                    }
+                }
+            });
+        }
+        
+        public boolean isDone() {
+            return done.get();
+        }
+    }
+    
+    private final class StageEntry {
+        final String name;
+        final boolean critical;
+        final Executor executor;
+        final Stage stage;
+        final Completion completion;
+        
+        StageEntry(String name, boolean critical, Executor executor, Stage stage) {
+            this.name = name;
+            this.critical = critical;
+            this.executor = executor;
+            this.stage = stage;
+            this.completion = new Completion(this);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Per-stage timing trace for app startup
+ * Stages record begin/end times relative to the trace origin; single points
+ * (e.g. first frame) are recorded as marks. One trace is kept per process so
+ * both activities can add to it, and it can be exported as JSON.
+ */
+public final class StartupTrace {
+    
+    private static final int MAX_ENTRIES = 32;
+    
+    private static StartupTrace instance;
+    
+    private final long originNanos;
+    private final String[] names = new String[MAX_ENTRIES];
+    private final long[] beginNanos = new long[MAX_ENTRIES];
+    private final long[] endNanos = new long[MAX_ENTRIES];
+    private final String[] threads = new String[MAX_ENTRIES];
+    private int count;
+    
+    public StartupTrace() {
+        this.originNanos = System.nanoTime();
+    }
+    
+    /**
+     * Get the process-wide trace, starting it on first use
+     * @return Shared trace
+     */
+    public static synchronized StartupTrace getInstance() {
+        if (instance == null) {
+            instance = new StartupTrace();
+        }
+        return instance;
+    }
+    
+    /**
+     * Record the start of a stage
+     * @param name Stage name, unique within the trace
+     */
+    public synchronized void begin(String name) {
+        if (indexOf(name) >= 0 || count == MAX_ENTRIES) {
+            return;
+        }
+        names[count] = name;
+        beginNanos[count] = System.nanoTime() - originNanos;
+        endNanos[count] = -1;
+        threads[count] = Thread.currentThread().getName();
+        count++;
+    }
+    
+    /**
+     * Record the end of a stage started with begin
+     * @param name Stage name
+     */
+    public synchronized void end(String name) {
+        int index = indexOf(name);
+        if (index >= 0 && endNanos[index] < 0) {
+            endNanos[index] = System.nanoTime() - originNanos;
+        }
+    }
+    
+    /**
+     * Record a single point in time
+     * @param name Mark name
+     */
+    public synchronized void mark(String name) {
+        begin(name);
+        end(name);
+    }
+    
+    /**
+     * Get the duration of a finished stage
+     * @param name Stage name
+     * @return Duration in nanoseconds, or -1 if unknown or unfinished
+     */
+    public synchronized long getDurationNanos(String name) {
+        int index = indexOf(name);
+        return index >= 0 && endNanos[index] >= 0 ? endNanos[index] - beginNanos[index] : -1;
+    }
+    
+    /**
+     * Format the trace as JSON
+     * Times are in microseconds from the trace origin; unfinished stages have end -1
+     * @return JSON object text
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder(64 + count * 96);
+        json.append("{\"stages\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"").append(names[i])
+                .append("\",\"thread\":\"").append(threads[i])
+                .append("\",\"beginUs\":").append(beginNanos[i] / 1000)
+                .append(",\"endUs\":").append(endNanos[i] >= 0 ? endNanos[i] / 1000 : -1)
+                .append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+    
+    /**
+     * Write the trace as JSON, replacing the file
+     * @param file Destination file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        String json = toJson();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+    
+    private int indexOf(String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.mobilefieldtest;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.TelephonyNetworkSpecifier;
+import android.os.Build;
+import android.telephony.SubscriptionManager;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cellular data network of one subscription, held for the length of a test step
+ * Requests the network through ConnectivityManager and binds test sockets to
+ * it, so results filed under an operator were measured on that operator's
+ * SIM rather than over Wi-Fi or the default data SIM. A network for a
+ * subscription can be named from Android 8; before that only a device's
+ * sole or default data subscription can be tested. Sockets can be bound to
+ * a network from Android 6. Where the network cannot be had, request()
+ * fails and the step is reported as failed instead of measuring elsewhere.
+ */
+final class SubscriptionNetwork implements ThroughputTest.SocketConfigurator, LatencyProbe.SocketConfigurator,
+        Closeable {
+    
+    private final ConnectivityManager connectivityManager;
+    private final ConnectivityManager.NetworkCallback callback;
+    private final Network network;
+    
+    private SubscriptionNetwork(ConnectivityManager connectivityManager, ConnectivityManager.NetworkCallback callback,
+                                Network network) {
+        this.connectivityManager = connectivityManager;
+        this.callback = callback;
+        this.network = network;
+    }
+    
+    /**
+     * Bring up the subscription's cellular network and hold it until close()
+     * @param context Any context
+     * @param subscriptionId Subscription under test
+     * @param onlySubscription true if it is the device's only active subscription
+     * @param timeoutMillis Longest wait for the network
+     * @return The held network
+     * @throws IOException if the network cannot be requested or bound to, or did not come up in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static SubscriptionNetwork request(Context context, int subscriptionId, boolean onlySubscription,
+                                      long timeoutMillis) throws IOException, InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            throw new IOException("Binding sockets to a network needs Android 6");
+        }
+        
+        NetworkRequest.Builder builder = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_CELLULAR)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            builder.setNetworkSpecifier(new TelephonyNetworkSpecifier.Builder()
+                    .setSubscriptionId(subscriptionId)
+                    .build());
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Telephony matches a string specifier against the subscription ID
+            builder.setNetworkSpecifier(String.valueOf(subscriptionId));
+        } else if (!onlySubscription && !isDefaultDataSubscription(subscriptionId)) {
+            throw new IOException("Cannot select the network of subscription " + subscriptionId
+                    + " before Android 8");
+        }
+        
+        final CountDownLatch available = new CountDownLatch(1);
+        final Network[] holder = new Network[1];
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // Callbacks arrive one at a time; the latch publishes the first network
+                if (holder[0] == null) {
+                    holder[0] = network;
+                    available.countDown();
+                }
+            }
+        };
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            connectivityManager.requestNetwork(builder.build(), callback);
+        } catch (RuntimeException e) {
+            // SecurityException without CHANGE_NETWORK_STATE, or too many outstanding requests
+            throw new IOException("Could not request the network of subscription " + subscriptionId, e);
+        }
+        
+        boolean ready = false;
+        try {
+            ready = available.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!ready) {
+                connectivityManager.unregisterNetworkCallback(callback);
+            }
+        }
+        if (!ready) {
+            throw new IOException("Network of subscription " + subscriptionId + " not available");
+        }
+        return new SubscriptionNetwork(connectivityManager, callback, holder[0]);
+    }
+    
+    /**
+     * Resolve a server name through the subscription's own DNS servers
+     * @throws IOException if the name cannot be resolved
+     */
+    InetSocketAddress resolve(String host, int port) throws IOException {
+        InetAddress address = network.getByName(host);
+        return new InetSocketAddress(address, port);
+    }
+    
+    @Override
+    public void configure(SocketChannel channel) throws IOException {
+        network.bindSocket(channel.socket());
+    }
+    
+    @Override
+    public void configure(DatagramSocket socket) throws IOException {
+        network.bindSocket(socket);
+    }
+    
+    @Override
+    public void configure(Socket socket) throws IOException {
+        network.bindSocket(socket);
+    }
+    
+    /**
+     * Release the request, letting the system tear the network down
+     */
+    @Override
+    public void close() {
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (IllegalArgumentException e) {
+            // Already released
+        }
+    }
+    
+    private static boolean isDefaultDataSubscription(int subscriptionId) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && SubscriptionManager.getDefaultDataSubscriptionId() == subscriptionId;
+    }
+}
\ No newline at end of file
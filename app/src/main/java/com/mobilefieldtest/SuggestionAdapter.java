@@ -0,0 +1,78 @@
+package com.mobilefieldtest;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drop-down suggestions for one form field, from an AutocompleteStore
+ * The lookup runs in the filter's worker thread, so typing never waits on
+ * the mapped index; results are published on the main thread.
+ */
+public final class SuggestionAdapter extends ArrayAdapter<String> {
+    
+    private static final Metrics.Timer LOOKUP_TIMER = Metrics.getInstance().timer("autocomplete.lookup");
+    
+    private final AutocompleteStore store;
+    private final int field;
+    private final List<String> suggestions = new ArrayList<>();
+    private final Filter filter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            FilterResults results = new FilterResults();
+            if (constraint == null) {
+                results.values = new ArrayList<String>();
+                results.count = 0;
+                return results;
+            }
+            long start = LOOKUP_TIMER.start();
+            List<String> matches = store.get(field).lookup(constraint, PrefixIndex.DEFAULT_LIMIT);
+            LOOKUP_TIMER.stop(start);
+            results.values = matches;
+            results.count = matches.size();
+            return results;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            suggestions.clear();
+            if (results.values != null) {
+                suggestions.addAll((List<String>) results.values);
+            }
+            if (results.count > 0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
+    };
+    
+    /**
+     * @param context Activity context
+     * @param store Store to look suggestions up in
+     * @param field One of the ValidationRules.FIELD_* constants
+     */
+    public SuggestionAdapter(Context context, AutocompleteStore store, int field) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        this.store = store;
+        this.field = field;
+    }
+    
+    @Override
+    public int getCount() {
+        return suggestions.size();
+    }
+    
+    @Override
+    public String getItem(int position) {
+        return suggestions.get(position);
+    }
+    
+    @Override
+    public Filter getFilter() {
+        return filter;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.mobilefieldtest;
+
+/**
+ * Deterministic synthetic radio source for JVM runs and benchmarks
+ * Each subscription gets an LTE serving cell whose signal follows a bounded
+ * random walk, plus a fixed number of weaker neighbours; the serving cell
+ * hands over to a neighbour every few hundred samples
+ */
+public final class SyntheticRadioSource implements RadioSource {
+    
+    private static final int MAX_SUBSCRIPTIONS = 8;
+    private static final int HANDOVER_INTERVAL = 300;
+    
+    private final int neighbourCount;
+    private final int[] subscriptionIds = new int[MAX_SUBSCRIPTIONS];
+    private final int[] rsrp = new int[MAX_SUBSCRIPTIONS];
+    private final int[] servingCell = new int[MAX_SUBSCRIPTIONS];
+    private final int[] sampleCount = new int[MAX_SUBSCRIPTIONS];
+    private int subscriptionCount;
+    private long seed;
+    
+    /**
+     * @param neighbourCount Neighbour cells reported with each serving cell
+     * @param seed Random seed, for reproducible runs
+     */
+    public SyntheticRadioSource(int neighbourCount, long seed) {
+        this.neighbourCount = neighbourCount;
+        this.seed = seed;
+    }
+    
+    @Override
+    public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+        int index = indexOf(subscriptionId);
+        if (index < 0) {
+            return 0;
+        }
+        
+        // Bounded random walk between -125 and -65 dBm
+        int serving = rsrp[index] + nextInt(7) - 3;
+        serving = Math.max(-125, Math.min(-65, serving));
+        rsrp[index] = serving;
+        
+        if (++sampleCount[index] % HANDOVER_INTERVAL == 0) {
+            servingCell[index] = (servingCell[index] + 1) % (neighbourCount + 1);
+        }
+        
+        int baseCellId = 0x10000 * (index + 1);
+        int rsrq = -3 - (-65 - serving) / 6;
+        int sinr = 30 + (serving + 65) / 2;
+        buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_LTE, SampleRingBuffer.FLAG_SERVING,
+                baseCellId + servingCell[index], servingCell[index] * 3, 1300, 3, serving, rsrq, sinr);
+        
+        for (int i = 1; i <= neighbourCount; i++) {
+            int cell = (servingCell[index] + i) % (neighbourCount + 1);
+            int neighbourRsrp = serving - 3 * i - nextInt(4);
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_LTE, 0,
+                    SampleRingBuffer.UNAVAILABLE, cell * 3, 1300, 3, neighbourRsrp,
+                    rsrq - i, SampleRingBuffer.UNAVAILABLE);
+        }
+        return neighbourCount + 1;
+    }
+    
+    private int indexOf(int subscriptionId) {
+        for (int i = 0; i < subscriptionCount; i++) {
+            if (subscriptionIds[i] == subscriptionId) {
+                return i;
+            }
+        }
+        if (subscriptionCount == MAX_SUBSCRIPTIONS) {
+            return -1;
+        }
+        subscriptionIds[subscriptionCount] = subscriptionId;
+        rsrp[subscriptionCount] = -95;
+        return subscriptionCount++;
+    }
+    
+    // Linear congruential generator; avoids java.util.Random's atomic seed updates
+    private int nextInt(int bound) {
+        seed = seed * 6364136223846793005L + 1442695040888963407L;
+        return (int) ((seed >>> 33) % bound);
+    }
+}
\ No newline at end of file
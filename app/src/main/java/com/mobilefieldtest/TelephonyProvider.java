@@ -0,0 +1,51 @@
+package com.mobilefieldtest;
+
+/**
+ * Telephony services as seen by SimDetectionUtil and MeasurementSampler
+ * AndroidTelephonyProvider reads the device's TelephonyManager and
+ * SubscriptionManager; TraceTelephonyProvider plays back a recorded or
+ * synthetic trace, so SIM detection and everything downstream of it run on
+ * a plain JVM.
+ */
+public interface TelephonyProvider {
+    
+    /**
+     * Told that SIM or subscription state may have changed, on any thread
+     */
+    interface ChangeListener {
+        void onTelephonyChanged();
+    }
+    
+    /**
+     * Read the current SIM and subscription state
+     * Called off the main thread; may block on system services
+     * @return New snapshot, never null
+     */
+    SimSnapshot readSnapshot();
+    
+    /**
+     * @return Source of cell measurements for MeasurementSampler
+     */
+    RadioSource createRadioSource();
+    
+    /**
+     * @return true if SIM and subscription state may be read
+     */
+    boolean hasPhoneStatePermission();
+    
+    /**
+     * @return Name of the registered network operator, or null if unknown
+     */
+    String getNetworkOperatorName();
+    
+    /**
+     * Start reporting state changes; replaces any earlier listener
+     * @param listener Listener to call on every change
+     */
+    void registerChangeListener(ChangeListener listener);
+    
+    /**
+     * Stop reporting state changes
+     */
+    void unregisterChangeListener();
+}
\ No newline at end of file
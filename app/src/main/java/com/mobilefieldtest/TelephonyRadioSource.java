@@ -0,0 +1,374 @@
+package com.mobilefieldtest;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * RadioSource backed by the cell info of each subscription's modem
+ * Created through AndroidTelephonyProvider.createRadioSource(); keeps one
+ * subscription-scoped TelephonyManager per subscription.
+ *
+ * getAllCellInfo() reports the cells of every phone whichever manager it is
+ * called on, so on a dual-SIM device it cannot be recorded as is. From
+ * Android 10 each poll uses requestCellInfoUpdate(), which is scoped to the
+ * subscription; the answer arrives on a binder thread and is recorded by
+ * the next poll, so the sampler thread never waits for the modem. Before that the list is filtered: the framework lists each
+ * phone's cells together, so a registered cell starts a phone's run of
+ * cells, and a run is kept only if its registered cell is on the
+ * subscription's network. Cells seen before any registered cell cannot be
+ * attributed and are dropped. When both SIMs are registered on the same
+ * network their runs cannot be told apart and both are kept.
+ */
+final class TelephonyRadioSource implements RadioSource {
+    
+    // A cell info request unanswered for this long is given up and sent again
+    private static final long CELL_INFO_TIMEOUT_MS = 2000;
+    
+    // Runs update callbacks on the binder thread that delivers them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    private final Context context;
+    private final TelephonyManager telephonyManager;
+    private final SparseArray<TelephonyManager> subscriptionManagers = new SparseArray<>();
+    
+    // One reused update callback per subscription, used from Android 10
+    private final SparseArray<CellInfoRequest> cellInfoRequests = new SparseArray<>();
+    
+    // MCC * 1000 + MNC of each subscription's network, read again when no registered cell matches it
+    private final SparseIntArray networkPlmns = new SparseIntArray();
+    
+    TelephonyRadioSource(Context context, TelephonyManager telephonyManager) {
+        this.context = context;
+        this.telephonyManager = telephonyManager;
+    }
+    
+    @Override
+    public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return sampleSubscription(subscriptionId, timestampMillis, buffer);
+        }
+        
+        List<CellInfo> cells;
+        try {
+            cells = getManager(subscriptionId).getAllCellInfo();
+        } catch (SecurityException e) {
+            // Location permission revoked while sampling
+            return 0;
+        }
+        if (cells == null) {
+            return 0;
+        }
+        
+        int plmn = networkPlmns.get(subscriptionId, 0);
+        if (plmn == 0 || !hasRegisteredCell(cells, plmn)) {
+            // First poll, or the subscription moved to another network
+            plmn = readNetworkPlmn(subscriptionId);
+            networkPlmns.put(subscriptionId, plmn);
+        }
+        
+        int appended = 0;
+        boolean owned = false;
+        for (int i = 0, size = cells.size(); i < size; i++) {
+            CellInfo cell = cells.get(i);
+            if (cell.isRegistered()) {
+                owned = plmn != 0 && cellPlmn(cell) == plmn;
+            }
+            if (owned && appendCell(cell, subscriptionId, timestampMillis, buffer)) {
+                appended++;
+            }
+        }
+        return appended;
+    }
+    
+    /**
+     * Poll through requestCellInfoUpdate(), which only reports the subscription's own phone
+     * Records the answer that arrived since the previous poll, stamped with
+     * this poll's time, and sends the next request. There is one request in
+     * flight per subscription; while it is, polls record nothing.
+     */
+    private int sampleSubscription(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+        CellInfoRequest request = cellInfoRequests.get(subscriptionId);
+        if (request == null) {
+            request = new CellInfoRequest();
+            cellInfoRequests.put(subscriptionId, request);
+        }
+        List<CellInfo> cells = request.take();
+        if (request.begin(SystemClock.elapsedRealtime(), CELL_INFO_TIMEOUT_MS)) {
+            try {
+                getManager(subscriptionId).requestCellInfoUpdate(DIRECT_EXECUTOR, request);
+            } catch (SecurityException e) {
+                // Location permission revoked while sampling
+                request.cancel();
+                return 0;
+            }
+        }
+        if (cells == null) {
+            return 0;
+        }
+        
+        int appended = 0;
+        for (int i = 0, size = cells.size(); i < size; i++) {
+            if (appendCell(cells.get(i), subscriptionId, timestampMillis, buffer)) {
+                appended++;
+            }
+        }
+        return appended;
+    }
+    
+    private TelephonyManager getManager(int subscriptionId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return telephonyManager;
+        }
+        TelephonyManager manager = subscriptionManagers.get(subscriptionId);
+        if (manager == null) {
+            manager = telephonyManager.createForSubscriptionId(subscriptionId);
+            subscriptionManagers.put(subscriptionId, manager);
+        }
+        return manager;
+    }
+    
+    /**
+     * @return MCC * 1000 + MNC of the network the subscription is on, or 0 if unknown
+     */
+    private int readNetworkPlmn(int subscriptionId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return parsePlmn(getManager(subscriptionId).getNetworkOperator());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+            // No subscription-scoped manager yet; fall back to the SIM's home network
+            try {
+                SubscriptionInfo info = SubscriptionManager.from(context).getActiveSubscriptionInfo(subscriptionId);
+                return info != null ? info.getMcc() * 1000 + info.getMnc() : 0;
+            } catch (SecurityException e) {
+                return 0;
+            }
+        }
+        // Single SIM
+        return parsePlmn(telephonyManager.getNetworkOperator());
+    }
+    
+    private static boolean hasRegisteredCell(List<CellInfo> cells, int plmn) {
+        for (int i = 0, size = cells.size(); i < size; i++) {
+            CellInfo cell = cells.get(i);
+            if (cell.isRegistered() && cellPlmn(cell) == plmn) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return MCC * 1000 + MNC reported for a pre-Android 10 cell, or 0 if unknown
+     */
+    @SuppressWarnings("deprecation")
+    private static int cellPlmn(CellInfo cell) {
+        boolean strings = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+        if (cell instanceof CellInfoLte) {
+            CellIdentityLte identity = ((CellInfoLte) cell).getCellIdentity();
+            return strings ? plmn(identity.getMccString(), identity.getMncString())
+                    : plmn(identity.getMcc(), identity.getMnc());
+        }
+        if (cell instanceof CellInfoWcdma) {
+            CellIdentityWcdma identity = ((CellInfoWcdma) cell).getCellIdentity();
+            return strings ? plmn(identity.getMccString(), identity.getMncString())
+                    : plmn(identity.getMcc(), identity.getMnc());
+        }
+        if (cell instanceof CellInfoGsm) {
+            CellIdentityGsm identity = ((CellInfoGsm) cell).getCellIdentity();
+            return strings ? plmn(identity.getMccString(), identity.getMncString())
+                    : plmn(identity.getMcc(), identity.getMnc());
+        }
+        return 0;
+    }
+    
+    private static int plmn(int mcc, int mnc) {
+        if (mcc <= 0 || mcc > 999 || mnc < 0 || mnc > 999) {
+            return 0;
+        }
+        return mcc * 1000 + mnc;
+    }
+    
+    private static int plmn(String mcc, String mnc) {
+        if (mcc == null || mnc == null) {
+            return 0;
+        }
+        return plmn(parseDigits(mcc, 0, mcc.length()), parseDigits(mnc, 0, mnc.length()));
+    }
+    
+    /**
+     * @param operator MCC followed by MNC, e.g. "47001"
+     */
+    private static int parsePlmn(String operator) {
+        if (operator == null || operator.length() < 5 || operator.length() > 6) {
+            return 0;
+        }
+        return plmn(parseDigits(operator, 0, 3), parseDigits(operator, 3, operator.length()));
+    }
+    
+    /**
+     * @return Value of the decimal digits, or -1 if there are none or any other character
+     */
+    private static int parseDigits(String text, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    /**
+     * Flatten one CellInfo into a buffer row
+     * @return false for cell types that are not recorded
+     */
+    private static boolean appendCell(CellInfo cell, int subscriptionId, long timestampMillis,
+                                      SampleRingBuffer buffer) {
+        int flags = cell.isRegistered() ? SampleRingBuffer.FLAG_SERVING : 0;
+        int unavailable = SampleRingBuffer.UNAVAILABLE;
+        
+        if (cell instanceof CellInfoLte) {
+            CellIdentityLte identity = ((CellInfoLte) cell).getCellIdentity();
+            CellSignalStrengthLte signal = ((CellInfoLte) cell).getCellSignalStrength();
+            int earfcn = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? identity.getEarfcn() : unavailable;
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_LTE, flags,
+                    identity.getCi(), identity.getPci(), earfcn, firstBand(identity),
+                    signal.getRsrp(), signal.getRsrq(), signal.getRssnr());
+            return true;
+        }
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && cell instanceof CellInfoNr) {
+            CellIdentityNr identity = (CellIdentityNr) ((CellInfoNr) cell).getCellIdentity();
+            CellSignalStrengthNr signal = (CellSignalStrengthNr) ((CellInfoNr) cell).getCellSignalStrength();
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_NR, flags,
+                    identity.getNci(), identity.getPci(), identity.getNrarfcn(), firstBand(identity),
+                    signal.getSsRsrp(), signal.getSsRsrq(), signal.getSsSinr());
+            return true;
+        }
+        
+        if (cell instanceof CellInfoWcdma) {
+            CellIdentityWcdma identity = ((CellInfoWcdma) cell).getCellIdentity();
+            int uarfcn = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? identity.getUarfcn() : unavailable;
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_WCDMA, flags,
+                    identity.getCid(), identity.getPsc(), uarfcn, unavailable,
+                    ((CellInfoWcdma) cell).getCellSignalStrength().getDbm(), unavailable, unavailable);
+            return true;
+        }
+        
+        if (cell instanceof CellInfoGsm) {
+            CellIdentityGsm identity = ((CellInfoGsm) cell).getCellIdentity();
+            int arfcn = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? identity.getArfcn() : unavailable;
+            int bsic = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? identity.getBsic() : unavailable;
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_GSM, flags,
+                    identity.getCid(), bsic, arfcn, unavailable,
+                    ((CellInfoGsm) cell).getCellSignalStrength().getDbm(), unavailable, unavailable);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    // getBands() returns a copy on every call, so each cell reads it once
+    private static int firstBand(CellIdentityLte identity) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            int[] bands = identity.getBands();
+            if (bands.length > 0) {
+                return bands[0];
+            }
+        }
+        return SampleRingBuffer.UNAVAILABLE;
+    }
+    
+    private static int firstBand(CellIdentityNr identity) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            int[] bands = identity.getBands();
+            if (bands.length > 0) {
+                return bands[0];
+            }
+        }
+        return SampleRingBuffer.UNAVAILABLE;
+    }
+    
+    /**
+     * Update callback of one subscription, reused for each of its requests
+     * Called on a binder thread; the sampler thread takes the answer on its
+     * next poll. A request that stays unanswered past the timeout no longer
+     * holds up new ones, and a late answer to it is recorded like any other.
+     */
+    private static final class CellInfoRequest extends TelephonyManager.CellInfoCallback {
+        private List<CellInfo> cells;
+        private boolean inFlight;
+        private long sentAt;
+        
+        @Override
+        public synchronized void onCellInfo(List<CellInfo> cellInfo) {
+            cells = cellInfo;
+            inFlight = false;
+        }
+        
+        @Override
+        public synchronized void onError(int errorCode, Throwable detail) {
+            inFlight = false;
+        }
+        
+        /**
+         * @return Cells of the answer that arrived since the last call, or null if none did
+         */
+        synchronized List<CellInfo> take() {
+            List<CellInfo> result = cells;
+            cells = null;
+            return result;
+        }
+        
+        /**
+         * Mark a new request as sent, unless one is still in flight
+         * @param now SystemClock.elapsedRealtime()
+         * @param timeoutMillis Age at which a request in flight is given up
+         * @return True if the caller should send the request
+         */
+        synchronized boolean begin(long now, long timeoutMillis) {
+            if (inFlight && now - sentAt < timeoutMillis) {
+                return false;
+            }
+            inFlight = true;
+            sentAt = now;
+            return true;
+        }
+        
+        /**
+         * The request marked by begin() could not be sent
+         */
+        synchronized void cancel() {
+            inFlight = false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of test steps run against one subscription
+ * The same plan can be run for several subscriptions at once, so steps must
+ * not keep per-run state outside their run call.
+ */
+public final class TestPlan {
+    
+    /**
+     * Unit of test work
+     */
+    public interface Step {
+        /**
+         * Run the step; return normally on success
+         * Long steps should return early when the thread is interrupted.
+         * @param subscriptionId Subscription under test
+         */
+        void run(int subscriptionId) throws Exception;
+    }
+    
+    private final List<String> names = new ArrayList<>();
+    private final List<Boolean> usesRadio = new ArrayList<>();
+    private final List<Step> steps = new ArrayList<>();
+    
+    /**
+     * Add a step
+     * @param name Step name for progress and error reporting
+     * @param usesRadio Whether the step needs the shared radio, e.g. mobile
+     *                  data on a dual-SIM device where only one SIM can have
+     *                  an active data connection at a time
+     * @param step Step work
+     * @return This plan
+     */
+    public TestPlan addStep(String name, boolean usesRadio, Step step) {
+        names.add(name);
+        this.usesRadio.add(usesRadio);
+        steps.add(step);
+        return this;
+    }
+    
+    public int getStepCount() {
+        return steps.size();
+    }
+    
+    public String getStepName(int index) {
+        return names.get(index);
+    }
+    
+    public boolean usesRadio(int index) {
+        return usesRadio.get(index);
+    }
+    
+    public Step getStep(int index) {
+        return steps.get(index);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+package com.mobilefieldtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput results keyed by direction, operator and test area
+ * Each entry is a histogram of the per-interval rates in kbit/s, warm-up
+ * intervals excluded, so reports of any number of sessions merge into one
+ * like a LatencyReport. Saved next to each session.
+ */
+public final class ThroughputReport {
+    
+    private static final int MAGIC = 0x4D465454; // "MFTT"
+    private static final int FORMAT_VERSION = 1;
+    
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<Integer> directions = new ArrayList<>();
+    private final List<String> operators = new ArrayList<>();
+    private final List<String> areas = new ArrayList<>();
+    private final List<LatencyHistogram> rates = new ArrayList<>();
+    
+    /**
+     * Add the intervals of a test run to the entry for its direction, operator and area
+     * @param operator Operator name
+     * @param area Test area
+     * @param result Finished test run
+     */
+    public synchronized void add(String operator, String area, ThroughputTest.Result result) {
+        LatencyHistogram histogram = entry(result.getDirection(), operator, area);
+        for (int i = ThroughputTest.WARMUP_INTERVALS; i < result.getIntervalCount(); i++) {
+            histogram.record(result.getIntervalBitsPerSecond(i) / 1000);
+        }
+    }
+    
+    /**
+     * Merge rates into the entry for a direction, operator and area
+     * @param direction ThroughputTest.DIRECTION_DOWNLOAD or DIRECTION_UPLOAD
+     * @param operator Operator name
+     * @param area Test area
+     * @param kilobitsPerSecond Interval rates to add; unchanged
+     */
+    public synchronized void add(int direction, String operator, String area, LatencyHistogram kilobitsPerSecond) {
+        entry(direction, operator, area).merge(kilobitsPerSecond);
+    }
+    
+    /**
+     * Merge every entry of another report into this one
+     * @param other Report to merge; unchanged
+     */
+    public void merge(ThroughputReport other) {
+        synchronized (other) {
+            for (int i = 0; i < other.rates.size(); i++) {
+                add(other.directions.get(i), other.operators.get(i), other.areas.get(i), other.rates.get(i));
+            }
+        }
+    }
+    
+    public synchronized int getEntryCount() {
+        return rates.size();
+    }
+    
+    public synchronized int getDirection(int entry) {
+        return directions.get(entry);
+    }
+    
+    public synchronized String getOperator(int entry) {
+        return operators.get(entry);
+    }
+    
+    public synchronized String getArea(int entry) {
+        return areas.get(entry);
+    }
+    
+    /**
+     * @param entry Entry index
+     * @return Copy of the entry's interval rates in kbit/s
+     */
+    public synchronized LatencyHistogram getRates(int entry) {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(rates.get(entry));
+        return copy;
+    }
+    
+    /**
+     * Save the report (write to a temporary file, then rename)
+     * @param file Report file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(rates.size());
+            for (int i = 0; i < rates.size(); i++) {
+                out.writeByte(directions.get(i));
+                out.writeUTF(operators.get(i));
+                out.writeUTF(areas.get(i));
+                rates.get(i).writeTo(out);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save throughput report: " + file);
+        }
+    }
+    
+    /**
+     * Load a report written by save
+     * @param file Report file
+     * @return The decoded report
+     * @throws IOException if the file cannot be read or holds an unknown format
+     */
+    public static ThroughputReport load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a throughput report: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported throughput report version: " + version);
+            }
+            ThroughputReport report = new ThroughputReport();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int direction = in.readUnsignedByte();
+                String operator = in.readUTF();
+                String area = in.readUTF();
+                report.add(direction, operator, area, LatencyHistogram.readFrom(in));
+            }
+            return report;
+        } finally {
+            in.close();
+        }
+    }
+    
+    private LatencyHistogram entry(int direction, String operator, String area) {
+        String key = direction + "\u0000" + operator + '\u0000' + area;
+        Integer position = index.get(key);
+        if (position == null) {
+            position = rates.size();
+            index.put(key, position);
+            directions.add(direction);
+            operators.add(operator);
+            areas.add(area);
+            rates.add(new LatencyHistogram());
+        }
+        return rates.get(position);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,336 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+
+/**
+ * TCP download/upload throughput test
+ *
+ * Opens several parallel streams to a test server and drives them all from
+ * one Selector on the calling thread. Each stream reads into or writes from
+ * its own direct buffer borrowed from a DirectBufferPool, so the transfer
+ * loop does not allocate. Throughput is sampled every interval; the test
+ * stops at the maximum duration or earlier once the last few intervals
+ * (after a warm-up that covers TCP slow start) agree within a tolerance.
+ *
+ * Server protocol: after connecting, the client sends one command byte.
+ * For COMMAND_DOWNLOAD the server sends data until the client closes; for
+ * COMMAND_UPLOAD it reads and discards data until the client closes.
+ */
+public final class ThroughputTest {
+    
+    public static final int DIRECTION_DOWNLOAD = 0;
+    public static final int DIRECTION_UPLOAD = 1;
+    
+    public static final int DEFAULT_STREAMS = 4;
+    public static final long DEFAULT_INTERVAL_MS = 250;
+    public static final long DEFAULT_MAX_DURATION_MS = 15_000;
+    
+    static final byte COMMAND_DOWNLOAD = 'D';
+    static final byte COMMAND_UPLOAD = 'U';
+    
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    // Intervals left out of the result and of the stability check
+    static final int WARMUP_INTERVALS = 4;
+    private static final int STABLE_WINDOW = 8;
+    private static final double STABLE_TOLERANCE = 0.10;
+    
+    /**
+     * Receives throughput samples on the test thread
+     */
+    public interface Listener {
+        void onInterval(int index, long bitsPerSecond);
+    }
+    
+    /**
+     * Prepares each stream's channel before it connects, e.g. to bind it to
+     * a specific network
+     */
+    public interface SocketConfigurator {
+        void configure(SocketChannel channel) throws IOException;
+    }
+    
+    private final InetSocketAddress server;
+    private final int direction;
+    private final int streams;
+    private final DirectBufferPool bufferPool;
+    
+    private long intervalMillis = DEFAULT_INTERVAL_MS;
+    private long maxDurationMillis = DEFAULT_MAX_DURATION_MS;
+    private SocketConfigurator socketConfigurator;
+    private Listener listener;
+    
+    /**
+     * @param server Test server address
+     * @param direction DIRECTION_DOWNLOAD or DIRECTION_UPLOAD
+     * @param streams Number of parallel TCP streams
+     * @param bufferPool Pool the stream buffers are borrowed from
+     */
+    public ThroughputTest(InetSocketAddress server, int direction, int streams, DirectBufferPool bufferPool) {
+        if (direction != DIRECTION_DOWNLOAD && direction != DIRECTION_UPLOAD) {
+            throw new IllegalArgumentException("Invalid direction: " + direction);
+        }
+        if (streams <= 0) {
+            throw new IllegalArgumentException("Invalid stream count: " + streams);
+        }
+        this.server = server;
+        this.direction = direction;
+        this.streams = streams;
+        this.bufferPool = bufferPool;
+    }
+    
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+    
+    public void setMaxDurationMillis(long maxDurationMillis) {
+        this.maxDurationMillis = maxDurationMillis;
+    }
+    
+    public void setSocketConfigurator(SocketConfigurator socketConfigurator) {
+        this.socketConfigurator = socketConfigurator;
+    }
+    
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Run the test on the calling thread
+     * @return Measured throughput
+     * @throws IOException if no stream could be set up or all failed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public Result run() throws IOException, InterruptedException {
+        long intervalNanos = intervalMillis * 1_000_000L;
+        long[] intervals = new long[(int) (maxDurationMillis / intervalMillis) + 1];
+        int intervalCount = 0;
+        boolean stable = false;
+        long totalBytes = 0;
+        long measuredBytes = 0;
+        long measuredNanos = 0;
+        
+        Selector selector = Selector.open();
+        SocketChannel[] channels = new SocketChannel[streams];
+        SelectionKey[] keys = new SelectionKey[streams];
+        ByteBuffer[] buffers = new ByteBuffer[streams];
+        try {
+            for (int i = 0; i < streams; i++) {
+                buffers[i] = bufferPool.acquire();
+                if (direction == DIRECTION_UPLOAD) {
+                    fillIncompressible(buffers[i], i);
+                }
+                channels[i] = connect();
+                keys[i] = channels[i].register(selector,
+                        direction == DIRECTION_DOWNLOAD ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            }
+            
+            Set<SelectionKey> selected = selector.selectedKeys();
+            int openStreams = streams;
+            long start = System.nanoTime();
+            long intervalStart = start;
+            long intervalBytes = 0;
+            
+            while (openStreams > 0) {
+                long now = System.nanoTime();
+                if (now - intervalStart >= intervalNanos) {
+                    long elapsed = now - intervalStart;
+                    long bitsPerSecond = toBitsPerSecond(intervalBytes, elapsed);
+                    intervals[intervalCount] = bitsPerSecond;
+                    if (intervalCount >= WARMUP_INTERVALS) {
+                        measuredBytes += intervalBytes;
+                        measuredNanos += elapsed;
+                    }
+                    intervalCount++;
+                    if (listener != null) {
+                        listener.onInterval(intervalCount - 1, bitsPerSecond);
+                    }
+                    intervalStart = now;
+                    intervalBytes = 0;
+                    
+                    stable = isStable(intervals, intervalCount);
+                    if (stable || intervalCount == intervals.length || now - start >= maxDurationMillis * 1_000_000L) {
+                        break;
+                    }
+                }
+                
+                long waitMillis = Math.max(1, (intervalStart + intervalNanos - now) / 1_000_000L);
+                selector.select(waitMillis);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                
+                for (int i = 0; i < streams; i++) {
+                    SelectionKey key = keys[i];
+                    if (!key.isValid() || !selected.contains(key)) {
+                        continue;
+                    }
+                    int count = transfer(channels[i], buffers[i]);
+                    if (count < 0) {
+                        // Server closed the stream
+                        key.cancel();
+                        openStreams--;
+                    } else {
+                        intervalBytes += count;
+                        totalBytes += count;
+                    }
+                }
+                selected.clear();
+            }
+        } finally {
+            for (int i = 0; i < streams; i++) {
+                if (channels[i] != null) {
+                    channels[i].close();
+                }
+                if (buffers[i] != null) {
+                    bufferPool.release(buffers[i]);
+                }
+            }
+            selector.close();
+        }
+        
+        long[] series = new long[intervalCount];
+        System.arraycopy(intervals, 0, series, 0, intervalCount);
+        long mean = measuredNanos > 0 ? toBitsPerSecond(measuredBytes, measuredNanos) : 0;
+        return new Result(direction, streams, series, mean, totalBytes, stable);
+    }
+    
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            if (socketConfigurator != null) {
+                socketConfigurator.configure(channel);
+            }
+            channel.socket().connect(server, CONNECT_TIMEOUT_MS);
+            ByteBuffer command = ByteBuffer.allocate(1);
+            command.put(direction == DIRECTION_DOWNLOAD ? COMMAND_DOWNLOAD : COMMAND_UPLOAD).flip();
+            while (command.hasRemaining()) {
+                channel.write(command);
+            }
+            channel.configureBlocking(false);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Move one buffer's worth of data
+     * @return Bytes moved, or -1 at end of stream
+     */
+    private int transfer(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        if (direction == DIRECTION_DOWNLOAD) {
+            int count = channel.read(buffer);
+            buffer.clear();
+            return count;
+        }
+        int count = channel.write(buffer);
+        if (!buffer.hasRemaining()) {
+            // The content is irrelevant; resend the same bytes
+            buffer.clear();
+        }
+        return count;
+    }
+    
+    private static long toBitsPerSecond(long bytes, long nanos) {
+        // In floating point: bytes * 8e9 overflows a long after about 1 GB
+        return (long) (bytes * 8e9 / nanos);
+    }
+    
+    private static boolean isStable(long[] intervals, int count) {
+        if (count < WARMUP_INTERVALS + STABLE_WINDOW) {
+            return false;
+        }
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long sum = 0;
+        for (int i = count - STABLE_WINDOW; i < count; i++) {
+            min = Math.min(min, intervals[i]);
+            max = Math.max(max, intervals[i]);
+            sum += intervals[i];
+        }
+        long mean = sum / STABLE_WINDOW;
+        return mean > 0 && max - min <= STABLE_TOLERANCE * mean;
+    }
+    
+    /**
+     * Fill an upload buffer with pseudo-random bytes so link compression cannot inflate the result
+     */
+    private static void fillIncompressible(ByteBuffer buffer, long seed) {
+        long state = seed * 0x9E3779B97F4A7C15L + 1;
+        buffer.clear();
+        while (buffer.remaining() >= 8) {
+            state = state * 6364136223846793005L + 1442695040888963407L;
+            buffer.putLong(state);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Outcome of one test run
+     */
+    public static final class Result {
+        private final int direction;
+        private final int streams;
+        private final long[] intervals;
+        private final long meanBitsPerSecond;
+        private final long totalBytes;
+        private final boolean stable;
+        
+        Result(int direction, int streams, long[] intervals, long meanBitsPerSecond, long totalBytes, boolean stable) {
+            this.direction = direction;
+            this.streams = streams;
+            this.intervals = intervals;
+            this.meanBitsPerSecond = meanBitsPerSecond;
+            this.totalBytes = totalBytes;
+            this.stable = stable;
+        }
+        
+        public int getDirection() {
+            return direction;
+        }
+        
+        public int getStreams() {
+            return streams;
+        }
+        
+        public int getIntervalCount() {
+            return intervals.length;
+        }
+        
+        public long getIntervalBitsPerSecond(int index) {
+            return intervals[index];
+        }
+        
+        /**
+         * @return Mean throughput after the warm-up intervals
+         */
+        public long getMeanBitsPerSecond() {
+            return meanBitsPerSecond;
+        }
+        
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+        
+        /**
+         * @return true if the test stopped early because throughput was stable
+         */
+        public boolean isStable() {
+            return stable;
+        }
+        
+        @Override
+        public String toString() {
+            return (direction == DIRECTION_DOWNLOAD ? "download " : "upload ")
+                    + (meanBitsPerSecond / 1000) / 1000.0 + " Mbps, " + streams + " streams, "
+                    + intervals.length + " intervals" + (stable ? ", stable" : "");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,314 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the measurement pipeline on a plain JVM from a trace
+ * Wires SimDetectionUtil, MeasurementSampler, SessionJournal (and its
+ * SessionLogWriter), RadioEventDetector and CoverageStore together as
+ * MainActivity does, over a TraceTelephonyProvider on a ReplayClock. A
+ * run records a new session in the session directory, as a drive would,
+ * and reports throughput and per-poll latency: the real time from the
+ * start of a poll until the last listener has stored and analysed its rows.
+ * With a SamplingGovernor the location fixes are fed to it in trace time,
+ * so fixed and adaptive sampling of the same trace can be compared.
+ */
+public final class TraceReplay {
+    
+    private static final String TAG = "TraceReplay";
+    private static final DiagnosticLog LOG = DiagnosticLog.getInstance();
+    
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    private final TelephonyProvider provider;
+    private final ReplayClock clock;
+    private final File sessionDir;
+    private double rateHz = MeasurementSampler.DEFAULT_RATE_HZ;
+    private LocationTrack locations;
+    private boolean governed;
+    private int batteryPercent = 100;
+    
+    /**
+     * @param provider Trace to play
+     * @param clock Clock of the trace
+     * @param sessionDir Directory for the recorded session and coverage grids
+     */
+    public TraceReplay(TelephonyProvider provider, ReplayClock clock, File sessionDir) {
+        this.provider = provider;
+        this.clock = clock;
+        this.sessionDir = sessionDir;
+    }
+    
+    /**
+     * @param rateHz Sampling rate per subscription in trace time; a recorded
+     *               trace should be sampled at least as often as it was recorded
+     */
+    public void setRateHz(double rateHz) {
+        this.rateHz = rateHz;
+    }
+    
+    /**
+     * @param locations Location fixes written to the session, so coverage can be aggregated; may be null
+     */
+    public void setLocations(LocationTrack locations) {
+        this.locations = locations;
+    }
+    
+    /**
+     * @param governed True to let a SamplingGovernor set the rates, starting from the fixed rate
+     * @param batteryPercent Battery level reported to the governor, not charging
+     */
+    public void setGoverned(boolean governed, int batteryPercent) {
+        this.governed = governed;
+        this.batteryPercent = batteryPercent;
+    }
+    
+    /**
+     * Play the trace until the given trace time
+     * @param formData Form data stored in the session header
+     * @param endMillis Trace time at which sampling stops
+     * @return Counters of the run
+     * @throws IOException if the session log cannot be written
+     */
+    public Result run(FormData formData, long endMillis) throws IOException {
+        if (!sessionDir.isDirectory() && !sessionDir.mkdirs()) {
+            throw new IOException("Could not create " + sessionDir);
+        }
+        final PollMonitor monitor = new PollMonitor();
+        final MeasurementSampler sampler = new MeasurementSampler(monitor.wrap(provider.createRadioSource()),
+                new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY), clock);
+        
+        long startTime = clock.currentTimeMillis();
+        File sessionFile = new File(sessionDir, startTime + Constants.SESSION_FILE_EXTENSION);
+        final SessionLogWriter log = new SessionLogWriter(sessionFile, formData, startTime);
+        SessionJournal journal = new SessionJournal(new File(sessionDir, Constants.SESSION_JOURNAL_FILE), log,
+                formData, startTime, Constants.JOURNAL_COMMIT_INTERVAL_MS);
+        if (locations != null) {
+            for (int i = 0; i < locations.size(); i++) {
+                log.appendLocation(locations.getTimestamp(i), locations.getLatitudeE7(i),
+                        locations.getLongitudeE7(i), locations.getAccuracyMeters(i));
+            }
+        }
+        
+        RadioEventDetector detector = new RadioEventDetector();
+        detector.addListener(log);
+        sampler.addListener(journal);
+        sampler.addListener(detector);
+        final SamplingGovernor governor = governed ? new SamplingGovernor(sampler) : null;
+        if (governor != null) {
+            governor.setListener(log);
+            governor.setBattery(batteryPercent, false);
+            sampler.addListener(governor);
+        }
+        // Last, so a poll's latency covers storage and detection
+        sampler.addListener(monitor);
+        
+        // Follow SIM changes as MainActivity would: sample whatever subscriptions are active
+        SimDetectionUtil simDetection = new SimDetectionUtil(provider, DIRECT_EXECUTOR);
+        SimDetectionUtil.OnSimSnapshotChangedListener simListener =
+                new SimDetectionUtil.OnSimSnapshotChangedListener() {
+            @Override
+            public void onSimSnapshotChanged(SimSnapshot snapshot) {
+                if (!sampler.isRunning()) {
+                    return;
+                }
+                int count = snapshot.getActiveSubscriptionCount();
+                int[] subscriptionIds = new int[count];
+                int[] plmns = new int[count];
+                for (int i = 0; i < count; i++) {
+                    subscriptionIds[i] = snapshot.getSubscriptionId(i);
+                    plmns[i] = snapshot.getMcc(i) > 0 ? snapshot.getMcc(i) * 1000 + snapshot.getMnc(i) : 0;
+                }
+                try {
+                    log.appendSubscriptions(subscriptionIds, plmns);
+                } catch (IOException e) {
+                    LOG.error(TAG, "Could not store subscriptions", e);
+                }
+                sampler.setSubscriptions(subscriptionIds, rateHz);
+                if (governor != null) {
+                    governor.onSimSnapshotChanged(snapshot);
+                }
+            }
+        };
+        
+        long realStart = System.nanoTime();
+        sampler.start();
+        simDetection.start(simListener);
+        int fix = 0;
+        long remaining;
+        while ((remaining = endMillis - clock.currentTimeMillis()) > 0) {
+            if (governor != null && locations != null && fix < locations.size()) {
+                long due = locations.getTimestamp(fix) - clock.currentTimeMillis();
+                if (due <= 0) {
+                    governor.onLocation(locations.getTimestamp(fix), locations.getLatitudeE7(fix),
+                            locations.getLongitudeE7(fix), locations.getAccuracyMeters(fix));
+                    fix++;
+                    continue;
+                }
+                remaining = Math.min(remaining, due);
+            }
+            clock.parkNanos(this, remaining * 1_000_000L);
+        }
+        simDetection.stop(simListener);
+        sampler.stop();
+        log.appendMetrics(Metrics.getInstance().toJson());
+        journal.close();
+        long realNanos = System.nanoTime() - realStart;
+        
+        int coverageSessions = new CoverageStore(sessionDir, CoverageGrid.DEFAULT_PRECISION_BITS)
+                .updatePending(Long.MAX_VALUE);
+        return new Result(sessionFile, monitor, sampler, log.getEventCount(),
+                governor != null ? governor.getChangeCount() : 0, coverageSessions, realNanos,
+                endMillis - startTime);
+    }
+    
+    /**
+     * Counters of one run
+     */
+    public static final class Result {
+        private final File sessionFile;
+        private final long pollCount;
+        private final long rowCount;
+        private final long overrunCount;
+        private final long errorCount;
+        private final long eventCount;
+        private final long rateChangeCount;
+        private final int coverageSessions;
+        private final long realNanos;
+        private final long traceMillis;
+        private final LatencyHistogram pollLatency;
+        
+        Result(File sessionFile, PollMonitor monitor, MeasurementSampler sampler, long eventCount,
+               long rateChangeCount, int coverageSessions, long realNanos, long traceMillis) {
+            this.sessionFile = sessionFile;
+            this.pollCount = sampler.getPollCount();
+            this.rowCount = monitor.rowCount;
+            this.overrunCount = sampler.getOverrunCount();
+            this.errorCount = sampler.getErrorCount();
+            this.eventCount = eventCount;
+            this.rateChangeCount = rateChangeCount;
+            this.coverageSessions = coverageSessions;
+            this.realNanos = realNanos;
+            this.traceMillis = traceMillis;
+            this.pollLatency = monitor.latency;
+        }
+        
+        /**
+         * @return Session log recorded by the run
+         */
+        public File getSessionFile() {
+            return sessionFile;
+        }
+        
+        public long getPollCount() {
+            return pollCount;
+        }
+        
+        public long getRowCount() {
+            return rowCount;
+        }
+        
+        /**
+         * @return Polls that started a full interval late; the pipeline did not keep up with the speed
+         */
+        public long getOverrunCount() {
+            return overrunCount;
+        }
+        
+        public long getErrorCount() {
+            return errorCount;
+        }
+        
+        public long getEventCount() {
+            return eventCount;
+        }
+        
+        /**
+         * @return Sampling rate changes made by the governor; 0 at a fixed rate
+         */
+        public long getRateChangeCount() {
+            return rateChangeCount;
+        }
+        
+        /**
+         * @return Sessions merged into coverage grids after the run
+         */
+        public int getCoverageSessions() {
+            return coverageSessions;
+        }
+        
+        public long getRealNanos() {
+            return realNanos;
+        }
+        
+        /**
+         * @return Rows stored per second of real time
+         */
+        public double getRowsPerSecond() {
+            return realNanos > 0 ? rowCount * 1e9 / realNanos : 0;
+        }
+        
+        /**
+         * @return Trace time played per real time
+         */
+        public double getSpeed() {
+            return realNanos > 0 ? traceMillis * 1e6 / realNanos : 0;
+        }
+        
+        /**
+         * @return Real time from the start of a poll to its last listener, in microseconds
+         */
+        public LatencyHistogram getPollLatency() {
+            return pollLatency;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d polls, %d rows in %.0f ms (%.0fx, %.0f rows/s), poll latency p50 %d us p99 %d us"
+                            + " max %d us, %d overruns, %d errors, %d events, %d rate changes",
+                    pollCount, rowCount, realNanos / 1e6, getSpeed(), getRowsPerSecond(),
+                    pollLatency.getValueAtPercentile(50), pollLatency.getValueAtPercentile(99),
+                    pollLatency.getMax(), overrunCount, errorCount, eventCount, rateChangeCount);
+        }
+    }
+    
+    /**
+     * Times each poll from the source call to the last listener; sampler thread only
+     */
+    private static final class PollMonitor implements MeasurementSampler.Listener {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long rowCount;
+        private long pollStartNanos;
+        
+        RadioSource wrap(final RadioSource source) {
+            return new RadioSource() {
+                @Override
+                public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+                    pollStartNanos = System.nanoTime();
+                    return source.sample(subscriptionId, timestampMillis, buffer);
+                }
+            };
+        }
+        
+        @Override
+        public void onSamplesAppended(SampleRingBuffer buffer, int subscriptionId, long fromSequence,
+                                      long toSequence) {
+            latency.record((System.nanoTime() - pollStartNanos) / 1000);
+            rowCount += toSequence - fromSequence;
+        }
+        
+        @Override
+        public void onPollEmpty(int subscriptionId, long timestampMillis) {
+            latency.record((System.nanoTime() - pollStartNanos) / 1000);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.mobilefieldtest;
+
+import java.util.Arrays;
+
+/**
+ * Stand-in TelephonyProvider that plays back a trace on a ReplayClock
+ * A trace is a series of SIM snapshots, each taking effect at its trace
+ * time, plus a RadioSource for the cell measurements: a SyntheticRadioSource
+ * for generated load or a SessionLogRadioSource for a recorded drive.
+ * Change listeners are called on a trace thread as each snapshot takes
+ * effect, as the system would on a SIM or subscription change.
+ */
+public final class TraceTelephonyProvider implements TelephonyProvider {
+    
+    private static final SimSnapshot NO_SIM = SimSnapshot.of(SimSnapshot.SIM_STATE_ABSENT, false,
+            new int[0], new int[0], new int[0], new int[0], new String[0], 0L);
+    
+    private final ReplayClock clock;
+    private final RadioSource radioSource;
+    
+    private long[] times = new long[0];
+    private SimSnapshot[] snapshots = new SimSnapshot[0];
+    
+    private Thread changeThread;
+    
+    /**
+     * @param clock Clock the trace plays on
+     * @param radioSource Cell measurements of the trace
+     */
+    public TraceTelephonyProvider(ReplayClock clock, RadioSource radioSource) {
+        this.clock = clock;
+        this.radioSource = radioSource;
+    }
+    
+    /**
+     * Provider for a recorded session: its subscriptions and operators from
+     * the start, and its rows as measurements
+     * @param reader Open session log; can be closed once this returns
+     * @param clock Clock starting at the session's start time
+     * @return New provider
+     */
+    public static TraceTelephonyProvider fromSessionLog(SessionLogReader reader, ReplayClock clock) {
+        SessionLogRadioSource source = new SessionLogRadioSource(reader);
+        int[] subscriptionIds = source.getSubscriptionIds();
+        int count = subscriptionIds.length;
+        int[] slotIndexes = new int[count];
+        int[] mccs = new int[count];
+        int[] mncs = new int[count];
+        String[] carrierNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            int plmn = reader.getSubscriptionPlmn(subscriptionIds[i]);
+            slotIndexes[i] = i;
+            mccs[i] = plmn / 1000;
+            mncs[i] = plmn % 1000;
+            carrierNames[i] = "";
+        }
+        TraceTelephonyProvider provider = new TraceTelephonyProvider(clock, source);
+        provider.addSnapshot(reader.getStartTimeMillis(), SimSnapshot.of(SimSnapshot.SIM_STATE_READY, count > 0,
+                subscriptionIds, slotIndexes, mccs, mncs, carrierNames, reader.getStartTimeMillis()));
+        return provider;
+    }
+    
+    /**
+     * Add a state change to the trace; before the first one there is no SIM
+     * @param timeMillis Trace time the snapshot takes effect, not before the previous one's
+     * @param snapshot SIM and subscription state from then on
+     */
+    public synchronized void addSnapshot(long timeMillis, SimSnapshot snapshot) {
+        int count = times.length;
+        if (count > 0 && timeMillis < times[count - 1]) {
+            throw new IllegalArgumentException("Snapshots must be added in time order");
+        }
+        times = Arrays.copyOf(times, count + 1);
+        snapshots = Arrays.copyOf(snapshots, count + 1);
+        times[count] = timeMillis;
+        snapshots[count] = snapshot;
+    }
+    
+    @Override
+    public synchronized SimSnapshot readSnapshot() {
+        long now = clock.currentTimeMillis();
+        SimSnapshot current = NO_SIM;
+        for (int i = 0; i < times.length && times[i] <= now; i++) {
+            current = snapshots[i];
+        }
+        return current;
+    }
+    
+    @Override
+    public RadioSource createRadioSource() {
+        return radioSource;
+    }
+    
+    @Override
+    public boolean hasPhoneStatePermission() {
+        return true;
+    }
+    
+    /**
+     * @return Carrier name of the first subscription, or null without one
+     */
+    @Override
+    public String getNetworkOperatorName() {
+        SimSnapshot current = readSnapshot();
+        return current.getActiveSubscriptionCount() > 0 ? current.getCarrierName(0) : null;
+    }
+    
+    @Override
+    public synchronized void registerChangeListener(final ChangeListener listener) {
+        unregisterChangeListener();
+        final long[] changeTimes = times;
+        changeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long time : changeTimes) {
+                    long remaining;
+                    while ((remaining = time - clock.currentTimeMillis()) > 0) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        clock.parkNanos(this, remaining * 1_000_000L);
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    listener.onTelephonyChanged();
+                }
+            }
+        }, "TraceTelephony");
+        changeThread.setDaemon(true);
+        changeThread.start();
+    }
+    
+    @Override
+    public synchronized void unregisterChangeListener() {
+        if (changeThread != null) {
+            changeThread.interrupt();
+            changeThread = null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.mobilefieldtest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Resume state of one session upload
+ * Tracks which chunks the server has acknowledged as a bitset and is saved
+ * next to the session file after every acknowledgement (write to a temporary
+ * file, then rename), so an interrupted upload continues where it stopped.
+ * State saved for a different file length or chunk size is discarded.
+ */
+final class UploadState {
+    
+    private static final int FORMAT_VERSION = 1;
+    
+    private final File file;
+    private final long fileLength;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final long[] acked;
+    private int ackedCount;
+    private boolean complete;
+    
+    private UploadState(File file, long fileLength, int chunkSize) {
+        this.file = file;
+        this.fileLength = fileLength;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) Math.max(1, (fileLength + chunkSize - 1) / chunkSize);
+        this.acked = new long[(chunkCount + 63) >>> 6];
+    }
+    
+    /**
+     * Load saved state, or start fresh if there is none that matches
+     * @param file State file
+     * @param fileLength Length of the session file
+     * @param chunkSize Upload chunk size
+     * @return Upload state
+     */
+    static UploadState load(File file, long fileLength, int chunkSize) {
+        UploadState state = new UploadState(file, fileLength, chunkSize);
+        if (!file.exists()) {
+            return state;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readByte() != FORMAT_VERSION || in.readLong() != fileLength || in.readInt() != chunkSize) {
+                    return state;
+                }
+                state.complete = in.readBoolean();
+                for (int i = 0; i < state.acked.length; i++) {
+                    state.acked[i] = in.readLong();
+                    state.ackedCount += Long.bitCount(state.acked[i]);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Unreadable state only costs re-sending chunks
+            return new UploadState(file, fileLength, chunkSize);
+        }
+        return state;
+    }
+    
+    int getChunkCount() {
+        return chunkCount;
+    }
+    
+    int getChunkSize() {
+        return chunkSize;
+    }
+    
+    long getFileLength() {
+        return fileLength;
+    }
+    
+    synchronized int getAckedCount() {
+        return ackedCount;
+    }
+    
+    synchronized boolean isAcked(int index) {
+        return (acked[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    synchronized boolean isComplete() {
+        return complete;
+    }
+    
+    /**
+     * Record an acknowledged chunk and save the state
+     * @return Number of acknowledged chunks
+     */
+    synchronized int markAcked(int index) throws IOException {
+        if (!isAcked(index)) {
+            acked[index >>> 6] |= 1L << index;
+            ackedCount++;
+            save();
+        }
+        return ackedCount;
+    }
+    
+    synchronized void markComplete() throws IOException {
+        complete = true;
+        save();
+    }
+    
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(fileLength);
+            out.writeInt(chunkSize);
+            out.writeBoolean(complete);
+            for (long word : acked) {
+                out.writeLong(word);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save upload state: " + file);
+        }
+    }
+}
\ No newline at end of file
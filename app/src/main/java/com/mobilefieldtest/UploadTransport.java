@@ -0,0 +1,37 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+
+/**
+ * Sends session upload chunks to the ingest endpoint
+ * Called from several upload threads at once, so implementations must be
+ * thread-safe. Failures are retried by SessionUploader.
+ */
+public interface UploadTransport {
+    
+    /**
+     * Send one compressed chunk of a session file
+     * @param sessionId Session id from FormData.getSessionId
+     * @param index Chunk index
+     * @param chunkCount Number of chunks in the session
+     * @param body Deflate-compressed chunk
+     * @param length Bytes of body to send
+     * @param rawLength Chunk length before compression
+     * @param crc32 CRC32 of the compressed bytes
+     * @return true once the server has acknowledged the chunk, false if it
+     *         rejected the chunk as corrupt
+     * @throws IOException on network or server failure
+     */
+    boolean sendChunk(String sessionId, int index, int chunkCount, byte[] body, int length,
+                      int rawLength, long crc32) throws IOException;
+    
+    /**
+     * Tell the server every chunk has been acknowledged
+     * @param sessionId Session id
+     * @param chunkCount Number of chunks in the session
+     * @param fileLength Uncompressed length of the session file
+     * @return true if the server assembled the session
+     * @throws IOException on network or server failure
+     */
+    boolean completeSession(String sessionId, int chunkCount, long fileLength) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.mobilefieldtest;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative rule engine for form validation
+ * Rules are compiled once from Constants and checked against any CharSequence
+ * without allocating; results are returned as error codes so callers decide
+ * how to present them. An instance reuses its matchers and is not thread-safe,
+ * so each thread that validates (UI, batch import) should own one.
+ */
+public final class ValidationRules {
+    
+    // Fields
+    public static final int FIELD_EMPLOYEE_ID = 0;
+    public static final int FIELD_MODEL = 1;
+    public static final int FIELD_BUILD_VERSION = 2;
+    public static final int FIELD_TEST_AREA = 3;
+    public static final int FIELD_COUNT = 4;
+    
+    // Error codes
+    public static final int OK = 0;
+    public static final int ERROR_REQUIRED = 1;
+    public static final int ERROR_TOO_SHORT = 2;
+    public static final int ERROR_TOO_LONG = 3;
+    public static final int ERROR_INVALID_CHARACTERS = 4;
+    public static final int ERROR_INVALID_FORMAT = 5;
+    public static final int ERROR_COUNT = 6;
+    
+    // Rule flags
+    private static final int FLAG_NONE = 0;
+    private static final int FLAG_NO_EDGE_DOTS = 1;
+    
+    // Rule table, indexed by field
+    private static final Rule[] RULES = {
+        new Rule(Constants.EMPLOYEE_ID_MIN_LENGTH, Constants.EMPLOYEE_ID_MAX_LENGTH,
+                 Constants.EMPLOYEE_ID_PATTERN, FLAG_NONE),
+        new Rule(Constants.MODEL_MIN_LENGTH, Constants.MODEL_MAX_LENGTH,
+                 Constants.MODEL_PATTERN, FLAG_NONE),
+        new Rule(1, Integer.MAX_VALUE,
+                 Constants.BUILD_VERSION_PATTERN, FLAG_NO_EDGE_DOTS),
+        new Rule(Constants.TEST_AREA_MIN_LENGTH, Constants.TEST_AREA_MAX_LENGTH,
+                 null, FLAG_NONE)
+    };
+    
+    private final Matcher[] matchers = new Matcher[FIELD_COUNT];
+    
+    public ValidationRules() {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            Pattern pattern = RULES[field].pattern;
+            if (pattern != null) {
+                matchers[field] = pattern.matcher("");
+            }
+        }
+    }
+    
+    /**
+     * Check an input against the rule for a field
+     * Leading and trailing whitespace is ignored, as with String.trim()
+     * @param field One of the FIELD_* constants
+     * @param input Raw input, e.g. an Editable
+     * @return OK or one of the ERROR_* codes
+     */
+    public int check(int field, CharSequence input) {
+        Rule rule = RULES[field];
+        
+        int start = 0;
+        int end = input != null ? input.length() : 0;
+        while (start < end && input.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        
+        int length = end - start;
+        if (length == 0) {
+            return ERROR_REQUIRED;
+        }
+        if (length < rule.minLength) {
+            return ERROR_TOO_SHORT;
+        }
+        if (length > rule.maxLength) {
+            return ERROR_TOO_LONG;
+        }
+        
+        Matcher matcher = matchers[field];
+        if (matcher != null) {
+            // Anchoring bounds make ^ and $ match at the trimmed region edges
+            matcher.reset(input).region(start, end);
+            boolean matches = matcher.matches();
+            matcher.reset("");
+            if (!matches) {
+                return ERROR_INVALID_CHARACTERS;
+            }
+        }
+        
+        if ((rule.flags & FLAG_NO_EDGE_DOTS) != 0
+                && (input.charAt(start) == '.' || input.charAt(end - 1) == '.')) {
+            return ERROR_INVALID_FORMAT;
+        }
+        
+        return OK;
+    }
+    
+    /**
+     * Check an input against the rule for a field
+     * @param field One of the FIELD_* constants
+     * @param input Raw input
+     * @return true if the input passes
+     */
+    public boolean isValid(int field, CharSequence input) {
+        return check(field, input) == OK;
+    }
+    
+    /**
+     * Compiled form of a single field rule
+     */
+    private static final class Rule {
+        final int minLength;
+        final int maxLength;
+        final Pattern pattern;
+        final int flags;
+        
+        Rule(int minLength, int maxLength, String pattern, int flags) {
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            this.pattern = pattern != null ? Pattern.compile(pattern) : null;
+            this.flags = flags;
+        }
+    }
+}
\ No newline at end of file
@@ -1,11 +1,8 @@
 package com.mobilefieldtest;
 
-import android.text.TextUtils;
 import android.widget.EditText;
 import android.widget.CheckBox;
-import java.util.regex.Pattern;
 import java.util.List;
-import java.util.ArrayList;
 
 /**
  * Utility class for form validation
@@ -13,40 +10,61 @@ import java.util.ArrayList;
  */
 public class ValidationUtil {
     
+    // Compiled rules shared by the UI thread
+    private static final ValidationRules RULES = new ValidationRules();
+    
+    // Error messages, indexed by field and then by error code
+    private static final String[][] ERROR_MESSAGES = new String[ValidationRules.FIELD_COUNT][];
+    
+    static {
+        ERROR_MESSAGES[ValidationRules.FIELD_EMPLOYEE_ID] = new String[] {
+            null,
+            "Employee ID is required",
+            "Employee ID must be at least " + Constants.EMPLOYEE_ID_MIN_LENGTH + " characters",
+            "Employee ID must be less than " + Constants.EMPLOYEE_ID_MAX_LENGTH + " characters",
+            "Employee ID contains invalid characters",
+            null
+        };
+        ERROR_MESSAGES[ValidationRules.FIELD_MODEL] = new String[] {
+            null,
+            "Model is required",
+            "Model name must be at least " + Constants.MODEL_MIN_LENGTH + " characters",
+            "Model name must be less than " + Constants.MODEL_MAX_LENGTH + " characters",
+            "Model name contains invalid characters",
+            null
+        };
+        ERROR_MESSAGES[ValidationRules.FIELD_BUILD_VERSION] = new String[] {
+            null,
+            "Build Version is required",
+            null,
+            null,
+            "Build Version should contain only numbers and dots (e.g., 1.0.0)",
+            "Invalid version format"
+        };
+        ERROR_MESSAGES[ValidationRules.FIELD_TEST_AREA] = new String[] {
+            null,
+            "Test Area is required",
+            "Test Area must be at least " + Constants.TEST_AREA_MIN_LENGTH + " characters",
+            "Test Area must be less than " + Constants.TEST_AREA_MAX_LENGTH + " characters",
+            null,
+            null
+        };
+    }
+    
+    /**
+     * Load this class so the validation rules are compiled ahead of first use
+     */
+    public static void preload() {
+        // Class initialization does the work
+    }
+    
     /**
      * Validate Employee ID field
      * @param editText Employee ID input field
      * @return true if valid, false otherwise
      */
     public static boolean validateEmployeeId(EditText editText) {
-        String input = editText.getText().toString().trim();
-        
-        if (TextUtils.isEmpty(input)) {
-            editText.setError("Employee ID is required");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (input.length() < 3) {
-            editText.setError("Employee ID must be at least 3 characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (input.length() > 20) {
-            editText.setError("Employee ID must be less than 20 characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (!Pattern.matches(Constants.EMPLOYEE_ID_PATTERN, input)) {
-            editText.setError("Employee ID contains invalid characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        editText.setError(null);
-        return true;
+        return applyRule(editText, ValidationRules.FIELD_EMPLOYEE_ID);
     }
     
     /**
@@ -55,34 +73,7 @@ public class ValidationUtil {
      * @return true if valid, false otherwise
      */
     public static boolean validateModel(EditText editText) {
-        String input = editText.getText().toString().trim();
-        
-        if (TextUtils.isEmpty(input)) {
-            editText.setError("Model is required");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (input.length() < 2) {
-            editText.setError("Model name must be at least 2 characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (input.length() > 30) {
-            editText.setError("Model name must be less than 30 characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (!Pattern.matches(Constants.MODEL_PATTERN, input)) {
-            editText.setError("Model name contains invalid characters");
-            editText.requestFocus();
-            return false;
-        }
-        
-        editText.setError(null);
-        return true;
+        return applyRule(editText, ValidationRules.FIELD_MODEL);
     }
     
     /**
@@ -91,29 +82,7 @@ public class ValidationUtil {
      * @return true if valid, false otherwise
      */
     public static boolean validateBuildVersion(EditText editText) {
-        String input = editText.getText().toString().trim();
-        
-        if (TextUtils.isEmpty(input)) {
-            editText.setError("Build Version is required");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (!Pattern.matches(Constants.BUILD_VERSION_PATTERN, input)) {
-            editText.setError("Build Version should contain only numbers and dots (e.g., 1.0.0)");
-            editText.requestFocus();
-            return false;
-        }
-        
-        // Check for valid version format (at least one number)
-        if (input.equals(".") || input.startsWith(".") || input.endsWith(".")) {
-            editText.setError("Invalid version format");
-            editText.requestFocus();
-            return false;
-        }
-        
-        editText.setError(null);
-        return true;
+        return applyRule(editText, ValidationRules.FIELD_BUILD_VERSION);
     }
     
     /**
@@ -122,22 +91,20 @@ public class ValidationUtil {
      * @return true if valid, false otherwise
      */
     public static boolean validateTestArea(EditText editText) {
-        String input = editText.getText().toString().trim();
-        
-        if (TextUtils.isEmpty(input)) {
-            editText.setError("Test Area is required");
-            editText.requestFocus();
-            return false;
-        }
-        
-        if (input.length() < 2) {
-            editText.setError("Test Area must be at least 2 characters");
-            editText.requestFocus();
-            return false;
-        }
+        return applyRule(editText, ValidationRules.FIELD_TEST_AREA);
+    }
+    
+    /**
+     * Check a field's text against its rule and show the matching error
+     * @param editText Input field
+     * @param field One of the ValidationRules.FIELD_* constants
+     * @return true if valid, false otherwise
+     */
+    private static boolean applyRule(EditText editText, int field) {
+        int error = RULES.check(field, editText.getText());
         
-        if (input.length() > 50) {
-            editText.setError("Test Area must be less than 50 characters");
+        if (error != ValidationRules.OK) {
+            editText.setError(getErrorMessage(field, error));
             editText.requestFocus();
             return false;
         }
@@ -146,6 +113,20 @@ public class ValidationUtil {
         return true;
     }
     
+    /**
+     * Get the user-facing message for a validation error
+     * @param field One of the ValidationRules.FIELD_* constants
+     * @param error One of the ValidationRules.ERROR_* codes
+     * @return Error message, or null for ValidationRules.OK
+     */
+    public static String getErrorMessage(int field, int error) {
+        if (error == ValidationRules.OK) {
+            return null;
+        }
+        String message = ERROR_MESSAGES[field][error];
+        return message != null ? message : Constants.ERROR_INVALID_INPUT;
+    }
+    
     /**
      * Validate operator selection checkboxes
      * @param checkBoxes List of operator checkboxes
@@ -162,19 +143,29 @@ public class ValidationUtil {
     
     /**
      * Get list of selected operators
-     * @param checkBoxes List of operator checkboxes
+     * @param registry Operators the checkboxes were created from
+     * @param checkBoxes List of operator checkboxes, in registry order
      * @return List of selected operator names
      */
-    public static List<String> getSelectedOperators(List<CheckBox> checkBoxes) {
-        List<String> selectedOperators = new ArrayList<>();
+    public static List<String> getSelectedOperators(OperatorRegistry registry, List<CheckBox> checkBoxes) {
+        return getOperatorSelection(registry, checkBoxes).toList();
+    }
+    
+    /**
+     * Get the operator selection as a bitmask over the registry
+     * @param registry Operators the checkboxes were created from
+     * @param checkBoxes List of operator checkboxes, in registry order
+     * @return Selection of the checked operators
+     */
+    public static OperatorSelection getOperatorSelection(OperatorRegistry registry, List<CheckBox> checkBoxes) {
+        OperatorSelection selection = registry.newSelection();
+        int count = Math.min(checkBoxes.size(), registry.getOperatorCount());
         
-        for (CheckBox checkBox : checkBoxes) {
-            if (checkBox.isChecked()) {
-                selectedOperators.add(checkBox.getText().toString());
-            }
+        for (int i = 0; i < count; i++) {
+            selection.setSelected(i, checkBoxes.get(i).isChecked());
         }
         
-        return selectedOperators;
+        return selection;
     }
     
     /**
@@ -182,7 +173,7 @@ public class ValidationUtil {
      * @param editTexts List of EditText fields to clear
      * @param checkBoxes List of CheckBox fields to clear
      */
-    public static void clearAllFields(List<EditText> editTexts, List<CheckBox> checkBoxes) {
+    public static void clearAllFields(List<? extends EditText> editTexts, List<CheckBox> checkBoxes) {
         // Clear EditText fields
         for (EditText editText : editTexts) {
             editText.setText("");
@@ -0,0 +1,73 @@
+package com.mobilefieldtest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Zigzag varint encoding helpers for the binary session formats
+ * Small magnitudes (including negative deltas) take one byte
+ */
+public final class VarInt {
+    
+    // Longest encoding of a 64-bit value
+    public static final int MAX_LONG_BYTES = 10;
+    
+    private VarInt() {
+        throw new AssertionError("VarInt class should not be instantiated");
+    }
+    
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Write an unsigned varint
+     * @param value Value, treated as unsigned
+     * @param dest Destination array with at least MAX_LONG_BYTES free
+     * @param offset Write position
+     * @return Position after the encoded value
+     */
+    public static int writeUnsigned(long value, byte[] dest, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            dest[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[offset++] = (byte) value;
+        return offset;
+    }
+    
+    /**
+     * Write a signed value as a zigzag varint
+     */
+    public static int writeSigned(long value, byte[] dest, int offset) {
+        return writeUnsigned(zigzag(value), dest, offset);
+    }
+    
+    /**
+     * Read an unsigned varint at the buffer's position, advancing it
+     * @param buffer Source buffer
+     * @return Decoded value
+     */
+    public static long readUnsigned(ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+        }
+    }
+    
+    public static long readSigned(ByteBuffer buffer) {
+        return unzigzag(readUnsigned(buffer));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.mobilefieldtest;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Steady-state garbage of the recording path: one dual-SIM poll through the
+ * listeners MainActivity attaches, as in PipelineBenchmark, measured with the
+ * JVM's per-thread allocation counter
+ */
+public class PipelineAllocationTest {
+    
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final int WARMUP_POLLS = 50_000;
+    private static final int MEASURED_POLLS = 100_000;
+    // Averaged over the run; a single object per poll would be 16 bytes or more
+    private static final double MAX_BYTES_PER_POLL = 1.0;
+    // Detected events are the detector's output; each is one RadioEvent of seven fields
+    private static final int MAX_BYTES_PER_EVENT = 64;
+    // The journal commits after this many polls, whose rows fit its batch as a
+    // commit interval's polls do in a session; unpaced, the loop would outrun
+    // the committer and the batch would grow
+    private static final int POLLS_PER_COMMIT = 32;
+    private static final long COMMIT_TIMEOUT_NANOS = 10_000_000_000L;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private SyntheticRadioSource source;
+    private SampleRingBuffer buffer;
+    private SessionLogWriter log;
+    private SessionJournal journal;
+    private MeasurementSampler.Listener[] listeners;
+    private long timestamp;
+    private int poll;
+    
+    @Before
+    public void setUp() throws Exception {
+        File sessionDir = folder.newFolder("sessions");
+        source = new SyntheticRadioSource(8, 42L);
+        buffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+        timestamp = START_MILLIS;
+        
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setSelectedOperators(Arrays.asList("Robi", "Airtel"));
+        log = new SessionLogWriter(new File(sessionDir, "session" + Constants.SESSION_FILE_EXTENSION),
+                formData, START_MILLIS);
+        // Committed as soon as the test asks for it; see awaitCommit
+        journal = new SessionJournal(new File(sessionDir, Constants.SESSION_JOURNAL_FILE), log, formData, START_MILLIS,
+                1);
+        
+        RadioEventDetector detector = new RadioEventDetector();
+        detector.addListener(log);
+        SessionSummary summary = new SessionSummary();
+        summary.setOperator(1, "Robi");
+        summary.setOperator(2, "Airtel");
+        // Not started; the governor only sets its rates
+        MeasurementSampler sampler = new MeasurementSampler(source, buffer);
+        sampler.setSubscriptions(new int[] {1, 2}, MeasurementSampler.DEFAULT_RATE_HZ);
+        SamplingGovernor governor = new SamplingGovernor(sampler);
+        governor.setListener(log);
+        listeners = new MeasurementSampler.Listener[] {journal, detector, summary, governor};
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+    }
+    
+    @Test
+    public void pollsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = threadBean();
+        assumeTrue(threads != null);
+        long threadId = Thread.currentThread().getId();
+        
+        // Lets the JIT compile the path and every lazily sized buffer reach its size
+        for (int i = 0; i < WARMUP_POLLS; i++) {
+            poll();
+        }
+        long eventsBefore = log.getEventCount();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_POLLS; i++) {
+            poll();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        long events = log.getEventCount() - eventsBefore;
+        
+        double perPoll = (double) (allocated - events * MAX_BYTES_PER_EVENT) / MEASURED_POLLS;
+        assertTrue(allocated + " bytes in " + MEASURED_POLLS + " polls with " + events + " events",
+                perPoll < MAX_BYTES_PER_POLL);
+    }
+    
+    private void poll() {
+        long commits = journal.getCommitCount();
+        int subscriptionId = 1 + (poll++ & 1);
+        timestamp += 500;
+        long from = buffer.getWriteSequence();
+        source.sample(subscriptionId, timestamp, buffer);
+        long to = buffer.getWriteSequence();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onSamplesAppended(buffer, subscriptionId, from, to);
+        }
+        if (poll % POLLS_PER_COMMIT == 0) {
+            awaitCommit(commits);
+        }
+    }
+    
+    /**
+     * Wait for a commit after the given count, without taking the journal's
+     * lock, which the committer needs to wake up
+     */
+    private void awaitCommit(long commits) {
+        long deadline = System.nanoTime() + COMMIT_TIMEOUT_NANOS;
+        while (journal.getCommitCount() == commits) {
+            assertTrue("Journal stopped committing", System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+    
+    /**
+     * The HotSpot bean with allocation counting switched on, or null on a JVM without it
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.mobilefieldtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Service loss on a single-SIM device: the sampler's polls find no cells at
+ * all during the outage, and the loss must still be raised while it lasts
+ */
+public class RadioEventDetectorTest {
+    
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long OUTAGE_START_MS = 10_000;
+    private static final long OUTAGE_END_MS = 30_000;
+    private static final long RUN_MS = 40_000;
+    
+    @Test
+    public void serviceLossIsRaisedDuringTheOutage() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        RadioSource source = new RadioSource() {
+            @Override
+            public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+                long t = timestampMillis - START_MILLIS;
+                if (t >= RUN_MS) {
+                    finished.countDown();
+                }
+                if (t >= OUTAGE_START_MS && t < OUTAGE_END_MS) {
+                    return 0;
+                }
+                buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_LTE, SampleRingBuffer.FLAG_SERVING,
+                        12345L, 101, 1300, 3, -95, -10, 12);
+                return 1;
+            }
+        };
+        
+        final List<RadioEvent> events = new ArrayList<>();
+        RadioEventDetector detector = new RadioEventDetector();
+        detector.addListener(new RadioEventDetector.Listener() {
+            @Override
+            public void onRadioEvent(RadioEvent event) {
+                synchronized (events) {
+                    events.add(event);
+                }
+            }
+        });
+        MeasurementSampler sampler = new MeasurementSampler(source, new SampleRingBuffer(1024), new VirtualClock());
+        sampler.addListener(detector);
+        sampler.setSubscriptions(new int[] {1}, 1);
+        sampler.start();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        sampler.stop();
+        
+        synchronized (events) {
+            assertEquals(events.toString(), 2, events.size());
+            RadioEvent lost = events.get(0);
+            assertEquals(RadioEvent.TYPE_SERVICE_LOST, lost.getType());
+            long lostAt = lost.getTimestamp() - START_MILLIS;
+            long expected = OUTAGE_START_MS - 1000 + RadioEventDetector.DEFAULT_SERVICE_LOSS_MS;
+            assertTrue("Lost at " + lostAt, lostAt >= expected && lostAt <= expected + 1000);
+            assertEquals(RadioEvent.TYPE_SERVICE_RESTORED, events.get(1).getType());
+            assertEquals(OUTAGE_END_MS, events.get(1).getTimestamp() - START_MILLIS);
+        }
+    }
+    
+    /**
+     * Time that passes only when the sampler parks, so a run takes no real time
+     */
+    private static final class VirtualClock implements MeasurementSampler.Clock {
+        private volatile long nanos;
+        
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+        
+        @Override
+        public long currentTimeMillis() {
+            return START_MILLIS + nanos / 1_000_000L;
+        }
+        
+        @Override
+        public void parkNanos(Object blocker, long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.mobilefieldtest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * SIM swaps during a session: the governor keeps the sampler polling
+ * exactly the active subscriptions
+ */
+public class SamplingGovernorTest {
+    
+    private static final double DEFAULT_RATE_HZ = SamplingGovernor.RATES_HZ[SamplingGovernor.DEFAULT_LEVEL];
+    
+    @Test
+    public void swappedSimIsSampledAndRemovedSimIsNot() {
+        // Not started; only the schedule is checked
+        MeasurementSampler sampler = new MeasurementSampler(new SyntheticRadioSource(0, 42L),
+                new SampleRingBuffer(1024));
+        SamplingGovernor governor = new SamplingGovernor(sampler);
+        
+        governor.onSimSnapshotChanged(snapshot(1, 2));
+        assertEquals(DEFAULT_RATE_HZ, sampler.getRate(1), 1e-9);
+        assertEquals(DEFAULT_RATE_HZ, sampler.getRate(2), 1e-9);
+        
+        // The second SIM is swapped for another one
+        governor.onSimSnapshotChanged(snapshot(1, 3));
+        assertEquals(DEFAULT_RATE_HZ, sampler.getRate(1), 1e-9);
+        assertEquals(0, sampler.getRate(2), 0);
+        assertEquals(DEFAULT_RATE_HZ, sampler.getRate(3), 1e-9);
+        assertEquals(DEFAULT_RATE_HZ, governor.getRate(3), 1e-9);
+        
+        // Both removed
+        governor.onSimSnapshotChanged(snapshot());
+        assertEquals(0, sampler.getRate(1), 0);
+        assertEquals(0, sampler.getRate(3), 0);
+    }
+    
+    private static SimSnapshot snapshot(int... subscriptionIds) {
+        int count = subscriptionIds.length;
+        int[] slots = new int[count];
+        int[] mccs = new int[count];
+        int[] mncs = new int[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = i;
+            mccs[i] = 470;
+            mncs[i] = i + 1;
+            names[i] = "Operator " + subscriptionIds[i];
+        }
+        return SimSnapshot.of(count > 0 ? SimSnapshot.SIM_STATE_READY : SimSnapshot.SIM_STATE_ABSENT, count > 0,
+                subscriptionIds, slots, mccs, mncs, names, 0);
+    }
+}
\ No newline at end of file
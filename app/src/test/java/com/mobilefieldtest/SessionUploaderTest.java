@@ -0,0 +1,236 @@
+package com.mobilefieldtest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resumed uploads: chunks fail part way through, the uploader is restarted
+ * and only the chunks the server never acknowledged are sent again
+ */
+public class SessionUploaderTest {
+    
+    private static final int CHUNK_SIZE = 1024;
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File sessionFile;
+    private String sessionId;
+    private IngestTransport ingest;
+    private SessionUploader uploader;
+    
+    @Before
+    public void setUp() throws IOException {
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setTestArea("Upload");
+        formData.setSelectedOperators(Arrays.asList("Robi", "Airtel"));
+        sessionId = formData.getSessionId(START_MILLIS);
+        
+        // Ten minutes of dual-SIM rows: a few dozen chunks
+        sessionFile = folder.newFile("session" + Constants.SESSION_FILE_EXTENSION);
+        SessionLogWriter writer = new SessionLogWriter(sessionFile, formData, START_MILLIS);
+        SyntheticRadioSource source = new SyntheticRadioSource(8, 42L);
+        SampleRingBuffer buffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+        for (long second = 0; second < 600; second++) {
+            long from = buffer.getWriteSequence();
+            source.sample(1, START_MILLIS + second * 1000, buffer);
+            source.sample(2, START_MILLIS + second * 1000, buffer);
+            writer.append(buffer, from, buffer.getWriteSequence());
+        }
+        writer.close();
+        ingest = new IngestTransport();
+    }
+    
+    @After
+    public void tearDown() {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+    }
+    
+    @Test
+    public void restartResendsOnlyUnacknowledgedChunks() throws Exception {
+        int chunkCount = (int) ((sessionFile.length() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        assertTrue("Session too small: " + chunkCount + " chunks", chunkCount >= 20);
+        
+        // After a third of the chunks every request gets a 503 and the app is killed
+        uploader = new SessionUploader(ingest, CHUNK_SIZE, 3);
+        ingest.failAfter(chunkCount / 3, uploader);
+        try {
+            uploader.upload(sessionFile);
+            fail("Upload should have failed");
+        } catch (IOException expected) {
+            // Interrupted mid-upload
+        }
+        Set<Integer> acknowledged = ingest.getStored();
+        assertEquals(chunkCount / 3, acknowledged.size());
+        assertFalse(ingest.isAssembled(sessionId));
+        
+        // A new uploader, as after a process restart, resumes from the saved state
+        ingest.recover();
+        uploader = new SessionUploader(ingest, CHUNK_SIZE, 3);
+        assertTrue(uploader.upload(sessionFile));
+        
+        List<Integer> resent = ingest.getAcceptedSinceRecovery();
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!acknowledged.contains(i)) {
+                expected.add(i);
+            }
+        }
+        assertEquals("A chunk was sent twice: " + resent, resent.size(), new HashSet<>(resent).size());
+        assertEquals(expected, new HashSet<>(resent));
+        assertArrayEquals(readFile(sessionFile), ingest.getSession(sessionId));
+        
+        // Finished; a further call sends nothing
+        assertFalse(uploader.upload(sessionFile));
+        assertEquals(resent.size(), ingest.getAcceptedSinceRecovery().size());
+    }
+    
+    @Test
+    public void droppedChunksAreRetried() throws Exception {
+        ingest.failEvery(5);
+        uploader = new SessionUploader(ingest, CHUNK_SIZE, 3);
+        assertTrue(uploader.upload(sessionFile));
+        assertArrayEquals(readFile(sessionFile), ingest.getSession(sessionId));
+    }
+    
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+    
+    /**
+     * In-memory ingest endpoint with the checks of the real one
+     * Verifies each chunk's checksum and raw length, and answers with what
+     * HttpUploadTransport reports for a 503 when told to fail.
+     */
+    private static final class IngestTransport implements UploadTransport {
+        private final Map<Integer, byte[]> chunks = new HashMap<>();
+        private final List<Integer> accepted = new ArrayList<>();
+        private final Map<String, byte[]> sessions = new HashMap<>();
+        private int requests;
+        private int failAfter = -1;
+        private int failEvery;
+        private SessionUploader killed;
+        
+        /**
+         * Accept this many chunks, then fail every request and shut the uploader down
+         */
+        synchronized void failAfter(int count, SessionUploader uploader) {
+            failAfter = count;
+            killed = uploader;
+        }
+        
+        synchronized void failEvery(int every) {
+            failEvery = every;
+        }
+        
+        /**
+         * Back up: accept every request and count accepted chunks from now on
+         */
+        synchronized void recover() {
+            failAfter = -1;
+            failEvery = 0;
+            accepted.clear();
+        }
+        
+        synchronized Set<Integer> getStored() {
+            return new HashSet<>(chunks.keySet());
+        }
+        
+        synchronized List<Integer> getAcceptedSinceRecovery() {
+            return new ArrayList<>(accepted);
+        }
+        
+        synchronized boolean isAssembled(String sessionId) {
+            return sessions.containsKey(sessionId);
+        }
+        
+        synchronized byte[] getSession(String sessionId) {
+            return sessions.get(sessionId);
+        }
+        
+        @Override
+        public synchronized boolean sendChunk(String sessionId, int index, int chunkCount, byte[] body, int length,
+                                              int rawLength, long crc32) throws IOException {
+            requests++;
+            if (failAfter >= 0 && chunks.size() >= failAfter) {
+                killed.shutdown();
+                throw new IOException("Unexpected ingest response: 503");
+            }
+            if (failEvery > 0 && requests % failEvery == 0) {
+                throw new IOException("Unexpected ingest response: 503");
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, length);
+            if (crc.getValue() != crc32) {
+                return false;
+            }
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(body, 0, length);
+                if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                    return false;
+                }
+            } catch (DataFormatException e) {
+                return false;
+            } finally {
+                inflater.end();
+            }
+            chunks.put(index, raw);
+            accepted.add(index);
+            return true;
+        }
+        
+        @Override
+        public synchronized boolean completeSession(String sessionId, int chunkCount, long fileLength) {
+            if (chunks.size() != chunkCount) {
+                return false;
+            }
+            ByteArrayOutputStream file = new ByteArrayOutputStream((int) fileLength);
+            for (int i = 0; i < chunkCount; i++) {
+                byte[] chunk = chunks.get(i);
+                file.write(chunk, 0, chunk.length);
+            }
+            if (file.size() != fileLength) {
+                return false;
+            }
+            sessions.put(sessionId, file.toByteArray());
+            return true;
+        }
+    }
+}
\ No newline at end of file
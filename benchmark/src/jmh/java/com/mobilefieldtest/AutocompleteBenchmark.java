@@ -0,0 +1,71 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Suggestion lookup per keystroke, as done by SuggestionAdapter's filter
+ * A synthetic roster of employee IDs, a few of them used in sessions, is
+ * written to a temp file and mapped. A one-character prefix matches every
+ * entry and so ranks the most matches; longer prefixes narrow the range the
+ * binary search lands in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AutocompleteBenchmark {
+    
+    @Param({"1000", "50000"})
+    public int entryCount;
+    
+    @Param({"1", "3", "6"})
+    public int prefixLength;
+    
+    private File file;
+    private PrefixIndex index;
+    private String[] prefixes;
+    private int next;
+    
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        PrefixIndex.Builder builder = new PrefixIndex.Builder();
+        String[] ids = new String[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            ids[i] = "E" + (1_000_000 + random.nextInt(9_000_000));
+            builder.add(ids[i], random.nextInt(20) == 0 ? 1 + random.nextInt(50) : 0);
+        }
+        file = File.createTempFile("autocomplete", ".idx");
+        builder.writeTo(file, 0, 0);
+        index = PrefixIndex.open(file);
+        
+        // Prefixes of existing entries, so each lookup has matches
+        prefixes = new String[256];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = ids[random.nextInt(entryCount)].substring(0, prefixLength);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+    
+    @Benchmark
+    public List<String> lookup() {
+        String prefix = prefixes[next++ & (prefixes.length - 1)];
+        return index.lookup(prefix, PrefixIndex.DEFAULT_LIMIT);
+    }
+}
\ No newline at end of file
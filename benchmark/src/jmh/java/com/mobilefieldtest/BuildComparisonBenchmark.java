@@ -0,0 +1,107 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Build comparison over stored sessions, by fork/join pool size
+ * Sessions of two builds are written to a temp directory with ten minutes
+ * of serving and neighbour cells on two subscriptions and a latency report
+ * each, then compared per operator and area.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildComparisonBenchmark {
+    
+    private static final String[] AREAS = {"North", "South", "East", "West"};
+    
+    @Param({"200"})
+    public int sessionCount;
+    
+    @Param({"1", "2", "4"})
+    public int parallelism;
+    
+    private File sessionDir;
+    private List<File> sessionFiles;
+    private ForkJoinPool pool;
+    private BuildComparison comparison;
+    
+    @Setup
+    public void setUp() throws IOException {
+        sessionDir = File.createTempFile("compare", "");
+        sessionDir.delete();
+        sessionDir.mkdirs();
+        sessionFiles = new ArrayList<>();
+        Random random = new Random(42);
+        long start = 1_700_000_000_000L;
+        for (int s = 0; s < sessionCount; s++) {
+            FormData formData = new FormData();
+            formData.setEmployeeId("EMP001");
+            formData.setBuildVersion(s % 2 == 0 ? "1.0" : "1.1");
+            formData.setTestArea(AREAS[s % AREAS.length]);
+            File file = new File(sessionDir, start + Constants.SESSION_FILE_EXTENSION);
+            SessionLogWriter writer = new SessionLogWriter(file, formData, start);
+            writer.appendSubscriptions(new int[] {1, 2}, new int[] {470002, 470007});
+            SyntheticRadioSource source = new SyntheticRadioSource(4, s);
+            SampleRingBuffer buffer = new SampleRingBuffer(SampleBlock.DEFAULT_CAPACITY * 4);
+            long written = 0;
+            for (int second = 0; second < 600; second++) {
+                source.sample(1, start + second * 1000L, buffer);
+                source.sample(2, start + second * 1000L, buffer);
+                if (buffer.getWriteSequence() - written >= SampleBlock.DEFAULT_CAPACITY) {
+                    writer.append(buffer, written, buffer.getWriteSequence());
+                    written = buffer.getWriteSequence();
+                }
+            }
+            writer.append(buffer, written, buffer.getWriteSequence());
+            writer.close();
+            
+            LatencyStats stats = new LatencyStats();
+            for (int i = 0; i < 200; i++) {
+                stats.recordRtt(20_000 + random.nextInt(20_000));
+            }
+            LatencyReport report = new LatencyReport();
+            report.add(LatencyProbe.MODE_UDP_ECHO, "Robi", formData.getTestArea(), stats);
+            report.save(new File(sessionDir, start + Constants.LATENCY_REPORT_EXTENSION));
+            sessionFiles.add(file);
+            start += 3_600_000;
+        }
+        
+        OperatorRegistry registry = new OperatorRegistry(new String[] {"Robi", "Airtel"},
+                new int[][] {{470002}, {470007}});
+        pool = new ForkJoinPool(parallelism);
+        comparison = new BuildComparison(pool, registry);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        File[] files = sessionDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        sessionDir.delete();
+    }
+    
+    @Benchmark
+    public List<BuildComparison.Delta> compare() {
+        return comparison.compare(sessionFiles, "1.0", "1.1", BuildComparison.DEFAULT_FALSE_DISCOVERY_RATE);
+    }
+}
\ No newline at end of file
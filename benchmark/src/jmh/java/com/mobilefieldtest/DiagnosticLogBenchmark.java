@@ -0,0 +1,63 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Caller-side cost of a diagnostic log statement
+ * An enabled record is encoded and queued; the writer thread drains the
+ * queue into rotating files in a temp directory. Records the writer cannot
+ * keep up with are dropped, which is part of what is measured. Run with
+ * -prof gc to confirm neither case allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiagnosticLogBenchmark {
+    
+    private File dir;
+    private DiagnosticLog log;
+    private long value;
+    
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("diagnostic").toFile();
+        log = new DiagnosticLog();
+        log.start(dir);
+    }
+    
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        log.stop();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+    
+    @Benchmark
+    public void disabledRecord() {
+        log.begin(DiagnosticLog.LEVEL_DEBUG, "Benchmark", "Sample").put("value", value++).commit();
+    }
+    
+    @Benchmark
+    public void enabledRecord() {
+        log.begin(DiagnosticLog.LEVEL_INFO, "Benchmark", "Sample")
+                .put("value", value++)
+                .put("operator", "GrameenPhone")
+                .commit();
+    }
+}
\ No newline at end of file
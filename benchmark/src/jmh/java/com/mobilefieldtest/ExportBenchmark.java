@@ -0,0 +1,103 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Export of one recorded session to each format
+ * The session is an hour of synthetic samples, one per second for the
+ * serving cell and its neighbours, with a location fix every two seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+    
+    @Param({"1", "2", "4"})
+    public int format;
+    
+    private File sessionFile;
+    private File outputDir;
+    private SessionExporter exporter;
+    
+    @Setup
+    public void setUp() throws IOException {
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setModel("Pixel 7");
+        formData.setTestArea("Dhaka");
+        long timestamp = 1_700_000_000_000L;
+        sessionFile = File.createTempFile("export", Constants.SESSION_FILE_EXTENSION);
+        SessionLogWriter writer = new SessionLogWriter(sessionFile, formData, timestamp);
+        writer.appendSubscriptions(new int[] {1}, new int[] {470002});
+        SyntheticRadioSource source = new SyntheticRadioSource(6, 42L);
+        SampleRingBuffer buffer = new SampleRingBuffer(SampleBlock.DEFAULT_CAPACITY * 2);
+        long written = 0;
+        for (int second = 0; second < 3600; second++) {
+            source.sample(1, timestamp, buffer);
+            if (second % 2 == 0) {
+                writer.appendLocation(timestamp, 237_000_000 + second * 20, 903_000_000 + second * 15, 5);
+            }
+            if (buffer.getWriteSequence() - written >= SampleBlock.DEFAULT_CAPACITY) {
+                writer.append(buffer, written, buffer.getWriteSequence());
+                written = buffer.getWriteSequence();
+            }
+            timestamp += 1000;
+        }
+        writer.append(buffer, written, buffer.getWriteSequence());
+        writer.close();
+        
+        outputDir = new File(sessionFile.getPath() + ".out");
+        outputDir.mkdirs();
+        exporter = new SessionExporter(1);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        exporter.shutdown();
+        File[] outputs = outputDir.listFiles();
+        if (outputs != null) {
+            for (File output : outputs) {
+                output.delete();
+            }
+        }
+        outputDir.delete();
+        sessionFile.delete();
+    }
+    
+    @Benchmark
+    public int exportSession() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] exported = new int[1];
+        exporter.export(Collections.singletonList(sessionFile), outputDir, format, new SessionExporter.Listener() {
+            @Override
+            public void onProgress(int percent) {
+            }
+            
+            @Override
+            public void onSessionFailed(File sessionFile, Exception error) {
+                throw new IllegalStateException(error);
+            }
+            
+            @Override
+            public void onFinished(int count, boolean cancelled) {
+                exported[0] = count;
+                done.countDown();
+            }
+        });
+        done.await();
+        return exported[0];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.mobilefieldtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * FormData binary serialization round trip
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormDataBenchmark {
+    
+    private FormData formData;
+    private byte[] encoded;
+    private ByteArrayOutputStream buffer;
+    private DataOutputStream out;
+    
+    @Setup
+    public void setUp() throws IOException {
+        formData = new FormData();
+        formData.setEmployeeId("EMP12345");
+        formData.setModel("Pixel 8 Pro");
+        formData.setBuildVersion("14.0.2");
+        formData.setBuildType(Constants.BUILD_TYPE_DEBUG);
+        formData.setTestArea("Dhaka Gulshan Circle 1");
+        formData.setSelectedOperators(Arrays.asList("Robi", "GrameenPhone"));
+        
+        buffer = new ByteArrayOutputStream(256);
+        out = new DataOutputStream(buffer);
+        formData.writeTo(out);
+        encoded = buffer.toByteArray();
+    }
+    
+    @Benchmark
+    public int write() throws IOException {
+        buffer.reset();
+        formData.writeTo(out);
+        return buffer.size();
+    }
+    
+    @Benchmark
+    public FormData read() throws IOException {
+        return FormData.readFrom(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+}
\ No newline at end of file
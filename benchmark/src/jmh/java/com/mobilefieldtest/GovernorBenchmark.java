@@ -0,0 +1,205 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Fixed against governed sampling over a replayed dual-SIM drive
+ * Half an hour of trace: parked, walking, town, motorway, parked again.
+ * Signal depends on the distance driven, with a cell edge on the motorway.
+ * The counters are the result: polls per phase and the modem charge they
+ * cost at POLL_CHARGE_MAH each, an estimate for a cell info request
+ * (about 50 mA for 100 ms). Timing is not the point; the trace is played
+ * at 1000x.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GovernorBenchmark {
+    
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final double POLL_CHARGE_MAH = 50.0 * 0.1 / 3600;
+    
+    // Drive phases: duration in seconds and speed in m/s
+    private static final int[] PHASE_SECONDS = {300, 300, 600, 300, 300};
+    private static final double[] PHASE_SPEEDS = {0, 1.3, 10, 30, 0};
+    private static final int MOTORWAY_PHASE = 3;
+    
+    @Param({"false", "true"})
+    public boolean governed;
+    
+    @Param({"100", "25"})
+    public int batteryPercent;
+    
+    private FormData formData;
+    private LocationTrack locations;
+    private OperatorRegistry operators;
+    private long traceMillis;
+    
+    /**
+     * Counters of the last replay
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public double polls;
+        public double parkedPolls;
+        public double motorwayPolls;
+        public double rateChanges;
+        public double chargeMah;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            polls = 0;
+            parkedPolls = 0;
+            motorwayPolls = 0;
+            rateChanges = 0;
+            chargeMah = 0;
+        }
+    }
+    
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = GovernorBenchmark.class.getResourceAsStream("/" + Constants.OPERATOR_REGISTRY_ASSET);
+        try {
+            operators = OperatorRegistry.load(in);
+        } finally {
+            in.close();
+        }
+        formData = new FormData();
+        formData.setTestArea("Governor");
+        formData.setSelectedOperators(Arrays.asList(operators.getName(0), operators.getName(1)));
+        
+        // One fix per second eastward; parked fixes jitter within their accuracy
+        traceMillis = 0;
+        for (int seconds : PHASE_SECONDS) {
+            traceMillis += seconds * 1000L;
+        }
+        locations = new LocationTrack(2048);
+        long seed = 7;
+        for (long t = 0; t < traceMillis; t += 1000) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int jitter = (int) ((seed >>> 33) % 50) - 25;
+            // 1e-7 degrees of longitude are about 1 cm at this latitude
+            int east = (int) (distanceAt(t) * 100);
+            locations.add(START_MILLIS + t, 480_000_000 + jitter, 116_000_000 + east + jitter, 8);
+        }
+    }
+    
+    @Benchmark
+    public TraceReplay.Result replay(Counters counters) throws IOException {
+        File sessionDir = Files.createTempDirectory("governor").toFile();
+        ReplayClock clock = new ReplayClock(START_MILLIS, 1000);
+        DriveRadioSource source = new DriveRadioSource();
+        TraceTelephonyProvider provider = new TraceTelephonyProvider(clock, source);
+        provider.addSnapshot(START_MILLIS, snapshot());
+        
+        TraceReplay replay = new TraceReplay(provider, clock, sessionDir);
+        replay.setRateHz(MeasurementSampler.DEFAULT_RATE_HZ);
+        replay.setLocations(locations);
+        replay.setGoverned(governed, batteryPercent);
+        TraceReplay.Result result = replay.run(formData, START_MILLIS + traceMillis);
+        counters.polls = result.getPollCount();
+        counters.parkedPolls = source.parkedPolls;
+        counters.motorwayPolls = source.motorwayPolls;
+        counters.rateChanges = result.getRateChangeCount();
+        counters.chargeMah = result.getPollCount() * POLL_CHARGE_MAH;
+        deleteRecursively(sessionDir);
+        return result;
+    }
+    
+    /**
+     * @return Metres driven after the given trace time
+     */
+    private static double distanceAt(long traceMillis) {
+        double distance = 0;
+        long remaining = traceMillis;
+        for (int i = 0; i < PHASE_SECONDS.length && remaining > 0; i++) {
+            long phase = Math.min(remaining, PHASE_SECONDS[i] * 1000L);
+            distance += PHASE_SPEEDS[i] * phase / 1000.0;
+            remaining -= phase;
+        }
+        return distance;
+    }
+    
+    private static int phaseAt(long traceMillis) {
+        long end = 0;
+        for (int i = 0; i < PHASE_SECONDS.length; i++) {
+            end += PHASE_SECONDS[i] * 1000L;
+            if (traceMillis < end) {
+                return i;
+            }
+        }
+        return PHASE_SECONDS.length - 1;
+    }
+    
+    private SimSnapshot snapshot() {
+        int[] ids = {1, 2};
+        int[] slots = {0, 1};
+        int[] mccs = new int[2];
+        int[] mncs = new int[2];
+        String[] names = new String[2];
+        for (int i = 0; i < 2; i++) {
+            mccs[i] = operators.getHomePlmn(i) / 1000;
+            mncs[i] = operators.getHomePlmn(i) % 1000;
+            names[i] = operators.getName(i);
+        }
+        return SimSnapshot.of(SimSnapshot.SIM_STATE_READY, true, ids, slots, mccs, mncs, names, START_MILLIS);
+    }
+    
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+    
+    /**
+     * Serving cell whose RSRP follows the position on the route, with 1 dB of
+     * noise per sample; 3 km into the motorway the signal sinks to the cell edge
+     */
+    private static final class DriveRadioSource implements RadioSource {
+        long parkedPolls;
+        long motorwayPolls;
+        private long seed = 42;
+        
+        @Override
+        public int sample(int subscriptionId, long timestampMillis, SampleRingBuffer buffer) {
+            long t = timestampMillis - START_MILLIS;
+            int phase = phaseAt(t);
+            if (PHASE_SPEEDS[phase] == 0) {
+                parkedPolls++;
+            } else if (phase == MOTORWAY_PHASE) {
+                motorwayPolls++;
+            }
+            double distance = distanceAt(t);
+            double rsrp = -90 + 10 * Math.sin(distance / (400.0 * subscriptionId));
+            if (distance > 9_000 && distance < 14_000) {
+                rsrp -= 20 * Math.sin(Math.PI * (distance - 9_000) / 5_000);
+            }
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int serving = (int) Math.round(rsrp) + (int) ((seed >>> 33) % 3) - 1;
+            buffer.append(timestampMillis, subscriptionId, SampleRingBuffer.RAT_LTE, SampleRingBuffer.FLAG_SERVING,
+                    0x10000L * subscriptionId + (long) (distance / 1500), 7, 1300, 3, serving,
+                    -10, 10);
+            return 1;
+        }
+    }
+}
\ No newline at end of file
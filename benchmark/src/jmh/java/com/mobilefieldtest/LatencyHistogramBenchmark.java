@@ -0,0 +1,64 @@
+package com.mobilefieldtest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency histogram costs: recording a sample, reading the report
+ * percentiles and merging one session's histogram into an aggregate
+ * Run with -prof gc to confirm recording does not allocate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    
+    private static final int VALUE_COUNT = 4096;
+    
+    private final long[] values = new long[VALUE_COUNT];
+    private LatencyHistogram histogram;
+    private LatencyHistogram session;
+    private LatencyHistogram aggregate;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        // Log-normal RTTs around 35 ms
+        Random random = new Random(42L);
+        histogram = new LatencyHistogram();
+        session = new LatencyHistogram();
+        aggregate = new LatencyHistogram();
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i] = (long) Math.exp(random.nextGaussian() * 0.8 + 10.5);
+            session.record(values[i]);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(values[i % VALUE_COUNT]);
+        }
+    }
+    
+    @Benchmark
+    public long record() {
+        histogram.record(values[next++ & (VALUE_COUNT - 1)]);
+        return histogram.getTotalCount();
+    }
+    
+    @Benchmark
+    public long reportPercentiles() {
+        return histogram.getValueAtPercentile(50) + histogram.getValueAtPercentile(90)
+                + histogram.getValueAtPercentile(99) + histogram.getValueAtPercentile(99.9);
+    }
+    
+    @Benchmark
+    public long mergeSession() {
+        aggregate.merge(session);
+        return aggregate.getTotalCount();
+    }
+}
\ No newline at end of file
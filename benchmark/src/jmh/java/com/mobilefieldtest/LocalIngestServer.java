@@ -0,0 +1,170 @@
+package com.mobilefieldtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Stand-in for the ingest endpoint, speaking the HttpUploadTransport protocol
+ * Verifies each chunk's checksum and raw length, keeps chunks in memory and
+ * assembles sessions on completion. Can add a fixed delay per request to
+ * mimic a slow uplink and fail every Nth chunk request to exercise retries.
+ */
+final class LocalIngestServer {
+    
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Map<Integer, byte[]>> chunks = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger chunkRequests = new AtomicInteger();
+    private final long delayMillis;
+    private final int failEvery;
+    
+    /**
+     * @param delayMillis Delay added to every request
+     * @param failEvery Answer every Nth chunk request with 503; 0 never fails
+     */
+    LocalIngestServer(long delayMillis, int failEvery) throws IOException {
+        this.delayMillis = delayMillis;
+        this.failEvery = failEvery;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.createContext("/sessions/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+    
+    byte[] getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+    
+    int getChunkRequests() {
+        return chunkRequests.get();
+    }
+    
+    void reset() {
+        chunks.clear();
+        sessions.clear();
+        chunkRequests.set(0);
+    }
+    
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        // /sessions/{id}/chunks/{index} or /sessions/{id}/complete
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        String sessionId = parts[2];
+        if (parts.length == 5 && "chunks".equals(parts[3]) && "PUT".equals(exchange.getRequestMethod())) {
+            int request = chunkRequests.incrementAndGet();
+            if (failEvery > 0 && request % failEvery == 0) {
+                respond(exchange, 503);
+                return;
+            }
+            respond(exchange, storeChunk(exchange, sessionId, Integer.parseInt(parts[4]), body));
+        } else if (parts.length == 4 && "complete".equals(parts[3])) {
+            respond(exchange, assemble(sessionId,
+                    Integer.parseInt(exchange.getRequestHeaders().getFirst("X-Chunk-Count")),
+                    Long.parseLong(exchange.getRequestHeaders().getFirst("X-File-Length"))));
+        } else {
+            respond(exchange, 404);
+        }
+    }
+    
+    private int storeChunk(HttpExchange exchange, String sessionId, int index, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        long expectedCrc = Long.parseLong(exchange.getRequestHeaders().getFirst("X-Chunk-Crc32"), 16);
+        int rawLength = Integer.parseInt(exchange.getRequestHeaders().getFirst("X-Raw-Length"));
+        if (crc.getValue() != expectedCrc) {
+            return 422;
+        }
+        
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                return 422;
+            }
+        } catch (DataFormatException e) {
+            return 422;
+        } finally {
+            inflater.end();
+        }
+        
+        Map<Integer, byte[]> sessionChunks = chunks.get(sessionId);
+        if (sessionChunks == null) {
+            chunks.putIfAbsent(sessionId, new ConcurrentHashMap<Integer, byte[]>());
+            sessionChunks = chunks.get(sessionId);
+        }
+        sessionChunks.put(index, raw);
+        return 201;
+    }
+    
+    private int assemble(String sessionId, int chunkCount, long fileLength) {
+        Map<Integer, byte[]> sessionChunks = chunks.get(sessionId);
+        if (sessionChunks == null || sessionChunks.size() != chunkCount) {
+            return 409;
+        }
+        ByteArrayOutputStream file = new ByteArrayOutputStream((int) fileLength);
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] chunk = sessionChunks.get(i);
+            file.write(chunk, 0, chunk.length);
+        }
+        if (file.size() != fileLength) {
+            return 409;
+        }
+        sessions.put(sessionId, file.toByteArray());
+        return 200;
+    }
+    
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
\ No newline at end of file
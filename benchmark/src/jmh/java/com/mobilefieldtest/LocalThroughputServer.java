@@ -0,0 +1,90 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Loopback stand-in for a throughput test server, speaking the ThroughputTest protocol
+ * One thread per connection: sends data endlessly for a download command and
+ * discards everything for an upload command, until the client disconnects.
+ */
+final class LocalThroughputServer {
+    
+    private static final int BUFFER_SIZE = 256 * 1024;
+    
+    private final ServerSocketChannel serverChannel;
+    private final Thread acceptThread;
+    
+    LocalThroughputServer() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "LocalThroughputServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+    
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress("127.0.0.1", serverChannel.socket().getLocalPort());
+    }
+    
+    void stop() throws IOException {
+        serverChannel.close();
+    }
+    
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(channel);
+                }
+            }, "LocalThroughputConnection");
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+    
+    private static void serve(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            buffer.limit(1);
+            if (channel.read(buffer) != 1) {
+                return;
+            }
+            byte command = buffer.get(0);
+            buffer.clear();
+            if (command == ThroughputTest.COMMAND_DOWNLOAD) {
+                while (true) {
+                    channel.write(buffer);
+                    buffer.clear();
+                }
+            } else if (command == ThroughputTest.COMMAND_UPLOAD) {
+                while (channel.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            // Client closed the connection
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
\ No newline at end of file
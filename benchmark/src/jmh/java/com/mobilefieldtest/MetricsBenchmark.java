@@ -0,0 +1,61 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-event cost of the metrics instrumentation; the budget is 1 us
+ * The contended groups update one counter and one timer from four threads,
+ * as the sampler, journal, upload and UI threads do. Run with -prof gc to
+ * confirm updates do not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    
+    private final Metrics.Counter counter = Metrics.getInstance().counter("benchmark.counter");
+    private final Metrics.Timer timer = Metrics.getInstance().timer("benchmark.timer");
+    private long duration;
+    
+    @Benchmark
+    public void counterIncrement() {
+        counter.increment();
+    }
+    
+    @Benchmark
+    public void timerRecord() {
+        timer.record(duration++ & 0xFFFFF);
+    }
+    
+    @Benchmark
+    public void timerSection() {
+        timer.stop(timer.start());
+    }
+    
+    @Benchmark
+    @Group("contendedCounter")
+    @GroupThreads(4)
+    public void contendedCounterIncrement() {
+        counter.increment();
+    }
+    
+    @Benchmark
+    @Group("contendedTimer")
+    @GroupThreads(4)
+    public void contendedTimerSection() {
+        timer.stop(timer.start());
+    }
+    
+    @Benchmark
+    public String snapshotJson() {
+        return Metrics.getInstance().toJson();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.mobilefieldtest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Operator selection and collection, as done by ValidationUtil.getSelectedOperators,
+ * and resolving detected SIMs to operators for pre-selection
+ * A synthetic registry stands in for markets with more operators than the current one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OperatorSelectionBenchmark {
+    
+    @Param({"1", "3", "5"})
+    public int selectedCount;
+    
+    @Param({"5", "48"})
+    public int operatorCount;
+    
+    private OperatorRegistry registry;
+    
+    // Checkbox states in registry order
+    private boolean[] checked;
+    
+    // Dual SIM on the last two operators, the worst case for a linear scan
+    private SimSnapshot snapshot;
+    
+    @Setup
+    public void setUp() {
+        String[] names = new String[operatorCount];
+        int[][] plmns = new int[operatorCount][];
+        for (int i = 0; i < operatorCount; i++) {
+            names[i] = "Operator " + i;
+            // Home network plus a second brand
+            plmns[i] = new int[] {470_000 + i, 471_000 + i};
+        }
+        registry = new OperatorRegistry(names, plmns);
+        checked = new boolean[operatorCount];
+        for (int i = 0; i < selectedCount; i++) {
+            checked[i] = true;
+        }
+        int last = operatorCount - 1;
+        snapshot = SimSnapshot.of(SimSnapshot.SIM_STATE_READY, true, new int[] {1, 2}, new int[] {0, 1},
+                new int[] {471, 470}, new int[] {last, last - 1}, new String[] {"", ""}, 0L);
+    }
+    
+    @Benchmark
+    public List<String> collectSelected() {
+        OperatorSelection selection = registry.newSelection();
+        for (int i = 0; i < checked.length; i++) {
+            selection.setSelected(i, checked[i]);
+        }
+        return selection.toList();
+    }
+    
+    @Benchmark
+    public boolean anySelected() {
+        OperatorSelection selection = registry.newSelection();
+        for (int i = 0; i < checked.length; i++) {
+            selection.setSelected(i, checked[i]);
+        }
+        return !selection.isEmpty();
+    }
+    
+    @Benchmark
+    public long detectOperators() {
+        return registry.getDetectedMask(snapshot);
+    }
+}
\ No newline at end of file
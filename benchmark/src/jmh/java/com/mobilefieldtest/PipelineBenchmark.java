@@ -0,0 +1,96 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One dual-SIM poll through everything a recorded session runs per poll
+ * The synthetic source fills the ring buffer and the rows go to the same
+ * listeners as in MainActivity: event detector, journal and session log,
+ * session summary and sampling governor, the way MeasurementSampler
+ * dispatches them. Run with -prof gc: gc.alloc.rate.norm should stay near
+ * zero, as block writes and journal commits reuse their buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PipelineBenchmark {
+    
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    
+    @Param({"0", "8"})
+    public int neighbourCount;
+    
+    private File sessionDir;
+    private SyntheticRadioSource source;
+    private SampleRingBuffer buffer;
+    private SessionJournal journal;
+    private MeasurementSampler.Listener[] listeners;
+    private long timestamp;
+    private int poll;
+    
+    @Setup
+    public void setUp() throws IOException {
+        sessionDir = Files.createTempDirectory("pipeline").toFile();
+        source = new SyntheticRadioSource(neighbourCount, 42L);
+        buffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+        timestamp = START_MILLIS;
+        
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setSelectedOperators(Arrays.asList("Robi", "Airtel"));
+        SessionLogWriter log = new SessionLogWriter(new File(sessionDir, "session" + Constants.SESSION_FILE_EXTENSION),
+                formData, START_MILLIS);
+        journal = new SessionJournal(new File(sessionDir, Constants.SESSION_JOURNAL_FILE), log, formData, START_MILLIS,
+                Constants.JOURNAL_COMMIT_INTERVAL_MS);
+        
+        RadioEventDetector detector = new RadioEventDetector();
+        detector.addListener(log);
+        SessionSummary summary = new SessionSummary();
+        summary.setOperator(1, "Robi");
+        summary.setOperator(2, "Airtel");
+        // Not started; the governor only sets its rates
+        MeasurementSampler sampler = new MeasurementSampler(source, buffer);
+        sampler.setSubscriptions(new int[] {1, 2}, MeasurementSampler.DEFAULT_RATE_HZ);
+        SamplingGovernor governor = new SamplingGovernor(sampler);
+        governor.setListener(log);
+        listeners = new MeasurementSampler.Listener[] {journal, detector, summary, governor};
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        File[] files = sessionDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        sessionDir.delete();
+    }
+    
+    @Benchmark
+    public long poll() {
+        int subscriptionId = 1 + (poll++ & 1);
+        timestamp += 500;
+        long from = buffer.getWriteSequence();
+        source.sample(subscriptionId, timestamp, buffer);
+        long to = buffer.getWriteSequence();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onSamplesAppended(buffer, subscriptionId, from, to);
+        }
+        return to;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.mobilefieldtest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Updating, merging and querying the quantile sketches of a session summary
+ * Values are RSRP-like (normal around -95 dBm); the merge case combines the
+ * summaries of a day of one-hour sessions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuantileSketchBenchmark {
+    
+    private static final int VALUE_COUNT = 1 << 16;
+    private static final double[] QUANTILES = {0.1, 0.5, 0.9};
+    
+    @Param({"200"})
+    public int k;
+    
+    private float[] values;
+    private int next;
+    private QuantileSketch sketch;
+    private QuantileSketch[] sessions;
+    
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        values = new float[VALUE_COUNT];
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[i] = (float) (random.nextGaussian() * 10 - 95);
+        }
+        sketch = new QuantileSketch(k);
+        // One hour at 10 Hz per session
+        sessions = new QuantileSketch[24];
+        for (int s = 0; s < sessions.length; s++) {
+            sessions[s] = new QuantileSketch(k);
+            for (int i = 0; i < 36_000; i++) {
+                sessions[s].update(values[random.nextInt(VALUE_COUNT)]);
+            }
+        }
+    }
+    
+    @Benchmark
+    public long update() {
+        sketch.update(values[next++ & (VALUE_COUNT - 1)]);
+        return sketch.getCount();
+    }
+    
+    @Benchmark
+    public float[] mergeDay() {
+        QuantileSketch day = new QuantileSketch(k);
+        for (QuantileSketch session : sessions) {
+            day.merge(session);
+        }
+        return day.getQuantiles(QUANTILES);
+    }
+    
+    @Benchmark
+    public float[] quantiles() {
+        return sessions[0].getQuantiles(QUANTILES);
+    }
+}
\ No newline at end of file
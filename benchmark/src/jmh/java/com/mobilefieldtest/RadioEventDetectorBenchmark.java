@@ -0,0 +1,48 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of running one poll (serving cell plus six neighbours) through the
+ * event detector, with the synthetic source's periodic handovers
+ * Run with -prof gc to confirm polls without events do not allocate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RadioEventDetectorBenchmark {
+    
+    private static final int POLLS = 4096;
+    
+    private SampleRingBuffer buffer;
+    private RadioEventDetector detector;
+    private int poll;
+    private long timestamp;
+    
+    @Setup
+    public void setUp() {
+        // Fill the buffer once; polls are then replayed from it in a loop
+        SyntheticRadioSource source = new SyntheticRadioSource(6, 42L);
+        buffer = new SampleRingBuffer(POLLS * 7);
+        for (int i = 0; i < POLLS; i++) {
+            source.sample(1, i * 1000L, buffer);
+        }
+        detector = new RadioEventDetector();
+        detector.addListener(event -> timestamp++);
+    }
+    
+    @Benchmark
+    public long processPoll() {
+        long from = (long) poll * 7;
+        detector.onSamplesAppended(buffer, 1, from, from + 7);
+        poll = (poll + 1) & (POLLS - 1);
+        return timestamp;
+    }
+}
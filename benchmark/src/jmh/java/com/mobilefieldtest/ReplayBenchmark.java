@@ -0,0 +1,122 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Full pipeline replay of a synthetic dual-SIM drive on a plain JVM
+ * Ten minutes of trace at 10 Hz per subscription; the second SIM appears
+ * after two minutes. Each invocation plays the whole trace through SIM
+ * detection, sampling, session log, event detection and coverage
+ * aggregation. Overruns at a given speed mean the pipeline could not keep up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+    
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final long TRACE_MILLIS = 10 * 60 * 1000L;
+    
+    @Param({"100", "1000"})
+    public double speed;
+    
+    private FormData formData;
+    private LocationTrack locations;
+    private OperatorRegistry operators;
+    
+    /**
+     * Counters of the last replay
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public double rowsPerSecond;
+        public double p99LatencyMicros;
+        public double overruns;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            rowsPerSecond = 0;
+            p99LatencyMicros = 0;
+            overruns = 0;
+        }
+    }
+    
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = ReplayBenchmark.class.getResourceAsStream("/" + Constants.OPERATOR_REGISTRY_ASSET);
+        try {
+            operators = OperatorRegistry.load(in);
+        } finally {
+            in.close();
+        }
+        formData = new FormData();
+        formData.setTestArea("Replay");
+        formData.setSelectedOperators(Arrays.asList(operators.getName(0), operators.getName(1)));
+        locations = new LocationTrack(1024);
+        for (long t = 0; t < TRACE_MILLIS; t += 1000) {
+            // Eastward at about 10 m/s
+            locations.add(START_MILLIS + t, 237_800_000, 904_000_000 + (int) (t / 10), 5);
+        }
+    }
+    
+    @Benchmark
+    public TraceReplay.Result replay(Counters counters) throws IOException {
+        File sessionDir = Files.createTempDirectory("replay").toFile();
+        ReplayClock clock = new ReplayClock(START_MILLIS, speed);
+        TraceTelephonyProvider provider = new TraceTelephonyProvider(clock, new SyntheticRadioSource(6, 42));
+        provider.addSnapshot(START_MILLIS, snapshot(1));
+        provider.addSnapshot(START_MILLIS + 2 * 60 * 1000L, snapshot(2));
+        
+        TraceReplay replay = new TraceReplay(provider, clock, sessionDir);
+        replay.setRateHz(MeasurementSampler.MAX_RATE_HZ);
+        replay.setLocations(locations);
+        TraceReplay.Result result = replay.run(formData, START_MILLIS + TRACE_MILLIS);
+        counters.rowsPerSecond = result.getRowsPerSecond();
+        counters.p99LatencyMicros = result.getPollLatency().getValueAtPercentile(99);
+        counters.overruns = result.getOverrunCount();
+        deleteRecursively(sessionDir);
+        return result;
+    }
+    
+    private SimSnapshot snapshot(int subscriptions) {
+        int[] ids = new int[subscriptions];
+        int[] slots = new int[subscriptions];
+        int[] mccs = new int[subscriptions];
+        int[] mncs = new int[subscriptions];
+        String[] names = new String[subscriptions];
+        for (int i = 0; i < subscriptions; i++) {
+            ids[i] = i + 1;
+            slots[i] = i;
+            mccs[i] = operators.getHomePlmn(i) / 1000;
+            mncs[i] = operators.getHomePlmn(i) % 1000;
+            names[i] = operators.getName(i);
+        }
+        return SimSnapshot.of(SimSnapshot.SIM_STATE_READY, true, ids, slots, mccs, mncs, names, START_MILLIS);
+    }
+    
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one sampler poll: synthetic radio source into the ring buffer
+ * Run with -prof gc to confirm the path does not allocate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SamplerBenchmark {
+
+    @Param({"0", "8"})
+    public int neighbourCount;
+
+    private SyntheticRadioSource source;
+    private SampleRingBuffer buffer;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        source = new SyntheticRadioSource(neighbourCount, 42L);
+        buffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+    }
+
+    @Benchmark
+    public int poll() {
+        return source.sample(1, timestamp++, buffer);
+    }
+
+    @Benchmark
+    public long appendRow() {
+        buffer.append(timestamp++, 1, SampleRingBuffer.RAT_LTE, SampleRingBuffer.FLAG_SERVING,
+                12345L, 101, 1300, 3, -95, -10, 12);
+        return buffer.getWriteSequence();
+    }
+}
@@ -0,0 +1,75 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Session log block encoding and decoding on a full block of synthetic rows
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionLogBenchmark {
+    
+    @Param({"0", "8"})
+    public int neighbourCount;
+    
+    private SampleBlock block;
+    private byte[] encoded;
+    private File file;
+    private SessionLogReader reader;
+    private SampleBlock decoded;
+    
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticRadioSource source = new SyntheticRadioSource(neighbourCount, 42L);
+        SampleRingBuffer buffer = new SampleRingBuffer(SampleBlock.DEFAULT_CAPACITY);
+        long timestamp = 1_700_000_000_000L;
+        while (buffer.getWriteSequence() + neighbourCount + 1 <= SampleBlock.DEFAULT_CAPACITY) {
+            source.sample(1, timestamp, buffer);
+            timestamp += 1000;
+        }
+        block = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+        block.copyFrom(buffer, 0, buffer.getWriteSequence());
+        encoded = new byte[SampleBlock.DEFAULT_CAPACITY * VarInt.MAX_LONG_BYTES
+                * (SampleRingBuffer.LONG_COLUMN_COUNT + SampleRingBuffer.INT_COLUMN_COUNT)];
+        
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setSelectedOperators(Arrays.asList("Robi", "Airtel"));
+        file = File.createTempFile("session", Constants.SESSION_FILE_EXTENSION);
+        SessionLogWriter writer = new SessionLogWriter(file, formData, timestamp);
+        writer.append(buffer, 0, buffer.getWriteSequence());
+        writer.close();
+        reader = new SessionLogReader(file);
+        decoded = new SampleBlock(SampleBlock.DEFAULT_CAPACITY);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        file.delete();
+    }
+    
+    @Benchmark
+    public int encodeBlock() {
+        return SessionLogWriter.encodeSampleBlock(block, encoded, 0);
+    }
+    
+    @Benchmark
+    public int decodeBlock() {
+        reader.readBlock(0, decoded);
+        return decoded.getRowCount();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.mobilefieldtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filter and aggregate queries over the session catalog
+ * The catalog holds a year of synthetic sessions: a few operators and build
+ * types (bitmap indexes) and a few hundred employees and test areas (row
+ * lists). Queries cover the last quarter, so the time range cuts the
+ * bitmaps before the field filters do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionQueryBenchmark {
+    
+    private static final String[] OPERATORS = {"Telekom", "Vodafone", "O2", "1&1"};
+    private static final String[] BUILD_TYPES = {"user", "userdebug", "eng"};
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    
+    @Param({"50000"})
+    public int sessionCount;
+    
+    private SessionIndex index;
+    private long from;
+    private long to;
+    
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new SessionIndex();
+        long start = 1_700_000_000_000L;
+        for (int i = 0; i < sessionCount; i++) {
+            FormData formData = new FormData();
+            formData.setEmployeeId("E" + (1_000_000 + random.nextInt(300)));
+            formData.setModel("Model " + random.nextInt(40));
+            formData.setBuildVersion("1." + random.nextInt(20) + "." + random.nextInt(10));
+            formData.setBuildType(BUILD_TYPES[random.nextInt(BUILD_TYPES.length)]);
+            formData.setTestArea("Area " + random.nextInt(500));
+            List<String> operators = new ArrayList<>();
+            for (String operator : OPERATORS) {
+                if (random.nextBoolean()) {
+                    operators.add(operator);
+                }
+            }
+            formData.setSelectedOperators(operators);
+            long time = start + (long) i * YEAR_MILLIS / sessionCount;
+            index.addRow(time, formData, 1000 + random.nextInt(100_000), random.nextInt(50),
+                    random.nextInt(2000), 1 << 20);
+        }
+        index.buildIndexes();
+        to = start + YEAR_MILLIS;
+        from = to - YEAR_MILLIS / 4;
+    }
+    
+    @Benchmark
+    public int countByOperatorAndBuildType() {
+        return index.query(new SessionQuery()
+                .between(from, to)
+                .where(SessionIndex.FIELD_OPERATOR, "Vodafone")
+                .where(SessionIndex.FIELD_BUILD_TYPE, "userdebug")).getCount();
+    }
+    
+    @Benchmark
+    public long sumRowsByTestArea() {
+        return index.query(new SessionQuery()
+                .between(from, to)
+                .where(SessionIndex.FIELD_TEST_AREA, "Area 17")
+                .where(SessionIndex.FIELD_TEST_AREA, "Area 42")).sum(SessionIndex.MEASURE_ROWS);
+    }
+    
+    @Benchmark
+    public long[] sessionsPerOperator() {
+        return index.query(new SessionQuery()
+                .between(from, to)
+                .where(SessionIndex.FIELD_BUILD_TYPE, "user")).sumBy(SessionIndex.FIELD_OPERATOR,
+                SessionIndex.MEASURE_SESSIONS);
+    }
+    
+    @Benchmark
+    public long[] rowsPerEmployee() {
+        return index.query(new SessionQuery()
+                .between(from, to)).sumBy(SessionIndex.FIELD_EMPLOYEE_ID, SessionIndex.MEASURE_ROWS);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.mobilefieldtest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput test engine against LocalThroughputServer over loopback
+ * Loopback is far faster than any radio link, so the reported rate is the
+ * engine's own ceiling. Each invocation is one full test; the mean rate is
+ * reported in the mbps counter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ThroughputBenchmark {
+    
+    @Param({"download", "upload"})
+    public String direction;
+    
+    @Param({"1", "4"})
+    public int streams;
+    
+    private LocalThroughputServer server;
+    private DirectBufferPool bufferPool;
+    
+    /**
+     * Mean rate of the last test
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Rate {
+        public double mbps;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            mbps = 0;
+        }
+    }
+    
+    @Setup
+    public void setUp() throws IOException {
+        server = new LocalThroughputServer();
+        bufferPool = new DirectBufferPool(64 * 1024, 8);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+    
+    @Benchmark
+    public ThroughputTest.Result runTest(Rate rate) throws Exception {
+        ThroughputTest test = new ThroughputTest(server.getAddress(),
+                "download".equals(direction) ? ThroughputTest.DIRECTION_DOWNLOAD : ThroughputTest.DIRECTION_UPLOAD,
+                streams, bufferPool);
+        test.setMaxDurationMillis(5_000);
+        ThroughputTest.Result result = test.run();
+        rate.mbps = result.getMeanBitsPerSecond() / 1_000_000.0;
+        return result;
+    }
+}
\ No newline at end of file
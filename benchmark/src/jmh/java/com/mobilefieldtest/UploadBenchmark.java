@@ -0,0 +1,100 @@
+package com.mobilefieldtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * End-to-end upload of a six-hour dual-SIM session to LocalIngestServer
+ * The server adds a fixed per-request delay to stand in for uplink latency;
+ * the uploaded session is checked byte for byte after the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UploadBenchmark {
+    
+    @Param({"1", "3"})
+    public int concurrency;
+    
+    @Param({"50"})
+    public long delayMillis;
+    
+    private File sessionFile;
+    private File stateFile;
+    private String sessionId;
+    private LocalIngestServer server;
+    private SessionUploader uploader;
+    
+    @Setup
+    public void setUp() throws IOException {
+        FormData formData = new FormData();
+        formData.setEmployeeId("EMP001");
+        formData.setModel("Pixel 7");
+        formData.setBuildVersion("1.2.3");
+        formData.setTestArea("Dhaka");
+        formData.setSelectedOperators(Arrays.asList("Robi", "Airtel"));
+        long startTime = 1_700_000_000_000L;
+        sessionId = formData.getSessionId(startTime);
+        
+        sessionFile = File.createTempFile("session", Constants.SESSION_FILE_EXTENSION);
+        stateFile = new File(sessionFile.getPath() + SessionUploader.STATE_EXTENSION);
+        SessionLogWriter writer = new SessionLogWriter(sessionFile, formData, startTime);
+        SyntheticRadioSource source = new SyntheticRadioSource(8, 42L);
+        SampleRingBuffer buffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+        for (long second = 0; second < 6 * 3600; second++) {
+            long from = buffer.getWriteSequence();
+            source.sample(1, startTime + second * 1000, buffer);
+            source.sample(2, startTime + second * 1000, buffer);
+            writer.append(buffer, from, buffer.getWriteSequence());
+        }
+        writer.close();
+        
+        server = new LocalIngestServer(delayMillis, 0);
+        uploader = new SessionUploader(new HttpUploadTransport(server.getBaseUrl()),
+                SessionUploader.DEFAULT_CHUNK_SIZE, concurrency);
+    }
+    
+    @Setup(Level.Invocation)
+    public void resetUpload() {
+        stateFile.delete();
+        server.reset();
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        byte[] expected = new byte[(int) sessionFile.length()];
+        RandomAccessFile raf = new RandomAccessFile(sessionFile, "r");
+        try {
+            raf.readFully(expected);
+        } finally {
+            raf.close();
+        }
+        boolean intact = Arrays.equals(expected, server.getSession(sessionId));
+        
+        uploader.shutdown();
+        server.stop();
+        stateFile.delete();
+        sessionFile.delete();
+        if (!intact) {
+            throw new IllegalStateException("Uploaded session does not match the file");
+        }
+    }
+    
+    @Benchmark
+    public boolean uploadSession() throws Exception {
+        return uploader.upload(sessionFile);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.mobilefieldtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Validation cost per field check
+ * The legacy benchmark reproduces the old trim + Pattern.matches path for comparison
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValidationBenchmark {
+    
+    private final ValidationRules rules = new ValidationRules();
+    
+    // StringBuilder stands in for the EditText's Editable
+    private final CharSequence employeeId = new StringBuilder("  EMP12345 ");
+    private final CharSequence model = new StringBuilder("Pixel 8 Pro");
+    private final CharSequence buildVersion = new StringBuilder("14.0.2");
+    private final CharSequence invalidBuildVersion = new StringBuilder("14.0.");
+    
+    @Benchmark
+    public int employeeId() {
+        return rules.check(ValidationRules.FIELD_EMPLOYEE_ID, employeeId);
+    }
+    
+    @Benchmark
+    public int model() {
+        return rules.check(ValidationRules.FIELD_MODEL, model);
+    }
+    
+    @Benchmark
+    public int buildVersion() {
+        return rules.check(ValidationRules.FIELD_BUILD_VERSION, buildVersion);
+    }
+    
+    @Benchmark
+    public int invalidBuildVersion() {
+        return rules.check(ValidationRules.FIELD_BUILD_VERSION, invalidBuildVersion);
+    }
+    
+    @Benchmark
+    public int allFields() {
+        return rules.check(ValidationRules.FIELD_EMPLOYEE_ID, employeeId)
+             | rules.check(ValidationRules.FIELD_MODEL, model)
+             | rules.check(ValidationRules.FIELD_BUILD_VERSION, buildVersion);
+    }
+    
+    @Benchmark
+    public boolean legacyEmployeeId() {
+        String input = employeeId.toString().trim();
+        return Pattern.matches(Constants.EMPLOYEE_ID_PATTERN, input);
+    }
+}
\ No newline at end of file